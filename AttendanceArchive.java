@@ -0,0 +1,384 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Cold tier for attendance of closed years. Each archived year is one
+// immutable segment file, attendance.<year>.seg:
+//
+//   blocks   per employee, deflated [day of year:short][present << 7 | hours:byte]*
+//   index    [id:int][offset:int][length:int][records:short] per employee, by id
+//   trailer  magic, version, year, employee count, index offset
+//
+// so a lookup maps the one segment, binary-searches its index and
+// inflates a single block. attendance.index holds the year archived
+// through and every employee's record, present and absent counts over all
+// segments, so employees loaded from the store know their totals without
+// opening any segment.
+//
+// An archive run writes the new segments and then replaces the index;
+// the index is the commit point, and segments beyond the year it names
+// are ignored (and rewritten by the next run). Archived years are read
+// only: PayrollSystem refuses attendance for them.
+class AttendanceArchive {
+    static final int MAGIC = 0x50415941; // "PAYA"
+    static final short VERSION = 1;
+    static final int NONE = Integer.MIN_VALUE; // archivedThrough before the first run
+
+    private static final String INDEX_FILE = "attendance.index";
+    private static final int TRAILER_SIZE = 4 + 2 + 2 + 4 + 4 + 4;
+    private static final int ENTRY_SIZE = 4 + 4 + 4 + 2;
+
+    private final Path directory;
+    private volatile int archivedThrough = NONE;
+    private int firstYear = NONE;
+    private int[] totalsIds = new int[0];
+    private int[][] totals = new int[0][]; // records, present, absent per employee, by totalsIds
+    private final Map<Integer, Segment> segments = new HashMap<>();
+
+    AttendanceArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    // Reads the index; an archive that was never written is empty
+    public synchronized void open() throws IOException {
+        Path index = directory.resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an attendance archive index");
+            }
+            short version = in.readShort();
+            if (version > VERSION) {
+                throw new IOException("Attendance archive version " + version + " is newer than supported " + VERSION);
+            }
+            in.readShort();
+            int first = in.readInt();
+            int through = in.readInt();
+            int count = in.readInt();
+            int[] ids = new int[count];
+            int[][] counts = new int[count][];
+            for (int i = 0; i < count; i++) {
+                ids[i] = in.readInt();
+                counts[i] = new int[] {in.readInt(), in.readInt(), in.readInt()};
+            }
+            firstYear = first;
+            totalsIds = ids;
+            totals = counts;
+            archivedThrough = through;
+        }
+    }
+
+    public int getArchivedThrough() { return archivedThrough; }
+    public synchronized int getFirstYear() { return firstYear; }
+
+    public boolean isArchived(int year) {
+        return year <= archivedThrough;
+    }
+
+    // Records, present and absent days the employee has in the archive,
+    // or null if none
+    public synchronized int[] getTotals(int id) {
+        int at = Arrays.binarySearch(totalsIds, id);
+        return at < 0 ? null : totals[at].clone();
+    }
+
+    // Calls back with the employee's archived records of the year, in
+    // date order; nothing if the year is not archived
+    public void read(int id, int year, AttendanceLedger.RecordSink sink) {
+        if (!isArchived(year)) {
+            return;
+        }
+        Segment segment;
+        try {
+            segment = segment(year);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (segment != null) {
+            segment.read(id, sink);
+        }
+    }
+
+    // Attendance of one employee as the ledger sees it: archived years from
+    // the segments and everything later from the given source (the store),
+    // which may be null. Store records for archived years are leftovers of
+    // a run that stopped before its snapshot, and are ignored.
+    AttendanceLedger.Source sourceFor(int id, AttendanceLedger.Source store) {
+        if (store instanceof TieredSource) {
+            store = ((TieredSource) store).store; // from an earlier run
+        }
+        return new TieredSource(id, store);
+    }
+
+    private class TieredSource implements AttendanceLedger.Source {
+        final int id;
+        final AttendanceLedger.Source store;
+
+        TieredSource(int id, AttendanceLedger.Source store) {
+            this.id = id;
+            this.store = store;
+        }
+
+        @Override
+        public int firstYear() {
+            int first = getFirstYear();
+            return store == null || first == NONE ? (store == null ? first : store.firstYear())
+                    : Math.min(first, store.firstYear());
+        }
+
+        @Override
+        public int lastYear() {
+            return store == null ? archivedThrough : Math.max(archivedThrough, store.lastYear());
+        }
+
+        @Override
+        public void read(int year, AttendanceLedger.RecordSink sink) {
+            if (isArchived(year)) {
+                AttendanceArchive.this.read(id, year, sink);
+            } else if (store != null) {
+                store.read(year, sink);
+            }
+        }
+    }
+
+    private synchronized Segment segment(int year) throws IOException {
+        Segment segment = segments.get(year);
+        if (segment == null) {
+            Path file = segmentFile(year);
+            if (!Files.exists(file)) {
+                return null;
+            }
+            segment = new Segment(file);
+            segments.put(year, segment);
+        }
+        return segment;
+    }
+
+    private Path segmentFile(int year) {
+        return directory.resolve("attendance." + year + ".seg");
+    }
+
+    // Starts the segment of one year; employees must be added in id order
+    SegmentWriter newSegment(int year) throws IOException {
+        return new SegmentWriter(year);
+    }
+
+    // Makes the segments written so far part of the archive; employeeTotals
+    // are every employee's counts over all archived years and replace the
+    // old ones
+    public synchronized void commit(int through, int first, SortedMap<Integer, int[]> employeeTotals) throws IOException {
+        Path index = directory.resolve(INDEX_FILE);
+        Path temp = index.resolveSibling(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(first);
+            out.writeInt(through);
+            out.writeInt(employeeTotals.size());
+            for (Map.Entry<Integer, int[]> entry : employeeTotals.entrySet()) {
+                out.writeInt(entry.getKey());
+                for (int count : entry.getValue()) {
+                    out.writeInt(count);
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        int[] ids = new int[employeeTotals.size()];
+        int[][] counts = new int[ids.length][];
+        int i = 0;
+        for (Map.Entry<Integer, int[]> entry : employeeTotals.entrySet()) {
+            ids[i] = entry.getKey();
+            counts[i++] = entry.getValue();
+        }
+        totalsIds = ids;
+        totals = counts;
+        firstYear = first;
+        archivedThrough = through;
+    }
+
+    // Writes one year's segment to a temporary file and renames it into
+    // place on finish
+    class SegmentWriter implements Closeable {
+        private final int year;
+        private final Path temp;
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final ByteArrayOutputStream raw = new ByteArrayOutputStream(1024);
+        private byte[] compressed = new byte[1024];
+        private int[] ids = new int[1024];
+        private int[] offsets = new int[1024];
+        private int[] lengths = new int[1024];
+        private short[] records = new short[1024];
+        private int count;
+        private int offset;
+
+        SegmentWriter(int year) throws IOException {
+            this.year = year;
+            this.temp = segmentFile(year).resolveSibling("attendance." + year + ".seg.tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16));
+        }
+
+        public void add(int id, List<AttendanceRecord> attendance) throws IOException {
+            if (attendance.isEmpty()) {
+                return;
+            }
+            if (count > 0 && id <= ids[count - 1]) {
+                throw new IllegalArgumentException("Employees must be added in id order");
+            }
+            raw.reset();
+            for (AttendanceRecord record : attendance) {
+                if (record.getHoursWorked() < 0 || record.getHoursWorked() > 0x7F) {
+                    throw new IOException("Cannot archive " + record.getHoursWorked()
+                                                       + " hours for employee " + id + " on " + record.getDate());
+                }
+                int day = record.getDate().getDayOfYear() - 1;
+                raw.write(day >>> 8);
+                raw.write(day);
+                raw.write((record.isPresent() ? 0x80 : 0) | (record.getHoursWorked() & 0x7F));
+            }
+            deflater.reset();
+            deflater.setInput(raw.toByteArray());
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            out.write(compressed, 0, length);
+
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+                records = Arrays.copyOf(records, count * 2);
+            }
+            ids[count] = id;
+            offsets[count] = offset;
+            lengths[count] = length;
+            records[count] = (short) attendance.size();
+            count++;
+            offset += length;
+        }
+
+        // Appends the index and trailer and moves the segment into place
+        public void finish() throws IOException {
+            int indexOffset = offset;
+            for (int i = 0; i < count; i++) {
+                out.writeInt(ids[i]);
+                out.writeInt(offsets[i]);
+                out.writeInt(lengths[i]);
+                out.writeShort(records[i]);
+            }
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(year);
+            out.writeInt(count);
+            out.writeInt(indexOffset);
+            out.close();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, segmentFile(year), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (AttendanceArchive.this) {
+                segments.remove(year);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // One mapped segment; reads use absolute positions only, so threads
+    // can share it
+    private static class Segment {
+        private final MappedByteBuffer buf;
+        private final int year;
+        private final int count;
+        private final int indexOffset;
+
+        Segment(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < TRAILER_SIZE) {
+                    throw new IOException("Attendance segment " + file + " is truncated");
+                }
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                int trailer = (int) size - TRAILER_SIZE;
+                if (buf.getInt(trailer) != MAGIC) {
+                    throw new IOException("Not an attendance segment: " + file);
+                }
+                year = buf.getInt(trailer + 8);
+                count = buf.getInt(trailer + 12);
+                indexOffset = buf.getInt(trailer + 16);
+            }
+        }
+
+        void read(int id, AttendanceLedger.RecordSink sink) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int at = indexOffset + mid * ENTRY_SIZE;
+                int midId = buf.getInt(at);
+                if (midId < id) {
+                    low = mid + 1;
+                } else if (midId > id) {
+                    high = mid - 1;
+                } else {
+                    decode(buf.getInt(at + 4), buf.getInt(at + 8), buf.getShort(at + 12), sink);
+                    return;
+                }
+            }
+        }
+
+        private void decode(int offset, int length, int records, AttendanceLedger.RecordSink sink) {
+            byte[] compressed = new byte[length];
+            buf.get(offset, compressed);
+            byte[] raw = new byte[records * 3];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                int n = 0;
+                while (n < raw.length) {
+                    int read = inflater.inflate(raw, n, raw.length - n);
+                    // A block that ends early would otherwise spin here forever
+                    if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new UncheckedIOException(new IOException("Truncated attendance segment for " + year));
+                    }
+                    n += read;
+                }
+            } catch (DataFormatException e) {
+                throw new UncheckedIOException(new IOException("Corrupt attendance segment for " + year, e));
+            } finally {
+                inflater.end();
+            }
+            LocalDate jan1 = LocalDate.of(year, 1, 1);
+            for (int i = 0; i < raw.length; i += 3) {
+                int day = ((raw[i] & 0xFF) << 8) | (raw[i + 1] & 0xFF);
+                int flags = raw[i + 2] & 0xFF;
+                sink.record(jan1.plusDays(day), (flags & 0x80) != 0, flags & 0x7F);
+            }
+        }
+    }
+}
@@ -0,0 +1,357 @@
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Per-employee attendance keyed by date. Each calendar year keeps two
+// bitsets (marked / present) and a hours-per-day array, plus running
+// per-month counters that are adjusted on every write, so upserts and
+// monthly queries are O(1) regardless of how long the history is.
+//
+// A ledger read from the store starts with only its totals in memory. Each
+// year is a page that is read from the store the first time it is needed
+// and, once a HistoryCache is set, may be dropped again while unchanged.
+// A page that has been written to stays in memory, since the store no
+// longer has its contents. Pages are loaded and dropped under the owning
+// employee's stripe, like every other change to the ledger.
+//
+// Years handed over to an AttendanceArchive are read through the archive
+// the same way and are never written again.
+class AttendanceLedger implements Serializable {
+    private static final long serialVersionUID = 8923984773807612824L;
+
+    // Attendance kept outside the ledger, e.g. in the store file
+    interface Source {
+        int firstYear();
+        int lastYear();
+        // Calls back with the stored records of the year, in date order
+        void read(int year, RecordSink sink);
+    }
+
+    interface RecordSink {
+        void record(LocalDate date, boolean present, int hoursWorked);
+    }
+
+    // Approximate heap taken by one loaded YearAttendance
+    static final long PAGE_BYTES = 1100;
+
+    private YearAttendance[] years = new YearAttendance[0];
+    private int firstYear;
+    private int presentDays;
+    private int absentDays;
+    private int recordCount;
+    private transient Source stored; // years not in memory, or null
+    private transient HistoryCache cache;
+    private transient ReentrantLock lock;
+
+    public AttendanceLedger() {
+    }
+
+    // A ledger whose records stay in the source until a year is needed;
+    // the totals are the source's, so they are known without reading it
+    AttendanceLedger(Source stored, int recordCount, int presentDays, int absentDays) {
+        this.stored = stored;
+        this.recordCount = recordCount;
+        this.presentDays = presentDays;
+        this.absentDays = absentDays;
+    }
+
+    // Lets the cache drop unchanged pages; lock is the owner's stripe,
+    // which the cache must hold to drop one. A null cache keeps every page
+    // loaded from now on.
+    void setCache(HistoryCache cache, ReentrantLock lock) {
+        if (this.cache != null) {
+            for (YearAttendance year : years) {
+                if (year != null) {
+                    this.cache.release(year);
+                }
+            }
+        }
+        this.cache = cache;
+        this.lock = lock;
+        if (this.cache != null) {
+            for (YearAttendance year : years) {
+                if (year != null && !year.dirty) {
+                    this.cache.admit(year, PAGE_BYTES);
+                }
+            }
+        }
+    }
+
+    // Inserts or replaces the record for the given date
+    public void mark(LocalDate date, boolean present, int hoursWorked) {
+        YearAttendance year = yearFor(date.getYear(), true);
+        if (!year.dirty) {
+            year.dirty = true; // the stored copy is out of date from here on
+            if (cache != null) {
+                cache.release(year);
+            }
+        }
+        int day = date.getDayOfYear() - 1;
+        int month = date.getMonthValue() - 1;
+
+        if (year.isMarked(day)) {
+            if (year.isPresent(day)) {
+                presentDays--;
+            } else {
+                absentDays--;
+            }
+        } else {
+            recordCount++;
+        }
+        year.put(day, month, present, hoursWorked);
+        if (present) {
+            presentDays++;
+        } else {
+            absentDays++;
+        }
+    }
+
+    public int getPresentDays() { return presentDays; }
+    public int getAbsentDays() { return absentDays; }
+    public int size() { return recordCount; }
+
+    // Hours are only counted for days marked present
+    public int getHoursInMonth(int month, int year) {
+        YearAttendance y = yearFor(year, false);
+        return y == null || month < 1 || month > 12 ? 0 : y.hoursInMonth[month - 1];
+    }
+
+    public int getPresentDaysInMonth(int month, int year) {
+        YearAttendance y = yearFor(year, false);
+        return y == null || month < 1 || month > 12 ? 0 : y.presentInMonth[month - 1];
+    }
+
+    public int getAbsentDaysInMonth(int month, int year) {
+        YearAttendance y = yearFor(year, false);
+        return y == null || month < 1 || month > 12 ? 0 : y.absentInMonth[month - 1];
+    }
+
+    // Returns null if no attendance was marked for the date
+    public AttendanceRecord get(LocalDate date) {
+        YearAttendance year = yearFor(date.getYear(), false);
+        int day = date.getDayOfYear() - 1;
+        if (year == null || !year.isMarked(day)) {
+            return null;
+        }
+        return new AttendanceRecord(date, year.isPresent(day), year.hours[day]);
+    }
+
+    // Materializes the history as records in date order. Years that are
+    // not loaded are copied straight from the source without being cached,
+    // so a full pass (e.g. a snapshot) does not flush the cache.
+    public List<AttendanceRecord> toRecords() {
+        return toRecords(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    // The records of the years from fromYear to toYear inclusive
+    public List<AttendanceRecord> toRecords(int fromYear, int toYear) {
+        List<AttendanceRecord> records = new ArrayList<>(fromYear == Integer.MIN_VALUE ? recordCount : 16);
+        int from = years.length > 0 ? firstYear : Integer.MAX_VALUE;
+        int to = years.length > 0 ? firstYear + years.length - 1 : Integer.MIN_VALUE;
+        if (stored != null && recordCount > 0) {
+            from = Math.min(from, stored.firstYear());
+            to = Math.max(to, stored.lastYear());
+        }
+        from = Math.max(from, fromYear);
+        to = Math.min(to, toYear);
+        for (int y = from; y <= to; y++) {
+            int index = y - firstYear;
+            YearAttendance year = index >= 0 && index < years.length ? years[index] : null;
+            if (year != null) {
+                LocalDate jan1 = LocalDate.of(y, 1, 1);
+                for (int w = 0; w < year.marked.length; w++) {
+                    long bits = year.marked[w];
+                    while (bits != 0) {
+                        int day = w * 64 + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        records.add(new AttendanceRecord(jan1.plusDays(day), year.isPresent(day), year.hours[day]));
+                    }
+                }
+            } else if (stored != null) {
+                stored.read(y, (date, present, hours) -> records.add(new AttendanceRecord(date, present, hours)));
+            }
+        }
+        return records;
+    }
+
+    // Earliest year with attendance, or Integer.MAX_VALUE if there is none
+    public int getFirstYear() {
+        int first = Integer.MAX_VALUE;
+        for (int i = 0; i < years.length; i++) {
+            if (years[i] != null) {
+                first = firstYear + i;
+                break;
+            }
+        }
+        return stored != null && recordCount > 0 ? Math.min(first, stored.firstYear()) : first;
+    }
+
+    // After an archive run: the employee's years up to the archive's
+    // latest are read from its segments from now on. Their pages are
+    // dropped; the totals do not change.
+    void archived(AttendanceArchive archive, int id) {
+        int through = archive.getArchivedThrough();
+        for (int i = 0; i < years.length; i++) {
+            YearAttendance year = years[i];
+            if (year != null && firstYear + i <= through) {
+                if (cache != null) {
+                    cache.release(year);
+                }
+                years[i] = null;
+            }
+        }
+        stored = archive.sourceFor(id, stored);
+    }
+
+    // On load, for a ledger read from the store: adds the archived counts
+    // to the totals. Store records of archived years are left over from a
+    // run that stopped before its snapshot; the archive has them too, so
+    // they are taken out of the totals.
+    void attachArchive(AttendanceArchive archive, int id) {
+        int through = archive.getArchivedThrough();
+        int[] archivedTotals = archive.getTotals(id);
+        if (stored != null && recordCount > 0 && stored.firstYear() <= through) {
+            for (int y = stored.firstYear(); y <= Math.min(through, stored.lastYear()); y++) {
+                stored.read(y, (date, present, hours) -> {
+                    recordCount--;
+                    if (present) {
+                        presentDays--;
+                    } else {
+                        absentDays--;
+                    }
+                });
+            }
+        }
+        if (archivedTotals != null) {
+            recordCount += archivedTotals[0];
+            presentDays += archivedTotals[1];
+            absentDays += archivedTotals[2];
+        }
+        stored = archive.sourceFor(id, stored);
+    }
+
+    private YearAttendance yearFor(int year, boolean create) {
+        int index = year - firstYear;
+        if (index >= 0 && index < years.length && years[index] != null) {
+            YearAttendance loaded = years[index];
+            if (cache != null && !loaded.dirty) {
+                cache.touch(loaded);
+            }
+            return loaded;
+        }
+        YearAttendance page = stored == null ? null : load(year);
+        if (page == null && !create) {
+            return null;
+        }
+        if (years.length == 0) {
+            firstYear = year;
+            years = new YearAttendance[1];
+            index = 0;
+        } else if (index < 0) {
+            YearAttendance[] grown = new YearAttendance[years.length - index];
+            System.arraycopy(years, 0, grown, -index, years.length);
+            years = grown;
+            firstYear = year;
+            index = 0;
+        } else if (index >= years.length) {
+            years = Arrays.copyOf(years, index + 1);
+        }
+        boolean loaded = page != null;
+        if (!loaded) {
+            page = new YearAttendance();
+            page.dirty = true; // only ever in memory
+        }
+        page.ledger = this;
+        page.year = year;
+        years[index] = page;
+        if (loaded && cache != null) {
+            cache.admit(page, PAGE_BYTES);
+        }
+        return page;
+    }
+
+    // The stored records of one year as a page, or null if there are none
+    private YearAttendance load(int year) {
+        if (recordCount == 0 || year < stored.firstYear() || year > stored.lastYear()) {
+            return null;
+        }
+        YearAttendance page = new YearAttendance();
+        boolean[] any = new boolean[1];
+        stored.read(year, (date, present, hours) -> {
+            page.put(date.getDayOfYear() - 1, date.getMonthValue() - 1, present, hours);
+            any[0] = true;
+        });
+        return any[0] ? page : null;
+    }
+
+    // Called by the cache; keeps the page if its owner is busy or it has
+    // been written to since it was loaded
+    private boolean drop(YearAttendance page) {
+        if (lock == null || !lock.tryLock()) {
+            return false;
+        }
+        try {
+            int index = page.year - firstYear;
+            if (page.dirty || index < 0 || index >= years.length || years[index] != page) {
+                return false;
+            }
+            years[index] = null;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // One calendar year of attendance, indexed by day of year (0-365)
+    private static class YearAttendance implements Serializable, HistoryCache.Page {
+        private static final long serialVersionUID = -3144304980784138791L;
+        final long[] marked = new long[6];
+        final long[] present = new long[6];
+        final short[] hours = new short[366]; // a day never exceeds 24 hours
+        final int[] hoursInMonth = new int[12];
+        final short[] presentInMonth = new short[12];
+        final short[] absentInMonth = new short[12];
+        private transient AttendanceLedger ledger;
+        private transient int year;
+        private transient boolean dirty; // changed since it was read from the store
+
+        @Override
+        public boolean evict() {
+            return ledger != null && ledger.drop(this);
+        }
+
+        boolean isMarked(int day) {
+            return (marked[day >>> 6] & (1L << day)) != 0;
+        }
+
+        boolean isPresent(int day) {
+            return (present[day >>> 6] & (1L << day)) != 0;
+        }
+
+        // Inserts or replaces one day, keeping the month counters in step
+        void put(int day, int month, boolean isPresent, int hoursWorked) {
+            if (isMarked(day)) {
+                if (isPresent(day)) {
+                    presentInMonth[month]--;
+                    hoursInMonth[month] -= hours[day];
+                } else {
+                    absentInMonth[month]--;
+                }
+            } else {
+                marked[day >>> 6] |= 1L << day;
+            }
+            if (isPresent) {
+                present[day >>> 6] |= 1L << day;
+                presentInMonth[month]++;
+                hoursInMonth[month] += hoursWorked;
+            } else {
+                present[day >>> 6] &= ~(1L << day);
+                absentInMonth[month]++;
+            }
+            hours[day] = (short) hoursWorked;
+        }
+    }
+}
@@ -0,0 +1,527 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+// Streaming importer for HR exports (new hires) and time-clock feeds
+// (attendance punches) in CSV or JSON Lines format. Rows are parsed one at
+// a time and applied in batches, each batch under a single journal commit,
+// so memory stays constant however large the file is. Rejected rows are
+// written with their line number and reason to <input>.rejected.txt.
+//
+// Employee columns: type (full-time, part-time, contractor, manager), id,
+// name, email, phone, hireDate, department, position, address, bankAccount,
+// then salary + overtimeRate (full-time, manager), allowance (manager),
+// hourlyRate (part-time), contractAmount + contractDuration (contractor).
+// Attendance columns: id, date, present, hours.
+class BulkImporter {
+    enum Kind { EMPLOYEES, ATTENDANCE }
+
+    private static final int BATCH_SIZE = 5000;
+
+    // Summary of one import
+    static class Report {
+        int accepted;
+        int rejected;
+        long elapsedNanos;
+        Path rejectFile;
+
+        @Override
+        public String toString() {
+            String summary = accepted + " rows imported, " + rejected + " rejected in " +
+                             String.format("%.1f", elapsedNanos / 1e6) + " ms";
+            return rejected > 0 ? summary + " (see " + rejectFile + ")" : summary;
+        }
+    }
+
+    private final PayrollSystem payrollSystem;
+
+    public BulkImporter(PayrollSystem payrollSystem) {
+        this.payrollSystem = payrollSystem;
+    }
+
+    public Report importFile(Path input, Kind kind) throws IOException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        report.rejectFile = input.resolveSibling(input.getFileName() + ".rejected.txt");
+        boolean jsonLines = input.getFileName().toString().toLowerCase().endsWith(".jsonl");
+
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             RejectLog rejects = new RejectLog(report.rejectFile)) {
+            RowReader rows = jsonLines ? new JsonLinesReader(reader) : new CsvReader(reader);
+            Batch batch = kind == Kind.EMPLOYEES ? new HireBatch() : new PunchBatch();
+            while (rows.next()) {
+                try {
+                    batch.add(rows);
+                } catch (RuntimeException e) {
+                    rejects.reject(rows.lineNumber(), e.getMessage());
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    batch.apply(rejects);
+                }
+            }
+            batch.apply(rejects);
+            report.accepted = batch.accepted;
+            report.rejected = rejects.count;
+        }
+        if (report.rejected == 0) {
+            Files.deleteIfExists(report.rejectFile);
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    // Rows waiting to be applied, together with their line numbers
+    private abstract static class Batch {
+        int[] lines = new int[BATCH_SIZE];
+        int count;
+        int accepted;
+
+        int size() { return count; }
+
+        abstract void add(RowReader row);
+        abstract void apply(RejectLog rejects) throws IOException;
+    }
+
+    private class HireBatch extends Batch {
+        private final List<Employee> hires = new ArrayList<>(BATCH_SIZE);
+
+        @Override
+        void add(RowReader row) {
+            hires.add(parseEmployee(row));
+            lines[count++] = row.lineNumber();
+        }
+
+        @Override
+        void apply(RejectLog rejects) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            boolean[] added = payrollSystem.addEmployees(hires);
+            for (int i = 0; i < count; i++) {
+                if (added[i]) {
+                    accepted++;
+                } else {
+                    rejects.reject(lines[i], "Employee ID " + hires.get(i).getId() + " already exists");
+                }
+            }
+            hires.clear();
+            count = 0;
+        }
+    }
+
+    private class PunchBatch extends Batch {
+        private final int[] ids = new int[BATCH_SIZE];
+        private final AttendanceRecord[] records = new AttendanceRecord[BATCH_SIZE];
+
+        @Override
+        void add(RowReader row) {
+            int id = parseInt(row, "id");
+            LocalDate date = parseDate(row, "date");
+            boolean present = parseBoolean(row, "present");
+            String hoursText = row.get("hours");
+            int hours = hoursText == null || hoursText.isEmpty() ? (present ? 8 : 0) : parseInt(row, "hours");
+            if (hours < 0 || hours > 24) {
+                throw new IllegalArgumentException("hours must be between 0 and 24");
+            }
+            ids[count] = id;
+            records[count] = new AttendanceRecord(date, present, present ? hours : 0);
+            lines[count++] = row.lineNumber();
+        }
+
+        @Override
+        void apply(RejectLog rejects) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            boolean[] applied = payrollSystem.markAttendance(ids, records, count);
+            for (int i = 0; i < count; i++) {
+                if (applied[i]) {
+                    accepted++;
+                } else if (payrollSystem.isAttendanceArchived(records[i].getDate())) {
+                    rejects.reject(lines[i], "Attendance for " + records[i].getDate().getYear() + " is archived");
+                } else {
+                    rejects.reject(lines[i], "Employee ID " + ids[i] + " not found");
+                }
+            }
+            Arrays.fill(records, 0, count, null);
+            count = 0;
+        }
+    }
+
+    static Employee parseEmployee(RowReader row) {
+        String type = required(row, "type").toLowerCase().replace("-", "").replace("_", "").replace(" ", "");
+        int id = parseInt(row, "id");
+        String name = required(row, "name");
+        String email = row.get("email");
+        String phone = row.get("phone");
+        LocalDate hireDate = parseDate(row, "hireDate");
+        String department = row.get("department");
+        String position = row.get("position");
+        String address = row.get("address");
+        String bankAccount = row.get("bankAccount");
+
+        switch (type) {
+            case "fulltime":
+                return new FullTimeEmployee(id, name, email, phone, hireDate, department, position,
+                        address, bankAccount, parseDouble(row, "salary"), parseDouble(row, "overtimeRate"));
+            case "parttime":
+                return new PartTimeEmployee(id, name, email, phone, hireDate, department, position,
+                        address, bankAccount, parseDouble(row, "hourlyRate"));
+            case "contractor": {
+                int duration = parseInt(row, "contractDuration");
+                if (duration <= 0) {
+                    throw new IllegalArgumentException("contractDuration must be positive");
+                }
+                return new Contractor(id, name, email, phone, hireDate, department, position,
+                        address, bankAccount, parseDouble(row, "contractAmount"), duration);
+            }
+            case "manager":
+                return new Manager(id, name, email, phone, hireDate, department, position,
+                        address, bankAccount, parseDouble(row, "salary"), parseDouble(row, "overtimeRate"),
+                        parseDouble(row, "allowance"));
+            default:
+                throw new IllegalArgumentException("Unknown employee type: " + row.get("type"));
+        }
+    }
+
+    static String required(RowReader row, String column) {
+        String value = row.get(column);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing " + column);
+        }
+        return value;
+    }
+
+    static int parseInt(RowReader row, String column) {
+        String value = required(row, column);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + column + ": " + value);
+        }
+    }
+
+    static long parseLong(RowReader row, String column) {
+        String value = required(row, column);
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + column + ": " + value);
+        }
+    }
+
+    static double parseDouble(RowReader row, String column) {
+        String value = required(row, column);
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + column + ": " + value);
+        }
+    }
+
+    static boolean parseBoolean(RowReader row, String column) {
+        String value = required(row, column).trim().toLowerCase();
+        switch (value) {
+            case "true": case "t": case "yes": case "y": case "1":
+                return true;
+            case "false": case "f": case "no": case "n": case "0":
+                return false;
+            default:
+                throw new IllegalArgumentException("Invalid " + column + ": " + value);
+        }
+    }
+
+    // Accepts YYYY-MM-DD and YYYY-M-D, like the interactive menu
+    static LocalDate parseDate(RowReader row, String column) {
+        String value = required(row, column).trim();
+        String[] parts = value.split("-");
+        try {
+            if (parts.length == 3 && parts[0].length() == 4) {
+                return LocalDate.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+            }
+        } catch (RuntimeException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid " + column + ": " + value);
+    }
+
+    // One parsed row at a time, with values looked up by column name
+    abstract static class RowReader {
+        private int lineNumber;
+
+        int lineNumber() { return lineNumber; }
+
+        // Advances to the next non-blank row; false at end of input
+        boolean next() throws IOException {
+            String line;
+            do {
+                line = readLine();
+                if (line == null) {
+                    return false;
+                }
+                lineNumber++;
+            } while (line.trim().isEmpty());
+            parse(line);
+            return true;
+        }
+
+        abstract String readLine() throws IOException;
+        abstract void parse(String line);
+        abstract String get(String column);
+    }
+
+    // CSV with a header row; fields may be quoted, with "" as an escaped quote
+    static class CsvReader extends RowReader {
+        private final BufferedReader reader;
+        private final Map<String, Integer> columns = new HashMap<>();
+        private final List<String> fields = new ArrayList<>();
+        private String parseError;
+
+        CsvReader(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            if (next()) {
+                for (int i = 0; i < fields.size(); i++) {
+                    columns.put(fields.get(i).trim(), i);
+                }
+            }
+        }
+
+        @Override
+        String readLine() throws IOException {
+            return reader.readLine();
+        }
+
+        @Override
+        void parse(String line) {
+            fields.clear();
+            parseError = null;
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (quoted) {
+                parseError = "Unterminated quoted field";
+            }
+            fields.add(field.toString());
+        }
+
+        @Override
+        String get(String column) {
+            if (parseError != null) {
+                throw new IllegalArgumentException(parseError);
+            }
+            Integer index = columns.get(column);
+            return index == null || index >= fields.size() ? null : fields.get(index);
+        }
+    }
+
+    // One flat JSON object per line; nested objects and arrays are rejected
+    static class JsonLinesReader extends RowReader {
+        private final BufferedReader reader;
+        private final Map<String, String> values = new HashMap<>();
+        private String parseError;
+
+        JsonLinesReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        String readLine() throws IOException {
+            return reader.readLine();
+        }
+
+        @Override
+        void parse(String line) {
+            values.clear();
+            parseError = null;
+            try {
+                new FlatJsonParser(line).parseInto(values);
+            } catch (IllegalArgumentException e) {
+                parseError = e.getMessage();
+            }
+        }
+
+        @Override
+        String get(String column) {
+            if (parseError != null) {
+                throw new IllegalArgumentException(parseError);
+            }
+            return values.get(column);
+        }
+    }
+
+    // Minimal parser for {"key": value, ...} with string, number, boolean
+    // and null values; every value is kept in its textual form
+    static class FlatJsonParser {
+        private final String text;
+        private int pos;
+
+        FlatJsonParser(String text) {
+            this.text = text;
+        }
+
+        void parseInto(Map<String, String> values) {
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    String key = parseString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    values.put(key, parseValue());
+                    skipWhitespace();
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw error("Expected ',' or '}'");
+                    }
+                }
+            }
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("Unexpected trailing content");
+            }
+        }
+
+        private String parseValue() {
+            char c = peek();
+            if (c == '"') {
+                return parseString();
+            }
+            if (c == '{' || c == '[') {
+                throw error("Nested values are not supported");
+            }
+            int start = pos;
+            while (pos < text.length() && ",} \t".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.isEmpty()) {
+                throw error("Missing value");
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char escape = next();
+                switch (escape) {
+                    case '"': case '\\': case '/': sb.append(escape); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Truncated \\u escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid \\u escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape \\" + escape);
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            if (pos >= text.length()) {
+                throw error("Unexpected end of line");
+            }
+            return text.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Malformed JSON at column " + (pos + 1) + ": " + message);
+        }
+    }
+
+    // Writes rejected rows as they occur; the file is only created on the first rejection
+    private static class RejectLog implements Closeable {
+        private final Path path;
+        private BufferedWriter writer;
+        int count;
+
+        RejectLog(Path path) {
+            this.path = path;
+        }
+
+        void reject(int line, String reason) throws IOException {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            }
+            writer.write("Line " + line + ": " + reason);
+            writer.newLine();
+            count++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
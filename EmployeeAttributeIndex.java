@@ -0,0 +1,184 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Secondary indexes over the attributes reports filter on: hash indexes by
+// department and position, and a sorted index by hire date that also
+// answers years-of-service questions, since tenure is a hire date range.
+//
+// The hash indexes follow department and position changes through
+// EmployeeListener, which fires under the employee's stripe, so their sets
+// are concurrent. Hire dates never change, so the sorted index is only
+// written when employees are added or removed, under the owner's structure
+// write lock, and read under its read lock.
+class EmployeeAttributeIndex {
+    private final Map<String, Set<Employee>> byDepartment = new ConcurrentHashMap<>();
+    private final Map<String, Set<Employee>> byPosition = new ConcurrentHashMap<>();
+    private final NavigableMap<Long, Employee> byHireDate = new TreeMap<>(); // epoch day << 32 | id
+
+    public void add(Employee emp) {
+        members(byDepartment, emp.getDepartment()).add(emp);
+        members(byPosition, emp.getPosition()).add(emp);
+        byHireDate.put(hireKey(emp.getHireDate(), emp.getId()), emp);
+    }
+
+    public void remove(Employee emp) {
+        leave(byDepartment, emp.getDepartment(), emp);
+        leave(byPosition, emp.getPosition(), emp);
+        byHireDate.remove(hireKey(emp.getHireDate(), emp.getId()));
+    }
+
+    public void departmentChanged(Employee emp, String previous) {
+        leave(byDepartment, previous, emp);
+        members(byDepartment, emp.getDepartment()).add(emp);
+    }
+
+    public void positionChanged(Employee emp, String previous) {
+        leave(byPosition, previous, emp);
+        members(byPosition, emp.getPosition()).add(emp);
+    }
+
+    public Set<Employee> inDepartment(String department) {
+        return lookup(byDepartment, department);
+    }
+
+    public Set<Employee> inPosition(String position) {
+        return lookup(byPosition, position);
+    }
+
+    // Employees hired on or between the given days, oldest first
+    public Collection<Employee> hiredBetween(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            return Collections.emptyList();
+        }
+        return byHireDate.subMap(hireKey(from, 0), true, hireKey(to, -1), true).values();
+    }
+
+    public Set<String> departments() {
+        return Collections.unmodifiableSet(byDepartment.keySet());
+    }
+
+    public Set<String> positions() {
+        return Collections.unmodifiableSet(byPosition.keySet());
+    }
+
+    public void clear() {
+        byDepartment.clear();
+        byPosition.clear();
+        byHireDate.clear();
+    }
+
+    // Null departments and positions are indexed under the empty string
+    private static String key(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static Set<Employee> members(Map<String, Set<Employee>> index, String value) {
+        return index.computeIfAbsent(key(value), k -> ConcurrentHashMap.newKeySet());
+    }
+
+    private static void leave(Map<String, Set<Employee>> index, String value, Employee emp) {
+        index.computeIfPresent(key(value), (k, members) -> {
+            members.remove(emp);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    private static Set<Employee> lookup(Map<String, Set<Employee>> index, String value) {
+        Set<Employee> members = index.get(key(value));
+        return members == null ? Collections.emptySet() : Collections.unmodifiableSet(members);
+    }
+
+    // Days beyond the int range (LocalDate.MIN and MAX as open bounds) are
+    // clamped; ids sort as unsigned within a day
+    private static long hireKey(LocalDate date, int id) {
+        long day = date == null ? Integer.MIN_VALUE
+                : Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, date.toEpochDay()));
+        return (day << 32) | (id & 0xFFFFFFFFL);
+    }
+}
+
+// Criteria for PayrollSystem.findEmployees and getTotals. Every criterion
+// set must hold; unset ones match everything. Years of service are counted
+// the way Employee.getYearsOfService does, on the day the query runs.
+//
+//   new EmployeeQuery().department("IT").hiredBetween(2020-01-01, 2020-12-31)
+//   new EmployeeQuery().position("Manager").minYearsOfService(10)
+class EmployeeQuery {
+    private String department;
+    private String position;
+    private LocalDate hiredFrom;
+    private LocalDate hiredTo;
+    private int minYears = -1;
+    private int maxYears = -1;
+
+    public EmployeeQuery department(String department) {
+        this.department = department;
+        return this;
+    }
+
+    public EmployeeQuery position(String position) {
+        this.position = position;
+        return this;
+    }
+
+    // Inclusive on both ends
+    public EmployeeQuery hiredBetween(LocalDate from, LocalDate to) {
+        this.hiredFrom = from;
+        this.hiredTo = to;
+        return this;
+    }
+
+    public EmployeeQuery minYearsOfService(int years) {
+        this.minYears = years;
+        return this;
+    }
+
+    public EmployeeQuery maxYearsOfService(int years) {
+        this.maxYears = years;
+        return this;
+    }
+
+    String getDepartment() { return department; }
+    String getPosition() { return position; }
+
+    boolean hasHireRange() {
+        return hiredFrom != null || hiredTo != null || minYears >= 0 || maxYears >= 0;
+    }
+
+    // Hire dates and tenure folded into one inclusive range of hire dates
+    LocalDate earliestHire(LocalDate today) {
+        LocalDate from = hiredFrom != null ? hiredFrom : LocalDate.MIN;
+        if (maxYears >= 0) {
+            // hired more than maxYears + 1 years ago means more than maxYears of service
+            LocalDate tenure = today.minusYears(maxYears + 1L).plusDays(1);
+            from = tenure.isAfter(from) ? tenure : from;
+        }
+        return from;
+    }
+
+    LocalDate latestHire(LocalDate today) {
+        LocalDate to = hiredTo != null ? hiredTo : LocalDate.MAX;
+        if (minYears >= 0) {
+            LocalDate tenure = today.minusYears(minYears);
+            to = tenure.isBefore(to) ? tenure : to;
+        }
+        return to;
+    }
+
+    // Checks every criterion, whichever index the candidate came from;
+    // earliest and latest are the hire range for the day the query runs
+    boolean matches(Employee emp, LocalDate earliest, LocalDate latest) {
+        if (department != null && !department.equals(emp.getDepartment())) {
+            return false;
+        }
+        if (position != null && !position.equals(emp.getPosition())) {
+            return false;
+        }
+        if (hasHireRange()) {
+            LocalDate hired = emp.getHireDate();
+            return hired != null && !hired.isBefore(earliest) && !hired.isAfter(latest);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,229 @@
+import java.time.LocalDate;
+import java.util.*;
+
+// Primary-key index from employee id to Employee. Ids live in a primitive
+// open-addressing table (linear probing, no Integer boxing) that points into
+// a dense array used for iteration. Removal swaps the last employee into the
+// freed position, so iteration order is insertion order until a removal.
+class EmployeeIndex implements Iterable<Employee> {
+    private int[] keys;
+    private int[] slots;        // dense position + 1, 0 marks an empty slot
+    private int mask;
+
+    private Employee[] values;
+    private int size;
+
+    public EmployeeIndex() {
+        this(16);
+    }
+
+    public EmployeeIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        slots = new int[capacity];
+        mask = capacity - 1;
+        values = new Employee[Math.max(4, expectedSize)];
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    public Employee get(int id) {
+        int i = hash(id) & mask;
+        while (slots[i] != 0) {
+            if (keys[i] == id) {
+                return values[slots[i] - 1];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean contains(int id) {
+        return get(id) != null;
+    }
+
+    // Returns false without changing anything if the id is already taken
+    public boolean add(Employee employee) {
+        int id = employee.getId();
+        int i = hash(id) & mask;
+        while (slots[i] != 0) {
+            if (keys[i] == id) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = employee;
+        keys[i] = id;
+        slots[i] = ++size;
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    public Employee remove(int id) {
+        int i = hash(id) & mask;
+        while (slots[i] != 0) {
+            if (keys[i] == id) {
+                int position = slots[i] - 1;
+                Employee removed = values[position];
+                deleteSlot(i);
+
+                // Fill the hole in the dense array with the last employee
+                int last = size - 1;
+                if (position != last) {
+                    Employee moved = values[last];
+                    values[position] = moved;
+                    slots[find(moved.getId())] = position + 1;
+                }
+                values[last] = null;
+                size--;
+                return removed;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, 0);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    // Read-only view over the dense array; it reflects later changes
+    public List<Employee> values() {
+        return new AbstractList<Employee>() {
+            @Override
+            public Employee get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                }
+                return values[index];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Employee> iterator() {
+        return values().iterator();
+    }
+
+    private int find(int id) {
+        int i = hash(id) & mask;
+        while (keys[i] != id || slots[i] == 0) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private void deleteSlot(int hole) {
+        int i = (hole + 1) & mask;
+        while (slots[i] != 0) {
+            int home = hash(keys[i]) & mask;
+            boolean canMove = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (canMove) {
+                keys[hole] = keys[i];
+                slots[hole] = slots[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[hole] = 0;
+    }
+
+    private void rehash(int capacity) {
+        keys = new int[capacity];
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int position = 0; position < size; position++) {
+            int i = hash(values[position].getId()) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = values[position].getId();
+            slots[i] = position + 1;
+        }
+    }
+
+    // Murmur3 finalizer, so sequential ids spread over the table
+    private static int hash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
+
+// Measures findEmployee-style lookups and remove/re-add cycles on indexes of
+// growing size. Run with: java -Xmx2g EmployeeIndexBenchmark
+class EmployeeIndexBenchmark {
+    public static void main(String[] args) {
+        int[] sizes = {1_000, 10_000, 100_000, 1_000_000};
+        int operations = 2_000_000;
+        LocalDate hireDate = LocalDate.of(2020, 1, 1);
+
+        System.out.println("Employees     lookup ns/op   remove+add ns/op");
+        for (int n : sizes) {
+            EmployeeIndex index = new EmployeeIndex(n);
+            for (int id = 1; id <= n; id++) {
+                index.add(new FullTimeEmployee(id, "Employee " + id, "e@company.com", "000",
+                        hireDate, "IT", "Developer", "Address", "ACC", 5000, 25.0));
+            }
+
+            Random random = new Random(42);
+            int[] probes = new int[operations];
+            for (int i = 0; i < operations; i++) {
+                probes[i] = 1 + random.nextInt(n);
+            }
+
+            // Warm up both paths before timing
+            long sink = 0;
+            for (int round = 0; round < 3; round++) {
+                sink += lookups(index, probes);
+                churn(index, probes, operations / 10);
+            }
+
+            long start = System.nanoTime();
+            sink += lookups(index, probes);
+            double lookupNs = (System.nanoTime() - start) / (double) operations;
+
+            start = System.nanoTime();
+            churn(index, probes, operations / 10);
+            double churnNs = (System.nanoTime() - start) / (double) (operations / 10);
+
+            System.out.printf("%9d %14.1f %18.1f%n", n, lookupNs, churnNs);
+            if (sink == 42) {
+                System.out.println();
+            }
+        }
+    }
+
+    private static long lookups(EmployeeIndex index, int[] probes) {
+        long sum = 0;
+        for (int id : probes) {
+            sum += index.get(id).getId();
+        }
+        return sum;
+    }
+
+    private static void churn(EmployeeIndex index, int[] probes, int count) {
+        for (int i = 0; i < count; i++) {
+            Employee removed = index.remove(probes[i]);
+            index.add(removed);
+        }
+    }
+}
@@ -0,0 +1,835 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+// Versioned binary snapshot of the employee store, written section by section
+// through a FileChannel and read through memory mappings. Layout:
+//
+//   header      magic, version, journal sequence, section offsets and counts
+//   strings     every distinct string once, as [length][utf-8 bytes]
+//   schema      per record type: tag, type name, (field name, field kind)*
+//   records     one fixed-width record per employee, prefixed by its type tag
+//   attendance  [epoch day:int][present:byte][hours:short] per record
+//   leaves      [start:int][end:int][reason:string id][approved:byte][number:int]
+//   team        manager team member ids; ~id for members on another shard
+//
+// Strings are referenced by index into the string section. Readers locate
+// fields through the stored schema, so fields added in later versions are
+// skipped by older layouts and missing ones fall back to defaults.
+class EmployeeStore {
+    static final int MAGIC = 0x50415952; // "PAYR"
+    static final short VERSION = 3; // 2: journalSequence, I64 fields; 3: leave numbers
+
+    // Field kinds and their on-disk widths
+    static final byte I32 = 1;
+    static final byte F64 = 2;
+    static final byte STR = 3;
+    static final byte DATE = 4;
+    static final byte I64 = 5;
+
+    private static final int HEADER_SIZE = 4 + 2 + 2 + 8 + 6 * 8 + 5 * 4;
+    private static final int ATTENDANCE_SIZE = 7;
+    private static final int LEAVE_SIZE = 17;
+    private static final int LEAVE_SIZE_V2 = 13; // without the number
+    private static final int NULL_STRING = -1;
+    private static final int NULL_DATE = Integer.MIN_VALUE;
+
+    // Every field any record type can carry; layouts map these to offsets
+    private static final String[] FIELD_NAMES = {
+        "id", "name", "email", "phoneNumber", "hireDate", "department", "position",
+        "address", "bankAccount", "attendanceStart", "attendanceCount", "leaveStart",
+        "leaveCount", "monthlySalary", "overtimeRate", "overtimeHours", "allowance",
+        "teamStart", "teamCount", "hourlyRate", "hoursWorked", "contractAmount",
+        "contractDuration", "journalSequence", "presentDays", "absentDays", "nextLeaveNumber"
+    };
+    private static final byte[] FIELD_KINDS = {
+        I32, STR, STR, STR, DATE, STR, STR,
+        STR, STR, I32, I32, I32,
+        I32, F64, F64, I32, F64,
+        I32, I32, F64, I32, F64,
+        I32, I64, I32, I32, I32
+    };
+    private static final int ID = 0, NAME = 1, EMAIL = 2, PHONE = 3, HIRE_DATE = 4, DEPARTMENT = 5,
+            POSITION = 6, ADDRESS = 7, BANK_ACCOUNT = 8, ATTENDANCE_START = 9, ATTENDANCE_COUNT = 10,
+            LEAVE_START = 11, LEAVE_COUNT = 12, MONTHLY_SALARY = 13, OVERTIME_RATE = 14,
+            OVERTIME_HOURS = 15, ALLOWANCE = 16, TEAM_START = 17, TEAM_COUNT = 18,
+            HOURLY_RATE = 19, HOURS_WORKED = 20, CONTRACT_AMOUNT = 21, CONTRACT_DURATION = 22,
+            JOURNAL_SEQUENCE = 23, PRESENT_DAYS = 24, ABSENT_DAYS = 25, NEXT_LEAVE_NUMBER = 26;
+
+    private static final int[] COMMON = {
+        ID, NAME, EMAIL, PHONE, HIRE_DATE, DEPARTMENT, POSITION, ADDRESS, BANK_ACCOUNT,
+        ATTENDANCE_START, ATTENDANCE_COUNT, LEAVE_START, LEAVE_COUNT, JOURNAL_SEQUENCE,
+        PRESENT_DAYS, ABSENT_DAYS, NEXT_LEAVE_NUMBER
+    };
+
+    // Current schema, indexed by the EmployeeCodec type tags
+    private static final int[][] SCHEMA = new int[5][];
+    private static final String[] TYPE_NAMES = new String[5];
+    static {
+        SCHEMA[EmployeeCodec.FULL_TIME] = concat(COMMON, MONTHLY_SALARY, OVERTIME_RATE, OVERTIME_HOURS);
+        SCHEMA[EmployeeCodec.MANAGER] = concat(SCHEMA[EmployeeCodec.FULL_TIME], ALLOWANCE, TEAM_START, TEAM_COUNT);
+        SCHEMA[EmployeeCodec.PART_TIME] = concat(COMMON, HOURLY_RATE, HOURS_WORKED);
+        SCHEMA[EmployeeCodec.CONTRACTOR] = concat(COMMON, CONTRACT_AMOUNT, CONTRACT_DURATION);
+        TYPE_NAMES[EmployeeCodec.FULL_TIME] = "FullTimeEmployee";
+        TYPE_NAMES[EmployeeCodec.MANAGER] = "Manager";
+        TYPE_NAMES[EmployeeCodec.PART_TIME] = "PartTimeEmployee";
+        TYPE_NAMES[EmployeeCodec.CONTRACTOR] = "Contractor";
+    }
+
+    // Result of reading a store file
+    static class Snapshot {
+        final List<Employee> employees;
+        final long sequence;
+
+        Snapshot(List<Employee> employees, long sequence) {
+            this.employees = employees;
+            this.sequence = sequence;
+        }
+    }
+
+    // What laying out a store needs to know before anything is written:
+    // every string, and how many records go into each section. Only counts
+    // are gathered; histories are materialized one employee at a time while
+    // writing.
+    static class Plan {
+        private final StringTable strings = new StringTable();
+        private int employeeCount;
+        private long recordBytes;
+        private int attendanceCount;
+        private int leaveCount;
+        private int teamCount;
+
+        Plan() {
+            for (String name : TYPE_NAMES) {
+                strings.id(name);
+            }
+            for (String name : FIELD_NAMES) {
+                strings.id(name);
+            }
+        }
+
+        void add(Employee emp) {
+            addEmployee(EmployeeCodec.typeOf(emp), emp.getAttendanceRecordCount(),
+                        emp instanceof Manager ? ((Manager) emp).getTeamSize() : 0);
+            addString(emp.getName());
+            addString(emp.getEmail());
+            addString(emp.getPhoneNumber());
+            addString(emp.getDepartment());
+            addString(emp.getPosition());
+            addString(emp.getAddress());
+            addString(emp.getBankAccount());
+            for (LeaveRecord leave : emp.getLeaveHistory()) {
+                addLeave(leave.getReason());
+            }
+        }
+
+        void addEmployee(byte type, int attendance, int team) {
+            employeeCount++;
+            recordBytes += 1 + recordSize(SCHEMA[type]);
+            attendanceCount += attendance;
+            teamCount += team;
+        }
+
+        void addLeave(String reason) {
+            leaveCount++;
+            addString(reason);
+        }
+
+        void addString(String value) {
+            strings.id(value);
+        }
+    }
+
+    // Writes to a temporary file and renames it over the target, so a crash
+    // mid-write leaves the previous store intact
+    static void write(Path target, Collection<Employee> employees, long sequence) throws IOException {
+        Plan plan = new Plan();
+        for (Employee emp : employees) {
+            plan.add(emp);
+        }
+        write(target, employees, plan, sequence);
+    }
+
+    // As above, with a plan made beforehand from exactly these employees,
+    // e.g. from their encoded copies (see EmployeeCodec.plan) so that they
+    // are only decoded once, to be written
+    static void write(Path target, Iterable<Employee> employees, Plan plan, long sequence) throws IOException {
+        StringTable strings = plan.strings;
+        long recordBytes = plan.recordBytes;
+        int attendanceCount = plan.attendanceCount;
+        int leaveCount = plan.leaveCount;
+        int teamCount = plan.teamCount;
+
+        long schemaBytes = 1;
+        for (int tag = 1; tag < SCHEMA.length; tag++) {
+            schemaBytes += 1 + 4 + 2 + SCHEMA[tag].length * 5L;
+        }
+
+        long stringsOffset = HEADER_SIZE;
+        long schemaOffset = stringsOffset + strings.byteSize();
+        long recordsOffset = schemaOffset + schemaBytes;
+        long attendanceOffset = recordsOffset + recordBytes;
+        long leavesOffset = attendanceOffset + (long) attendanceCount * ATTENDANCE_SIZE;
+        long teamOffset = leavesOffset + (long) leaveCount * LEAVE_SIZE;
+
+        // The header, strings, schema and records are written in one run;
+        // the other sections each through their own writer at their offset
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SectionWriter buf = new SectionWriter(channel, 0);
+
+            buf.putInt(MAGIC);
+            buf.putShort(VERSION);
+            buf.putShort((short) 0);
+            buf.putLong(sequence);
+            buf.putLong(stringsOffset);
+            buf.putLong(schemaOffset);
+            buf.putLong(recordsOffset);
+            buf.putLong(attendanceOffset);
+            buf.putLong(leavesOffset);
+            buf.putLong(teamOffset);
+            buf.putInt(strings.size());
+            buf.putInt(plan.employeeCount);
+            buf.putInt(attendanceCount);
+            buf.putInt(leaveCount);
+            buf.putInt(teamCount);
+
+            strings.writeTo(buf);
+
+            buf.put((byte) (SCHEMA.length - 1));
+            for (byte tag = 1; tag < SCHEMA.length; tag++) {
+                buf.put(tag);
+                buf.putInt(strings.id(TYPE_NAMES[tag]));
+                buf.putShort((short) SCHEMA[tag].length);
+                for (int field : SCHEMA[tag]) {
+                    buf.putInt(strings.id(FIELD_NAMES[field]));
+                    buf.put(FIELD_KINDS[field]);
+                }
+            }
+
+            int attendanceStart = 0;
+            int leaveStart = 0;
+            int teamStart = 0;
+            SectionWriter attendanceOut = new SectionWriter(channel, attendanceOffset);
+            SectionWriter leavesOut = new SectionWriter(channel, leavesOffset);
+            SectionWriter teamOut = new SectionWriter(channel, teamOffset);
+            for (Employee emp : employees) {
+                byte type = EmployeeCodec.typeOf(emp);
+                List<AttendanceRecord> records = emp.getAttendanceRecords();
+                List<LeaveRecord> history = emp.getLeaveHistory();
+                int[] team = emp instanceof Manager ? EmployeeCodec.teamIds((Manager) emp) : new int[0];
+
+                buf.put(type);
+                for (int field : SCHEMA[type]) {
+                    switch (field) {
+                        case ID: buf.putInt(emp.getId()); break;
+                        case NAME: buf.putInt(strings.id(emp.getName())); break;
+                        case EMAIL: buf.putInt(strings.id(emp.getEmail())); break;
+                        case PHONE: buf.putInt(strings.id(emp.getPhoneNumber())); break;
+                        case HIRE_DATE: buf.putInt(epochDay(emp.getHireDate())); break;
+                        case DEPARTMENT: buf.putInt(strings.id(emp.getDepartment())); break;
+                        case POSITION: buf.putInt(strings.id(emp.getPosition())); break;
+                        case ADDRESS: buf.putInt(strings.id(emp.getAddress())); break;
+                        case BANK_ACCOUNT: buf.putInt(strings.id(emp.getBankAccount())); break;
+                        case ATTENDANCE_START: buf.putInt(attendanceStart); break;
+                        case ATTENDANCE_COUNT: buf.putInt(records.size()); break;
+                        case LEAVE_START: buf.putInt(leaveStart); break;
+                        case LEAVE_COUNT: buf.putInt(history.size()); break;
+                        case MONTHLY_SALARY: buf.putDouble(((FullTimeEmployee) emp).getMonthlySalary()); break;
+                        case OVERTIME_RATE: buf.putDouble(((FullTimeEmployee) emp).getOvertimeRate()); break;
+                        case OVERTIME_HOURS: buf.putInt(((FullTimeEmployee) emp).getOvertimeHours()); break;
+                        case ALLOWANCE: buf.putDouble(((Manager) emp).getAllowance()); break;
+                        case TEAM_START: buf.putInt(teamStart); break;
+                        case TEAM_COUNT: buf.putInt(team.length); break;
+                        case HOURLY_RATE: buf.putDouble(((PartTimeEmployee) emp).getHourlyRate()); break;
+                        case HOURS_WORKED: buf.putInt(((PartTimeEmployee) emp).getHoursWorked()); break;
+                        case CONTRACT_AMOUNT: buf.putDouble(((Contractor) emp).getContractAmount()); break;
+                        case CONTRACT_DURATION: buf.putInt(((Contractor) emp).getContractDuration()); break;
+                        case JOURNAL_SEQUENCE: buf.putLong(emp.getJournalSequence()); break;
+                        case PRESENT_DAYS: buf.putInt(emp.getAttendanceDays()); break;
+                        case ABSENT_DAYS: buf.putInt(emp.getAbsenceDays()); break;
+                        case NEXT_LEAVE_NUMBER: buf.putInt(emp.getNextLeaveNumber()); break;
+                        default: throw new IllegalStateException("Unhandled field " + FIELD_NAMES[field]);
+                    }
+                }
+
+                for (AttendanceRecord record : records) {
+                    attendanceOut.putInt(epochDay(record.getDate()));
+                    attendanceOut.put((byte) (record.isPresent() ? 1 : 0));
+                    attendanceOut.putShort((short) record.getHoursWorked());
+                }
+                for (LeaveRecord leave : history) {
+                    leavesOut.putInt(epochDay(leave.getStartDate()));
+                    leavesOut.putInt(epochDay(leave.getEndDate()));
+                    leavesOut.putInt(strings.id(leave.getReason()));
+                    leavesOut.put((byte) (leave.isApproved() ? 1 : 0));
+                    leavesOut.putInt(leave.getNumber());
+                }
+                for (int member : team) {
+                    teamOut.putInt(member);
+                }
+                attendanceStart += records.size();
+                leaveStart += history.size();
+                teamStart += team.length;
+            }
+            buf.flush();
+            attendanceOut.flush();
+            leavesOut.flush();
+            teamOut.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Snapshot read(Path source) throws IOException {
+        return read(source, false);
+    }
+
+    // With lazyAttendance, employees get only their attendance totals and a
+    // reference into the mapped file; each year of records is read when
+    // first used (see AttendanceLedger). The mapping stays valid after the
+    // store is replaced by a newer snapshot, until the last employee read
+    // from it is gone.
+    static Snapshot read(Path source, boolean lazyAttendance) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Employee store is truncated");
+            }
+            MappedFile buf = new MappedFile(channel);
+
+            if (buf.getInt(0) != MAGIC) {
+                throw new IOException("Not an employee store file");
+            }
+            short version = buf.getShort(4);
+            if (version > VERSION) {
+                throw new IOException("Employee store version " + version + " is newer than supported " + VERSION);
+            }
+            long sequence = buf.getLong(8);
+            long stringsOffset = buf.getLong(16);
+            long schemaOffset = buf.getLong(24);
+            long recordsOffset = buf.getLong(32);
+            long attendanceOffset = buf.getLong(40);
+            long leavesOffset = buf.getLong(48);
+            long teamOffset = buf.getLong(56);
+            int stringCount = buf.getInt(64);
+            int employeeCount = buf.getInt(68);
+            // then the attendance, leave and team counts
+            int leaveSize = version >= 3 ? LEAVE_SIZE : LEAVE_SIZE_V2;
+
+            String[] strings = new String[stringCount];
+            long at = stringsOffset;
+            byte[] scratch = new byte[256];
+            for (int i = 0; i < stringCount; i++) {
+                int length = buf.getInt(at);
+                if (length > scratch.length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                buf.get(at + 4, scratch, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+                at += 4 + length;
+            }
+
+            // Map the stored schema onto the fields this version knows about
+            Map<String, Integer> knownFields = new HashMap<>();
+            for (int i = 0; i < FIELD_NAMES.length; i++) {
+                knownFields.put(FIELD_NAMES[i], i);
+            }
+            Layout[] layouts = new Layout[256];
+            at = schemaOffset;
+            int typeCount = buf.get(at++) & 0xFF;
+            for (int t = 0; t < typeCount; t++) {
+                int tag = buf.get(at) & 0xFF;
+                Layout layout = new Layout(strings[buf.getInt(at + 1)]);
+                int fieldCount = buf.getShort(at + 5);
+                at += 7;
+                for (int f = 0; f < fieldCount; f++) {
+                    Integer field = knownFields.get(strings[buf.getInt(at)]);
+                    byte kind = buf.get(at + 4);
+                    at += 5;
+                    if (field != null && FIELD_KINDS[field] == kind) {
+                        layout.offsets[field] = layout.size;
+                    }
+                    layout.size += width(kind);
+                }
+                layouts[tag] = layout;
+            }
+
+            List<Employee> employees = new ArrayList<>(employeeCount);
+            int[] teamStarts = new int[employeeCount];
+            int[] teamCounts = new int[employeeCount];
+            long pos = recordsOffset;
+            for (int i = 0; i < employeeCount; i++) {
+                int tag = buf.get(pos) & 0xFF;
+                Layout layout = layouts[tag];
+                if (layout == null) {
+                    throw new IOException("Record " + i + " has unknown type tag " + tag);
+                }
+                long base = pos + 1;
+                Employee emp = layout.newEmployee(tag, buf, base, strings);
+                emp.setJournalSequence(layout.getLong(buf, base, JOURNAL_SEQUENCE));
+
+                int attendanceStart = layout.getInt(buf, base, ATTENDANCE_START);
+                int attendanceCount = layout.getInt(buf, base, ATTENDANCE_COUNT);
+                if (lazyAttendance && attendanceCount > 0) {
+                    AttendanceSlice slice = new AttendanceSlice(buf,
+                            attendanceOffset + (long) attendanceStart * ATTENDANCE_SIZE, attendanceCount);
+                    int present;
+                    int absent;
+                    if (layout.has(PRESENT_DAYS) && layout.has(ABSENT_DAYS)) {
+                        present = layout.getInt(buf, base, PRESENT_DAYS);
+                        absent = layout.getInt(buf, base, ABSENT_DAYS);
+                    } else {
+                        // Older stores do not keep the totals; count them
+                        // from the records without materializing any
+                        present = slice.countPresent();
+                        absent = attendanceCount - present;
+                    }
+                    emp.setAttendanceLedger(new AttendanceLedger(slice, attendanceCount, present, absent));
+                } else {
+                    for (int a = 0; a < attendanceCount; a++) {
+                        long record = attendanceOffset + (long) (attendanceStart + a) * ATTENDANCE_SIZE;
+                        emp.markAttendance(LocalDate.ofEpochDay(buf.getInt(record)), buf.get(record + 4) != 0,
+                                           buf.getShort(record + 5));
+                    }
+                }
+
+                int leaveStart = layout.getInt(buf, base, LEAVE_START);
+                int leaveCount = layout.getInt(buf, base, LEAVE_COUNT);
+                for (int l = 0; l < leaveCount; l++) {
+                    long leave = leavesOffset + (long) (leaveStart + l) * leaveSize;
+                    // Before version 3 leaves were known by position
+                    int number = version >= 3 ? buf.getInt(leave + 13) : l;
+                    emp.applyLeave(number, date(buf.getInt(leave)), date(buf.getInt(leave + 4)),
+                                   string(strings, buf.getInt(leave + 8)));
+                    if (buf.get(leave + 12) != 0) {
+                        emp.approveLeave(number);
+                    }
+                }
+                emp.setNextLeaveNumber(layout.getInt(buf, base, NEXT_LEAVE_NUMBER));
+
+                teamStarts[i] = layout.getInt(buf, base, TEAM_START);
+                teamCounts[i] = layout.getInt(buf, base, TEAM_COUNT);
+                employees.add(emp);
+                pos = base + layout.size;
+            }
+
+            // Team members are resolved once every employee exists
+            EmployeeIndex byId = new EmployeeIndex(employeeCount);
+            for (Employee emp : employees) {
+                byId.add(emp);
+            }
+            for (int i = 0; i < employeeCount; i++) {
+                if (teamCounts[i] > 0 && employees.get(i) instanceof Manager) {
+                    Manager manager = (Manager) employees.get(i);
+                    for (int m = 0; m < teamCounts[i]; m++) {
+                        EmployeeCodec.addTeamMember(manager, buf.getInt(teamOffset + (teamStarts[i] + m) * 4L), byId::get);
+                    }
+                }
+            }
+            return new Snapshot(employees, sequence);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt employee store: " + e, e);
+        }
+    }
+
+    // Converts a legacy ObjectOutputStream employees.dat into the binary
+    // format; the legacy file is renamed with a .migrated suffix afterwards
+    @SuppressWarnings("unchecked")
+    static Snapshot migrate(Path legacy, Path target) throws IOException {
+        List<Employee> employees;
+        long sequence = 0;
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(legacy)))) {
+            employees = (List<Employee>) ois.readObject();
+            try {
+                sequence = ois.readLong();
+            } catch (EOFException e) {
+                sequence = 0;
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Legacy data references unknown class " + e.getMessage(), e);
+        }
+        write(target, employees, sequence);
+        Files.move(legacy, legacy.resolveSibling(legacy.getFileName() + ".migrated"),
+                StandardCopyOption.REPLACE_EXISTING);
+        return new Snapshot(employees, sequence);
+    }
+
+    private static int[] concat(int[] base, int... extra) {
+        int[] result = Arrays.copyOf(base, base.length + extra.length);
+        System.arraycopy(extra, 0, result, base.length, extra.length);
+        return result;
+    }
+
+    private static int recordSize(int[] fields) {
+        int size = 0;
+        for (int field : fields) {
+            size += width(FIELD_KINDS[field]);
+        }
+        return size;
+    }
+
+    private static int width(byte kind) {
+        return kind == F64 || kind == I64 ? 8 : 4;
+    }
+
+    private static int epochDay(LocalDate date) {
+        return date == null ? NULL_DATE : (int) date.toEpochDay();
+    }
+
+    private static LocalDate date(int epochDay) {
+        return epochDay == NULL_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    private static String string(String[] strings, int id) {
+        return id == NULL_STRING ? null : strings[id];
+    }
+
+    // Record layout of one type as described by a file's schema section
+    private static class Layout {
+        final String typeName;
+        final int[] offsets = new int[FIELD_NAMES.length];
+        int size;
+
+        Layout(String typeName) {
+            this.typeName = typeName;
+            Arrays.fill(offsets, -1);
+        }
+
+        boolean has(int field) {
+            return offsets[field] >= 0;
+        }
+
+        int getInt(MappedFile buf, long base, int field) {
+            return offsets[field] < 0 ? 0 : buf.getInt(base + offsets[field]);
+        }
+
+        long getLong(MappedFile buf, long base, int field) {
+            return offsets[field] < 0 ? 0 : buf.getLong(base + offsets[field]);
+        }
+
+        double getDouble(MappedFile buf, long base, int field) {
+            return offsets[field] < 0 ? 0 : buf.getDouble(base + offsets[field]);
+        }
+
+        String getString(MappedFile buf, long base, int field, String[] strings) {
+            return offsets[field] < 0 ? null : string(strings, buf.getInt(base + offsets[field]));
+        }
+
+        LocalDate getDate(MappedFile buf, long base, int field) {
+            return offsets[field] < 0 ? null : date(buf.getInt(base + offsets[field]));
+        }
+
+        Employee newEmployee(int tag, MappedFile buf, long base, String[] strings) throws IOException {
+            int id = getInt(buf, base, ID);
+            String name = getString(buf, base, NAME, strings);
+            String email = getString(buf, base, EMAIL, strings);
+            String phone = getString(buf, base, PHONE, strings);
+            LocalDate hireDate = getDate(buf, base, HIRE_DATE);
+            String department = getString(buf, base, DEPARTMENT, strings);
+            String position = getString(buf, base, POSITION, strings);
+            String address = getString(buf, base, ADDRESS, strings);
+            String bankAccount = getString(buf, base, BANK_ACCOUNT, strings);
+
+            switch (tag) {
+                case EmployeeCodec.FULL_TIME: {
+                    FullTimeEmployee ft = new FullTimeEmployee(id, name, email, phone, hireDate, department,
+                            position, address, bankAccount, getDouble(buf, base, MONTHLY_SALARY),
+                            getDouble(buf, base, OVERTIME_RATE));
+                    ft.setOvertimeHours(getInt(buf, base, OVERTIME_HOURS));
+                    return ft;
+                }
+                case EmployeeCodec.MANAGER: {
+                    Manager mgr = new Manager(id, name, email, phone, hireDate, department, position,
+                            address, bankAccount, getDouble(buf, base, MONTHLY_SALARY),
+                            getDouble(buf, base, OVERTIME_RATE), getDouble(buf, base, ALLOWANCE));
+                    mgr.setOvertimeHours(getInt(buf, base, OVERTIME_HOURS));
+                    return mgr;
+                }
+                case EmployeeCodec.PART_TIME: {
+                    PartTimeEmployee pt = new PartTimeEmployee(id, name, email, phone, hireDate, department,
+                            position, address, bankAccount, getDouble(buf, base, HOURLY_RATE));
+                    pt.setHoursWorked(getInt(buf, base, HOURS_WORKED));
+                    return pt;
+                }
+                case EmployeeCodec.CONTRACTOR:
+                    return new Contractor(id, name, email, phone, hireDate, department, position,
+                            address, bankAccount, getDouble(buf, base, CONTRACT_AMOUNT),
+                            getInt(buf, base, CONTRACT_DURATION));
+                default:
+                    throw new IOException("Record type " + typeName + " is not supported by this version");
+            }
+        }
+    }
+
+    // One employee's attendance records in a mapped store, sorted by date.
+    // Reads use absolute positions only, so any number of threads can share
+    // the mapping.
+    private static class AttendanceSlice implements AttendanceLedger.Source {
+        private final MappedFile buf;
+        private final long offset;
+        private final int count;
+
+        AttendanceSlice(MappedFile buf, long offset, int count) {
+            this.buf = buf;
+            this.offset = offset;
+            this.count = count;
+        }
+
+        @Override
+        public int firstYear() {
+            return LocalDate.ofEpochDay(day(0)).getYear();
+        }
+
+        @Override
+        public int lastYear() {
+            return LocalDate.ofEpochDay(day(count - 1)).getYear();
+        }
+
+        @Override
+        public void read(int year, AttendanceLedger.RecordSink sink) {
+            int last = (int) LocalDate.of(year, 12, 31).toEpochDay();
+            for (int i = firstOnOrAfter((int) LocalDate.of(year, 1, 1).toEpochDay()); i < count; i++) {
+                int day = day(i);
+                if (day > last) {
+                    break;
+                }
+                long at = offset + (long) i * ATTENDANCE_SIZE;
+                sink.record(LocalDate.ofEpochDay(day), buf.get(at + 4) != 0, buf.getShort(at + 5));
+            }
+        }
+
+        int countPresent() {
+            int present = 0;
+            for (int i = 0; i < count; i++) {
+                if (buf.get(offset + (long) i * ATTENDANCE_SIZE + 4) != 0) {
+                    present++;
+                }
+            }
+            return present;
+        }
+
+        private int day(int index) {
+            return buf.getInt(offset + (long) index * ATTENDANCE_SIZE);
+        }
+
+        // Binary search over the sorted records
+        private int firstOnOrAfter(int day) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (day(mid) < day) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    // Deduplicating string section builder
+    private static class StringTable {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<byte[]> encoded = new ArrayList<>();
+        private long byteSize;
+
+        int id(String value) {
+            if (value == null) {
+                return NULL_STRING;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                id = encoded.size();
+                ids.put(value, id);
+                encoded.add(bytes);
+                byteSize += 4 + bytes.length;
+            }
+            return id;
+        }
+
+        int size() { return encoded.size(); }
+        long byteSize() { return byteSize; }
+
+        void writeTo(SectionWriter buf) throws IOException {
+            for (byte[] bytes : encoded) {
+                buf.putInt(bytes.length);
+                buf.put(bytes);
+            }
+        }
+    }
+
+    // Writes one section of the file from a given offset onwards through a
+    // small buffer, so a store is not limited to what a single mapping can
+    // hold; several writers can fill different sections of one channel
+    private static class SectionWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private long position;
+
+        SectionWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void put(byte value) throws IOException { room(1); buffer.put(value); }
+        void putShort(short value) throws IOException { room(2); buffer.putShort(value); }
+        void putInt(int value) throws IOException { room(4); buffer.putInt(value); }
+        void putLong(long value) throws IOException { room(8); buffer.putLong(value); }
+        void putDouble(double value) throws IOException { room(8); buffer.putDouble(value); }
+
+        void put(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                write(ByteBuffer.wrap(bytes));
+            } else {
+                room(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+
+        private void room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void write(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                position += channel.write(bytes, position);
+            }
+        }
+    }
+
+    // A store file mapped read-only in windows of 2^WINDOW_BITS bytes, as
+    // one mapping cannot exceed 2 GB. Each window maps a few bytes past its
+    // end, so a field never straddles two; byte runs such as strings are
+    // copied across windows. Reads take absolute positions, so threads can
+    // share it.
+    private static class MappedFile {
+        private static final int WINDOW_BITS = Integer.getInteger("payroll.storeWindowBits", 30);
+        private static final long WINDOW = 1L << WINDOW_BITS;
+        private static final int OVERLAP = 8;
+        private final MappedByteBuffer[] windows;
+
+        MappedFile(FileChannel channel) throws IOException {
+            long size = channel.size();
+            windows = new MappedByteBuffer[(int) ((size + WINDOW - 1) >>> WINDOW_BITS)];
+            for (int i = 0; i < windows.length; i++) {
+                long start = (long) i << WINDOW_BITS;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW + OVERLAP, size - start));
+            }
+        }
+
+        byte get(long at) { return window(at).get(offset(at)); }
+        short getShort(long at) { return window(at).getShort(offset(at)); }
+        int getInt(long at) { return window(at).getInt(offset(at)); }
+        long getLong(long at) { return window(at).getLong(offset(at)); }
+        double getDouble(long at) { return window(at).getDouble(offset(at)); }
+
+        void get(long at, byte[] target, int length) {
+            int done = 0;
+            while (done < length) {
+                int offset = offset(at + done);
+                int n = (int) Math.min(length - done, WINDOW - offset);
+                window(at + done).get(offset, target, done, n);
+                done += n;
+            }
+        }
+
+        private MappedByteBuffer window(long at) {
+            return windows[(int) (at >>> WINDOW_BITS)];
+        }
+
+        private static int offset(long at) {
+            return (int) (at & (WINDOW - 1));
+        }
+    }
+}
+
+// Compares save/load throughput of EmployeeStore against the previous
+// ObjectOutputStream/ObjectInputStream path.
+// Run with: java -Xmx4g StoreBenchmark [employees] [attendance days per employee]
+class StoreBenchmark {
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        String[] departments = {"IT", "Marketing", "Operations", "Finance", "HR"};
+
+        List<Employee> employees = new ArrayList<>(count);
+        LocalDate start = LocalDate.of(2025, 1, 1);
+        for (int id = 1; id <= count; id++) {
+            String dept = departments[id % departments.length];
+            Employee emp;
+            switch (id % 4) {
+                case 0:
+                    emp = new PartTimeEmployee(id, "Employee " + id, "emp" + id + "@company.com", "555-0100",
+                            LocalDate.of(2015 + id % 10, 1 + id % 12, 1), dept, "Assistant", id + " Main St", "ACC" + id, 20.0);
+                    break;
+                case 1:
+                    emp = new Contractor(id, "Employee " + id, "emp" + id + "@company.com", "555-0100",
+                            LocalDate.of(2015 + id % 10, 1 + id % 12, 1), dept, "Consultant", id + " Main St", "ACC" + id, 30000, 6);
+                    break;
+                default:
+                    emp = new FullTimeEmployee(id, "Employee " + id, "emp" + id + "@company.com", "555-0100",
+                            LocalDate.of(2015 + id % 10, 1 + id % 12, 1), dept, "Developer", id + " Main St", "ACC" + id, 5000, 25.0);
+            }
+            for (int d = 0; d < days; d++) {
+                emp.markAttendance(start.plusDays(d), d % 7 != 6, 8);
+            }
+            emp.applyLeave(start.plusDays(40), start.plusDays(42), "Vacation");
+            employees.add(emp);
+        }
+
+        Path dir = Files.createTempDirectory("store-bench");
+        Path binary = dir.resolve("employees.bin");
+        Path legacy = dir.resolve("employees.dat");
+
+        System.out.println("Employees: " + count + ", attendance days each: " + days);
+        for (int round = 0; round < 3; round++) {
+            boolean measured = round == 2;
+
+            long t0 = System.nanoTime();
+            try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(legacy)))) {
+                oos.writeObject(employees);
+            }
+            long t1 = System.nanoTime();
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(legacy)))) {
+                ois.readObject();
+            }
+            long t2 = System.nanoTime();
+            EmployeeStore.write(binary, employees, 0);
+            long t3 = System.nanoTime();
+            EmployeeStore.read(binary);
+            long t4 = System.nanoTime();
+
+            if (measured) {
+                report("ObjectStream", Files.size(legacy), count, t1 - t0, t2 - t1);
+                report("EmployeeStore", Files.size(binary), count, t3 - t2, t4 - t3);
+            }
+        }
+
+        Files.deleteIfExists(binary);
+        Files.deleteIfExists(legacy);
+        Files.deleteIfExists(dir);
+    }
+
+    private static void report(String label, long bytes, int count, long saveNanos, long loadNanos) {
+        System.out.printf("%-14s size %8.1f MB  save %7.1f ms (%9.0f emp/s)  load %7.1f ms (%9.0f emp/s)%n",
+                label, bytes / 1e6, saveNanos / 1e6, count / (saveNanos / 1e9),
+                loadNanos / 1e6, count / (loadNanos / 1e9));
+    }
+}
@@ -4,16 +4,31 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 // Interface for employees who can receive bonuses
 interface BonusEligible {
-    double calculateBonus();
+    // Under the rules in effect today
+    default double calculateBonus() {
+        return calculateBonus(PayrollRulebook.current());
+    }
+    
+    double calculateBonus(PayrollRules rules);
 }
 
 // Interface for employees who have tax deductions
 interface Taxable {
-    double calculateTax();
+    // Under the rules in effect today
+    default double calculateTax() {
+        return calculateTax(PayrollRulebook.current());
+    }
+    
+    double calculateTax(PayrollRules rules);
 }
 
 // Interface for employees with attendance tracking
@@ -36,19 +51,27 @@ interface PaySlipGeneratable {
 }
 
 // Record for leave management
-class LeaveRecord {
+class LeaveRecord implements Serializable {
+    private static final long serialVersionUID = 5023465474405536655L;
+    private int number; // unique among the employee's leaves and never reused
     private LocalDate startDate;
     private LocalDate endDate;
     private String reason;
     private boolean approved;
     
     public LeaveRecord(LocalDate startDate, LocalDate endDate, String reason) {
+        this(0, startDate, endDate, reason);
+    }
+    
+    public LeaveRecord(int number, LocalDate startDate, LocalDate endDate, String reason) {
+        this.number = number;
         this.startDate = startDate;
         this.endDate = endDate;
         this.reason = reason;
         this.approved = false; // Initially not approved
     }
     
+    public int getNumber() { return number; }
     public LocalDate getStartDate() { return startDate; }
     public LocalDate getEndDate() { return endDate; }
     public String getReason() { return reason; }
@@ -68,7 +91,8 @@ class LeaveRecord {
 }
 
 // Record for attendance
-class AttendanceRecord {
+class AttendanceRecord implements Serializable {
+    private static final long serialVersionUID = -5579729531929276678L;
     private LocalDate date;
     private boolean present;
     private int hoursWorked;
@@ -90,8 +114,80 @@ class AttendanceRecord {
     }
 }
 
+// Computed figures of one payslip
+class PaySlip {
+    private final int employeeId;
+    private final String name;
+    private final String department;
+    private final String position;
+    private final String bankAccount;
+    private final int month;
+    private final int year;
+    private final double grossSalary;
+    private final double bonus;
+    private final double tax;
+    private final double pfDeduction;
+    private final double netSalary;
+    
+    public PaySlip(int employeeId, String name, String department, String position, String bankAccount,
+                   int month, int year, double grossSalary, double bonus, double tax,
+                   double pfDeduction, double netSalary) {
+        this.employeeId = employeeId;
+        this.name = name;
+        this.department = department;
+        this.position = position;
+        this.bankAccount = bankAccount;
+        this.month = month;
+        this.year = year;
+        this.grossSalary = grossSalary;
+        this.bonus = bonus;
+        this.tax = tax;
+        this.pfDeduction = pfDeduction;
+        this.netSalary = netSalary;
+    }
+    
+    public int getEmployeeId() { return employeeId; }
+    public String getName() { return name; }
+    public String getDepartment() { return department; }
+    public String getPosition() { return position; }
+    public String getBankAccount() { return bankAccount; }
+    public int getMonth() { return month; }
+    public int getYear() { return year; }
+    public double getGrossSalary() { return grossSalary; }
+    public double getBonus() { return bonus; }
+    public double getTax() { return tax; }
+    public double getPfDeduction() { return pfDeduction; }
+    public double getNetSalary() { return netSalary; }
+    public double getTotalDeductions() { return pfDeduction + tax; }
+    
+    // Same text as the payslip files
+    public String render() {
+        return PaySlipTemplate.DEFAULT.render(this, PaySlipTemplate.threadBuffer()).toString();
+    }
+}
+
+// Notified by an employee when something that feeds payroll changes, when
+// it moves to another department or position, and when its leaves change
+interface EmployeeListener {
+    void payChanged(Employee employee);
+    
+    default void departmentChanged(Employee employee, String previous) {}
+    
+    default void positionChanged(Employee employee, String previous) {}
+    
+    default void leaveApplied(Employee employee, LeaveRecord leave) {}
+    
+    default void leaveApproved(Employee employee, LeaveRecord leave) {}
+    
+    default void leaveRejected(Employee employee, LeaveRecord leave) {}
+}
+
 // Abstract base class for all employees
-abstract class Employee implements AttendanceTrackable, LeaveManageable, PaySlipGeneratable {
+abstract class Employee implements AttendanceTrackable, LeaveManageable, PaySlipGeneratable, Serializable {
+    // The serialVersionUIDs are the ones the JVM computed for the classes as
+    // they were written to employees.dat, so EmployeeStore.migrate can still
+    // read those files
+    private static final long serialVersionUID = -7670598842203343768L;
     private int id;
     private String name;
     private String email;
@@ -102,9 +198,12 @@ abstract class Employee implements AttendanceTrackable, LeaveManageable, PaySlip
     private String address;
     private String bankAccount;
     
-    private List<AttendanceRecord> attendanceRecords;
-    private List<LeaveRecord> leaveRecords;
+    private AttendanceLedger attendance;
+    private List<LeaveRecord> leaveRecords; // in order of leave number
+    private int nextLeaveNumber;
     private int totalLeaves = 20; // Standard annual leaves
+    private transient EmployeeListener listener;
+    private transient long journalSequence; // last journal entry applied to this employee
     
     // Constructor
     public Employee(int id, String name, String email, String phoneNumber, 
@@ -120,10 +219,54 @@ abstract class Employee implements AttendanceTrackable, LeaveManageable, PaySlip
         this.address = address;
         this.bankAccount = bankAccount;
         
-        this.attendanceRecords = new ArrayList<>();
+        this.attendance = new AttendanceLedger();
         this.leaveRecords = new ArrayList<>();
     }
     
+    // employees.dat files from before the ledger keep attendance as a list
+    // of AttendanceRecords; it is replayed into a ledger here
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        id = fields.get("id", 0);
+        name = (String) fields.get("name", null);
+        email = (String) fields.get("email", null);
+        phoneNumber = (String) fields.get("phoneNumber", null);
+        hireDate = (LocalDate) fields.get("hireDate", null);
+        department = (String) fields.get("department", null);
+        position = (String) fields.get("position", null);
+        address = (String) fields.get("address", null);
+        bankAccount = (String) fields.get("bankAccount", null);
+        @SuppressWarnings("unchecked")
+        List<LeaveRecord> leaves = (List<LeaveRecord>) fields.get("leaveRecords", null);
+        leaveRecords = leaves != null ? leaves : new ArrayList<>();
+        if (fields.getObjectStreamClass().getField("nextLeaveNumber") != null) {
+            nextLeaveNumber = fields.get("nextLeaveNumber", 0);
+        } else {
+            // Leaves were known by position before they had numbers
+            for (int i = 0; i < leaveRecords.size(); i++) {
+                LeaveRecord old = leaveRecords.get(i);
+                LeaveRecord leave = new LeaveRecord(i, old.getStartDate(), old.getEndDate(), old.getReason());
+                leave.setApproved(old.isApproved());
+                leaveRecords.set(i, leave);
+            }
+            nextLeaveNumber = leaveRecords.size();
+        }
+        totalLeaves = fields.get("totalLeaves", 20);
+        attendance = (AttendanceLedger) fields.get("attendance", null);
+        if (attendance == null) {
+            attendance = new AttendanceLedger();
+            if (fields.getObjectStreamClass().getField("attendanceRecords") != null) {
+                @SuppressWarnings("unchecked")
+                List<AttendanceRecord> legacy = (List<AttendanceRecord>) fields.get("attendanceRecords", null);
+                if (legacy != null) {
+                    for (AttendanceRecord record : legacy) {
+                        attendance.mark(record.getDate(), record.isPresent(), record.getHoursWorked());
+                    }
+                }
+            }
+        }
+    }
+    
     // Getters with encapsulation
     public int getId() { return id; }
     public String getName() { return name; }
@@ -135,9 +278,38 @@ abstract class Employee implements AttendanceTrackable, LeaveManageable, PaySlip
     public String getAddress() { return address; }
     public String getBankAccount() { return bankAccount; }
     
+    // Set by the owning PayrollSystem
+    void setListener(EmployeeListener listener) { this.listener = listener; }
+    long getJournalSequence() { return journalSequence; }
+    void setJournalSequence(long journalSequence) { this.journalSequence = journalSequence; }
+    
+    // Used by EmployeeStore to hand over history that stays on disk until needed
+    void setAttendanceLedger(AttendanceLedger attendance) { this.attendance = attendance; }
+    AttendanceLedger getAttendanceLedger() { return attendance; }
+    void setHistoryCache(HistoryCache cache, ReentrantLock lock) { attendance.setCache(cache, lock); }
+    
+    protected void payChanged() {
+        if (listener != null) {
+            listener.payChanged(this);
+        }
+    }
+    
     // Setters
-    public void setDepartment(String department) { this.department = department; }
-    public void setPosition(String position) { this.position = position; }
+    public void setDepartment(String department) {
+        String previous = this.department;
+        this.department = department;
+        if (listener != null) {
+            listener.departmentChanged(this, previous);
+        }
+        payChanged(); // department totals move with the employee
+    }
+    public void setPosition(String position) {
+        String previous = this.position;
+        this.position = position;
+        if (listener != null) {
+            listener.positionChanged(this, previous);
+        }
+    }
     public void setAddress(String address) { this.address = address; }
     public void setBankAccount(String bankAccount) { this.bankAccount = bankAccount; }
     
@@ -148,42 +320,62 @@ abstract class Employee implements AttendanceTrackable, LeaveManageable, PaySlip
     }
     
     public void markAttendance(LocalDate date, boolean present, int hoursWorked) {
-        // Remove existing record for the date if any
-        attendanceRecords.removeIf(record -> record.getDate().equals(date));
-        attendanceRecords.add(new AttendanceRecord(date, present, hoursWorked));
+        // Replaces any existing record for the date
+        attendance.mark(date, present, hoursWorked);
+        payChanged();
     }
     
     @Override
     public int getAttendanceDays() {
-        return (int) attendanceRecords.stream()
-                .filter(AttendanceRecord::isPresent)
-                .count();
+        return attendance.getPresentDays();
     }
     
     @Override
     public int getAbsenceDays() {
-        return (int) attendanceRecords.stream()
-                .filter(record -> !record.isPresent())
-                .count();
+        return attendance.getAbsentDays();
     }
     
+    // Records in date order
     public List<AttendanceRecord> getAttendanceRecords() {
-        return new ArrayList<>(attendanceRecords);
+        return attendance.toRecords();
+    }
+    
+    public List<AttendanceRecord> getAttendanceRecords(int fromYear) {
+        return attendance.toRecords(fromYear, Integer.MAX_VALUE);
+    }
+    
+    public int getAttendanceRecordCount() {
+        return attendance.size();
     }
     
     public int getHoursWorkedInMonth(int month, int year) {
-        return attendanceRecords.stream()
-                .filter(record -> record.isPresent() && 
-                                 record.getDate().getMonthValue() == month && 
-                                 record.getDate().getYear() == year)
-                .mapToInt(AttendanceRecord::getHoursWorked)
-                .sum();
+        return attendance.getHoursInMonth(month, year);
     }
     
     // Leave management implementation
     @Override
     public void applyLeave(LocalDate startDate, LocalDate endDate, String reason) {
-        leaveRecords.add(new LeaveRecord(startDate, endDate, reason));
+        applyLeave(nextLeaveNumber, startDate, endDate, reason);
+    }
+    
+    // Adds a leave under a number it was given earlier, e.g. when read back
+    // from the store or the journal; numbers must be added in rising order
+    public void applyLeave(int number, LocalDate startDate, LocalDate endDate, String reason) {
+        LeaveRecord leave = new LeaveRecord(number, startDate, endDate, reason);
+        leaveRecords.add(leave);
+        nextLeaveNumber = Math.max(nextLeaveNumber, number + 1);
+        if (listener != null) {
+            listener.leaveApplied(this, leave);
+        }
+    }
+    
+    // The number the next leave applied for will get
+    public int getNextLeaveNumber() { return nextLeaveNumber; }
+    
+    // Keeps the numbers of rejected leaves from being handed out again
+    // after a reload
+    void setNextLeaveNumber(int number) {
+        nextLeaveNumber = Math.max(nextLeaveNumber, number);
     }
     
     @Override
@@ -200,93 +392,111 @@ abstract class Employee implements AttendanceTrackable, LeaveManageable, PaySlip
         return new ArrayList<>(leaveRecords);
     }
     
-    public void approveLeave(int index) {
-        if (index >= 0 && index < leaveRecords.size()) {
-            leaveRecords.get(index).setApproved(true);
+    public boolean hasLeave(int number) {
+        return positionOf(number) >= 0;
+    }
+    
+    public void approveLeave(int number) {
+        int position = positionOf(number);
+        if (position >= 0) {
+            LeaveRecord leave = leaveRecords.get(position);
+            leave.setApproved(true);
+            if (listener != null) {
+                listener.leaveApproved(this, leave);
+            }
         }
     }
     
-    public void rejectLeave(int index) {
-        if (index >= 0 && index < leaveRecords.size()) {
-            leaveRecords.remove(index);
+    // The other leaves keep their numbers
+    public void rejectLeave(int number) {
+        int position = positionOf(number);
+        if (position >= 0) {
+            LeaveRecord leave = leaveRecords.remove(position);
+            if (listener != null) {
+                listener.leaveRejected(this, leave);
+            }
         }
     }
     
-    // Pay slip generation
-    @Override
-    public void generatePaySlip(int month, int year) {
-        double grossSalary = calculateSalary();
+    private int positionOf(int number) {
+        int low = 0;
+        int high = leaveRecords.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midNumber = leaveRecords.get(mid).getNumber();
+            if (midNumber < number) {
+                low = mid + 1;
+            } else if (midNumber > number) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    
+    // Figures for one pay period, without printing or saving anything,
+    // under the rules in effect when the period starts
+    public PaySlip computePaySlip(int month, int year) {
+        return computePaySlip(month, year, PayrollRulebook.forPeriod(month, year));
+    }
+    
+    public PaySlip computePaySlip(int month, int year, PayrollRules rules) {
+        double grossSalary = calculateSalary(rules);
         double tax = 0;
         double bonus = 0;
-        double deductions = 0;
         double netSalary = grossSalary;
         
         // Calculate tax if applicable
         if (this instanceof Taxable) {
-            tax = ((Taxable) this).calculateTax();
+            tax = ((Taxable) this).calculateTax(rules);
             netSalary -= tax;
         }
         
         // Calculate bonus if applicable
         if (this instanceof BonusEligible) {
-            bonus = ((BonusEligible) this).calculateBonus();
+            bonus = ((BonusEligible) this).calculateBonus(rules);
             netSalary += bonus;
         }
         
         // Calculate other deductions (simplified)
-        double pfDeduction = grossSalary * 0.12; // 12% PF
-        deductions += pfDeduction;
+        double pfDeduction = grossSalary * rules.getPfRate(); // PF
         netSalary -= pfDeduction;
         
-        // Generate payslip
-        System.out.println("\n========== PAYSLIP ==========");
-        System.out.println("Employee ID: " + id);
-        System.out.println("Name: " + name);
-        System.out.println("Department: " + department);
-        System.out.println("Position: " + position);
-        System.out.println("Pay Period: " + month + "/" + year);
-        System.out.println("Bank Account: " + bankAccount);
-        System.out.println("-----------------------------");
-        System.out.println("Gross Salary: $" + String.format("%.2f", grossSalary));
-        System.out.println("Bonus: $" + String.format("%.2f", bonus));
-        System.out.println("Tax: $" + String.format("%.2f", tax));
-        System.out.println("PF Deduction: $" + String.format("%.2f", pfDeduction));
-        System.out.println("Other Deductions: $" + String.format("%.2f", 0.0));
-        System.out.println("Total Deductions: $" + String.format("%.2f", deductions + tax));
-        System.out.println("Net Salary: $" + String.format("%.2f", netSalary));
-        System.out.println("=============================\n");
+        return new PaySlip(id, name, department, position, bankAccount, month, year,
+                          grossSalary, bonus, tax, pfDeduction, netSalary);
+    }
+    
+    // Pay slip generation
+    @Override
+    public void generatePaySlip(int month, int year) {
+        // Rendered once and shared by the console and the file
+        TextBuffer text = PaySlipTemplate.DEFAULT.render(computePaySlip(month, year), 
+                                                         PaySlipTemplate.threadBuffer());
+        System.out.println();
+        System.out.append(text);
+        System.out.println();
         
         // Save to file
-        savePaySlipToFile(month, year, grossSalary, bonus, tax, deductions, netSalary);
+        savePaySlipToFile(month, year, text);
     }
     
-    private void savePaySlipToFile(int month, int year, double gross, double bonus, 
-                                  double tax, double deductions, double net) {
+    private void savePaySlipToFile(int month, int year, TextBuffer text) {
         String filename = "payslip_" + id + "_" + month + "_" + year + ".txt";
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            writer.println("========== PAYSLIP ==========");
-            writer.println("Employee ID: " + id);
-            writer.println("Name: " + name);
-            writer.println("Department: " + department);
-            writer.println("Position: " + position);
-            writer.println("Pay Period: " + month + "/" + year);
-            writer.println("Bank Account: " + bankAccount);
-            writer.println("-----------------------------");
-            writer.println("Gross Salary: $" + String.format("%.2f", gross));
-            writer.println("Bonus: $" + String.format("%.2f", bonus));
-            writer.println("Tax: $" + String.format("%.2f", tax));
-            writer.println("PF Deduction: $" + String.format("%.2f", deductions));
-            writer.println("Other Deductions: $" + String.format("%.2f", 0.0));
-            writer.println("Total Deductions: $" + String.format("%.2f", deductions + tax));
-            writer.println("Net Salary: $" + String.format("%.2f", net));
-            writer.println("=============================");
+        try (Writer writer = new BufferedWriter(new FileWriter(filename))) {
+            text.writeTo(writer);
         } catch (IOException e) {
             System.out.println("Error saving payslip to file: " + e.getMessage());
         }
     }
     
+    // Under the rules in effect today
+    public double calculateSalary() {
+        return calculateSalary(PayrollRulebook.current());
+    }
+    
     // Abstract method to be implemented by subclasses
-    public abstract double calculateSalary();
+    public abstract double calculateSalary(PayrollRules rules);
     
     public int getYearsOfService() {
         return Period.between(hireDate, LocalDate.now()).getYears();
@@ -304,6 +514,7 @@ abstract class Employee implements AttendanceTrackable, LeaveManageable, PaySlip
 
 // Full-time employee class
 class FullTimeEmployee extends Employee implements BonusEligible, Taxable {
+    private static final long serialVersionUID = -4906871252424049509L;
     private double monthlySalary;
     private int overtimeHours;
     private double overtimeRate;
@@ -317,35 +528,30 @@ class FullTimeEmployee extends Employee implements BonusEligible, Taxable {
         this.overtimeHours = 0;
     }
     
+    public double getMonthlySalary() { return monthlySalary; }
+    public double getOvertimeRate() { return overtimeRate; }
+    public int getOvertimeHours() { return overtimeHours; }
+    
     public void setOvertimeHours(int hours) {
         this.overtimeHours = hours;
+        payChanged();
     }
     
     @Override
-    public double calculateSalary() {
+    public double calculateSalary(PayrollRules rules) {
         return monthlySalary + (overtimeHours * overtimeRate);
     }
     
     @Override
-    public double calculateBonus() {
+    public double calculateBonus(PayrollRules rules) {
         // Bonus based on years of service
-        int years = getYearsOfService();
-        if (years < 1) return monthlySalary * 0.05; // 5% for less than 1 year
-        if (years < 3) return monthlySalary * 0.10; // 10% for 1-2 years
-        if (years < 5) return monthlySalary * 0.15; // 15% for 3-4 years
-        return monthlySalary * 0.20; // 20% for 5+ years
+        return monthlySalary * rules.bonusRate(getYearsOfService());
     }
     
     @Override
-    public double calculateTax() {
-        double annualSalary = monthlySalary * 12;
-        if (annualSalary <= 50000) {
-            return monthlySalary * 0.10; // 10% tax
-        } else if (annualSalary <= 100000) {
-            return monthlySalary * 0.15; // 15% tax
-        } else {
-            return monthlySalary * 0.20; // 20% tax
-        }
+    public double calculateTax(PayrollRules rules) {
+        // Bracket by annual salary
+        return rules.fullTimeTax(monthlySalary);
     }
     
     @Override
@@ -357,6 +563,7 @@ class FullTimeEmployee extends Employee implements BonusEligible, Taxable {
 
 // Part-time employee class
 class PartTimeEmployee extends Employee implements Taxable {
+    private static final long serialVersionUID = -5454226608565492080L;
     private double hourlyRate;
     private int hoursWorked;
     
@@ -368,23 +575,22 @@ class PartTimeEmployee extends Employee implements Taxable {
         this.hoursWorked = 0;
     }
     
+    public double getHourlyRate() { return hourlyRate; }
+    public int getHoursWorked() { return hoursWorked; }
+    
     public void setHoursWorked(int hours) {
         this.hoursWorked = hours;
+        payChanged();
     }
     
     @Override
-    public double calculateSalary() {
+    public double calculateSalary(PayrollRules rules) {
         return hourlyRate * hoursWorked;
     }
     
     @Override
-    public double calculateTax() {
-        double monthlyEarnings = calculateSalary();
-        if (monthlyEarnings <= 3000) {
-            return monthlyEarnings * 0.05; // 5% tax
-        } else {
-            return monthlyEarnings * 0.10; // 10% tax
-        }
+    public double calculateTax(PayrollRules rules) {
+        return rules.partTimeTax(calculateSalary(rules));
     }
     
     @Override
@@ -395,6 +601,7 @@ class PartTimeEmployee extends Employee implements Taxable {
 
 // Contractor employee class
 class Contractor extends Employee {
+    private static final long serialVersionUID = -3529240531015810390L;
     private double contractAmount;
     private int contractDuration; // in months
     
@@ -406,8 +613,11 @@ class Contractor extends Employee {
         this.contractDuration = contractDuration;
     }
     
+    public double getContractAmount() { return contractAmount; }
+    public int getContractDuration() { return contractDuration; }
+    
     @Override
-    public double calculateSalary() {
+    public double calculateSalary(PayrollRules rules) {
         return contractAmount / contractDuration;
     }
     
@@ -420,8 +630,11 @@ class Contractor extends Employee {
 
 // Manager class with additional benefits
 class Manager extends FullTimeEmployee {
+    private static final long serialVersionUID = 3002959746632848769L;
     private double allowance;
     private List<Employee> teamMembers;
+    // Ids of team members kept by another shard (see ShardCoordinator)
+    private transient Set<Integer> remoteTeamMembers;
     
     public Manager(int id, String name, String email, String phoneNumber, 
                   LocalDate hireDate, String department, String position, 
@@ -433,62 +646,443 @@ class Manager extends FullTimeEmployee {
         this.teamMembers = new ArrayList<>();
     }
     
+    public double getAllowance() { return allowance; }
+    
     public void addTeamMember(Employee employee) {
         teamMembers.add(employee);
+        payChanged(); // allowance per team member
     }
     
     public void removeTeamMember(int employeeId) {
-        teamMembers.removeIf(emp -> emp.getId() == employeeId);
+        if (teamMembers.removeIf(emp -> emp.getId() == employeeId)) {
+            payChanged();
+        }
     }
     
     public List<Employee> getTeamMembers() {
         return new ArrayList<>(teamMembers);
     }
     
+    public void addRemoteTeamMember(int employeeId) {
+        if (remoteTeamMembers == null) {
+            remoteTeamMembers = new TreeSet<>();
+        }
+        if (remoteTeamMembers.add(employeeId)) {
+            payChanged();
+        }
+    }
+    
+    public boolean removeRemoteTeamMember(int employeeId) {
+        if (remoteTeamMembers != null && remoteTeamMembers.remove(employeeId)) {
+            payChanged();
+            return true;
+        }
+        return false;
+    }
+    
+    public int[] getRemoteTeamMembers() {
+        return remoteTeamMembers == null ? new int[0]
+                : remoteTeamMembers.stream().mapToInt(Integer::intValue).toArray();
+    }
+    
+    public boolean hasRemoteTeamMember(int employeeId) {
+        return remoteTeamMembers != null && remoteTeamMembers.contains(employeeId);
+    }
+    
+    // Local and remote members alike
+    public int getTeamSize() {
+        return teamMembers.size() + (remoteTeamMembers == null ? 0 : remoteTeamMembers.size());
+    }
+    
+    public boolean hasTeamMember(int employeeId) {
+        for (Employee member : teamMembers) {
+            if (member.getId() == employeeId) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     @Override
-    public double calculateSalary() {
-        return super.calculateSalary() + allowance + (teamMembers.size() * 50); // $50 per team member
+    public double calculateSalary(PayrollRules rules) {
+        return super.calculateSalary(rules) + allowance + (getTeamSize() * rules.getTeamMemberAllowance());
     }
     
     @Override
-    public double calculateBonus() {
+    public double calculateBonus(PayrollRules rules) {
         // Managers get higher bonus
-        return super.calculateBonus() * 1.5;
+        return super.calculateBonus(rules) * rules.getManagerBonusFactor();
     }
     
     @Override
     public String toString() {
         return super.toString() + "\nRole: Manager\nAllowance: $" + allowance +
-               "\nTeam Size: " + teamMembers.size();
+               "\nTeam Size: " + getTeamSize();
     }
 }
 
-// Payroll system class with file persistence
+// Payroll system class with file persistence. Mutations are appended to a
+// journal; the full employee list is only rewritten as a periodic snapshot.
+//
+// Safe for concurrent use. Adding and removing employees takes the structure
+// lock exclusively; every other operation shares it and then locks only the
+// stripe of the employee it touches, so clerks working on different
+// employees do not wait for each other. Whole-store readers (reports, batch
+// payslips, snapshots) copy the employee list and visit each employee under
+// its stripe, so writers are only held up for one employee at a time.
+//
+// A replica (see replicaOf) is a read-only copy in another process that
+// follows the primary's journal, so reports can run there without
+// taking anything from clerks working on the primary.
 class PayrollSystem {
-    private List<Employee> employees;
-    private static final String DATA_FILE = "employees.dat";
+    private EmployeeIndex employees;
+    private final PayrollJournal journal;
+    private long snapshotSequence;
+    private final LockStripes stripes = new LockStripes(LOCK_STRIPES);
+    private final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private final PayrollEngine payrollEngine = new PayrollEngine(stripes);
+    private final OrgChart orgChart = new OrgChart();
+    private final PayrollCache payrollCache = new PayrollCache(payrollEngine, stripes, orgChart);
+    private final EmployeeAttributeIndex attributes = new EmployeeAttributeIndex();
+    private final LeaveIndex leaveIndex = new LeaveIndex();
+    private final HistoryCache historyCache = new HistoryCache(HISTORY_CACHE_MB << 20);
+    private final EmployeeListener events = new EmployeeListener() {
+        @Override
+        public void payChanged(Employee employee) {
+            payrollCache.payChanged(employee);
+        }
+        
+        @Override
+        public void departmentChanged(Employee employee, String previous) {
+            attributes.departmentChanged(employee, previous);
+            leaveIndex.departmentChanged(employee, previous);
+        }
+        
+        @Override
+        public void positionChanged(Employee employee, String previous) {
+            attributes.positionChanged(employee, previous);
+        }
+        
+        @Override
+        public void leaveApplied(Employee employee, LeaveRecord leave) {
+            leaveIndex.leaveApplied(employee, leave);
+        }
+        
+        @Override
+        public void leaveApproved(Employee employee, LeaveRecord leave) {
+            leaveIndex.leaveApproved(employee, leave);
+        }
+        
+        @Override
+        public void leaveRejected(Employee employee, LeaveRecord leave) {
+            leaveIndex.leaveRejected(employee, leave);
+        }
+    };
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final MetricsRegistry.Timer addTimer = metrics.timer("addEmployee");
+    private final MetricsRegistry.Timer removeTimer = metrics.timer("removeEmployee");
+    private final MetricsRegistry.Timer attendanceTimer = metrics.timer("markAttendance");
+    private final MetricsRegistry.Timer attendanceBatchTimer = metrics.timer("markAttendanceBatch");
+    private final MetricsRegistry.Timer leaveTimer = metrics.timer("applyForLeave");
+    private final MetricsRegistry.Timer approvalTimer = metrics.timer("approveLeave");
+    private final MetricsRegistry.Timer transferTimer = metrics.timer("transferEmployee");
+    private final MetricsRegistry.Timer assignTimer = metrics.timer("assignManager");
+    private final MetricsRegistry.Timer payslipTimer = metrics.timer("payslip");
+    private final MetricsRegistry.Timer payslipBatchTimer = metrics.timer("payslipBatch");
+    private final MetricsRegistry.Timer reportTimer = metrics.timer("payrollReport");
+    private final MetricsRegistry.Timer exportTimer = metrics.timer("payrollExport");
+    private final MetricsRegistry.Timer jobChunkTimer = metrics.timer("payrollJobChunk");
+    private final MetricsRegistry.Timer commitTimer = metrics.timer("journalCommit");
+    private final MetricsRegistry.Timer saveTimer = metrics.timer("saveEmployees");
+    private final MetricsRegistry.Timer loadTimer = metrics.timer("loadEmployees");
+    private final MetricsRegistry.Counter employeesAdded = metrics.counter("employeesAdded");
+    private final MetricsRegistry.Counter employeesRemoved = metrics.counter("employeesRemoved");
+    private final MetricsRegistry.Counter attendanceMarked = metrics.counter("attendanceMarked");
+    private final MetricsRegistry.Counter leavesApplied = metrics.counter("leavesApplied");
+    private final MetricsRegistry.Counter leavesApproved = metrics.counter("leavesApproved");
+    private final MetricsRegistry.Counter transfers = metrics.counter("transfers");
+    private final MetricsRegistry.Counter remoteTeamChanges = metrics.counter("remoteTeamChanges");
+    private final MetricsRegistry.Counter payrollRecomputed = metrics.counter("payrollRecomputed");
+    private final MetricsRegistry.Counter errors = metrics.counter("errors");
+    private final MetricsRegistry.Counter replicaEntries = metrics.counter("replicaEntriesApplied");
+    private final MetricsRegistry.Counter replicaResyncs = metrics.counter("replicaResyncs");
+    private final MetricsRegistry.Timer replicaPollTimer = metrics.timer("replicaPoll");
+    private final Path dataFile;
+    private final Path legacyDataFile;
+    private final AttendanceArchive archive;
+    // Attendance of years up to this one is archived or being archived and
+    // can no longer change
+    private volatile int attendanceClosedThrough = AttendanceArchive.NONE;
+    private final boolean replica;
+    private final Path journalFile;
+    private JournalTail tail; // replicas only; used by the tail thread
+    private volatile long tailSequence;
+    private volatile long caughtUpNanos; // start of the last poll that read the journal to its end
+    private ScheduledExecutorService tailRunner;
+    static final String DATA_FILE = "employees.bin";
+    private static final String LEGACY_DATA_FILE = "employees.dat"; // Java serialization, migrated on first load
+    private static final String JOURNAL_FILE = "employees.journal";
+    private static final int SNAPSHOT_INTERVAL = 1000; // minimum journal entries between snapshots
+    private static final int LOCK_STRIPES = 64;
+    // Attendance years loaded from the store on demand are kept up to this
+    // much heap; years that were changed since loading do not count
+    private static final long HISTORY_CACHE_MB = Long.getLong("payroll.historyCacheMB", 64);
+    // How often a replica looks for new journal entries
+    private static final long REPLICA_POLL_MILLIS = Long.getLong("payroll.replicaPollMillis", 20);
+    // Attendance beyond this is refused; the archive keeps hours in 7 bits
+    static final int MAX_HOURS_PER_DAY = 24;
+    
+    // One change to a single employee; returns the journal sequence of the
+    // entry that records it, or REFUSED if nothing was changed
+    private interface EmployeeUpdate {
+        long apply(Employee employee) throws IOException;
+    }
+    private static final long REFUSED = -1;
     
     public PayrollSystem() {
-        employees = new ArrayList<>();
+        this(Paths.get(""));
+    }
+    
+    // Keeps the store and journal files in the given directory
+    public PayrollSystem(Path dataDirectory) {
+        this(dataDirectory, false);
+    }
+    
+    private PayrollSystem(Path dataDirectory, boolean replica) {
+        this.replica = replica;
+        dataFile = dataDirectory.resolve(DATA_FILE);
+        legacyDataFile = dataDirectory.resolve(LEGACY_DATA_FILE);
+        journalFile = dataDirectory.resolve(JOURNAL_FILE);
+        employees = new EmployeeIndex();
+        journal = new PayrollJournal(journalFile);
+        archive = new AttendanceArchive(dataDirectory);
+        metrics.gauge("employees", this::getEmployeeCount);
+        if (replica) {
+            // Compared with the primary's journalSequence, the lag in entries
+            metrics.gauge("journalSequence", () -> tailSequence);
+            metrics.gauge("replicationLagMillis", this::getReplicationLagMillis);
+        } else {
+            metrics.gauge("journalEntries", journal::getEntryCount);
+            metrics.gauge("journalSequence", journal::getLastSequence);
+        }
+        metrics.gauge("snapshotSequence", () -> snapshotSequence);
+        metrics.gauge("historyCacheBytes", historyCache::getBytes);
+        metrics.gauge("historyCachePages", historyCache::getPageCount);
+        metrics.gauge("historyPageLoads", historyCache::getLoads);
+        metrics.gauge("historyPageEvictions", historyCache::getEvictions);
+        long start = loadTimer.start();
         loadEmployees();
+        loadTimer.stop(start);
     }
     
-    public void addEmployee(Employee employee) {
-        employees.add(employee);
-        saveEmployees();
+    // A read-only copy of the system whose primary keeps its files in the
+    // given directory. It starts from the primary's latest snapshot and
+    // then applies the primary's journal as it is committed, every
+    // REPLICA_POLL_MILLIS. Reads, reports, payslips and payroll jobs work
+    // as on the primary; changes are refused.
+    static PayrollSystem replicaOf(Path dataDirectory) {
+        PayrollSystem system = new PayrollSystem(dataDirectory, true);
+        system.tailRunner = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "journal-tail");
+            thread.setDaemon(true);
+            return thread;
+        });
+        system.tailRunner.scheduleWithFixedDelay(system::followJournal, REPLICA_POLL_MILLIS,
+                                                 REPLICA_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        return system;
     }
-    public void removeEmployee(int id) {
-        employees.removeIf(emp -> emp.getId() == id);
-        saveEmployees();
+    
+    public boolean isReplica() {
+        return replica;
     }
     
-    public Employee findEmployee(int id) {
-        for (Employee emp : employees) {
-            if (emp.getId() == id) {
-                return emp;
+    // On a replica: every change committed on the primary more than this
+    // long ago is visible here. 0 on the primary.
+    public long getReplicationLagMillis() {
+        return replica ? (System.nanoTime() - caughtUpNanos) / 1_000_000 : 0;
+    }
+    
+    // Replicas only take changes from the primary's journal
+    private boolean refuseOnReplica() {
+        if (replica) {
+            System.out.println("This is a read-only replica; make changes on the primary.");
+        }
+        return replica;
+    }
+    
+    public boolean addEmployee(Employee employee) {
+        if (refuseOnReplica()) {
+            return false;
+        }
+        long start = addTimer.start();
+        structure.writeLock().lock();
+        try {
+            if (hasArchivedAttendance(employee)) {
+                System.out.println("Employee with ID " + employee.getId() + " has attendance in archived years!");
+                return false;
+            }
+            if (employees.get(employee.getId()) != null) {
+                System.out.println("Employee with ID " + employee.getId() + " already exists!");
+                return false;
+            }
+            // Journaled first, so a failed write leaves nothing to undo
+            employee.setJournalSequence(journal.logEmployeeAdded(employee));
+            employees.add(employee);
+            track(employee);
+        } catch (IOException e) {
+            reportError("Error saving employee data", e);
+            return false;
+        } finally {
+            structure.writeLock().unlock();
+        }
+        if (!commitChanges()) {
+            return false;
+        }
+        employeesAdded.increment();
+        addTimer.stop(start);
+        return true;
+    }
+    // False if there is no such employee or the removal could not be saved
+    public boolean removeEmployee(int id) {
+        if (refuseOnReplica()) {
+            return false;
+        }
+        long start = removeTimer.start();
+        structure.writeLock().lock();
+        try {
+            Employee removed = employees.get(id);
+            if (removed == null) {
+                return false;
+            }
+            journal.logEmployeeRemoved(id);
+            leaveTeam(id);
+            employees.remove(id);
+            untrack(removed);
+        } catch (IOException e) {
+            reportError("Error saving employee data", e);
+            return false;
+        } finally {
+            structure.writeLock().unlock();
+        }
+        if (!commitChanges()) {
+            return false;
+        }
+        employeesRemoved.increment();
+        removeTimer.stop(start);
+        return true;
+    }
+    
+    // Bulk variants used by the importer: every change in the batch is
+    // journaled and then made durable with a single commit.
+    // accepted[i] is false for employees whose ID is already taken or that
+    // have attendance in archived years. If the journal cannot be written
+    // the rest of the batch is not applied; what was journaled before it is
+    // still committed. If the commit itself fails, no employee is reported
+    // accepted.
+    public boolean[] addEmployees(List<Employee> batch) {
+        boolean[] accepted = new boolean[batch.size()];
+        if (refuseOnReplica()) {
+            return accepted;
+        }
+        int added = 0;
+        structure.writeLock().lock();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Employee employee = batch.get(i);
+                if (!hasArchivedAttendance(employee) && employees.get(employee.getId()) == null) {
+                    employee.setJournalSequence(journal.logEmployeeAdded(employee));
+                    employees.add(employee);
+                    track(employee);
+                    accepted[i] = true;
+                    added++;
+                }
+            }
+        } catch (IOException e) {
+            reportError("Error saving employee data", e);
+        } finally {
+            structure.writeLock().unlock();
+        }
+        if (!commitChanges()) {
+            return new boolean[batch.size()];
+        }
+        employeesAdded.add(added);
+        return accepted;
+    }
+    
+    // applied[i] is false when employee ids[i] does not exist, the date is
+    // in an archived year or the hours are not 0-24; as with addEmployees, a
+    // failed journal write stops the batch there and a failed commit leaves
+    // every entry false
+    public boolean[] markAttendance(int[] ids, AttendanceRecord[] records, int count) {
+        long start = attendanceBatchTimer.start();
+        boolean[] applied = new boolean[count];
+        if (refuseOnReplica()) {
+            return applied;
+        }
+        int marked = 0;
+        structure.readLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                Employee emp = employees.get(ids[i]);
+                if (emp != null && isValidHours(records[i].getHoursWorked())
+                        && !isAttendanceArchived(records[i].getDate())) {
+                    AttendanceRecord record = records[i];
+                    ReentrantLock lock = stripes.forId(ids[i]);
+                    lock.lock();
+                    try {
+                        emp.setJournalSequence(journal.logAttendance(ids[i], record.getDate(),
+                                record.isPresent(), record.getHoursWorked()));
+                        emp.markAttendance(record.getDate(), record.isPresent(), record.getHoursWorked());
+                    } finally {
+                        lock.unlock();
+                    }
+                    applied[i] = true;
+                    marked++;
+                }
             }
+        } catch (IOException e) {
+            reportError("Error saving employee data", e);
+        } finally {
+            structure.readLock().unlock();
+        }
+        if (!commitChanges()) {
+            return new boolean[count];
+        }
+        attendanceMarked.add(marked);
+        attendanceBatchTimer.stop(start);
+        return applied;
+    }
+    
+    public Employee findEmployee(int id) {
+        structure.readLock().lock();
+        try {
+            return employees.get(id);
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+    
+    public int getEmployeeCount() {
+        structure.readLock().lock();
+        try {
+            return employees.size();
+        } finally {
+            structure.readLock().unlock();
         }
-        return null;
+    }
+    
+    // Lock guarding the mutable state of one employee
+    ReentrantLock lockFor(int id) {
+        return stripes.forId(id);
+    }
+    
+    PayrollCache getPayrollCache() {
+        return payrollCache;
+    }
+    
+    MetricsRegistry getMetrics() {
+        return metrics;
     }
     
     public void generatePaySlipForEmployee(int id, int month, int year) {
@@ -497,128 +1091,1198 @@ class PayrollSystem {
             System.out.println("Employee not found!");
             return;
         }
-        
-        emp.generatePaySlip(month, year);
+    
+        long start = payslipTimer.start();
+        ReentrantLock lock = stripes.forId(id);
+        lock.lock();
+        try {
+            emp.generatePaySlip(month, year);
+        } finally {
+            lock.unlock();
+        }
+        payslipTimer.stop(start);
+    }
+    
+    // Figures for one employee taken under its stripe, or null if there is
+    // no such employee
+    public PaySlip computePaySlip(int id, int month, int year) {
+        return computePaySlip(id, month, year, PayrollRulebook.forPeriod(month, year));
+    }
+    
+    private PaySlip computePaySlip(int id, int month, int year, PayrollRules rules) {
+        Employee emp = findEmployee(id);
+        if (emp == null) {
+            return null;
+        }
+        long start = payslipTimer.start();
+        ReentrantLock lock = stripes.forId(id);
+        lock.lock();
+        try {
+            return emp.computePaySlip(month, year, rules);
+        } finally {
+            lock.unlock();
+            payslipTimer.stop(start);
+        }
+    }
+    
+    // Month-end payroll jobs by period, and the thread that runs them one
+    // at a time
+    private final Map<String, PayrollJob> payrollJobs = new ConcurrentHashMap<>();
+    private final ExecutorService jobRunner = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "payroll-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // Starts the month-end payroll in the background, or resumes it if an
+    // earlier run left a checkpoint in payroll_<month>_<year>/. Returns the
+    // job already running for the period if there is one.
+    public PayrollJob startPayrollJob(int month, int year) {
+        return startPayrollJob(Paths.get("payroll_" + month + "_" + year), month, year, PayrollJob.DEFAULT_CHUNK_SIZE);
+    }
+    
+    PayrollJob startPayrollJob(Path directory, int month, int year, int chunkSize) {
+        return payrollJobs.compute(month + "/" + year, (period, running) -> {
+            if (running != null && running.isActive()) {
+                return running;
+            }
+            // One version of the rules for the whole run, whatever is
+            // installed while it goes
+            PayrollRules rules = PayrollRulebook.forPeriod(month, year);
+            PayrollJob job = new PayrollJob(directory, month, year, chunkSize,
+                                            id -> computePaySlip(id, month, year, rules), jobChunkTimer);
+            jobRunner.execute(() -> {
+                try {
+                    job.run(employeeIds());
+                } catch (IOException e) {
+                    reportError("Error running payroll job for " + period, e);
+                } catch (RuntimeException e) {
+                    errors.increment();
+                    System.out.println("Error running payroll job for " + period + ": " + e);
+                }
+            });
+            return job;
+        });
+    }
+    
+    // The latest job for the period in this process, or null
+    public PayrollJob getPayrollJob(int month, int year) {
+        return payrollJobs.get(month + "/" + year);
+    }
+    
+    public Collection<PayrollJob> getPayrollJobs() {
+        return new ArrayList<>(payrollJobs.values());
+    }
+    
+    private int[] employeeIds() {
+        Employee[] current = employeeArray();
+        int[] ids = new int[current.length];
+        for (int i = 0; i < current.length; i++) {
+            ids[i] = current[i].getId();
+        }
+        return ids;
+    }
+    
+    // Payslips for every employee; output goes to payslips_<month>_<year>/
+    public void generateAllPaySlips(int month, int year, PaySlipBatch.Output output) {
+        generateAllPaySlips(Paths.get("payslips_" + month + "_" + year), month, year, output);
+    }
+    
+    void generateAllPaySlips(Path directory, int month, int year, PaySlipBatch.Output output) {
+        PaySlipBatch batch = new PaySlipBatch(directory, month, year,
+                                              Runtime.getRuntime().availableProcessors(), stripes);
+        long start = payslipBatchTimer.start();
+        try {
+            PaySlipBatch.Result result = batch.run(Arrays.asList(employeeArray()), output);
+            System.out.println(result);
+            if (output == PaySlipBatch.Output.ARCHIVE) {
+                System.out.println("Bundle: " + batch.getArchivePath() + " (index: " + batch.getIndexPath() + ")");
+            }
+        } catch (IOException e) {
+            reportError("Error generating payslips", e);
+        }
+        payslipBatchTimer.stop(start);
     }
     
     public void displayAllEmployees() {
-        if (employees.isEmpty()) {
+        Employee[] current = employeeArray();
+        if (current.length == 0) {
             System.out.println("No employees in the system.");
             return;
         }
-        
+    
         System.out.println("\n======== ALL EMPLOYEES ========");
-        for (Employee emp : employees) {
-            System.out.println(emp);
+        for (Employee emp : current) {
+            String text;
+            ReentrantLock lock = stripes.forId(emp.getId());
+            lock.lock();
+            try {
+                text = emp.toString();
+            } finally {
+                lock.unlock();
+            }
+            System.out.println(text);
             System.out.println("-----------------------------");
         }
     }
     
-    public void markAttendance(int id, LocalDate date, boolean present, int hours) {
-        Employee emp = findEmployee(id);
-        if (emp != null) {
+    // The single-employee updates return false when the employee does not
+    // exist and leave reporting to the caller, so they can be shared by the
+    // menu and the service
+    // False if there is no such employee, the date is in an archived year or
+    // hours is not 0-24
+    public boolean markAttendance(int id, LocalDate date, boolean present, int hours) {
+        return update(id, attendanceTimer, attendanceMarked, emp -> {
+            if (!isValidHours(hours) || isAttendanceArchived(date)) {
+                return REFUSED;
+            }
+            long sequence = journal.logAttendance(id, date, present, hours);
             emp.markAttendance(date, present, hours);
-            saveEmployees();
-        } else {
-            System.out.println("Employee not found!");
-        }
+            return sequence;
+        });
     }
     
-    public void applyForLeave(int id, LocalDate start, LocalDate end, String reason) {
-        Employee emp = findEmployee(id);
-        if (emp != null) {
-            emp.applyLeave(start, end, reason);
-            saveEmployees();
-            System.out.println("Leave application submitted successfully!");
-        } else {
-            System.out.println("Employee not found!");
-        }
+    static boolean isValidHours(int hours) {
+        return hours >= 0 && hours <= MAX_HOURS_PER_DAY;
     }
     
-    public void processLeaveApplications() {
-        System.out.println("\n=== PENDING LEAVE APPLICATIONS ===");
-        int count = 0;
-        for (Employee emp : employees) {
-            List<LeaveRecord> leaves = emp.getLeaveHistory();
-            for (int i = 0; i < leaves.size(); i++) {
-                LeaveRecord leave = leaves.get(i);
-                if (!leave.isApproved()) {
-                    System.out.println("Employee: " + emp.getName() + " (ID: " + emp.getId() + ")");
-                    System.out.println("Application #" + (count + 1) + ": " + leave);
-                    count++;
-                }
+    public boolean applyForLeave(int id, LocalDate start, LocalDate end, String reason) {
+        return update(id, leaveTimer, leavesApplied, emp -> {
+            int number = emp.getNextLeaveNumber();
+            long sequence = journal.logLeaveApplied(id, number, start, end, reason);
+            emp.applyLeave(number, start, end, reason);
+            return sequence;
+        });
+    }
+    
+    // Moves an employee to another department and/or position; a null
+    // argument leaves that attribute as it is
+    public boolean transferEmployee(int id, String department, String position) {
+        return update(id, transferTimer, transfers, emp -> {
+            long sequence = journal.logTransfer(id, department != null ? department : emp.getDepartment(),
+                                               position != null ? position : emp.getPosition());
+            if (department != null) {
+                emp.setDepartment(department);
             }
-        }
-        
-        if (count == 0) {
-            System.out.println("No pending leave applications.");
-            return;
-        }
+            if (position != null) {
+                emp.setPosition(position);
+            }
+            return sequence;
+        });
     }
     
-    public void approveLeave(int empId, int leaveIndex) {
-        Employee emp = findEmployee(empId);
-        if (emp != null) {
-            emp.approveLeave(leaveIndex);
-            saveEmployees();
-            System.out.println("Leave approved successfully!");
-        } else {
-            System.out.println("Employee not found!");
+    // Makes managerId the employee's manager, or removes their manager if it
+    // is OrgChart.NONE. The employee leaves the old manager's team and joins
+    // the new one's, taking everyone below them along in the org chart.
+    // Returns false if either employee is missing, managerId is not a
+    // Manager, or the employee would end up reporting to themselves.
+    public boolean assignManager(int employeeId, int managerId) {
+        if (refuseOnReplica()) {
+            return false;
+        }
+        long start = assignTimer.start();
+        structure.writeLock().lock();
+        try {
+            Employee emp = employees.get(employeeId);
+            if (emp == null || (managerId != OrgChart.NONE && !(employees.get(managerId) instanceof Manager))
+                    || orgChart.wouldCycle(employeeId, managerId)) {
+                return false;
+            }
+            int previousManagerId = orgChart.getManagerId(employeeId);
+            moveBetweenTeams(journal.logManagerAssigned(employeeId, previousManagerId, managerId),
+                             emp, previousManagerId, managerId);
+        } catch (IOException e) {
+            reportError("Error saving employee data", e);
+            return false;
+        } finally {
+            structure.writeLock().unlock();
         }
+        if (!commitChanges()) {
+            return false;
+        }
+        assignTimer.stop(start);
+        return true;
     }
     
-    public void generatePayrollReport(int month, int year) {
-        System.out.println("\n=== PAYROLL REPORT FOR " + month + "/" + year + " ===");
-        double totalSalary = 0;
-        double totalTax = 0;
-        double totalBonus = 0;
-        
-        for (Employee emp : employees) {
-            double salary = emp.calculateSalary();
-            double tax = 0;
-            double bonus = 0;
-            
-            if (emp instanceof Taxable) {
-                tax = ((Taxable) emp).calculateTax();
+    // When this system is one shard of several (see ShardCoordinator), a
+    // manager's team can include employees kept by another shard. Those are
+    // known here only by id: they count towards the manager's pay but not
+    // towards the local org chart. Returns false if managerId is not a
+    // Manager here or employeeId is a local employee, whose team is set
+    // with assignManager.
+    public boolean setRemoteTeamMember(int managerId, int employeeId, boolean member) {
+        return update(managerId, assignTimer, remoteTeamChanges, emp -> {
+            if (!(emp instanceof Manager) || employees.get(employeeId) != null) {
+                return REFUSED;
             }
-            
-            if (emp instanceof BonusEligible) {
-                bonus = ((BonusEligible) emp).calculateBonus();
+            long sequence = journal.logRemoteTeamMember(managerId, employeeId, member);
+            if (member) {
+                ((Manager) emp).addRemoteTeamMember(employeeId);
+            } else {
+                ((Manager) emp).removeRemoteTeamMember(employeeId);
             }
-            
-            totalSalary += salary;
-            totalTax += tax;
-            totalBonus += bonus;
-            
-            System.out.println(emp.getName() + ": Salary=$" + String.format("%.2f", salary) + 
-                              ", Tax=$" + String.format("%.2f", tax) + 
-                              ", Bonus=$" + String.format("%.2f", bonus));
-        }
-        
-        System.out.println("-----------------------------------");
-        System.out.println("TOTAL: Salary=$" + String.format("%.2f", totalSalary) + 
-                          ", Tax=$" + String.format("%.2f", totalTax) + 
-                          ", Bonus=$" + String.format("%.2f", totalBonus));
-        System.out.println("Net Payout: $" + String.format("%.2f", totalSalary + totalBonus - totalTax));
+            return sequence;
+        });
     }
     
-    @SuppressWarnings("unchecked")
-    private void loadEmployees() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
-            employees = (List<Employee>) ois.readObject();
-            System.out.println("Employee data loaded successfully.");
-        } catch (FileNotFoundException e) {
-            System.out.println("No previous data found. Starting fresh.");
-        } catch (IOException | ClassNotFoundException e) {
-            System.out.println("Error loading employee data: " + e.getMessage());
+    // The local manager whose team has employeeId as a remote member, or
+    // OrgChart.NONE
+    public int getRemoteManager(int employeeId) {
+        for (Employee emp : employeeArray()) {
+            if (emp instanceof Manager) {
+                ReentrantLock lock = stripes.forId(emp.getId());
+                lock.lock();
+                try {
+                    if (((Manager) emp).hasRemoteTeamMember(employeeId)) {
+                        return emp.getId();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
         }
+        return OrgChart.NONE;
     }
     
+    // Remote team members of the employee and of every local manager below
+    // them; their own orgs are on other shards. Null if there is no such
+    // employee.
+    public int[] getRemoteReports(int id) {
+        if (findEmployee(id) == null) {
+            return null;
+        }
+        List<Integer> remote = new ArrayList<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(id);
+        while (!pending.isEmpty()) {
+            int next = pending.pop();
+            Employee emp = findEmployee(next);
+            if (emp instanceof Manager) {
+                ReentrantLock lock = stripes.forId(next);
+                lock.lock();
+                try {
+                    for (int member : ((Manager) emp).getRemoteTeamMembers()) {
+                        remote.add(member);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            for (int report : orgChart.getDirectReports(next)) {
+                pending.push(report);
+            }
+        }
+        return remote.stream().mapToInt(Integer::intValue).toArray();
+    }
+    
+    // Headcount, salary, tax and bonus of the employee and everyone who
+    // reports to them, directly or not; null if there is no such employee
+    public PayrollCache.Totals getOrgTotals(int id) {
+        payrollCache.refresh();
+        return orgChart.getOrgTotals(id);
+    }
+    
+    OrgChart getOrgChart() {
+        return orgChart;
+    }
+    
+    // Employees matching every criterion of the query. Candidates come from
+    // the most selective index that applies (the smaller of the department
+    // and position sets, or the hire date range if it is smaller still) and
+    // are copied under the lock; the stream filters them lazily afterwards.
+    public Stream<Employee> findEmployees(EmployeeQuery query) {
+        LocalDate today = LocalDate.now();
+        LocalDate earliest = query.earliestHire(today);
+        LocalDate latest = query.latestHire(today);
+        Employee[] candidates;
+        structure.readLock().lock();
+        try {
+            Collection<Employee> best = null;
+            if (query.getDepartment() != null) {
+                best = attributes.inDepartment(query.getDepartment());
+            }
+            if (query.getPosition() != null) {
+                Collection<Employee> holders = attributes.inPosition(query.getPosition());
+                if (best == null || holders.size() < best.size()) {
+                    best = holders;
+                }
+            }
+            if (query.hasHireRange()) {
+                Collection<Employee> hired = attributes.hiredBetween(earliest, latest);
+                if (best == null || smallerThan(hired, best.size())) {
+                    best = hired;
+                }
+            }
+            candidates = (best != null ? best : employees.values()).toArray(new Employee[0]);
+        } finally {
+            structure.readLock().unlock();
+        }
+        return Arrays.stream(candidates).filter(emp -> query.matches(emp, earliest, latest));
+    }
+    
+    // Salary, tax and bonus of the matching employees by department, from
+    // the cached per-employee figures. Queries on nothing but department are
+    // answered from the maintained department totals without visiting
+    // any employee. Employees without a department are counted under the
+    // null key, which sorts first.
+    public Map<String, PayrollCache.Totals> getTotals(EmployeeQuery query) {
+        payrollCache.refresh();
+        if (query.getPosition() == null && !query.hasHireRange()) {
+            Map<String, PayrollCache.Totals> all = payrollCache.getDepartmentTotals();
+            if (query.getDepartment() == null) {
+                Map<String, PayrollCache.Totals> departments = new TreeMap<>(DEPARTMENT_ORDER);
+                departments.putAll(all);
+                return departments;
+            }
+            PayrollCache.Totals totals = all.get(query.getDepartment());
+            return totals == null ? Collections.emptyMap() : Collections.singletonMap(query.getDepartment(), totals);
+        }
+        Map<String, PayrollCache.Totals> totals = new TreeMap<>(DEPARTMENT_ORDER);
+        findEmployees(query).forEach(emp -> {
+            PayrollCache.Entry entry = payrollCache.get(emp.getId());
+            if (entry != null && entry.isComputed()) {
+                totals.computeIfAbsent(entry.getDepartment(), d -> new PayrollCache.Totals()).add(entry);
+            }
+        });
+        return totals;
+    }
+    
+    // Walks at most limit elements of a range view whose size() is linear
+    private static boolean smallerThan(Collection<Employee> range, int limit) {
+        int count = 0;
+        for (Iterator<Employee> it = range.iterator(); it.hasNext(); it.next()) {
+            if (++count >= limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Lists the pending queue, earliest start first, without visiting
+    // employees that have nothing pending
+    public void processLeaveApplications() {
+        System.out.println("\n=== PENDING LEAVE APPLICATIONS ===");
+        int count = 0;
+        for (LeaveIndex.PendingLeave waiting : leaveIndex.getPending(Integer.MAX_VALUE)) {
+            Employee emp = findEmployee(waiting.getEmployeeId());
+            if (emp == null) {
+                continue;
+            }
+            System.out.println("Employee: " + emp.getName() + " (ID: " + emp.getId() + ")");
+            System.out.println("Application #" + (count + 1) + " (leave " + waiting.getId() + "): " + waiting.getLeave());
+            count++;
+        }
+    
+        if (count == 0) {
+            System.out.println("No pending leave applications.");
+            return;
+        }
+    }
+    
+    // Pending applications, earliest start first
+    public List<LeaveIndex.PendingLeave> getPendingLeaves(int limit) {
+        return leaveIndex.getPending(limit);
+    }
+    
+    // Approves a leave by the id shown in the pending list
+    public boolean approveLeave(long leaveId) {
+        return approveLeave(LeaveIndex.employeeOf(leaveId), LeaveIndex.numberOf(leaveId));
+    }
+    
+    // Ids of the employee's leaves, approved or pending, that share a day
+    // with [start, end]
+    public long[] getOverlappingLeaves(int id, LocalDate start, LocalDate end) {
+        return leaveIndex.overlapping(id, start, end);
+    }
+    
+    // Employees on approved leave on the day; a null department means all
+    public int[] getEmployeesOnLeave(String department, LocalDate date) {
+        return leaveIndex.out(department, date);
+    }
+    
+    // Ids of the department's approved leaves that share a day with [from, to]
+    public long[] getDepartmentAbsences(String department, LocalDate from, LocalDate to) {
+        return leaveIndex.absences(department, from, to);
+    }
+    
+    // Approves the employee's leave with the given number (see
+    // LeaveRecord.getNumber); false if there is no such employee or leave
+    public boolean approveLeave(int empId, int leaveNumber) {
+        return update(empId, approvalTimer, leavesApproved, emp -> {
+            if (!emp.hasLeave(leaveNumber)) {
+                return REFUSED;
+            }
+            long sequence = journal.logLeaveApproved(empId, leaveNumber);
+            emp.approveLeave(leaveNumber);
+            return sequence;
+        });
+    }
+    
+    // Every employee's gross, tax, bonus, PF and net in cents as of today,
+    // computed afresh by the columnar kernel; totals are exact
+    public PayrollKernel.Result computePayrollCents() {
+        return payrollEngine.runColumnar(Arrays.asList(employeeArray()), LocalDate.now());
+    }
+    
+    // Only employees changed since the last report are recomputed; the
+    // figures are brought up to date first and printed afterwards. A period
+    // under other rules than today's is computed in full with its own.
+    public void generatePayrollReport(int month, int year) {
+        long start = reportTimer.start();
+        int recomputed = payrollCache.refresh();
+        Employee[] current = employeeArray();
+        PayrollRun run = periodRun(month, year, current);
+        if (run != null) {
+            recomputed = current.length;
+        }
+        long elapsed = System.nanoTime() - start;
+        payrollRecomputed.add(recomputed);
+    
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        try {
+            writePayrollReport(month, year, current, run, new TextReportSink(out));
+        } catch (IOException e) {
+            reportError("Error writing payroll report", e);
+        }
+        out.println("Recomputed " + recomputed + " of " + current.length + " employees in " +
+                   String.format("%.1f", elapsed / 1e6) + " ms");
+        out.flush();
+        reportTimer.stop(start);
+    }
+    
+    // Writes the report to a file for other programs: CSV if the name ends
+    // in .csv, otherwise the compact columnar format (see
+    // ColumnarReportSink). Rows are computed on this thread while a writer
+    // thread puts them on disk, so memory stays bounded whatever the
+    // headcount. The file is complete or not there at all. As with
+    // generatePayrollReport, the figures are under the period's rules.
+    public boolean exportPayrollReport(int month, int year, Path file) {
+        long start = exportTimer.start();
+        int recomputed = payrollCache.refresh();
+        Employee[] current = employeeArray();
+        PayrollRun run = periodRun(month, year, current);
+        payrollRecomputed.add(run != null ? current.length : recomputed);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (ReportSink sink = ReportSink.forFile(file.getFileName().toString(), Files.newOutputStream(temp))) {
+                writePayrollReport(month, year, current, run, sink);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            reportError("Error exporting payroll report", e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // already reported
+            }
+            return false;
+        }
+        exportTimer.stop(start);
+        return true;
+    }
+    
+    // Employees without a department are totalled under null, listed first
+    private static final Comparator<String> DEPARTMENT_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+    
+    // The cache holds figures under today's rules. For a period under other
+    // rules the employees are computed afresh with those; null when the
+    // cache will do.
+    private PayrollRun periodRun(int month, int year, Employee[] current) {
+        PayrollRules rules = PayrollRulebook.forPeriod(month, year);
+        return rules == payrollCache.getRules() ? null : payrollEngine.run(Arrays.asList(current), rules);
+    }
+    
+    // The figures for the given employees, then the department and company
+    // totals: from run if there is one, otherwise from the refreshed cache
+    private void writePayrollReport(int month, int year, Employee[] current, PayrollRun run,
+                                    ReportSink sink) throws IOException {
+        sink.begin(month, year);
+        if (run != null) {
+            Map<String, PayrollCache.Totals> departments = new TreeMap<>(DEPARTMENT_ORDER);
+            PayrollCache.Totals company = new PayrollCache.Totals();
+            for (int i = 0; i < current.length; i++) {
+                Employee emp = current[i];
+                sink.employee(emp.getId(), emp.getName(), emp.getDepartment(),
+                              run.getSalary(i), run.getTax(i), run.getBonus(i));
+                departments.computeIfAbsent(emp.getDepartment(), d -> new PayrollCache.Totals())
+                           .add(run.getSalary(i), run.getTax(i), run.getBonus(i), 1);
+                company.add(run.getSalary(i), run.getTax(i), run.getBonus(i), 1);
+            }
+            for (Map.Entry<String, PayrollCache.Totals> dept : departments.entrySet()) {
+                sink.department(dept.getKey(), dept.getValue());
+            }
+            sink.company(company);
+            return;
+        }
+        for (Employee emp : current) {
+            PayrollCache.Entry entry = payrollCache.get(emp.getId());
+            if (entry == null) {
+                continue; // removed since the copy was taken
+            }
+            sink.employee(emp.getId(), emp.getName(), emp.getDepartment(),
+                          entry.getSalary(), entry.getTax(), entry.getBonus());
+        }
+        Map<String, PayrollCache.Totals> departments = new TreeMap<>(DEPARTMENT_ORDER);
+        departments.putAll(payrollCache.getDepartmentTotals());
+        for (Map.Entry<String, PayrollCache.Totals> dept : departments.entrySet()) {
+            sink.department(dept.getKey(), dept.getValue());
+        }
+        sink.company(payrollCache.getCompanyTotals());
+    }
+    
+    // Writes a snapshot and empties the journal, e.g. before shutting down;
+    // a replica has nothing of its own to write
+    public void checkpoint() {
+        if (!replica) {
+            saveEmployees();
+        }
+    }
+    
+    // Stops payroll jobs after their current chunk, so they can be resumed,
+    // and releases the journal; the system must not be used afterwards
+    public void close() {
+        if (tailRunner != null) {
+            tailRunner.shutdown();
+            try {
+                tailRunner.awaitTermination(1, TimeUnit.MINUTES);
+                tail.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                reportError("Error closing journal", e);
+            }
+        }
+        for (PayrollJob job : payrollJobs.values()) {
+            job.stop();
+        }
+        jobRunner.shutdown();
+        try {
+            jobRunner.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            reportError("Error closing journal", e);
+        }
+    }
+    
+    // Applies one change under the employee's stripe and stamps the employee
+    // with the sequence of its journal entry. Returns false if there is no
+    // such employee, the update refused or its journal entry could not be
+    // written or committed; updates journal the change before making it, so
+    // a failed write leaves the employee as it was. A failed commit keeps the
+    // entry staged for the next one to retry. The timer covers the whole call
+    // including the commit; the counter is shared with the batch variants.
+    private boolean update(int id, MetricsRegistry.Timer timer, MetricsRegistry.Counter applied,
+                           EmployeeUpdate update) {
+        if (refuseOnReplica()) {
+            return false;
+        }
+        long start = timer.start();
+        structure.readLock().lock();
+        try {
+            Employee emp = employees.get(id);
+            if (emp == null) {
+                return false;
+            }
+            ReentrantLock lock = stripes.forId(id);
+            lock.lock();
+            try {
+                long sequence = update.apply(emp);
+                if (sequence == REFUSED) {
+                    return false;
+                }
+                emp.setJournalSequence(sequence);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            reportError("Error saving employee data", e);
+            return false;
+        } finally {
+            structure.readLock().unlock();
+        }
+        if (!commitChanges()) {
+            return false;
+        }
+        applied.increment();
+        timer.stop(start);
+        return true;
+    }
+    
+    // Errors are still printed for the console user, and counted so they
+    // show up in the metrics
+    private void reportError(String message, IOException e) {
+        errors.increment();
+        System.out.println(message + ": " + e.getMessage());
+    }
+    
+    // The current employees, copied so callers can iterate without the lock
+    private Employee[] employeeArray() {
+        structure.readLock().lock();
+        try {
+            return employees.values().toArray(new Employee[0]);
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+    
+    // Routes the employee's change notifications into the payroll cache and
+    // the secondary indexes; called with the structure write lock held
+    private void track(Employee employee) {
+        employee.setListener(events);
+        employee.setHistoryCache(historyCache, stripes.forId(employee.getId()));
+        payrollCache.employeeAdded(employee);
+        attributes.add(employee);
+        leaveIndex.add(employee);
+        orgChart.add(employee.getId());
+        if (employee instanceof Manager) {
+            linkTeam((Manager) employee);
+        }
+    }
+    
+    private void untrack(Employee employee) {
+        employee.setListener(null);
+        employee.setHistoryCache(null, null);
+        payrollCache.employeeRemoved(employee);
+        attributes.remove(employee);
+        leaveIndex.remove(employee);
+        orgChart.remove(employee.getId());
+    }
+    
+    // Puts the manager's team under them in the org chart; members that are
+    // not in the system (yet) are skipped
+    private void linkTeam(Manager manager) {
+        for (Employee member : manager.getTeamMembers()) {
+            orgChart.setManager(member.getId(), manager.getId());
+        }
+    }
+    
+    // Takes an employee who is being removed off their manager's team, so
+    // the manager is no longer paid for them; a reload would drop them
+    // from the team anyway
+    private void leaveTeam(int id) {
+        Employee manager = employees.get(orgChart.getManagerId(id));
+        if (manager instanceof Manager) {
+            ReentrantLock lock = stripes.forId(manager.getId());
+            lock.lock();
+            try {
+                ((Manager) manager).removeTeamMember(id);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    // Moves the employee from one manager's team to the other's and the org
+    // chart with it. Shared with journal replay, which skips managers whose
+    // snapshot copy already has the change.
+    private void moveBetweenTeams(long sequence, Employee emp, int previousManagerId, int managerId) {
+        Employee previous = employees.get(previousManagerId);
+        if (previous instanceof Manager && previous.getJournalSequence() < sequence) {
+            ReentrantLock lock = stripes.forId(previousManagerId);
+            lock.lock();
+            try {
+                ((Manager) previous).removeTeamMember(emp.getId());
+                previous.setJournalSequence(sequence);
+            } finally {
+                lock.unlock();
+            }
+        }
+        Employee manager = employees.get(managerId);
+        if (manager instanceof Manager && manager.getJournalSequence() < sequence) {
+            ReentrantLock lock = stripes.forId(managerId);
+            lock.lock();
+            try {
+                if (!((Manager) manager).hasTeamMember(emp.getId())) {
+                    ((Manager) manager).addTeamMember(emp);
+                }
+                manager.setJournalSequence(sequence);
+            } finally {
+                lock.unlock();
+            }
+        }
+        orgChart.setManager(emp.getId(), manager instanceof Manager ? managerId : OrgChart.NONE);
+    }
+    
+    // Concurrent callers share one fsync; see PayrollJournal.commit. False
+    // if the staged changes could not be made durable.
+    private boolean commitChanges() {
+        long start = commitTimer.start();
+        try {
+            journal.commit();
+        } catch (IOException e) {
+            reportError("Error saving employee data", e);
+            return false;
+        }
+        commitTimer.stop(start);
+        // Snapshot cost grows with headcount, so the journal is allowed to
+        // grow as large as the store before it is compacted. Only one thread
+        // takes the snapshot; the others carry on.
+        if (journal.getEntryCount() >= Math.max(SNAPSHOT_INTERVAL, getEmployeeCount()) && snapshotLock.tryLock()) {
+            try {
+                saveEmployees();
+            } finally {
+                snapshotLock.unlock();
+            }
+        }
+        return true;
+    }
+    
+    private void loadEmployees() {
+        loadSnapshot();
+        if (replica) {
+            tail = new JournalTail(journalFile, snapshotSequence, new LiveReplay(), this::findEmployee);
+            followJournal();
+            if (tailSequence > snapshotSequence) {
+                System.out.println("Replayed " + (tailSequence - snapshotSequence) + " journal entries.");
+            }
+            return;
+        }
+        try {
+            journal.open(snapshotSequence, new JournalReplay(), this::findEmployee);
+            if (journal.getLastSequence() > snapshotSequence) {
+                System.out.println("Replayed " + (journal.getLastSequence() - snapshotSequence) +
+                                  " journal entries.");
+            }
+        } catch (IOException e) {
+            reportError("Error replaying journal", e);
+        }
+    }
+    
+    // Reads the archive index and the store into an empty system
+    private void loadSnapshot() {
+        try {
+            archive.open();
+            attendanceClosedThrough = archive.getArchivedThrough();
+        } catch (IOException e) {
+            reportError("Error opening attendance archive", e);
+        }
+        try {
+            EmployeeStore.Snapshot snapshot = null;
+            if (Files.exists(dataFile)) {
+                // Attendance stays in the mapped file until a year is used
+                snapshot = EmployeeStore.read(dataFile, true);
+            } else if (replica && Files.exists(legacyDataFile)) {
+                throw new IllegalStateException("Start the primary once to migrate " + LEGACY_DATA_FILE +
+                                                " before starting a replica");
+            } else if (Files.exists(legacyDataFile)) {
+                snapshot = EmployeeStore.migrate(legacyDataFile, dataFile);
+                System.out.println("Migrated " + LEGACY_DATA_FILE + " to " + DATA_FILE + ".");
+            } else {
+                System.out.println("No previous data found. Starting fresh.");
+            }
+    
+            if (snapshot != null) {
+                employees = new EmployeeIndex(snapshot.employees.size());
+                for (Employee emp : snapshot.employees) {
+                    if (archive.getArchivedThrough() != AttendanceArchive.NONE) {
+                        emp.getAttendanceLedger().attachArchive(archive, emp.getId());
+                    }
+                    if (employees.add(emp)) {
+                        track(emp);
+                    } else {
+                        System.out.println("Skipping duplicate employee ID " + emp.getId() + " in saved data.");
+                    }
+                }
+                // Managers may come before their reports in the store
+                for (Employee emp : employees) {
+                    if (emp instanceof Manager) {
+                        linkTeam((Manager) emp);
+                    }
+                }
+                snapshotSequence = snapshot.sequence;
+                System.out.println("Employee data loaded successfully.");
+            }
+        } catch (IOException e) {
+            reportError("Error loading employee data", e);
+        }
+    }
+    
+    // Replicas: applies what the primary committed since the last poll. If
+    // entries are missing, because the primary compacted them away while
+    // this replica was behind, it starts over from the primary's latest
+    // snapshot.
+    private void followJournal() {
+        long start = replicaPollTimer.start();
+        try {
+            replicaEntries.add(tail.poll());
+            tailSequence = tail.getLastSequence();
+            caughtUpNanos = start;
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Replica fell behind the primary's journal (" + e.getMessage() +
+                               "); reloading from the latest snapshot.");
+            resync();
+        } catch (RuntimeException e) {
+            // Keeps the scheduled task alive; the lag metric shows it is stuck
+            errors.increment();
+            System.out.println("Error following journal: " + e);
+        }
+        replicaPollTimer.stop(start);
+    }
+    
+    // Readers wait while the replica reloads, rather than see it half done
+    private void resync() {
+        replicaResyncs.increment();
+        structure.writeLock().lock();
+        try {
+            try {
+                tail.close();
+            } catch (IOException e) {
+                reportError("Error closing journal", e);
+            }
+            for (Employee emp : employees) {
+                untrack(emp);
+            }
+            employees = new EmployeeIndex();
+            snapshotSequence = 0;
+            loadSnapshot();
+            tail = new JournalTail(journalFile, snapshotSequence, new LiveReplay(), this::findEmployee);
+            tailSequence = snapshotSequence;
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+    
+    // Fuzzy snapshot: the journal moves to a new segment first, then each
+    // employee is encoded under its own stripe while updates continue. A copy
+    // may already include entries from the new segment; the sequence stamped
+    // on each employee tells replay which of those to skip. EmployeeStore
+    // writes to a temporary file and renames it over the old one, so a crash
+    // mid-write leaves the previous snapshot and its segments intact.
     private void saveEmployees() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-            oos.writeObject(employees);
+        snapshotLock.lock();
+        long start = saveTimer.start();
+        try {
+            long sequence = journal.rotate();
+            Employee[] current = employeeArray();
+            // Archived years live in the archive's segments, not the store
+            int through = archive.getArchivedThrough();
+            int fromYear = through == AttendanceArchive.NONE ? Integer.MIN_VALUE : through + 1;
+            byte[][] encoded = new byte[current.length][];
+            long[] stamps = new long[current.length];
+            EmployeeStore.Plan plan = new EmployeeStore.Plan();
+            for (int i = 0; i < current.length; i++) {
+                ReentrantLock lock = stripes.forId(current[i].getId());
+                lock.lock();
+                try {
+                    encoded[i] = EmployeeCodec.encode(current[i], fromYear);
+                    stamps[i] = current[i].getJournalSequence();
+                } finally {
+                    lock.unlock();
+                }
+                EmployeeCodec.plan(encoded[i], plan);
+            }
+            // Copies are kept encoded and decoded one at a time as the store
+            // is written, so a snapshot does not double the heap; the store
+            // is laid out from the encoded bytes, so each is decoded once
+            Iterable<Employee> copies = () -> new Iterator<Employee>() {
+                private int next;
+                
+                @Override
+                public boolean hasNext() {
+                    return next < encoded.length;
+                }
+                
+                @Override
+                public Employee next() {
+                    Employee copy = EmployeeCodec.decode(encoded[next], PayrollSystem.this::findEmployee);
+                    copy.setJournalSequence(stamps[next++]);
+                    return copy;
+                }
+            };
+            EmployeeStore.write(dataFile, copies, plan, sequence);
+            snapshotSequence = sequence;
+            journal.deleteRetiredSegments();
+        } catch (IOException e) {
+            reportError("Error saving employee data", e);
+        } finally {
+            saveTimer.stop(start);
+            snapshotLock.unlock();
+        }
+    }
+    
+    public boolean isAttendanceArchived(LocalDate date) {
+        return date.getYear() <= attendanceClosedThrough;
+    }
+    
+    // Attendance of an archived year could only be kept by the archive
+    private boolean hasArchivedAttendance(Employee employee) {
+        return employee.getAttendanceLedger().getFirstYear() <= attendanceClosedThrough;
+    }
+    
+    // Moves the attendance of every year up to throughYear out of the store
+    // into compressed per-year segments (see AttendanceArchive), then takes
+    // a snapshot without them. Only closed years can be archived, and
+    // their attendance can no longer be marked. Reads of archived years go
+    // to the one segment that has them. Returns false if there was nothing
+    // new to archive or writing failed.
+    public boolean archiveAttendance(int throughYear) {
+        if (throughYear >= LocalDate.now().getYear()) {
+            throw new IllegalArgumentException("Only years before " + LocalDate.now().getYear() + " can be archived");
+        }
+        if (refuseOnReplica()) {
+            return false;
+        }
+        snapshotLock.lock();
+        try {
+            int previous = archive.getArchivedThrough();
+            // Updates that passed the check before the years closed hold
+            // the read lock; once they are through, the years are frozen
+            attendanceClosedThrough = Math.max(previous, throughYear);
+            structure.writeLock().lock();
+            structure.writeLock().unlock();
+            
+            Employee[] current = employeeArray();
+            Arrays.sort(current, Comparator.comparingInt(Employee::getId));
+            int from = previous == AttendanceArchive.NONE ? Integer.MAX_VALUE : previous + 1;
+            if (previous == AttendanceArchive.NONE) {
+                for (Employee emp : current) {
+                    ReentrantLock lock = stripes.forId(emp.getId());
+                    lock.lock();
+                    try {
+                        from = Math.min(from, emp.getAttendanceLedger().getFirstYear());
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+            if (from > throughYear) {
+                attendanceClosedThrough = previous;
+                return false;
+            }
+            
+            SortedMap<Integer, int[]> totals = new TreeMap<>();
+            for (Employee emp : current) {
+                int[] archived = archive.getTotals(emp.getId());
+                if (archived != null) {
+                    totals.put(emp.getId(), archived);
+                }
+            }
+            int first = archive.getFirstYear();
+            for (int year = from; year <= throughYear; year++) {
+                try (AttendanceArchive.SegmentWriter segment = archive.newSegment(year)) {
+                    for (Employee emp : current) {
+                        List<AttendanceRecord> records;
+                        ReentrantLock lock = stripes.forId(emp.getId());
+                        lock.lock();
+                        try {
+                            records = emp.getAttendanceLedger().toRecords(year, year);
+                        } finally {
+                            lock.unlock();
+                        }
+                        if (records.isEmpty()) {
+                            continue;
+                        }
+                        segment.add(emp.getId(), records);
+                        int[] counts = totals.computeIfAbsent(emp.getId(), id -> new int[3]);
+                        for (AttendanceRecord record : records) {
+                            counts[0]++;
+                            counts[record.isPresent() ? 1 : 2]++;
+                        }
+                        first = first == AttendanceArchive.NONE ? year : Math.min(first, year);
+                    }
+                    segment.finish();
+                }
+            }
+            archive.commit(throughYear, first == AttendanceArchive.NONE ? from : first, totals);
+            
+            for (Employee emp : current) {
+                ReentrantLock lock = stripes.forId(emp.getId());
+                lock.lock();
+                try {
+                    emp.getAttendanceLedger().archived(archive, emp.getId());
+                } finally {
+                    lock.unlock();
+                }
+            }
+            saveEmployees();
+            return true;
         } catch (IOException e) {
-            System.out.println("Error saving employee data: " + e.getMessage());
+            attendanceClosedThrough = archive.getArchivedThrough();
+            reportError("Error archiving attendance", e);
+            return false;
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+    
+    // Re-applies journal entries without logging them again. Entries already
+    // reflected in an employee's snapshot copy are skipped.
+    private class JournalReplay implements PayrollJournal.Handler {
+        @Override
+        public void employeeAdded(long sequence, Employee employee) {
+            Employee previous = employees.get(employee.getId());
+            int managerId = OrgChart.NONE;
+            if (previous != null) {
+                if (previous.getJournalSequence() >= sequence) {
+                    return;
+                }
+                managerId = orgChart.getManagerId(employee.getId());
+                employees.remove(employee.getId());
+                untrack(previous);
+            }
+            employee.setJournalSequence(sequence);
+            employees.add(employee);
+            track(employee);
+            orgChart.setManager(employee.getId(), managerId);
+        }
+    
+        @Override
+        public void employeeRemoved(long sequence, int id) {
+            Employee existing = target(sequence, id);
+            if (existing != null) {
+                leaveTeam(id);
+                employees.remove(id);
+                untrack(existing);
+            }
+        }
+    
+        @Override
+        public void attendanceMarked(long sequence, int id, LocalDate date, boolean present, int hours) {
+            Employee emp = target(sequence, id);
+            if (emp != null) {
+                emp.markAttendance(date, present, hours);
+                emp.setJournalSequence(sequence);
+            }
+        }
+    
+        @Override
+        public void leaveApplied(long sequence, int id, int number, LocalDate start, LocalDate end, String reason) {
+            Employee emp = target(sequence, id);
+            if (emp != null) {
+                if (number < 0) {
+                    emp.applyLeave(start, end, reason);
+                } else {
+                    emp.applyLeave(number, start, end, reason);
+                }
+                emp.setJournalSequence(sequence);
+            }
+        }
+    
+        @Override
+        public void leaveApproved(long sequence, int id, int number) {
+            Employee emp = target(sequence, id);
+            if (emp != null) {
+                emp.approveLeave(number);
+                emp.setJournalSequence(sequence);
+            }
+        }
+    
+        @Override
+        public void employeeTransferred(long sequence, int id, String department, String position) {
+            Employee emp = target(sequence, id);
+            if (emp != null) {
+                emp.setDepartment(department);
+                emp.setPosition(position);
+                emp.setJournalSequence(sequence);
+            }
+        }
+    
+        @Override
+        public void managerAssigned(long sequence, int id, int previousManagerId, int managerId) {
+            Employee emp = employees.get(id);
+            if (emp != null) {
+                moveBetweenTeams(sequence, emp, previousManagerId, managerId);
+            }
+        }
+    
+        @Override
+        public void remoteTeamMemberChanged(long sequence, int managerId, int employeeId, boolean member) {
+            Employee emp = target(sequence, managerId);
+            if (emp instanceof Manager) {
+                if (member) {
+                    ((Manager) emp).addRemoteTeamMember(employeeId);
+                } else {
+                    ((Manager) emp).removeRemoteTeamMember(employeeId);
+                }
+                emp.setJournalSequence(sequence);
+            }
+        }
+    
+        // The employee an entry applies to, or null if it is gone or the
+        // entry is already part of its state
+        private Employee target(long sequence, int id) {
+            Employee emp = employees.get(id);
+            return emp == null || emp.getJournalSequence() >= sequence ? null : emp;
+        }
+    }
+    
+    // Replays the primary's entries on a replica while readers are about,
+    // taking the locks the primary took to make the same change
+    private class LiveReplay implements PayrollJournal.Handler {
+        private final JournalReplay replay = new JournalReplay();
+    
+        @Override
+        public void employeeAdded(long sequence, Employee employee) {
+            structure.writeLock().lock();
+            try {
+                replay.employeeAdded(sequence, employee);
+            } finally {
+                structure.writeLock().unlock();
+            }
+        }
+    
+        @Override
+        public void employeeRemoved(long sequence, int id) {
+            structure.writeLock().lock();
+            try {
+                replay.employeeRemoved(sequence, id);
+            } finally {
+                structure.writeLock().unlock();
+            }
+        }
+    
+        @Override
+        public void attendanceMarked(long sequence, int id, LocalDate date, boolean present, int hours) {
+            onEmployee(id, () -> replay.attendanceMarked(sequence, id, date, present, hours));
+        }
+    
+        @Override
+        public void leaveApplied(long sequence, int id, int number, LocalDate start, LocalDate end, String reason) {
+            onEmployee(id, () -> replay.leaveApplied(sequence, id, number, start, end, reason));
+        }
+    
+        @Override
+        public void leaveApproved(long sequence, int id, int number) {
+            onEmployee(id, () -> replay.leaveApproved(sequence, id, number));
+        }
+    
+        @Override
+        public void employeeTransferred(long sequence, int id, String department, String position) {
+            onEmployee(id, () -> replay.employeeTransferred(sequence, id, department, position));
+        }
+    
+        @Override
+        public void managerAssigned(long sequence, int id, int previousManagerId, int managerId) {
+            structure.writeLock().lock();
+            try {
+                replay.managerAssigned(sequence, id, previousManagerId, managerId);
+            } finally {
+                structure.writeLock().unlock();
+            }
+        }
+    
+        @Override
+        public void remoteTeamMemberChanged(long sequence, int managerId, int employeeId, boolean member) {
+            onEmployee(managerId, () -> replay.remoteTeamMemberChanged(sequence, managerId, employeeId, member));
+        }
+    
+        private void onEmployee(int id, Runnable change) {
+            structure.readLock().lock();
+            try {
+                ReentrantLock lock = stripes.forId(id);
+                lock.lock();
+                try {
+                    change.run();
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                structure.readLock().unlock();
+            }
         }
     }
 }
@@ -651,9 +2315,98 @@ public class EnhancedEmployeePayrollSystem {
         
         return date;
     }
+    // Serves PayrollSystem over HTTP until the process is stopped; the
+    // shutdown hook writes a final snapshot like menu option 10 does.
+    // With a metrics file the metrics are also written there every minute.
+    private static void serve(int port, String metricsFile) {
+        serve(new PayrollSystem(), new java.net.InetSocketAddress(port), metricsFile);
+    }
+    
+    private static void serve(PayrollSystem payrollSystem, java.net.InetSocketAddress address, String metricsFile) {
+        registerMetrics(payrollSystem);
+        if (metricsFile != null) {
+            payrollSystem.getMetrics().startDump(Paths.get(metricsFile), 60);
+        }
+        try {
+            PayrollServer server = new PayrollServer(payrollSystem, address);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                payrollSystem.checkpoint();
+                payrollSystem.close();
+            }));
+            System.out.println("Payroll service listening on port " + server.getPort() +
+                               (PayrollServer.hasVirtualThreads() ? " (virtual threads)" : ""));
+        } catch (IOException e) {
+            System.out.println("Error starting payroll service: " + e.getMessage());
+        }
+    }
+    
+    // Metrics are published over JMX as payroll:type=PayrollSystem
+    private static void registerMetrics(PayrollSystem payrollSystem) {
+        try {
+            payrollSystem.getMetrics().registerMBean("payroll:type=PayrollSystem");
+        } catch (javax.management.JMException e) {
+            System.out.println("Error registering metrics: " + e.getMessage());
+        }
+    }
+    
     public static void main(String[] args) {
+        // Headless mode: java EnhancedEmployeePayrollSystem --serve [port] [metrics file]
+        if (args.length > 0 && args[0].equals("--serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : 8080, args.length > 2 ? args[2] : null);
+            return;
+        }
+        // Shard worker, started by ShardCoordinator.launchLocal:
+        // java EnhancedEmployeePayrollSystem --worker port dataDirectory
+        if (args.length > 2 && args[0].equals("--worker")) {
+            serve(new PayrollSystem(Paths.get(args[2])),
+                  new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), Integer.parseInt(args[1])), null);
+            return;
+        }
+        // Read replica of a primary that keeps its files in dataDirectory,
+        // serving reports and reads:
+        // java EnhancedEmployeePayrollSystem --replica port dataDirectory [metrics file]
+        if (args.length > 2 && args[0].equals("--replica")) {
+            serve(PayrollSystem.replicaOf(Paths.get(args[2])), new java.net.InetSocketAddress(Integer.parseInt(args[1])),
+                  args.length > 3 ? args[3] : null);
+            return;
+        }
+        // Month-end: java EnhancedEmployeePayrollSystem --payroll month year
+        // Run it again after a crash to carry on where it stopped
+        if (args.length > 2 && args[0].equals("--payroll")) {
+            PayrollSystem payrollSystem = new PayrollSystem();
+            runPayrollJob(payrollSystem, Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            payrollSystem.close();
+            return;
+        }
+        // Payroll report for other programs, CSV or columnar by file name:
+        // java EnhancedEmployeePayrollSystem --export month year file
+        if (args.length > 3 && args[0].equals("--export")) {
+            PayrollSystem payrollSystem = new PayrollSystem();
+            Path file = Paths.get(args[3]);
+            if (payrollSystem.exportPayrollReport(Integer.parseInt(args[1]), Integer.parseInt(args[2]), file)) {
+                System.out.println("Payroll report written to " + file + ".");
+            }
+            payrollSystem.close();
+            return;
+        }
+        // Year-end: java EnhancedEmployeePayrollSystem --archive [through year, default last year]
+        if (args.length > 0 && args[0].equals("--archive")) {
+            PayrollSystem payrollSystem = new PayrollSystem();
+            int through = args.length > 1 ? Integer.parseInt(args[1]) : LocalDate.now().getYear() - 1;
+            if (payrollSystem.archiveAttendance(through)) {
+                System.out.println("Attendance archived through " + through + ".");
+            } else {
+                System.out.println("No attendance to archive through " + through + ".");
+            }
+            payrollSystem.close();
+            return;
+        }
+        
         Scanner scanner = new Scanner(System.in);
         PayrollSystem payrollSystem = new PayrollSystem();
+        registerMetrics(payrollSystem);
         
         // Adding sample employees if none exist
         if (payrollSystem.findEmployee(1) == null) {
@@ -690,7 +2443,10 @@ public class EnhancedEmployeePayrollSystem {
             System.out.println("5. Apply for Leave");
             System.out.println("6. Process Leave Applications");
             System.out.println("7. Generate Payroll Report");
-            System.out.println("8. Exit");
+            System.out.println("8. Generate All Payslips");
+            System.out.println("9. Import Employees/Attendance from File");
+            System.out.println("10. Run Month-End Payroll Job");
+            System.out.println("11. Exit");
             System.out.print("Enter your choice: ");
             choice = scanner.nextInt();
             
@@ -735,14 +2491,38 @@ public class EnhancedEmployeePayrollSystem {
                     break;
                     
                 case 8:
+                    System.out.print("Enter Month (1-12): ");
+                    int slipMonth = scanner.nextInt();
+                    System.out.print("Enter Year: ");
+                    int slipYear = scanner.nextInt();
+                    System.out.print("Output (1 = separate files, 2 = single bundle): ");
+                    int output = scanner.nextInt();
+                    payrollSystem.generateAllPaySlips(slipMonth, slipYear, 
+                            output == 2 ? PaySlipBatch.Output.ARCHIVE : PaySlipBatch.Output.FILES);
+                    break;
+                    
+                case 9:
+                    importFromFile(scanner, payrollSystem);
+                    break;
+                    
+                case 10:
+                    System.out.print("Enter Month (1-12): ");
+                    int jobMonth = scanner.nextInt();
+                    System.out.print("Enter Year: ");
+                    int jobYear = scanner.nextInt();
+                    runPayrollJob(payrollSystem, jobMonth, jobYear);
+                    break;
+                    
+                case 11:
                     System.out.println("Exiting...");
                     break;
                     
                 default:
                     System.out.println("Invalid choice. Please try again.");
             }
-        } while (choice != 8);
+        } while (choice != 11);
         
+        payrollSystem.checkpoint();
         scanner.close();
     }
     
@@ -809,21 +2589,22 @@ while (!validDate) {
         System.out.println("Please enter a valid date in YYYY-MM-DD format (e.g., 2025-10-02).");
     }
 }
+        Employee employee;
         switch (type) {
             case 1:
                 System.out.print("Enter Monthly Salary: ");
                 double salary = scanner.nextDouble();
                 System.out.print("Enter Overtime Rate: ");
                 double overtimeRate = scanner.nextDouble();
-                payrollSystem.addEmployee(new FullTimeEmployee(id, name, email, phone, hireDate, 
-                        department, position, address, bankAccount, salary, overtimeRate));
+                employee = new FullTimeEmployee(id, name, email, phone, hireDate, 
+                        department, position, address, bankAccount, salary, overtimeRate);
                 break;
                 
             case 2:
                 System.out.print("Enter Hourly Rate: ");
                 double hourlyRate = scanner.nextDouble();
-                payrollSystem.addEmployee(new PartTimeEmployee(id, name, email, phone, hireDate, 
-                        department, position, address, bankAccount, hourlyRate));
+                employee = new PartTimeEmployee(id, name, email, phone, hireDate, 
+                        department, position, address, bankAccount, hourlyRate);
                 break;
                 
             case 3:
@@ -831,8 +2612,8 @@ while (!validDate) {
                 double contractAmount = scanner.nextDouble();
                 System.out.print("Enter Contract Duration (months): ");
                 int duration = scanner.nextInt();
-                payrollSystem.addEmployee(new Contractor(id, name, email, phone, hireDate, 
-                        department, position, address, bankAccount, contractAmount, duration));
+                employee = new Contractor(id, name, email, phone, hireDate, 
+                        department, position, address, bankAccount, contractAmount, duration);
                 break;
                 
             case 4:
@@ -842,15 +2623,70 @@ while (!validDate) {
                 double mgrOvertimeRate = scanner.nextDouble();
                 System.out.print("Enter Allowance: ");
                 double allowance = scanner.nextDouble();
-                payrollSystem.addEmployee(new Manager(id, name, email, phone, hireDate, 
-                        department, position, address, bankAccount, mgrSalary, mgrOvertimeRate, allowance));
+                employee = new Manager(id, name, email, phone, hireDate, 
+                        department, position, address, bankAccount, mgrSalary, mgrOvertimeRate, allowance);
                 break;
                 
             default:
                 System.out.println("Invalid employee type.");
+                return;
         }
         
-        System.out.println("Employee added successfully!");
+        // addEmployee explains any refusal itself
+        if (payrollSystem.addEmployee(employee)) {
+            System.out.println("Employee added successfully!");
+        }
+    }
+    
+    // Starts or resumes the job and reports each chunk until it ends
+    private static void runPayrollJob(PayrollSystem payrollSystem, int month, int year) {
+        PayrollJob job = payrollSystem.startPayrollJob(month, year);
+        int reported = 0;
+        PayrollJob.Status status;
+        do {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            status = job.getStatus();
+            if (reported == 0 && status.getResumedAt() > 0) {
+                System.out.println("Resuming at chunk " + (status.getResumedAt() + 1) + " of " + status.getChunkCount());
+            }
+            for (PayrollJob.Chunk chunk : status.getChunks().subList(Math.min(reported, status.getChunksDone()), status.getChunksDone())) {
+                if (chunk.getIndex() >= status.getResumedAt()) {
+                    System.out.println("Chunk " + (chunk.getIndex() + 1) + "/" + status.getChunkCount() + ": " +
+                                       chunk.getGenerated() + " payslips in " +
+                                       String.format("%.1f", chunk.getElapsedNanos() / 1e6) + " ms");
+                }
+            }
+            reported = status.getChunksDone();
+        } while (status.isActive());
+        System.out.println(status);
+        if (status.getState() == PayrollJob.State.COMPLETED) {
+            System.out.println("Payslips and register: " + job.getDirectory());
+        }
+    }
+    
+    private static void importFromFile(Scanner scanner, PayrollSystem payrollSystem) {
+        System.out.println("Select Import Type:");
+        System.out.println("1. New Employees");
+        System.out.println("2. Attendance Punches");
+        System.out.print("Enter choice: ");
+        int type = scanner.nextInt();
+        scanner.nextLine(); // Consume newline
+        
+        System.out.print("Enter file path (.csv or .jsonl): ");
+        String path = scanner.nextLine().trim();
+        
+        try {
+            BulkImporter.Report report = new BulkImporter(payrollSystem).importFile(Paths.get(path), 
+                    type == 2 ? BulkImporter.Kind.ATTENDANCE : BulkImporter.Kind.EMPLOYEES);
+            System.out.println(report);
+        } catch (IOException e) {
+            System.out.println("Error importing file: " + e.getMessage());
+        }
     }
     
     private static void markAttendance(Scanner scanner, PayrollSystem payrollSystem) {
@@ -886,7 +2722,7 @@ while (!validDate) {
                 try {
                     hours = scanner.nextInt();
                     scanner.nextLine(); // Consume newline
-                    if (hours >= 0 && hours <= 24) {
+                    if (PayrollSystem.isValidHours(hours)) {
                         validHours = true;
                     } else {
                         System.out.println("Invalid hours. Please enter a value between 0 and 24.");
@@ -898,8 +2734,13 @@ while (!validDate) {
             }
         }
         
-        payrollSystem.markAttendance(id, date, present, hours);
-        System.out.println("Attendance marked successfully!");
+        if (payrollSystem.isAttendanceArchived(date)) {
+            System.out.println("Attendance for " + date.getYear() + " is archived and can no longer be changed.");
+        } else if (payrollSystem.markAttendance(id, date, present, hours)) {
+            System.out.println("Attendance marked successfully!");
+        } else {
+            System.out.println("Employee not found!");
+        }
     }
     
     private static void applyForLeave(Scanner scanner, PayrollSystem payrollSystem) {
@@ -925,6 +2766,14 @@ while (!validDate) {
         System.out.print("Enter Reason: ");
         String reason = scanner.nextLine();
         
-        payrollSystem.applyForLeave(id, startDate, endDate, reason);
+        int overlapping = payrollSystem.getOverlappingLeaves(id, startDate, endDate).length;
+        if (payrollSystem.applyForLeave(id, startDate, endDate, reason)) {
+            System.out.println("Leave application submitted successfully!");
+            if (overlapping > 0) {
+                System.out.println("Note: it overlaps " + overlapping + " earlier leave application(s).");
+            }
+        } else {
+            System.out.println("Employee not found!");
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,67 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded, size-aware cache of history pages that were loaded on demand
+// from the store (see AttendanceLedger). Each page is admitted with its
+// size in bytes; once the total is over the budget, the least recently
+// used pages are asked to drop themselves. A page whose owner is busy, or
+// that was changed in the meantime, declines and stays, so the budget can
+// be overshot briefly rather than making anyone wait.
+//
+// Pages are admitted and touched by threads holding the owner's stripe;
+// eviction only ever tries other stripes, so the cache's monitor never
+// waits on one.
+class HistoryCache {
+    interface Page {
+        // Drops the page from its owner; false if it has to stay
+        boolean evict();
+    }
+
+    private final long budget;
+    private final LinkedHashMap<Page, Long> pages = new LinkedHashMap<>(1024, 0.75f, true);
+    private long bytes;
+    private long loads;
+    private long evictions;
+
+    public HistoryCache(long budgetBytes) {
+        this.budget = budgetBytes;
+    }
+
+    public synchronized void admit(Page page, long size) {
+        Long previous = pages.put(page, size);
+        bytes += size - (previous == null ? 0 : previous);
+        loads++;
+        if (bytes <= budget) {
+            return;
+        }
+        Iterator<Map.Entry<Page, Long>> oldest = pages.entrySet().iterator();
+        while (bytes > budget && oldest.hasNext()) {
+            Map.Entry<Page, Long> entry = oldest.next();
+            if (entry.getKey() != page && entry.getKey().evict()) {
+                bytes -= entry.getValue();
+                evictions++;
+                oldest.remove();
+            }
+        }
+    }
+
+    // Marks the page as recently used
+    public synchronized void touch(Page page) {
+        pages.get(page);
+    }
+
+    // The page is no longer the cache's to drop, e.g. it was changed
+    public synchronized void release(Page page) {
+        Long size = pages.remove(page);
+        if (size != null) {
+            bytes -= size;
+        }
+    }
+
+    public synchronized long getBytes() { return bytes; }
+    public synchronized int getPageCount() { return pages.size(); }
+    public synchronized long getLoads() { return loads; }
+    public synchronized long getEvictions() { return evictions; }
+    public long getBudget() { return budget; }
+}
@@ -0,0 +1,171 @@
+// Closed intervals of days with a long id each, kept in a treap ordered by
+// start and then id. Every node also records the latest end in its subtree,
+// so overlap and stabbing queries skip whole subtrees that end too early or
+// start too late: O(log n + k) for k results. Priorities are derived from
+// the ids, so the shape does not depend on a random seed. Not thread-safe.
+class IntervalTree {
+    // Receives each interval a query finds
+    interface Visitor {
+        void visit(int start, int end, long id);
+    }
+
+    private static final class Node {
+        final int start;
+        final int end;
+        final long id;
+        final int priority;
+        int maxEnd;
+        Node left, right;
+
+        Node(int start, int end, long id) {
+            this.start = start;
+            this.end = end;
+            this.id = id;
+            this.priority = mix(id);
+            this.maxEnd = end;
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    // An interval that ends before it starts is stored as its start day
+    public void insert(int start, int end, long id) {
+        root = insert(root, new Node(start, Math.max(start, end), id));
+        size++;
+    }
+
+    // Removes the interval with this start and id; false if there is none
+    public boolean remove(int start, long id) {
+        int before = size;
+        root = remove(root, start, id);
+        return size < before;
+    }
+
+    // Every interval sharing at least one day with [from, to], by start
+    public void forEachOverlapping(int from, int to, Visitor visitor) {
+        overlapping(root, from, to, visitor);
+    }
+
+    public int countOverlapping(int from, int to) {
+        int[] count = new int[1];
+        overlapping(root, from, to, (start, end, id) -> count[0]++);
+        return count[0];
+    }
+
+    public void forEach(Visitor visitor) {
+        overlapping(root, Integer.MIN_VALUE, Integer.MAX_VALUE, visitor);
+    }
+
+    private static Node insert(Node node, Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (compare(added.start, added.id, node) < 0) {
+            node.left = insert(node.left, added);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, added);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private Node remove(Node node, int start, long id) {
+        if (node == null) {
+            return null;
+        }
+        int order = compare(start, id, node);
+        if (order < 0) {
+            node.left = remove(node.left, start, id);
+        } else if (order > 0) {
+            node.right = remove(node.right, start, id);
+        } else {
+            size--;
+            return merge(node.left, node.right);
+        }
+        update(node);
+        return node;
+    }
+
+    // Joins two treaps where every key in a is below every key in b
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    private static void overlapping(Node node, int from, int to, Visitor visitor) {
+        if (node == null || node.maxEnd < from) {
+            return;
+        }
+        overlapping(node.left, from, to, visitor);
+        if (node.start > to) {
+            return; // everything to the right starts later still
+        }
+        if (node.end >= from) {
+            visitor.visit(node.start, node.end, node.id);
+        }
+        overlapping(node.right, from, to, visitor);
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static void update(Node node) {
+        int maxEnd = node.end;
+        if (node.left != null && node.left.maxEnd > maxEnd) {
+            maxEnd = node.left.maxEnd;
+        }
+        if (node.right != null && node.right.maxEnd > maxEnd) {
+            maxEnd = node.right.maxEnd;
+        }
+        node.maxEnd = maxEnd;
+    }
+
+    private static int compare(int start, long id, Node node) {
+        int order = Integer.compare(start, node.start);
+        return order != 0 ? order : Long.compare(id, node.id);
+    }
+
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+// Follows a journal that another process is appending to, for a read
+// replica. Entries are read from the segment files as they are committed
+// and handed to the handler in sequence order. A frame that is not yet
+// complete (or not yet intact) is left for the next poll. The writer
+// seals a segment before it creates the next one, so once a newer segment
+// shows up, the rest of the current one has to be whole.
+//
+// The writer deletes sealed segments once a snapshot covers them. A
+// segment that is open here can still be read to its end, but one that
+// was deleted before this reader got to it leaves a hole in the
+// sequence; poll then fails, and the reader has to start over from the
+// latest snapshot.
+class JournalTail implements Closeable {
+    private static final int READ_SIZE = 1 << 16;
+
+    private final Path basePath;
+    private final PayrollJournal.Handler handler;
+    private final IntFunction<Employee> lookup;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+    private Path segment;
+    private FileChannel channel;
+    private boolean damaged; // the frame at the start of the buffer did not check out
+    private volatile long lastSequence;
+
+    // Entries up to afterSequence are already in the caller's state, e.g.
+    // from the snapshot it was loaded from, and are skipped
+    JournalTail(Path basePath, long afterSequence, PayrollJournal.Handler handler, IntFunction<Employee> lookup) {
+        this.basePath = basePath;
+        this.lastSequence = afterSequence;
+        this.handler = handler;
+        this.lookup = lookup;
+    }
+
+    // Sequence of the last entry applied
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    // Applies every entry committed since the last poll and returns how
+    // many there were. Throws if entries that follow the last one applied
+    // are gone or damaged.
+    public int poll() throws IOException {
+        int applied = 0;
+        while (true) {
+            if (channel == null) {
+                Path first = nextSegment();
+                if (first == null) {
+                    return applied;
+                }
+                open(first);
+            }
+            applied += drain();
+            Path next = nextSegment();
+            if (next == null) {
+                return applied;
+            }
+            // Sealed: read what was committed since the drain above, and
+            // nothing may be left over
+            applied += drain();
+            if (channel.position() - buffer.position() < channel.size()) {
+                throw new IOException("Journal segment " + segment.getFileName() + " ends with a damaged entry");
+            }
+            channel.close();
+            open(next);
+        }
+    }
+
+    private void open(Path next) throws IOException {
+        channel = FileChannel.open(next, StandardOpenOption.READ);
+        segment = next;
+        buffer.clear();
+    }
+
+    // The segment after the current one, or the first if none is open yet
+    private Path nextSegment() throws IOException {
+        int current = segment == null ? -1 : PayrollJournal.segmentNumberOf(segment);
+        for (Path candidate : PayrollJournal.listSegments(basePath)) {
+            if (PayrollJournal.segmentNumberOf(candidate) > current && !candidate.equals(segment)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    // Reads to the current end of the segment and applies the whole
+    // frames; a partial frame stays at the start of the buffer
+    private int drain() throws IOException {
+        int applied = 0;
+        while (true) {
+            if (channel.size() < channel.position() - buffer.position()) {
+                throw new IOException("Journal segment " + segment.getFileName() + " was cut short");
+            }
+            int read = channel.read(buffer);
+            buffer.flip();
+            applied += applyFrames();
+            if (damaged) {
+                // Read again from the file next time, as the writer may
+                // still be writing it or may rewrite it after a crash
+                channel.position(channel.position() - buffer.remaining());
+                buffer.clear();
+                damaged = false;
+                return applied;
+            }
+            buffer.compact();
+            if (read <= 0) {
+                return applied;
+            }
+            if (!buffer.hasRemaining()) {
+                // One entry larger than the buffer, e.g. an employee with
+                // a long history
+                int length = buffer.getInt(0);
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, PayrollJournal.FRAME_HEADER + length));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+    }
+
+    private int applyFrames() throws IOException {
+        int applied = 0;
+        while (buffer.remaining() >= PayrollJournal.FRAME_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            int checksum = buffer.getInt(start + 4);
+            if (length < 9 || length > PayrollJournal.MAX_ENTRY) {
+                damaged = true;
+                break;
+            }
+            if (buffer.remaining() < PayrollJournal.FRAME_HEADER + length) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buffer.position(start + PayrollJournal.FRAME_HEADER);
+            buffer.get(body);
+            crc.reset();
+            crc.update(body, 0, body.length);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                damaged = true;
+                break;
+            }
+            DataInputStream entry = new DataInputStream(new ByteArrayInputStream(body));
+            long sequence = entry.readLong();
+            byte type = entry.readByte();
+            if (sequence > lastSequence) {
+                if (sequence != lastSequence + 1) {
+                    throw new IOException("Journal entries " + (lastSequence + 1) + " to " + (sequence - 1) +
+                                          " are no longer available");
+                }
+                PayrollJournal.apply(sequence, type, entry, handler, lookup);
+                lastSequence = sequence;
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
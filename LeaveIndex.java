@@ -0,0 +1,214 @@
+import java.time.LocalDate;
+import java.util.*;
+
+// Leaves of every employee indexed for approval and absence questions:
+//   - a queue of pending applications, earliest start first
+//   - an IntervalTree per employee over all their leaves, for overlaps
+//   - an IntervalTree per department over approved leaves, for who is out
+//     on a day and how many of a department are away
+//
+// A leave is identified by its employee and its number among that
+// employee's leaves (see leaveId). Numbers are kept in the store and the
+// journal and never reused, so an id stays valid until the leave is
+// rejected.
+//
+// Kept up to date through EmployeeListener, so changes arrive under the
+// employee's stripe from many threads; every method takes the index's own
+// monitor.
+class LeaveIndex {
+    // An application waiting for approval
+    static class PendingLeave {
+        final long id;
+        final LeaveRecord leave;
+
+        PendingLeave(long id, LeaveRecord leave) {
+            this.id = id;
+            this.leave = leave;
+        }
+
+        public long getId() { return id; }
+        public int getEmployeeId() { return employeeOf(id); }
+        public int getNumber() { return numberOf(id); }
+        public LeaveRecord getLeave() { return leave; }
+    }
+
+    private static final Comparator<PendingLeave> QUEUE_ORDER =
+            Comparator.comparing((PendingLeave p) -> p.leave.getStartDate()).thenComparingLong(p -> p.id);
+
+    private final NavigableSet<PendingLeave> pending = new TreeSet<>(QUEUE_ORDER);
+    private final Map<Long, PendingLeave> pendingById = new HashMap<>();
+    private final Map<Integer, IntervalTree> byEmployee = new HashMap<>();
+    private final Map<String, IntervalTree> byDepartment = new HashMap<>();
+
+    static long leaveId(int employeeId, int number) {
+        return ((long) employeeId << 32) | (number & 0xFFFFFFFFL);
+    }
+
+    static int employeeOf(long leaveId) { return (int) (leaveId >>> 32); }
+    static int numberOf(long leaveId) { return (int) leaveId; }
+
+    public synchronized void add(Employee emp) {
+        for (LeaveRecord leave : emp.getLeaveHistory()) {
+            index(emp, leave);
+        }
+    }
+
+    public synchronized void remove(Employee emp) {
+        IntervalTree leaves = byEmployee.remove(emp.getId());
+        if (leaves == null) {
+            return;
+        }
+        IntervalTree department = byDepartment.get(key(emp.getDepartment()));
+        leaves.forEach((start, end, id) -> {
+            PendingLeave waiting = pendingById.remove(id);
+            if (waiting != null) {
+                pending.remove(waiting);
+            } else if (department != null) {
+                department.remove(start, id);
+            }
+        });
+        dropIfEmpty(emp.getDepartment());
+    }
+
+    public synchronized void leaveApplied(Employee emp, LeaveRecord leave) {
+        index(emp, leave);
+    }
+
+    public synchronized void leaveApproved(Employee emp, LeaveRecord leave) {
+        PendingLeave waiting = pendingById.remove(leaveId(emp.getId(), leave.getNumber()));
+        if (waiting != null) {
+            pending.remove(waiting);
+            department(emp.getDepartment()).insert(day(leave.getStartDate()), day(leave.getEndDate()), waiting.id);
+        }
+    }
+
+    public synchronized void leaveRejected(Employee emp, LeaveRecord leave) {
+        if (leave.getStartDate() == null || leave.getEndDate() == null) {
+            return;
+        }
+        long id = leaveId(emp.getId(), leave.getNumber());
+        int start = day(leave.getStartDate());
+        IntervalTree leaves = byEmployee.get(emp.getId());
+        if (leaves != null) {
+            leaves.remove(start, id);
+        }
+        PendingLeave waiting = pendingById.remove(id);
+        if (waiting != null) {
+            pending.remove(waiting);
+        } else {
+            IntervalTree department = byDepartment.get(key(emp.getDepartment()));
+            if (department != null) {
+                department.remove(start, id);
+                dropIfEmpty(emp.getDepartment());
+            }
+        }
+    }
+
+    // Approved leaves follow the employee to the new department
+    public synchronized void departmentChanged(Employee emp, String previous) {
+        IntervalTree leaves = byEmployee.get(emp.getId());
+        IntervalTree from = byDepartment.get(key(previous));
+        if (leaves == null || from == null) {
+            return;
+        }
+        IntervalTree to = department(emp.getDepartment());
+        leaves.forEach((start, end, id) -> {
+            if (!pendingById.containsKey(id) && from.remove(start, id)) {
+                to.insert(start, end, id);
+            }
+        });
+        dropIfEmpty(previous);
+    }
+
+    // Pending applications, earliest start first; at most limit of them
+    public synchronized List<PendingLeave> getPending(int limit) {
+        List<PendingLeave> first = new ArrayList<>(Math.min(limit, pending.size()));
+        for (PendingLeave waiting : pending) {
+            if (first.size() == limit) {
+                break;
+            }
+            first.add(waiting);
+        }
+        return first;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    // Ids of the employee's leaves, approved or not, sharing a day with
+    // [start, end]
+    public synchronized long[] overlapping(int employeeId, LocalDate start, LocalDate end) {
+        IntervalTree leaves = byEmployee.get(employeeId);
+        return leaves == null ? new long[0] : collect(leaves, day(start), day(end));
+    }
+
+    // Ids of approved leaves in the department sharing a day with [from, to]
+    public synchronized long[] absences(String department, LocalDate from, LocalDate to) {
+        IntervalTree leaves = byDepartment.get(key(department));
+        return leaves == null ? new long[0] : collect(leaves, day(from), day(to));
+    }
+
+    // Employees on approved leave on the day, in the department or, for a
+    // null department, anywhere
+    public synchronized int[] out(String department, LocalDate date) {
+        int day = day(date);
+        Set<Integer> ids = new TreeSet<>();
+        IntervalTree.Visitor collect = (start, end, id) -> ids.add(employeeOf(id));
+        if (department != null) {
+            IntervalTree leaves = byDepartment.get(key(department));
+            if (leaves != null) {
+                leaves.forEachOverlapping(day, day, collect);
+            }
+        } else {
+            for (IntervalTree leaves : byDepartment.values()) {
+                leaves.forEachOverlapping(day, day, collect);
+            }
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Leaves without dates are kept in the history but not indexed
+    private void index(Employee emp, LeaveRecord leave) {
+        if (leave.getStartDate() == null || leave.getEndDate() == null) {
+            return;
+        }
+        long id = leaveId(emp.getId(), leave.getNumber());
+        int start = day(leave.getStartDate());
+        int end = day(leave.getEndDate());
+        byEmployee.computeIfAbsent(emp.getId(), k -> new IntervalTree()).insert(start, end, id);
+        if (leave.isApproved()) {
+            department(emp.getDepartment()).insert(start, end, id);
+        } else {
+            PendingLeave waiting = new PendingLeave(id, leave);
+            pending.add(waiting);
+            pendingById.put(id, waiting);
+        }
+    }
+
+    private IntervalTree department(String department) {
+        return byDepartment.computeIfAbsent(key(department), k -> new IntervalTree());
+    }
+
+    private void dropIfEmpty(String department) {
+        IntervalTree leaves = byDepartment.get(key(department));
+        if (leaves != null && leaves.isEmpty()) {
+            byDepartment.remove(key(department));
+        }
+    }
+
+    private static long[] collect(IntervalTree leaves, int from, int to) {
+        long[] ids = new long[leaves.countOverlapping(from, to)];
+        int[] next = new int[1];
+        leaves.forEachOverlapping(from, to, (start, end, id) -> ids[next[0]++] = id);
+        return ids;
+    }
+
+    private static String key(String department) {
+        return department == null ? "" : department;
+    }
+
+    private static int day(LocalDate date) {
+        return (int) date.toEpochDay();
+    }
+}
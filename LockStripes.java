@@ -0,0 +1,27 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed pool of locks shared by employee id. Operations on employees that
+// hash to different stripes proceed in parallel; a stripe is held only for
+// the duration of one employee's update or read.
+class LockStripes {
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public LockStripes(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    public ReentrantLock forId(int id) {
+        int h = id * 0x9E3779B9;
+        return locks[(h ^ (h >>> 16)) & mask];
+    }
+
+    public int size() {
+        return locks.length;
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+// Named counters, gauges and latency timers for one PayrollSystem. Metrics
+// are created up front and kept in fields by their owners, so recording is
+// a LongAdder increment or a histogram bucket increment with no lookup and
+// no allocation. Reading (JMX, dumps, /metrics) walks the registry.
+class MetricsRegistry {
+    private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+    static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() { count.increment(); }
+        public void add(long n) { count.add(n); }
+        public long get() { return count.sum(); }
+    }
+
+    // Usage: long start = timer.start(); ... timer.stop(start);
+    static class Timer {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        public long start() { return System.nanoTime(); }
+        public void stop(long start) { histogram.record(System.nanoTime() - start); }
+        public void record(long nanos) { histogram.record(nanos); }
+        public LatencyHistogram getHistogram() { return histogram; }
+    }
+
+    public synchronized Counter counter(String name) {
+        return register(name, new Counter());
+    }
+
+    public synchronized Timer timer(String name) {
+        return register(name, new Timer());
+    }
+
+    public synchronized void gauge(String name, LongSupplier value) {
+        register(name, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T register(String name, T metric) {
+        Object existing = metrics.putIfAbsent(name, metric);
+        if (existing == null) {
+            return metric;
+        }
+        if (existing.getClass() != metric.getClass()) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as another type");
+        }
+        return (T) existing;
+    }
+
+    // Flat name/value pairs: counters and gauges as they are, each timer as
+    // count, mean, p50, p90, p99, p99.9 and max in milliseconds
+    public synchronized Map<String, Number> values() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+            String name = entry.getKey();
+            Object metric = entry.getValue();
+            if (metric instanceof Counter) {
+                values.put(name, ((Counter) metric).get());
+            } else if (metric instanceof Timer) {
+                LatencyHistogram histogram = ((Timer) metric).histogram;
+                values.put(name + ".count", histogram.getCount());
+                values.put(name + ".meanMs", histogram.getMean() / 1e6);
+                values.put(name + ".p50Ms", histogram.percentile(50) / 1e6);
+                values.put(name + ".p90Ms", histogram.percentile(90) / 1e6);
+                values.put(name + ".p99Ms", histogram.percentile(99) / 1e6);
+                values.put(name + ".p999Ms", histogram.percentile(99.9) / 1e6);
+                values.put(name + ".maxMs", histogram.getMax() / 1e6);
+            } else {
+                values.put(name, ((LongSupplier) metric).getAsLong());
+            }
+        }
+        return values;
+    }
+
+    public synchronized void resetTimers() {
+        for (Object metric : metrics.values()) {
+            if (metric instanceof Timer) {
+                ((Timer) metric).histogram.reset();
+            }
+        }
+    }
+
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Number> value : values().entrySet()) {
+            text.append(value.getKey()).append(' ').append(format(value.getValue())).append('\n');
+        }
+        return text.toString();
+    }
+
+    // One JSON object; keys are metric names
+    public String toJson() {
+        StringJoiner json = new StringJoiner(",", "{", "}");
+        for (Map.Entry<String, Number> value : values().entrySet()) {
+            json.add("\"" + value.getKey() + "\":" + format(value.getValue()));
+        }
+        return json.toString();
+    }
+
+    private static String format(Number value) {
+        return value instanceof Double ? String.format(Locale.ROOT, "%.3f", value.doubleValue()) : value.toString();
+    }
+
+    // Publishes every metric as an attribute of one MBean, e.g. under
+    // "payroll:type=PayrollSystem"; resetTimers is exposed as an operation
+    public void registerMBean(String objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new RegistryMBean(), new ObjectName(objectName));
+    }
+
+    // Rewrites the target every period with the current values, as JSON if
+    // the file name ends in .json and as text otherwise. The file is replaced
+    // by a rename so readers never see half a dump. Returns a handle whose
+    // close() stops the dump.
+    public AutoCloseable startDump(Path target, long periodSeconds) {
+        boolean json = target.getFileName().toString().endsWith(".json");
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+                Files.write(temp, (json ? toJson() + "\n" : toText()).getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.out.println("Error writing metrics: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        return scheduler::shutdownNow;
+    }
+
+    // Attributes are read straight from the registry on every request, so
+    // metrics registered later show up too
+    private class RegistryMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = values().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if (actionName.equals("resetTimers")) {
+                resetTimers();
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Number> value : values().entrySet()) {
+                String type = value.getValue() instanceof Double ? "java.lang.Double" : "java.lang.Long";
+                attributes.add(new MBeanAttributeInfo(value.getKey(), type, value.getKey(), true, false, false));
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("resetTimers", "Clears every latency histogram",
+                    new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(MetricsRegistry.class.getName(), "Payroll metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] {reset}, null);
+        }
+    }
+}
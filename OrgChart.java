@@ -0,0 +1,159 @@
+import java.util.*;
+
+// Reporting lines keyed by employee id, with headcount, salary, tax and
+// bonus rolled up for every subtree. Looking up a manager is one map probe,
+// and the totals of anyone's whole org are read from their node instead of
+// being summed over everyone below them.
+//
+// The rollups are kept incrementally: a change in one employee's figures is
+// added to that employee and each of their managers up the chain, and
+// moving someone moves their subtree's totals from the old chain to the
+// new one. Either costs O(depth). Figures come from PayrollCache, so the
+// rollups are as fresh as its last refresh.
+//
+// Hierarchy changes come from PayrollSystem under its structure write lock
+// and figure changes from PayrollCache under its monitor; the chart's own
+// monitor orders the two.
+class OrgChart {
+    static final int NONE = 0; // manager id of employees without a manager
+
+    private static class Node {
+        final int id;
+        Node manager;
+        List<Node> reports; // null until the first report
+        final PayrollCache.Totals org = new PayrollCache.Totals(); // this employee and everyone below
+
+        Node(int id) {
+            this.id = id;
+        }
+    }
+
+    private final Map<Integer, Node> nodes = new HashMap<>();
+
+    // A new employee reports to nobody until given a manager
+    public synchronized void add(int id) {
+        if (!nodes.containsKey(id)) {
+            Node node = new Node(id);
+            node.org.add(0, 0, 0, 1);
+            nodes.put(id, node);
+        }
+    }
+
+    // Direct reports of a removed employee keep their own subtrees but no
+    // longer have a manager
+    public synchronized void remove(int id) {
+        Node node = nodes.remove(id);
+        if (node == null) {
+            return;
+        }
+        detach(node);
+        if (node.reports != null) {
+            for (Node report : node.reports) {
+                report.manager = null;
+            }
+        }
+    }
+
+    public synchronized boolean contains(int id) {
+        return nodes.containsKey(id);
+    }
+
+    // Moves the employee and everyone below them under the given manager
+    // (NONE for no manager). Returns false if either is unknown or the
+    // manager is the employee or reports to them.
+    public synchronized boolean setManager(int id, int managerId) {
+        Node node = nodes.get(id);
+        Node manager = managerId == NONE ? null : nodes.get(managerId);
+        if (node == null || (managerId != NONE && manager == null) || isWithin(manager, node)) {
+            return false;
+        }
+        if (node.manager == manager) {
+            return true;
+        }
+        detach(node);
+        node.manager = manager;
+        if (manager != null) {
+            if (manager.reports == null) {
+                manager.reports = new ArrayList<>(4);
+            }
+            manager.reports.add(node);
+            for (Node above = manager; above != null; above = above.manager) {
+                above.org.add(node.org, 1);
+            }
+        }
+        return true;
+    }
+
+    // True if managerId is the employee or anyone below them, so making it
+    // the employee's manager would close a loop
+    public synchronized boolean wouldCycle(int id, int managerId) {
+        Node node = nodes.get(id);
+        return node != null && managerId != NONE && isWithin(nodes.get(managerId), node);
+    }
+
+    // Called by PayrollCache with the difference between an employee's old
+    // and new figures
+    public synchronized void figuresChanged(int id, double salary, double tax, double bonus) {
+        Node node = nodes.get(id);
+        if (node == null) {
+            return;
+        }
+        for (Node above = node; above != null; above = above.manager) {
+            above.org.add(salary, tax, bonus, 0);
+        }
+    }
+
+    public synchronized int getManagerId(int id) {
+        Node node = nodes.get(id);
+        return node == null || node.manager == null ? NONE : node.manager.id;
+    }
+
+    public synchronized int[] getDirectReports(int id) {
+        Node node = nodes.get(id);
+        if (node == null || node.reports == null) {
+            return new int[0];
+        }
+        int[] ids = new int[node.reports.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = node.reports.get(i).id;
+        }
+        return ids;
+    }
+
+    // The employee's manager, their manager, and so on up to the top
+    public synchronized List<Integer> getReportingChain(int id) {
+        List<Integer> chain = new ArrayList<>();
+        Node node = nodes.get(id);
+        for (Node above = node == null ? null : node.manager; above != null; above = above.manager) {
+            chain.add(above.id);
+        }
+        return chain;
+    }
+
+    // Totals of the employee and everyone below them, or null if unknown
+    public synchronized PayrollCache.Totals getOrgTotals(int id) {
+        Node node = nodes.get(id);
+        return node == null ? null : node.org.copy();
+    }
+
+    private void detach(Node node) {
+        Node manager = node.manager;
+        if (manager == null) {
+            return;
+        }
+        manager.reports.remove(node);
+        for (Node above = manager; above != null; above = above.manager) {
+            above.org.add(node.org, -1);
+        }
+        node.manager = null;
+    }
+
+    private static boolean isWithin(Node candidate, Node root) {
+        for (Node above = candidate; above != null; above = above.manager) {
+            if (above == root) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
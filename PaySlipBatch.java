@@ -0,0 +1,291 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+// Month-end payslip generation for every employee at once. Payslips are
+// rendered in parallel chunks and written either as individual files by a
+// bounded pool of buffered writers, or into one indexed bundle per pay
+// period. Both modes pick up where an interrupted run stopped.
+class PaySlipBatch {
+    enum Output { FILES, ARCHIVE }
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int INDEX_ENTRY_SIZE = 4 + 8 + 4; // id, offset, length
+
+    // Outcome of one batch run
+    static class Result {
+        final int generated;
+        final int skipped;
+        final long elapsedNanos;
+
+        Result(int generated, int skipped, long elapsedNanos) {
+            this.generated = generated;
+            this.skipped = skipped;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return generated + " payslips generated, " + skipped + " already done, in " +
+                   String.format("%.1f", elapsedNanos / 1e6) + " ms";
+        }
+    }
+
+    private final Path directory;
+    private final int month;
+    private final int year;
+    private final int writers;
+    private final LockStripes stripes; // null when employees are not shared
+    private final PayrollRules rules; // the period's, for every slip of the batch
+
+    public PaySlipBatch(Path directory, int month, int year, int writers) {
+        this(directory, month, year, writers, null);
+    }
+
+    // Figures are taken under each employee's stripe, so a slip never mixes
+    // values from before and after a concurrent update
+    public PaySlipBatch(Path directory, int month, int year, int writers, LockStripes stripes) {
+        this.directory = directory;
+        this.month = month;
+        this.year = year;
+        this.writers = Math.max(1, writers);
+        this.stripes = stripes;
+        this.rules = PayrollRulebook.forPeriod(month, year);
+    }
+
+    public Path getArchivePath() {
+        return directory.resolve("payslips_" + month + "_" + year + ".bundle");
+    }
+
+    public Path getIndexPath() {
+        return directory.resolve("payslips_" + month + "_" + year + ".idx");
+    }
+
+    public Result run(List<Employee> employees, Output output) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        int[] counts = output == Output.ARCHIVE ? writeArchive(employees) : writeFiles(employees);
+        return new Result(counts[0], counts[1], System.nanoTime() - start);
+    }
+
+    // Looks up one employee's payslip in this period's bundle, or null.
+    // The index of a completed run is sorted by id and binary-searched; one
+    // whose run was interrupted may miss slips until the run is resumed.
+    public String readFromArchive(int employeeId) throws IOException {
+        if (!Files.exists(getIndexPath())) {
+            return null;
+        }
+        try (FileChannel index = FileChannel.open(getIndexPath(), StandardOpenOption.READ);
+             FileChannel archive = FileChannel.open(getArchivePath(), StandardOpenOption.READ)) {
+            int entries = (int) (index.size() / INDEX_ENTRY_SIZE);
+            MappedByteBuffer map = index.map(FileChannel.MapMode.READ_ONLY, 0, entries * (long) INDEX_ENTRY_SIZE);
+            int low = 0;
+            int high = entries - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int at = mid * INDEX_ENTRY_SIZE;
+                int id = map.getInt(at);
+                if (id < employeeId) {
+                    low = mid + 1;
+                } else if (id > employeeId) {
+                    high = mid - 1;
+                } else {
+                    long offset = map.getLong(at + 4);
+                    ByteBuffer buffer = ByteBuffer.allocate(map.getInt(at + 12));
+                    while (buffer.hasRemaining()) {
+                        if (archive.read(buffer, offset + buffer.position()) < 0) {
+                            throw new EOFException("Payslip bundle is shorter than its index");
+                        }
+                    }
+                    return new String(buffer.array(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Individual payslip_<id>_<month>_<year>.txt files. Each file is written
+    // to a temporary name, forced and renamed, so an existing file is always
+    // complete, even after a crash, and is skipped on restart.
+    private int[] writeFiles(List<Employee> employees) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        List<Future<int[]>> results = new ArrayList<>();
+        int sliceSize = (employees.size() + writers - 1) / writers;
+        for (int w = 0; w < writers; w++) {
+            int from = Math.min(employees.size(), w * sliceSize);
+            int to = Math.min(employees.size(), from + sliceSize);
+            results.add(pool.submit(() -> {
+                TextBuffer buffer = new TextBuffer();
+                int generated = 0;
+                int skipped = 0;
+                for (int i = from; i < to; i++) {
+                    Employee emp = employees.get(i);
+                    Path target = directory.resolve("payslip_" + emp.getId() + "_" + month + "_" + year + ".txt");
+                    if (Files.exists(target)) {
+                        skipped++;
+                        continue;
+                    }
+                    Path temp = directory.resolve(target.getFileName() + ".tmp");
+                    TextBuffer text = PaySlipTemplate.DEFAULT.render(slipOf(emp), buffer);
+                    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                         Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+                        text.writeTo(writer);
+                        writer.flush();
+                        channel.force(false);
+                    }
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    generated++;
+                }
+                return new int[] {generated, skipped};
+            }));
+        }
+        pool.shutdown();
+
+        int[] counts = new int[2];
+        try {
+            for (Future<int[]> result : results) {
+                int[] slice = result.get();
+                counts[0] += slice[0];
+                counts[1] += slice[1];
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Payslip generation interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        return counts;
+    }
+
+    // One bundle file plus an index of (employee id, offset, length). Each
+    // chunk is forced to disk before its index entries, so the index only
+    // ever points at complete payslips; bytes past the last indexed payslip
+    // are discarded on restart. Payslips are written in id order, so the
+    // index comes out sorted unless a resumed run has to fill in lower ids;
+    // then it is sorted once the run completes.
+    private int[] writeArchive(List<Employee> employees) throws IOException {
+        Set<Integer> done = new HashSet<>();
+        long archiveEnd = 0;
+        boolean sorted = true;
+        int lastId = Integer.MIN_VALUE;
+        if (Files.exists(getIndexPath())) {
+            long entries = Files.size(getIndexPath()) / INDEX_ENTRY_SIZE;
+            try (DataInputStream index = new DataInputStream(new BufferedInputStream(Files.newInputStream(getIndexPath())))) {
+                for (long i = 0; i < entries; i++) {
+                    int id = index.readInt();
+                    sorted &= id > lastId;
+                    lastId = id;
+                    done.add(id);
+                    archiveEnd = Math.max(archiveEnd, index.readLong() + index.readInt());
+                }
+            }
+        }
+
+        List<Employee> remaining = new ArrayList<>(employees.size() - Math.min(done.size(), employees.size()));
+        for (Employee emp : employees) {
+            if (!done.contains(emp.getId())) {
+                remaining.add(emp);
+            }
+        }
+        remaining.sort(Comparator.comparingInt(Employee::getId));
+        sorted &= remaining.isEmpty() || remaining.get(0).getId() > lastId;
+
+        try (FileChannel archive = FileChannel.open(getArchivePath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel index = FileChannel.open(getIndexPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            archive.truncate(archiveEnd);
+            archive.position(archiveEnd);
+            index.truncate(done.size() * (long) INDEX_ENTRY_SIZE);
+            index.position(index.size());
+
+            long offset = archiveEnd;
+            for (int from = 0; from < remaining.size(); from += CHUNK_SIZE) {
+                int to = Math.min(remaining.size(), from + CHUNK_SIZE);
+                byte[][] rendered = new byte[to - from][];
+                int base = from;
+                IntStream.range(from, to).parallel().forEach(i ->
+                        rendered[i - base] = PaySlipTemplate.DEFAULT.render(
+                                slipOf(remaining.get(i)), PaySlipTemplate.threadBuffer()).toUtf8());
+
+                int total = 0;
+                for (byte[] slip : rendered) {
+                    total += slip.length;
+                }
+                ByteBuffer data = ByteBuffer.allocate(total);
+                ByteBuffer entries = ByteBuffer.allocate(rendered.length * INDEX_ENTRY_SIZE);
+                for (int i = 0; i < rendered.length; i++) {
+                    entries.putInt(remaining.get(from + i).getId());
+                    entries.putLong(offset + data.position());
+                    entries.putInt(rendered[i].length);
+                    data.put(rendered[i]);
+                }
+                data.flip();
+                entries.flip();
+
+                while (data.hasRemaining()) {
+                    archive.write(data);
+                }
+                archive.force(false);
+                while (entries.hasRemaining()) {
+                    index.write(entries);
+                }
+                index.force(false);
+                offset += total;
+            }
+        }
+        if (!sorted) {
+            sortIndex();
+        }
+        return new int[] {remaining.size(), employees.size() - remaining.size()};
+    }
+
+    // Rewrites the index in id order. The sorted copy is forced and renamed
+    // over the old one, so the index is always whole.
+    private void sortIndex() throws IOException {
+        ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(getIndexPath()));
+        int count = entries.capacity() / INDEX_ENTRY_SIZE;
+        long[] order = new long[count]; // id in the high half, entry number in the low
+        for (int i = 0; i < count; i++) {
+            order[i] = (long) entries.getInt(i * INDEX_ENTRY_SIZE) << 32 | i;
+        }
+        Arrays.sort(order);
+        ByteBuffer sorted = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+        for (long key : order) {
+            sorted.put(entries.array(), (int) key * INDEX_ENTRY_SIZE, INDEX_ENTRY_SIZE);
+        }
+        sorted.flip();
+
+        Path temp = getIndexPath().resolveSibling(getIndexPath().getFileName() + ".tmp");
+        try (FileChannel index = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (sorted.hasRemaining()) {
+                index.write(sorted);
+            }
+            index.force(false);
+        }
+        Files.move(temp, getIndexPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private PaySlip slipOf(Employee emp) {
+        if (stripes == null) {
+            return emp.computePaySlip(month, year, rules);
+        }
+        ReentrantLock lock = stripes.forId(emp.getId());
+        lock.lock();
+        try {
+            return emp.computePaySlip(month, year, rules);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Growable char buffer that is reused across renders instead of building
+// a new String for every line
+class TextBuffer implements CharSequence {
+    private char[] chars = new char[1024];
+    private int length;
+
+    public void clear() { length = 0; }
+
+    @Override
+    public int length() { return length; }
+
+    @Override
+    public char charAt(int index) { return chars[index]; }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(chars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    public TextBuffer append(char c) {
+        ensure(1);
+        chars[length++] = c;
+        return this;
+    }
+
+    public TextBuffer append(char[] source) {
+        ensure(source.length);
+        System.arraycopy(source, 0, chars, length, source.length);
+        length += source.length;
+        return this;
+    }
+
+    public TextBuffer append(String s) {
+        if (s == null) {
+            s = "null";
+        }
+        ensure(s.length());
+        s.getChars(0, s.length(), chars, length);
+        length += s.length();
+        return this;
+    }
+
+    public TextBuffer append(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return append(Long.toString(value));
+            }
+            append('-');
+            value = -value;
+        }
+        ensure(20);
+        int start = length;
+        do {
+            chars[length++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        reverse(start, length - 1);
+        return this;
+    }
+
+    // Same output as String.format("%.2f", value), rounded by
+    // PayrollKernel.toCents so payslips and reports agree to the cent.
+    // Negative and huge amounts are left to String.format.
+    public TextBuffer appendMoney(double value) {
+        if (!(value >= 0) || value >= 1e11) {
+            return append(String.format("%.2f", value));
+        }
+        long cents = PayrollKernel.toCents(value);
+        append(cents / 100);
+        append('.');
+        int rest = (int) (cents % 100);
+        return append((char) ('0' + rest / 10)).append((char) ('0' + rest % 10));
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(chars, 0, length);
+    }
+
+    // UTF-8 bytes of the current contents
+    public byte[] toUtf8() {
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+                size += 4;
+                i++;
+            } else {
+                size += 3;
+            }
+        }
+        if (size == length) {
+            byte[] ascii = new byte[size];
+            for (int i = 0; i < length; i++) {
+                ascii[i] = (byte) chars[i];
+            }
+            return ascii;
+        }
+        return toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    private void reverse(int from, int to) {
+        while (from < to) {
+            char t = chars[from];
+            chars[from++] = chars[to];
+            chars[to--] = t;
+        }
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + extra));
+        }
+    }
+}
+
+// Payslip layout parsed once into literal segments and field slots.
+// Placeholders are written as {field}; rendering appends into a reusable
+// TextBuffer, so console and file output share one rendering pass.
+class PaySlipTemplate {
+    static final String DEFAULT_TEXT =
+            "========== PAYSLIP ==========\n" +
+            "Employee ID: {id}\n" +
+            "Name: {name}\n" +
+            "Department: {department}\n" +
+            "Position: {position}\n" +
+            "Pay Period: {month}/{year}\n" +
+            "Bank Account: {bankAccount}\n" +
+            "-----------------------------\n" +
+            "Gross Salary: ${gross}\n" +
+            "Bonus: ${bonus}\n" +
+            "Tax: ${tax}\n" +
+            "PF Deduction: ${pf}\n" +
+            "Other Deductions: ${other}\n" +
+            "Total Deductions: ${totalDeductions}\n" +
+            "Net Salary: ${net}\n" +
+            "=============================\n";
+
+    private static final List<String> FIELDS = Arrays.asList(
+            "id", "name", "department", "position", "month", "year", "bankAccount",
+            "gross", "bonus", "tax", "pf", "other", "totalDeductions", "net");
+
+    // Lines end with the platform separator, as println did before
+    static final PaySlipTemplate DEFAULT = compile(DEFAULT_TEXT.replace("\n", System.lineSeparator()));
+
+    private static final ThreadLocal<TextBuffer> BUFFERS = ThreadLocal.withInitial(TextBuffer::new);
+
+    private final char[][] literals; // literals[i] precedes fields[i]; the last one closes the template
+    private final int[] fields;
+
+    private PaySlipTemplate(char[][] literals, int[] fields) {
+        this.literals = literals;
+        this.fields = fields;
+    }
+
+    static PaySlipTemplate compile(String text) {
+        List<char[]> literals = new ArrayList<>();
+        List<Integer> fields = new ArrayList<>();
+        int pos = 0;
+        while (true) {
+            int open = text.indexOf('{', pos);
+            if (open < 0) {
+                literals.add(text.substring(pos).toCharArray());
+                break;
+            }
+            int close = text.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at position " + open);
+            }
+            int field = FIELDS.indexOf(text.substring(open + 1, close));
+            if (field < 0) {
+                throw new IllegalArgumentException("Unknown payslip field: " + text.substring(open, close + 1));
+            }
+            literals.add(text.substring(pos, open).toCharArray());
+            fields.add(field);
+            pos = close + 1;
+        }
+        return new PaySlipTemplate(literals.toArray(new char[0][]),
+                fields.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    // A buffer owned by the calling thread, cleared and reused by render()
+    static TextBuffer threadBuffer() {
+        return BUFFERS.get();
+    }
+
+    public TextBuffer render(PaySlip slip, TextBuffer out) {
+        out.clear();
+        for (int i = 0; i < fields.length; i++) {
+            out.append(literals[i]);
+            switch (fields[i]) {
+                case 0: out.append(slip.getEmployeeId()); break;
+                case 1: out.append(slip.getName()); break;
+                case 2: out.append(slip.getDepartment()); break;
+                case 3: out.append(slip.getPosition()); break;
+                case 4: out.append(slip.getMonth()); break;
+                case 5: out.append(slip.getYear()); break;
+                case 6: out.append(slip.getBankAccount()); break;
+                case 7: out.appendMoney(slip.getGrossSalary()); break;
+                case 8: out.appendMoney(slip.getBonus()); break;
+                case 9: out.appendMoney(slip.getTax()); break;
+                case 10: out.appendMoney(slip.getPfDeduction()); break;
+                case 11: out.appendMoney(0.0); break;
+                case 12: out.appendMoney(slip.getTotalDeductions()); break;
+                default: out.appendMoney(slip.getNetSalary()); break;
+            }
+        }
+        out.append(literals[fields.length]);
+        return out;
+    }
+}
+
+// Compares time and bytes allocated per payslip between the compiled
+// template and the previous String.format rendering, and checks that both
+// produce the same text. Run with: java PaySlipRenderBenchmark [payslips]
+class PaySlipRenderBenchmark {
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        List<PaySlip> slips = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            FullTimeEmployee emp = new FullTimeEmployee(id, "Employee " + id, "e@company.com", "555",
+                    LocalDate.of(2010 + id % 15, 1 + id % 12, 1), "IT", "Developer", "Address",
+                    "ACC" + id, 2000 + (id * 37.37) % 9000, 25);
+            emp.setOvertimeHours(id % 13);
+            slips.add(emp.computePaySlip(6, 2025));
+        }
+
+        for (PaySlip slip : slips) {
+            String expected = formatted(slip);
+            String actual = PaySlipTemplate.DEFAULT.render(slip, new TextBuffer()).toString();
+            if (!expected.equals(actual)) {
+                System.out.println("Output mismatch for employee " + slip.getEmployeeId() +
+                                   ":\n" + expected + "\n" + actual);
+                return;
+            }
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long sink = 0;
+        for (int round = 0; round < 5; round++) {
+            long bytes = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (PaySlip slip : slips) {
+                sink += formatted(slip).length();
+            }
+            long formatNanos = System.nanoTime() - start;
+            long formatBytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+
+            TextBuffer buffer = PaySlipTemplate.threadBuffer();
+            bytes = threads.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            for (PaySlip slip : slips) {
+                sink += PaySlipTemplate.DEFAULT.render(slip, buffer).length();
+            }
+            long templateNanos = System.nanoTime() - start;
+            long templateBytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+
+            if (round == 4) {
+                System.out.printf("String.format: %7.1f ns/payslip %8.1f B/payslip%n",
+                        formatNanos / (double) count, formatBytes / (double) count);
+                System.out.printf("Template:      %7.1f ns/payslip %8.1f B/payslip%n",
+                        templateNanos / (double) count, templateBytes / (double) count);
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    // The rendering used before the compiled template
+    private static String formatted(PaySlip slip) {
+        String nl = System.lineSeparator();
+        return "========== PAYSLIP ==========" + nl +
+               "Employee ID: " + slip.getEmployeeId() + nl +
+               "Name: " + slip.getName() + nl +
+               "Department: " + slip.getDepartment() + nl +
+               "Position: " + slip.getPosition() + nl +
+               "Pay Period: " + slip.getMonth() + "/" + slip.getYear() + nl +
+               "Bank Account: " + slip.getBankAccount() + nl +
+               "-----------------------------" + nl +
+               "Gross Salary: $" + String.format("%.2f", slip.getGrossSalary()) + nl +
+               "Bonus: $" + String.format("%.2f", slip.getBonus()) + nl +
+               "Tax: $" + String.format("%.2f", slip.getTax()) + nl +
+               "PF Deduction: $" + String.format("%.2f", slip.getPfDeduction()) + nl +
+               "Other Deductions: $" + String.format("%.2f", 0.0) + nl +
+               "Total Deductions: $" + String.format("%.2f", slip.getTotalDeductions()) + nl +
+               "Net Salary: $" + String.format("%.2f", slip.getNetSalary()) + nl +
+               "=============================" + nl;
+    }
+}
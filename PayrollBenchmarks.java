@@ -0,0 +1,530 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Benchmark suite for the payroll hot paths, each parameterized by data
+// size. Every benchmark/size pair runs in a fresh JVM after warm-up
+// iterations, and reports the mean time per operation with a 99.9%
+// confidence interval. Results are written as JSON, one result object per
+// line, and can be compared against an earlier file to spot regressions.
+//
+// Run with: java PayrollBenchmarks [options] [benchmark name prefix]
+//   --quick               fewer and shorter iterations
+//   --sizes 1000,100000   override the sizes of every selected benchmark
+//   --out FILE            results file (default benchmark-results.json)
+//   --baseline FILE       compare with an earlier results file; exits with
+//                         status 2 if any benchmark regressed
+//   --no-fork             run everything in this JVM
+//   --list                list benchmarks and their default sizes
+class PayrollBenchmarks {
+    private static final double REGRESSION_THRESHOLD = 0.10;
+    private static final String CHILD_HEAP = "-Xmx3g";
+    private static final int POPULATE_BATCH = 5000;
+
+    // The operation under test. Its return value is consumed, so the JIT
+    // cannot discard the work.
+    interface Operation {
+        long run() throws Exception;
+    }
+
+    // Builds the state for one size in a scratch directory
+    private interface Setup {
+        Operation create(int size, Path scratch) throws Exception;
+    }
+
+    private static class Definition {
+        final String name;
+        final String sizeMeaning;
+        final int[] sizes;
+        final Setup setup;
+
+        Definition(String name, String sizeMeaning, int[] sizes, Setup setup) {
+            this.name = name;
+            this.sizeMeaning = sizeMeaning;
+            this.sizes = sizes;
+            this.setup = setup;
+        }
+    }
+
+    private static class Settings {
+        int warmupIterations = 5;
+        int measureIterations = 8;
+        long iterationMillis = 1000;
+
+        List<String> toArgs() {
+            return Arrays.asList(String.valueOf(warmupIterations), String.valueOf(measureIterations),
+                                 String.valueOf(iterationMillis));
+        }
+    }
+
+    // Mean time per operation over the measured iterations
+    static class Result {
+        final String benchmark;
+        final int size;
+        final double score;  // ns/op
+        final double error;  // half-width of the 99.9% confidence interval
+        final double min;
+        final double max;
+        final int iterations;
+
+        Result(String benchmark, int size, double score, double error, double min, double max, int iterations) {
+            this.benchmark = benchmark;
+            this.size = size;
+            this.score = score;
+            this.error = error;
+            this.min = min;
+            this.max = max;
+            this.iterations = iterations;
+        }
+
+        String key() {
+            return benchmark + "@" + size;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"benchmark\":\"%s\",\"size\":%d,\"unit\":\"ns/op\",\"score\":%.3f,\"error\":%.3f," +
+                    "\"min\":%.3f,\"max\":%.3f,\"iterations\":%d}",
+                    benchmark, size, score, error, min, max, iterations);
+        }
+
+        static Result fromJson(String line) {
+            Map<String, String> values = new HashMap<>();
+            new BulkImporter.FlatJsonParser(line).parseInto(values);
+            return new Result(values.get("benchmark"), Integer.parseInt(values.get("size")),
+                    Double.parseDouble(values.get("score")), Double.parseDouble(values.get("error")),
+                    Double.parseDouble(values.get("min")), Double.parseDouble(values.get("max")),
+                    Integer.parseInt(values.get("iterations")));
+        }
+    }
+
+    private static final int[] HEADCOUNTS = {1_000, 100_000, 1_000_000};
+    private static final List<Definition> DEFINITIONS = Arrays.asList(
+        new Definition("findEmployee", "employees", HEADCOUNTS, PayrollBenchmarks::findEmployee),
+        new Definition("markAttendance", "days of history", new int[] {365, 3_650, 14_600},
+                       PayrollBenchmarks::markAttendance),
+        new Definition("hoursWorkedInMonth", "days of history", new int[] {365, 3_650, 14_600},
+                       PayrollBenchmarks::hoursWorkedInMonth),
+        new Definition("availableLeaves", "leave records", new int[] {10, 1_000, 100_000},
+                       PayrollBenchmarks::availableLeaves),
+        new Definition("payrollReport", "employees, 1% changed per report", HEADCOUNTS,
+                       PayrollBenchmarks::payrollReport),
+        new Definition("payrollScalar", "employees, payslip figures in cents", HEADCOUNTS,
+                       PayrollBenchmarks::payrollScalar),
+        new Definition("payrollColumnar", "employees, payslip figures in cents", HEADCOUNTS,
+                       PayrollBenchmarks::payrollColumnar),
+        new Definition("renderPaySlip", "employees rendered in rotation", new int[] {1_000, 100_000},
+                       PayrollBenchmarks::renderPaySlip),
+        new Definition("saveEmployees", "employees", HEADCOUNTS, PayrollBenchmarks::saveEmployees),
+        new Definition("loadEmployees", "employees", HEADCOUNTS, PayrollBenchmarks::loadEmployees)
+    );
+
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--child")) {
+            runChild(args);
+            return;
+        }
+
+        Settings settings = new Settings();
+        int[] sizes = null;
+        Path out = Paths.get("benchmark-results.json");
+        Path baseline = null;
+        boolean fork = true;
+        String filter = "";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--quick":
+                    settings.warmupIterations = 2;
+                    settings.measureIterations = 4;
+                    settings.iterationMillis = 300;
+                    break;
+                case "--sizes":
+                    sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--out":
+                    out = Paths.get(args[++i]);
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(args[++i]);
+                    break;
+                case "--no-fork":
+                    fork = false;
+                    break;
+                case "--list":
+                    for (Definition definition : DEFINITIONS) {
+                        System.out.println(definition.name + " " + Arrays.toString(definition.sizes) +
+                                           " (" + definition.sizeMeaning + ")");
+                    }
+                    return;
+                default:
+                    filter = args[i];
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Definition definition : DEFINITIONS) {
+            if (!definition.name.startsWith(filter)) {
+                continue;
+            }
+            for (int size : sizes != null ? sizes : definition.sizes) {
+                System.out.print(String.format("%-20s %,10d ", definition.name, size));
+                System.out.flush();
+                Result result = fork ? runForked(definition, size, settings) : measure(definition, size, settings);
+                results.add(result);
+                System.out.println(format(result));
+            }
+        }
+
+        writeResults(out, results);
+        System.out.println("Results written to " + out);
+        if (baseline != null && compare(results, readResults(baseline)) > 0) {
+            System.exit(2);
+        }
+    }
+
+    // Isolates JIT profiles and heap state between benchmarks, like JMH forks
+    private static Result runForked(Definition definition, int size, Settings settings) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(), CHILD_HEAP,
+                "-cp", System.getProperty("java.class.path"), "PayrollBenchmarks", "--child",
+                definition.name, String.valueOf(size)));
+        command.addAll(settings.toArgs());
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Result result = null;
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    result = Result.fromJson(line.substring(7));
+                } else {
+                    output.append(line).append('\n');
+                }
+            }
+        }
+        int status = process.waitFor();
+        if (result == null) {
+            throw new IOException("Benchmark " + definition.name + " (" + size + ") failed with status " +
+                                  status + ":\n" + output);
+        }
+        return result;
+    }
+
+    private static void runChild(String[] args) throws Exception {
+        Definition definition = DEFINITIONS.stream().filter(d -> d.name.equals(args[1])).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown benchmark " + args[1]));
+        Settings settings = new Settings();
+        settings.warmupIterations = Integer.parseInt(args[3]);
+        settings.measureIterations = Integer.parseInt(args[4]);
+        settings.iterationMillis = Long.parseLong(args[5]);
+        Result result = measure(definition, Integer.parseInt(args[2]), settings);
+        System.out.println("RESULT " + result.toJson());
+    }
+
+    // Each iteration repeats the operation until the iteration time is used
+    // up (at least once), and yields the mean time per operation
+    static Result measure(Definition definition, int size, Settings settings) throws Exception {
+        Path scratch = Files.createTempDirectory("payroll-bench");
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Operation operation = definition.setup.create(size, scratch);
+            long iterationNanos = settings.iterationMillis * 1_000_000L;
+            double[] samples = new double[settings.measureIterations];
+            for (int i = -settings.warmupIterations; i < settings.measureIterations; i++) {
+                long accumulated = 0;
+                long operations = 0;
+                long start = System.nanoTime();
+                long elapsed;
+                do {
+                    accumulated += operation.run();
+                    operations++;
+                    elapsed = System.nanoTime() - start;
+                } while (elapsed < iterationNanos);
+                sink += accumulated;
+                if (i >= 0) {
+                    samples[i] = elapsed / (double) operations;
+                }
+            }
+            return summarize(definition.name, size, samples);
+        } finally {
+            System.setOut(console);
+            deleteRecursively(scratch);
+        }
+    }
+
+    private static Result summarize(String name, int size, double[] samples) {
+        int n = samples.length;
+        double mean = Arrays.stream(samples).average().orElse(0);
+        double variance = 0;
+        for (double sample : samples) {
+            variance += (sample - mean) * (sample - mean);
+        }
+        double error = n < 2 ? 0 : studentT999(n - 1) * Math.sqrt(variance / (n - 1)) / Math.sqrt(n);
+        return new Result(name, size, mean, error, Arrays.stream(samples).min().orElse(0),
+                          Arrays.stream(samples).max().orElse(0), n);
+    }
+
+    // Two-sided 99.9% quantiles of Student's t distribution
+    private static double studentT999(int degreesOfFreedom) {
+        double[] table = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59,
+                          4.44, 4.32, 4.22, 4.14, 4.07, 4.01, 3.97, 3.92, 3.88, 3.85};
+        return degreesOfFreedom <= table.length ? table[degreesOfFreedom - 1] : 3.29;
+    }
+
+    // ---- Benchmarks ----
+
+    private static Operation findEmployee(int size, Path scratch) {
+        PayrollSystem system = populate(scratch, size);
+        int[] probes = probes(size, 1 << 16);
+        int[] next = {0};
+        return () -> system.findEmployee(probes[next[0]++ & (probes.length - 1)]).getId();
+    }
+
+    private static Operation markAttendance(int days, Path scratch) {
+        Employee emp = withHistory(days);
+        LocalDate first = LocalDate.of(2025, 1, 1).minusDays(days - 1);
+        int[] offsets = probes(days, 1 << 16);
+        int[] next = {0};
+        return () -> {
+            int offset = offsets[next[0]++ & (offsets.length - 1)];
+            emp.markAttendance(first.plusDays(offset - 1), (offset & 1) == 0, 8);
+            return offset;
+        };
+    }
+
+    private static Operation hoursWorkedInMonth(int days, Path scratch) {
+        Employee emp = withHistory(days);
+        int years = Math.max(1, days / 365);
+        Random random = new Random(42);
+        int[] months = new int[1 << 16];
+        int[] yearsBack = new int[1 << 16];
+        for (int i = 0; i < months.length; i++) {
+            months[i] = 1 + random.nextInt(12);
+            yearsBack[i] = random.nextInt(years);
+        }
+        int[] next = {0};
+        return () -> {
+            int i = next[0]++ & (months.length - 1);
+            return emp.getHoursWorkedInMonth(months[i], 2024 - yearsBack[i]);
+        };
+    }
+
+    private static Operation availableLeaves(int leaves, Path scratch) {
+        Employee emp = sampleEmployee(1);
+        LocalDate start = LocalDate.of(2000, 1, 1);
+        for (int i = 0; i < leaves; i++) {
+            emp.applyLeave(start.plusDays(i * 3L), start.plusDays(i * 3L + 1), "Leave " + i);
+            if (i % 2 == 0) {
+                emp.approveLeave(i);
+            }
+        }
+        return emp::getAvailableLeaves;
+    }
+
+    private static Operation payrollReport(int size, Path scratch) {
+        PayrollSystem system = populate(scratch, size);
+        int[] ids = probes(size, Math.max(1, size / 100));
+        LocalDate day = LocalDate.of(2025, 1, 1);
+        int[] round = {0};
+        return () -> {
+            // Touches employees directly so the journal stays out of the measurement
+            LocalDate date = day.plusDays(round[0]++ % 365);
+            for (int id : ids) {
+                system.findEmployee(id).markAttendance(date, true, 8);
+            }
+            system.generatePayrollReport(1, 2025);
+            return ids.length;
+        };
+    }
+
+    // Per employee through computePaySlip, as the payroll job does
+    private static Operation payrollScalar(int size, Path scratch) {
+        Employee[] employees = sampleWorkforce(size);
+        return () -> {
+            long net = 0;
+            for (Employee emp : employees) {
+                net += PayrollKernel.toCents(emp.computePaySlip(6, 2025).getNetSalary());
+            }
+            return net;
+        };
+    }
+
+    // The same figures from the columnar kernel, projection included
+    private static Operation payrollColumnar(int size, Path scratch) {
+        Employee[] employees = sampleWorkforce(size);
+        LocalDate today = LocalDate.now();
+        PayrollRules rules = PayrollRulebook.forPeriod(6, 2025);
+        return () -> PayrollKernel.run(PayrollColumns.project(employees, today, null), rules).getTotalNet();
+    }
+
+    private static Operation renderPaySlip(int size, Path scratch) {
+        Employee[] employees = sampleWorkforce(size);
+        int[] next = {0};
+        return () -> {
+            Employee emp = employees[next[0]++ % size];
+            return PaySlipTemplate.DEFAULT.render(emp.computePaySlip(6, 2025), PaySlipTemplate.threadBuffer()).length();
+        };
+    }
+
+    private static Operation saveEmployees(int size, Path scratch) {
+        PayrollSystem system = populate(scratch, size);
+        return () -> {
+            system.checkpoint();
+            return Files.size(scratch.resolve("employees.bin"));
+        };
+    }
+
+    private static Operation loadEmployees(int size, Path scratch) {
+        PayrollSystem seeded = populate(scratch, size);
+        seeded.checkpoint();
+        seeded.close();
+        return () -> {
+            PayrollSystem loaded = new PayrollSystem(scratch);
+            int count = loaded.getEmployeeCount();
+            loaded.close();
+            return count;
+        };
+    }
+
+    // ---- Data ----
+
+    private static PayrollSystem populate(Path directory, int size) {
+        PayrollSystem system = new PayrollSystem(directory);
+        List<Employee> batch = new ArrayList<>(POPULATE_BATCH);
+        for (int id = 1; id <= size; id++) {
+            Employee emp = sampleEmployee(id);
+            emp.markAttendance(LocalDate.of(2024, 1 + id % 12, 1 + id % 28), true, 8);
+            batch.add(emp);
+            if (batch.size() == POPULATE_BATCH) {
+                system.addEmployees(batch);
+                batch.clear();
+            }
+        }
+        system.addEmployees(batch);
+        system.checkpoint();
+        return system;
+    }
+
+    private static Employee sampleEmployee(int id) {
+        LocalDate hired = LocalDate.of(2000 + id % 25, 1 + id % 12, 1 + id % 28);
+        String department = "Dept " + id % 16;
+        switch (id % 4) {
+            case 0:
+                return new PartTimeEmployee(id, "Employee " + id, "e" + id + "@company.com", "555-0100", hired,
+                        department, "Assistant", "Address " + id, "ACC" + id, 15 + id % 20);
+            case 1:
+                return new Contractor(id, "Employee " + id, "e" + id + "@company.com", "555-0100", hired,
+                        department, "Consultant", "Address " + id, "ACC" + id, 20_000 + id % 10_000, 6);
+            default:
+                return new FullTimeEmployee(id, "Employee " + id, "e" + id + "@company.com", "555-0100", hired,
+                        department, "Developer", "Address " + id, "ACC" + id, 3_000 + id % 6_000, 25);
+        }
+    }
+
+    private static Employee[] sampleWorkforce(int size) {
+        Employee[] employees = new Employee[size];
+        for (int i = 0; i < size; i++) {
+            employees[i] = sampleEmployee(i + 1);
+        }
+        return employees;
+    }
+
+    // One record per day, ending on 2024-12-31
+    private static Employee withHistory(int days) {
+        Employee emp = sampleEmployee(2);
+        LocalDate first = LocalDate.of(2025, 1, 1).minusDays(days);
+        for (int d = 0; d < days; d++) {
+            emp.markAttendance(first.plusDays(d), d % 7 != 6, 8);
+        }
+        return emp;
+    }
+
+    // Pseudo-random values in 1..bound; count must be a power of two when
+    // the caller cycles through them with a mask
+    private static int[] probes(int bound, int count) {
+        Random random = new Random(42);
+        int[] probes = new int[count];
+        for (int i = 0; i < count; i++) {
+            probes[i] = 1 + random.nextInt(bound);
+        }
+        return probes;
+    }
+
+    // ---- Results ----
+
+    private static String format(Result result) {
+        return String.format("%14s +- %-12s ns/op", String.format("%,.1f", result.score),
+                             String.format("%,.1f", result.error));
+    }
+
+    private static void writeResults(Path file, List<Result> results) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("{\n\"created\": \"" + LocalDateTime.now().withNano(0) + "\",\n");
+            writer.write("\"java\": \"" + System.getProperty("java.version") + "\",\n");
+            writer.write("\"processors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+            writer.write("\"results\": [\n");
+            for (int i = 0; i < results.size(); i++) {
+                writer.write(results.get(i).toJson() + (i + 1 < results.size() ? ",\n" : "\n"));
+            }
+            writer.write("]\n}\n");
+        }
+    }
+
+    // Reads back the result lines written by writeResults
+    private static Map<String, Result> readResults(Path file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.startsWith("{\"benchmark\"")) {
+                Result result = Result.fromJson(line.endsWith(",") ? line.substring(0, line.length() - 1) : line);
+                results.put(result.key(), result);
+            }
+        }
+        return results;
+    }
+
+    // A benchmark regressed when it got more than 10% slower and the
+    // confidence intervals do not overlap. Returns the number of regressions.
+    private static int compare(List<Result> current, Map<String, Result> baseline) {
+        System.out.println();
+        System.out.println(String.format("%-20s %10s %14s %14s %9s", "Benchmark", "Size", "Baseline", "Current", "Change"));
+        int regressions = 0;
+        for (Result result : current) {
+            Result before = baseline.get(result.key());
+            if (before == null) {
+                System.out.println(String.format("%-20s %,10d %14s %,14.1f %9s", result.benchmark, result.size,
+                                                 "-", result.score, "new"));
+                continue;
+            }
+            double change = (result.score - before.score) / before.score;
+            boolean regressed = change > REGRESSION_THRESHOLD
+                    && result.score - result.error > before.score + before.error;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.println(String.format("%-20s %,10d %,14.1f %,14.1f %+8.1f%%%s", result.benchmark, result.size,
+                                             before.score, result.score, change * 100, regressed ? "  REGRESSION" : ""));
+        }
+        return regressions;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isDirectory(file)) {
+                    deleteRecursively(file);
+                } else {
+                    Files.delete(file);
+                }
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,275 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Per-employee payroll figures that are only recomputed for employees that
+// changed since the last refresh. Employees report changes through
+// EmployeeListener; company and department totals are adjusted by the
+// difference between old and new figures instead of being re-summed.
+//
+// The figures do not depend on the pay period in this model, so one set of
+// results serves every period. Bonuses depend on years of service, so all
+// entries are invalidated when the date changes, and likewise when other
+// rules come into effect (see PayrollRulebook). The figures are therefore
+// always under today's rules; a period under other rules has to be
+// computed without the cache.
+//
+// Change notifications arrive from any thread holding the employee's stripe
+// and only queue the entry; the totals are changed under the cache's own
+// monitor, so readers get copies that always add up.
+class PayrollCache implements EmployeeListener {
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    // Figures of one employee as of its last recompute
+    private static class Figures {
+        final double salary;
+        final double tax;
+        final double bonus;
+        final String department;
+
+        Figures(double salary, double tax, double bonus, String department) {
+            this.salary = salary;
+            this.tax = tax;
+            this.bonus = bonus;
+            this.department = department;
+        }
+    }
+
+    // Cached figures of one employee
+    static class Entry {
+        final Employee employee;
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        private volatile Figures figures; // null until first computed
+
+        Entry(Employee employee) {
+            this.employee = employee;
+        }
+
+        public double getSalary() { Figures f = figures; return f == null ? 0 : f.salary; }
+        public double getTax() { Figures f = figures; return f == null ? 0 : f.tax; }
+        public double getBonus() { Figures f = figures; return f == null ? 0 : f.bonus; }
+        public String getDepartment() { Figures f = figures; return f == null ? null : f.department; }
+        public boolean isComputed() { return figures != null; }
+    }
+
+    // Running totals for the company or one department
+    static class Totals {
+        private final KahanSum salary = new KahanSum();
+        private final KahanSum tax = new KahanSum();
+        private final KahanSum bonus = new KahanSum();
+        private int headcount;
+
+        public double getSalary() { return salary.value(); }
+        public double getTax() { return tax.value(); }
+        public double getBonus() { return bonus.value(); }
+        public double getNetPayout() { return getSalary() + getBonus() - getTax(); }
+        public int getHeadcount() { return headcount; }
+
+        // Adds one employee's cached figures, if it has been computed
+        void add(Entry entry) {
+            Figures figures = entry.figures;
+            if (figures != null) {
+                add(figures, 1);
+            }
+        }
+
+        void add(Figures figures, int sign) {
+            add(sign * figures.salary, sign * figures.tax, sign * figures.bonus, sign);
+        }
+
+        void add(Totals other, int sign) {
+            add(sign * other.getSalary(), sign * other.getTax(), sign * other.getBonus(), sign * other.headcount);
+        }
+
+        void add(double salary, double tax, double bonus, int headcount) {
+            this.salary.add(salary);
+            this.tax.add(tax);
+            this.bonus.add(bonus);
+            this.headcount += headcount;
+        }
+
+        Totals copy() {
+            Totals copy = new Totals();
+            copy.salary.merge(salary);
+            copy.tax.merge(tax);
+            copy.bonus.merge(bonus);
+            copy.headcount = headcount;
+            return copy;
+        }
+    }
+
+    private final PayrollEngine engine;
+    private final LockStripes stripes;
+    private final OrgChart orgChart; // may be null
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> dirty = new ConcurrentLinkedQueue<>();
+    private final Totals company = new Totals();
+    private final Map<String, Totals> departments = new HashMap<>();
+    private LocalDate asOf = LocalDate.now();
+    private PayrollRules rules = PayrollRulebook.current();
+    private volatile int lastRecomputed;
+
+    public PayrollCache(PayrollEngine engine, LockStripes stripes) {
+        this(engine, stripes, null);
+    }
+
+    // Figure changes are also passed on to the org chart's rollups
+    public PayrollCache(PayrollEngine engine, LockStripes stripes, OrgChart orgChart) {
+        this.engine = engine;
+        this.stripes = stripes;
+        this.orgChart = orgChart;
+    }
+
+    public synchronized void employeeAdded(Employee employee) {
+        Entry entry = new Entry(employee);
+        Entry previous = entries.put(employee.getId(), entry);
+        if (previous != null) {
+            retire(previous);
+        }
+        markDirty(entry);
+    }
+
+    public synchronized void employeeRemoved(Employee employee) {
+        Entry entry = entries.get(employee.getId());
+        if (entry != null && entry.employee == employee) {
+            entries.remove(employee.getId());
+            retire(entry);
+        }
+    }
+
+    @Override
+    public void payChanged(Employee employee) {
+        Entry entry = entries.get(employee.getId());
+        if (entry != null && entry.employee == employee) {
+            markDirty(entry);
+        }
+    }
+
+    // The rules of the figures as of the last refresh
+    public synchronized PayrollRules getRules() { return rules; }
+
+    public int getDirtyCount() { return dirty.size(); }
+    public int getLastRecomputed() { return lastRecomputed; }
+
+    // Recomputes dirty entries and folds the differences into the totals.
+    // Returns the number of employees recomputed.
+    public synchronized int refresh() {
+        LocalDate today = LocalDate.now();
+        PayrollRules current = PayrollRulebook.current();
+        if (!today.equals(asOf) || current != rules) {
+            asOf = today;
+            rules = current;
+            for (Entry entry : entries.values()) {
+                markDirty(entry);
+            }
+        }
+
+        // The flag is cleared before recomputing, so a change that lands
+        // during the refresh queues the entry again
+        List<Entry> pending = new ArrayList<>();
+        Entry next;
+        while ((next = dirty.poll()) != null) {
+            next.dirty.set(false);
+            pending.add(next);
+        }
+        if (pending.size() >= PARALLEL_THRESHOLD) {
+            List<Employee> batch = new ArrayList<>(pending.size());
+            for (Entry entry : pending) {
+                batch.add(entry.employee);
+            }
+            PayrollRun run = engine.run(batch, rules);
+            for (int i = 0; i < pending.size(); i++) {
+                Entry entry = pending.get(i);
+                update(entry, new Figures(run.getSalary(i), run.getTax(i), run.getBonus(i),
+                                          entry.employee.getDepartment()));
+            }
+        } else {
+            for (Entry entry : pending) {
+                update(entry, compute(entry.employee));
+            }
+        }
+        lastRecomputed = pending.size();
+        return lastRecomputed;
+    }
+
+    public Entry get(int id) {
+        return entries.get(id);
+    }
+
+    public synchronized Totals getCompanyTotals() {
+        return company.copy();
+    }
+
+    public synchronized Map<String, Totals> getDepartmentTotals() {
+        Map<String, Totals> copy = new HashMap<>();
+        for (Map.Entry<String, Totals> dept : departments.entrySet()) {
+            copy.put(dept.getKey(), dept.getValue().copy());
+        }
+        return copy;
+    }
+
+    private Figures compute(Employee emp) {
+        ReentrantLock lock = stripes.forId(emp.getId());
+        lock.lock();
+        try {
+            return new Figures(emp.calculateSalary(rules), PayrollEngine.taxOf(emp, rules),
+                               PayrollEngine.bonusOf(emp, rules), emp.getDepartment());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void markDirty(Entry entry) {
+        if (entry.dirty.compareAndSet(false, true)) {
+            dirty.add(entry);
+        }
+    }
+
+    private void update(Entry entry, Figures figures) {
+        if (entries.get(entry.employee.getId()) != entry) {
+            return; // removed while it was waiting
+        }
+        Figures old = entry.figures;
+        if (old != null) {
+            company.add(old, -1);
+            departmentTotals(old.department).add(old, -1);
+            dropIfEmpty(old.department);
+        }
+        entry.figures = figures;
+        company.add(figures, 1);
+        departmentTotals(figures.department).add(figures, 1);
+        if (orgChart != null) {
+            orgChart.figuresChanged(entry.employee.getId(),
+                    figures.salary - (old == null ? 0 : old.salary),
+                    figures.tax - (old == null ? 0 : old.tax),
+                    figures.bonus - (old == null ? 0 : old.bonus));
+        }
+    }
+
+    private void retire(Entry entry) {
+        Figures old = entry.figures;
+        if (old != null) {
+            company.add(old, -1);
+            departmentTotals(old.department).add(old, -1);
+            dropIfEmpty(old.department);
+            entry.figures = null;
+            if (orgChart != null) {
+                orgChart.figuresChanged(entry.employee.getId(), -old.salary, -old.tax, -old.bonus);
+            }
+        }
+    }
+
+    private Totals departmentTotals(String department) {
+        return departments.computeIfAbsent(department, d -> new Totals());
+    }
+
+    private void dropIfEmpty(String department) {
+        Totals totals = departments.get(department);
+        if (totals != null && totals.getHeadcount() == 0) {
+            departments.remove(department);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Compensated (Kahan-Babuska) running sum. Merging two sums carries both
+// compensations, so totals do not drift with the number of terms.
+class KahanSum {
+    private double sum;
+    private double compensation;
+
+    public void add(double value) {
+        double t = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - t) + value;
+        } else {
+            compensation += (value - t) + sum;
+        }
+        sum = t;
+    }
+
+    public void merge(KahanSum other) {
+        add(other.sum);
+        compensation += other.compensation;
+    }
+
+    public double value() {
+        return sum + compensation;
+    }
+}
+
+// Result of one payroll run: per-employee figures in employee order plus totals
+class PayrollRun {
+    private final Employee[] employees;
+    private final double[] salaries;
+    private final double[] taxes;
+    private final double[] bonuses;
+    private final double totalSalary;
+    private final double totalTax;
+    private final double totalBonus;
+    private final long elapsedNanos;
+    private final int parallelism;
+
+    PayrollRun(Employee[] employees, double[] salaries, double[] taxes, double[] bonuses,
+               double totalSalary, double totalTax, double totalBonus, long elapsedNanos, int parallelism) {
+        this.employees = employees;
+        this.salaries = salaries;
+        this.taxes = taxes;
+        this.bonuses = bonuses;
+        this.totalSalary = totalSalary;
+        this.totalTax = totalTax;
+        this.totalBonus = totalBonus;
+        this.elapsedNanos = elapsedNanos;
+        this.parallelism = parallelism;
+    }
+
+    public int size() { return employees.length; }
+    public Employee getEmployee(int i) { return employees[i]; }
+    public double getSalary(int i) { return salaries[i]; }
+    public double getTax(int i) { return taxes[i]; }
+    public double getBonus(int i) { return bonuses[i]; }
+
+    public double getTotalSalary() { return totalSalary; }
+    public double getTotalTax() { return totalTax; }
+    public double getTotalBonus() { return totalBonus; }
+    public double getNetPayout() { return totalSalary + totalBonus - totalTax; }
+
+    public long getElapsedNanos() { return elapsedNanos; }
+    public int getParallelism() { return parallelism; }
+
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : employees.length / (elapsedNanos / 1e9);
+    }
+}
+
+// Fork-join payroll calculator. The employee array is split into fixed-size
+// leaf ranges independent of the pool size, and partial totals are merged
+// in the same tree order every time, so totals are bit-for-bit identical
+// whatever the thread count.
+//
+// When given the lock stripes of a PayrollSystem, each employee is read
+// under its stripe, so a run sees every employee in a consistent state
+// while other employees keep being updated. A run uses the rules in effect
+// when it starts throughout (see PayrollRulebook).
+class PayrollEngine {
+    private static final int LEAF_SIZE = 1024;
+
+    private final ForkJoinPool pool;
+    private final LockStripes stripes; // null when employees are not shared
+
+    public PayrollEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public PayrollEngine(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    public PayrollEngine(LockStripes stripes) {
+        this(ForkJoinPool.commonPool(), stripes);
+    }
+
+    public PayrollEngine(ForkJoinPool pool, LockStripes stripes) {
+        this.pool = pool;
+        this.stripes = stripes;
+    }
+
+    public PayrollRun run(List<Employee> employees) {
+        return run(employees, PayrollRulebook.current());
+    }
+
+    public PayrollRun run(List<Employee> employees, PayrollRules rules) {
+        Employee[] snapshot = employees.toArray(new Employee[0]);
+        double[] salaries = new double[snapshot.length];
+        double[] taxes = new double[snapshot.length];
+        double[] bonuses = new double[snapshot.length];
+
+        long start = System.nanoTime();
+        Totals totals = pool.invoke(new RangeTask(snapshot, salaries, taxes, bonuses, rules, stripes, 0, snapshot.length));
+        long elapsed = System.nanoTime() - start;
+
+        return new PayrollRun(snapshot, salaries, taxes, bonuses, totals.salary.value(),
+                totals.tax.value(), totals.bonus.value(), elapsed, pool.getParallelism());
+    }
+
+    // The same payroll in whole cents from the columnar kernel (see
+    // PayrollKernel), with years of service and rules as of the given day
+    public PayrollKernel.Result runColumnar(List<Employee> employees, LocalDate asOf) {
+        return PayrollKernel.run(PayrollColumns.project(employees.toArray(new Employee[0]), asOf, stripes),
+                                 PayrollRulebook.installed().on(asOf));
+    }
+
+    static double taxOf(Employee emp, PayrollRules rules) {
+        return emp instanceof Taxable ? ((Taxable) emp).calculateTax(rules) : 0;
+    }
+
+    static double bonusOf(Employee emp, PayrollRules rules) {
+        return emp instanceof BonusEligible ? ((BonusEligible) emp).calculateBonus(rules) : 0;
+    }
+
+    private static class Totals {
+        final KahanSum salary = new KahanSum();
+        final KahanSum tax = new KahanSum();
+        final KahanSum bonus = new KahanSum();
+
+        void merge(Totals other) {
+            salary.merge(other.salary);
+            tax.merge(other.tax);
+            bonus.merge(other.bonus);
+        }
+    }
+
+    // Never serialized; RecursiveTask is Serializable only by inheritance
+    @SuppressWarnings("serial")
+    private static class RangeTask extends RecursiveTask<Totals> {
+        private final Employee[] employees;
+        private final double[] salaries;
+        private final double[] taxes;
+        private final double[] bonuses;
+        private final PayrollRules rules;
+        private final LockStripes stripes;
+        private final int from;
+        private final int to;
+
+        RangeTask(Employee[] employees, double[] salaries, double[] taxes, double[] bonuses,
+                  PayrollRules rules, LockStripes stripes, int from, int to) {
+            this.employees = employees;
+            this.salaries = salaries;
+            this.taxes = taxes;
+            this.bonuses = bonuses;
+            this.rules = rules;
+            this.stripes = stripes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from <= LEAF_SIZE) {
+                Totals totals = new Totals();
+                for (int i = from; i < to; i++) {
+                    Employee emp = employees[i];
+                    if (stripes == null) {
+                        compute(emp, i);
+                    } else {
+                        ReentrantLock lock = stripes.forId(emp.getId());
+                        lock.lock();
+                        try {
+                            compute(emp, i);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    totals.salary.add(salaries[i]);
+                    totals.tax.add(taxes[i]);
+                    totals.bonus.add(bonuses[i]);
+                }
+                return totals;
+            }
+            int mid = (from + to) >>> 1;
+            RangeTask left = new RangeTask(employees, salaries, taxes, bonuses, rules, stripes, from, mid);
+            RangeTask right = new RangeTask(employees, salaries, taxes, bonuses, rules, stripes, mid, to);
+            right.fork();
+            Totals totals = left.compute();
+            totals.merge(right.join());
+            return totals;
+        }
+
+        private void compute(Employee emp, int i) {
+            salaries[i] = emp.calculateSalary(rules);
+            taxes[i] = taxOf(emp, rules);
+            bonuses[i] = bonusOf(emp, rules);
+        }
+    }
+}
+
+// Runs the payroll engine over a synthetic workforce at increasing thread
+// counts. Run with: java -Xmx4g PayrollEngineBenchmark [employees]
+class PayrollEngineBenchmark {
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<Employee> employees = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            LocalDate hired = LocalDate.of(2010 + id % 15, 1 + id % 12, 1);
+            switch (id % 4) {
+                case 0:
+                    PartTimeEmployee pt = new PartTimeEmployee(id, "Employee " + id, "e@company.com", "555",
+                            hired, "Marketing", "Assistant", "Address", "ACC", 15 + id % 20);
+                    pt.setHoursWorked(60 + id % 100);
+                    employees.add(pt);
+                    break;
+                case 1:
+                    employees.add(new Contractor(id, "Employee " + id, "e@company.com", "555",
+                            hired, "Operations", "Consultant", "Address", "ACC", 20000 + id % 50000, 1 + id % 12));
+                    break;
+                case 2:
+                    employees.add(new Manager(id, "Employee " + id, "e@company.com", "555",
+                            hired, "IT", "Manager", "Address", "ACC", 7000 + id % 5000, 30, 1000));
+                    break;
+                default:
+                    employees.add(new FullTimeEmployee(id, "Employee " + id, "e@company.com", "555",
+                            hired, "IT", "Developer", "Address", "ACC", 3000 + id % 9000, 25));
+            }
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        double reference = Double.NaN;
+        System.out.println("Employees: " + count);
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            PayrollEngine engine = new PayrollEngine(pool);
+            PayrollRun run = null;
+            for (int round = 0; round < 5; round++) {
+                run = engine.run(employees);
+            }
+            pool.shutdown();
+
+            if (Double.isNaN(reference)) {
+                reference = run.getNetPayout();
+            }
+            System.out.printf("threads %2d: %8.1f ms  %12.0f emp/s  net payout %.2f%s%n",
+                    threads, run.getElapsedNanos() / 1e6, run.getThroughput(), run.getNetPayout(),
+                    run.getNetPayout() == reference ? "" : "  (MISMATCH)");
+        }
+    }
+}
@@ -0,0 +1,370 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+// A month-end payroll run that can be resumed after the JVM dies halfway.
+// The employees to pay are fixed when the job first starts and processed
+// in chunks; once a chunk's payslips are on disk, a checkpoint records the
+// chunk as done, so a restarted job carries on with the first unfinished
+// chunk. Outputs are named by employee and period and replaced atomically:
+// a chunk that is redone rewrites its payslips instead of adding copies.
+//
+// The job directory holds
+//   job.checkpoint               period, chunk size, the employee ids in
+//                                order, and for every finished chunk its
+//                                counts, totals and time taken
+//   payslip_<id>_<month>_<year>.txt
+//   register.txt                 totals, written after the last chunk
+//
+// run() works on one thread; getStatus() and stop() may be called from
+// any other while it does.
+class PayrollJob {
+    enum State { PENDING, RUNNING, STOPPED, COMPLETED, FAILED }
+
+    static final int DEFAULT_CHUNK_SIZE = 1000;
+    static final String CHECKPOINT_FILE = "job.checkpoint";
+    static final String REGISTER_FILE = "register.txt";
+
+    private static final int MAGIC = 0x5041594A; // "PAYJ"
+    private static final short VERSION = 1;
+
+    // One finished chunk. Employees removed since the job started have no
+    // payslip and are counted as missing.
+    static class Chunk {
+        final int index;
+        final int generated;
+        final int missing;
+        final double gross;
+        final double tax;
+        final double bonus;
+        final double net;
+        final long elapsedNanos;
+
+        Chunk(int index, int generated, int missing, double gross, double tax, double bonus,
+              double net, long elapsedNanos) {
+            this.index = index;
+            this.generated = generated;
+            this.missing = missing;
+            this.gross = gross;
+            this.tax = tax;
+            this.bonus = bonus;
+            this.net = net;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getIndex() { return index; }
+        public int getGenerated() { return generated; }
+        public int getMissing() { return missing; }
+        public double getGross() { return gross; }
+        public double getTax() { return tax; }
+        public double getBonus() { return bonus; }
+        public double getNet() { return net; }
+        public long getElapsedNanos() { return elapsedNanos; }
+    }
+
+    // A consistent view of the job at one moment
+    static class Status {
+        final int month;
+        final int year;
+        final State state;
+        final int employees;
+        final int chunkCount;
+        final int resumedAt; // first chunk of this run
+        final List<Chunk> chunks;
+        final String error;
+
+        Status(int month, int year, State state, int employees, int chunkCount, int resumedAt,
+               List<Chunk> chunks, String error) {
+            this.month = month;
+            this.year = year;
+            this.state = state;
+            this.employees = employees;
+            this.chunkCount = chunkCount;
+            this.resumedAt = resumedAt;
+            this.chunks = chunks;
+            this.error = error;
+        }
+
+        public int getMonth() { return month; }
+        public int getYear() { return year; }
+        public State getState() { return state; }
+        public int getEmployees() { return employees; }
+        public int getChunkCount() { return chunkCount; }
+        public int getChunksDone() { return chunks.size(); }
+        public int getResumedAt() { return resumedAt; }
+        public List<Chunk> getChunks() { return chunks; }
+        public String getError() { return error; }
+
+        public boolean isActive() {
+            return state == State.PENDING || state == State.RUNNING;
+        }
+
+        public int getGenerated() {
+            int generated = 0;
+            for (Chunk chunk : chunks) {
+                generated += chunk.generated;
+            }
+            return generated;
+        }
+
+        public int getMissing() {
+            int missing = 0;
+            for (Chunk chunk : chunks) {
+                missing += chunk.missing;
+            }
+            return missing;
+        }
+
+        @Override
+        public String toString() {
+            return "Payroll " + month + "/" + year + ": " + state + ", " + chunks.size() + "/" + chunkCount +
+                   " chunks, " + getGenerated() + " of " + employees + " payslips" +
+                   (getMissing() > 0 ? ", " + getMissing() + " employees no longer exist" : "") +
+                   (error != null ? " (" + error + ")" : "");
+        }
+    }
+
+    private final Path directory;
+    private final int month;
+    private final int year;
+    private final int chunkSize;
+    private final IntFunction<PaySlip> payslips;
+    private final MetricsRegistry.Timer chunkTimer; // null if not measured
+
+    private State state = State.PENDING;
+    private int[] ids = new int[0];
+    private int jobChunkSize;
+    private int resumedAt;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private String error;
+    private volatile boolean stopRequested;
+
+    // payslips computes one employee's figures for the period, or returns
+    // null if there is no such employee any more. chunkSize only applies
+    // to a new job; a resumed one keeps the size it was started with.
+    public PayrollJob(Path directory, int month, int year, int chunkSize, IntFunction<PaySlip> payslips,
+                      MetricsRegistry.Timer chunkTimer) {
+        this.directory = directory;
+        this.month = month;
+        this.year = year;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.payslips = payslips;
+        this.chunkTimer = chunkTimer;
+    }
+
+    public Path getDirectory() { return directory; }
+    public int getMonth() { return month; }
+    public int getYear() { return year; }
+
+    public synchronized Status getStatus() {
+        int chunkCount = jobChunkSize == 0 ? 0 : (ids.length + jobChunkSize - 1) / jobChunkSize;
+        return new Status(month, year, state, ids.length, chunkCount, resumedAt,
+                          Collections.unmodifiableList(new ArrayList<>(chunks)), error);
+    }
+
+    public synchronized boolean isActive() {
+        return state == State.PENDING || state == State.RUNNING;
+    }
+
+    // Asks run() to return after the chunk in progress, or not to start;
+    // the job can be resumed later by a new PayrollJob
+    public void stop() {
+        stopRequested = true;
+    }
+
+    // Starts the job, or resumes it from its checkpoint. employeeIds are
+    // the employees to pay when the job is new and are ignored otherwise.
+    public void run(int[] employeeIds) throws IOException {
+        try {
+            Files.createDirectories(directory);
+            int chunkCount;
+            synchronized (this) {
+                state = State.RUNNING;
+                error = null;
+                chunks.clear();
+                if (!readCheckpoint()) {
+                    ids = employeeIds.clone();
+                    Arrays.sort(ids);
+                    jobChunkSize = chunkSize;
+                    writeCheckpoint();
+                }
+                resumedAt = chunks.size();
+                chunkCount = (ids.length + jobChunkSize - 1) / jobChunkSize;
+            }
+            for (int c = resumedAt; c < chunkCount; c++) {
+                if (stopRequested) {
+                    finish(State.STOPPED);
+                    return;
+                }
+                Chunk chunk = process(c);
+                synchronized (this) {
+                    chunks.add(chunk);
+                    writeCheckpoint();
+                }
+            }
+            writeRegister();
+            finish(State.COMPLETED);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                state = State.FAILED;
+                error = e.getMessage();
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void finish(State end) {
+        state = end;
+    }
+
+    // Computes and writes the payslips of one chunk. Slips are rendered and
+    // written in parallel; each goes to a temporary file that is forced and
+    // renamed into place, so an existing payslip is always complete.
+    private Chunk process(int c) throws IOException {
+        long start = System.nanoTime();
+        int from = c * jobChunkSize;
+        int to = Math.min(ids.length, from + jobChunkSize);
+        PaySlip[] slips = new PaySlip[to - from];
+        try {
+            IntStream.range(from, to).parallel().forEach(i -> {
+                PaySlip slip = payslips.apply(ids[i]);
+                if (slip == null) {
+                    return;
+                }
+                slips[i - from] = slip;
+                Path target = directory.resolve("payslip_" + ids[i] + "_" + month + "_" + year + ".txt");
+                Path temp = directory.resolve(target.getFileName() + ".tmp");
+                try {
+                    // Forced before the rename, so a checkpoint never counts a
+                    // payslip that is still only in the page cache
+                    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                         Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+                        PaySlipTemplate.DEFAULT.render(slip, PaySlipTemplate.threadBuffer()).writeTo(writer);
+                        writer.flush();
+                        channel.force(true);
+                    }
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        int generated = 0;
+        double gross = 0, tax = 0, bonus = 0, net = 0;
+        for (PaySlip slip : slips) {
+            if (slip != null) {
+                generated++;
+                gross += slip.getGrossSalary();
+                tax += slip.getTax();
+                bonus += slip.getBonus();
+                net += slip.getNetSalary();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (chunkTimer != null) {
+            chunkTimer.record(elapsed);
+        }
+        return new Chunk(c, generated, slips.length - generated, gross, tax, bonus, net, elapsed);
+    }
+
+    // False if there is no checkpoint yet
+    private boolean readCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException(file + " is not a payroll job checkpoint");
+            }
+            in.readShort();
+            int storedMonth = in.readInt();
+            int storedYear = in.readInt();
+            if (storedMonth != month || storedYear != year) {
+                throw new IOException(file + " belongs to the payroll of " + storedMonth + "/" + storedYear);
+            }
+            jobChunkSize = in.readInt();
+            ids = new int[in.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = in.readInt();
+            }
+            int done = in.readInt();
+            for (int i = 0; i < done; i++) {
+                chunks.add(new Chunk(i, in.readInt(), in.readInt(), in.readDouble(), in.readDouble(),
+                                     in.readDouble(), in.readDouble(), in.readLong()));
+            }
+        }
+        return true;
+    }
+
+    // Replaced atomically and forced, so the checkpoint on disk is always
+    // a whole one
+    private void writeCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(month);
+            out.writeInt(year);
+            out.writeInt(jobChunkSize);
+            out.writeInt(ids.length);
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+            out.writeInt(chunks.size());
+            for (Chunk chunk : chunks) {
+                out.writeInt(chunk.generated);
+                out.writeInt(chunk.missing);
+                out.writeDouble(chunk.gross);
+                out.writeDouble(chunk.tax);
+                out.writeDouble(chunk.bonus);
+                out.writeDouble(chunk.net);
+                out.writeLong(chunk.elapsedNanos);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Totals over every chunk, including those of earlier runs
+    private void writeRegister() throws IOException {
+        Status status = getStatus();
+        double gross = 0, tax = 0, bonus = 0, net = 0;
+        long elapsed = 0;
+        for (Chunk chunk : status.chunks) {
+            gross += chunk.gross;
+            tax += chunk.tax;
+            bonus += chunk.bonus;
+            net += chunk.net;
+            elapsed += chunk.elapsedNanos;
+        }
+        Path temp = directory.resolve(REGISTER_FILE + ".tmp");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+            out.println("=== PAYROLL REGISTER FOR " + month + "/" + year + " ===");
+            out.println("Employees: " + status.employees);
+            out.println("Payslips: " + status.getGenerated());
+            out.println("No longer employed: " + status.getMissing());
+            out.println("Gross Salary: $" + String.format("%.2f", gross));
+            out.println("Tax: $" + String.format("%.2f", tax));
+            out.println("Bonus: $" + String.format("%.2f", bonus));
+            out.println("Net Payout: $" + String.format("%.2f", net));
+            out.println("Chunks: " + status.chunks.size() + " of up to " + jobChunkSize + " employees, " +
+                        String.format("%.1f", elapsed / 1e6) + " ms");
+        }
+        Files.move(temp, directory.resolve(REGISTER_FILE), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+}
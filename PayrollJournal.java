@@ -0,0 +1,723 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+// Binary field encoding for the employee hierarchy, shared by the journal
+// and the snapshot so both agree on how an employee looks on disk
+class EmployeeCodec {
+    static final byte FULL_TIME = 1;
+    static final byte PART_TIME = 2;
+    static final byte CONTRACTOR = 3;
+    static final byte MANAGER = 4;
+
+    static byte typeOf(Employee emp) {
+        // Manager extends FullTimeEmployee, so it has to be checked first
+        if (emp instanceof Manager) {
+            return MANAGER;
+        }
+        if (emp instanceof FullTimeEmployee) {
+            return FULL_TIME;
+        }
+        if (emp instanceof PartTimeEmployee) {
+            return PART_TIME;
+        }
+        if (emp instanceof Contractor) {
+            return CONTRACTOR;
+        }
+        throw new IllegalArgumentException("Unknown employee type: " + emp.getClass().getName());
+    }
+
+    static void write(DataOutput out, Employee emp) throws IOException {
+        write(out, emp, Integer.MIN_VALUE);
+    }
+
+    static void write(DataOutput out, Employee emp, int fromYear) throws IOException {
+        out.writeByte(typeOf(emp));
+        out.writeInt(emp.getId());
+        writeString(out, emp.getName());
+        writeString(out, emp.getEmail());
+        writeString(out, emp.getPhoneNumber());
+        writeDate(out, emp.getHireDate());
+        writeString(out, emp.getDepartment());
+        writeString(out, emp.getPosition());
+        writeString(out, emp.getAddress());
+        writeString(out, emp.getBankAccount());
+
+        if (emp instanceof FullTimeEmployee) {
+            FullTimeEmployee ft = (FullTimeEmployee) emp;
+            out.writeDouble(ft.getMonthlySalary());
+            out.writeDouble(ft.getOvertimeRate());
+            out.writeInt(ft.getOvertimeHours());
+            if (emp instanceof Manager) {
+                Manager mgr = (Manager) emp;
+                out.writeDouble(mgr.getAllowance());
+                // Team members are stored by id and resolved when read back
+                int[] team = teamIds(mgr);
+                out.writeInt(team.length);
+                for (int member : team) {
+                    out.writeInt(member);
+                }
+            }
+        } else if (emp instanceof PartTimeEmployee) {
+            PartTimeEmployee pt = (PartTimeEmployee) emp;
+            out.writeDouble(pt.getHourlyRate());
+            out.writeInt(pt.getHoursWorked());
+        } else if (emp instanceof Contractor) {
+            Contractor c = (Contractor) emp;
+            out.writeDouble(c.getContractAmount());
+            out.writeInt(c.getContractDuration());
+        }
+
+        List<AttendanceRecord> attendance = emp.getAttendanceRecords(fromYear);
+        out.writeInt(attendance.size());
+        for (AttendanceRecord record : attendance) {
+            writeDate(out, record.getDate());
+            out.writeBoolean(record.isPresent());
+            out.writeInt(record.getHoursWorked());
+        }
+
+        List<LeaveRecord> leaves = emp.getLeaveHistory();
+        out.writeInt(leaves.size());
+        for (LeaveRecord leave : leaves) {
+            writeDate(out, leave.getStartDate());
+            writeDate(out, leave.getEndDate());
+            writeString(out, leave.getReason());
+            out.writeBoolean(leave.isApproved());
+        }
+
+        // Leave numbers come last: entries written before leaves had them
+        // end here, and their leaves are numbered by position
+        out.writeInt(emp.getNextLeaveNumber());
+        for (LeaveRecord leave : leaves) {
+            out.writeInt(leave.getNumber());
+        }
+    }
+
+    // Ids of the manager's team as stored: local members, then members kept
+    // by other shards as the complement of their id, so they are never
+    // mistaken for a local employee
+    static int[] teamIds(Manager mgr) {
+        List<Employee> local = mgr.getTeamMembers();
+        int[] remote = mgr.getRemoteTeamMembers();
+        int[] ids = new int[local.size() + remote.length];
+        for (int i = 0; i < local.size(); i++) {
+            ids[i] = local.get(i).getId();
+        }
+        for (int i = 0; i < remote.length; i++) {
+            ids[local.size() + i] = ~remote[i];
+        }
+        return ids;
+    }
+
+    // Adds one stored team id back to the manager; local members that
+    // cannot be resolved through lookup are dropped
+    static void addTeamMember(Manager mgr, int storedId, IntFunction<Employee> lookup) {
+        if (storedId < 0) {
+            mgr.addRemoteTeamMember(~storedId);
+            return;
+        }
+        Employee member = lookup.apply(storedId);
+        if (member != null) {
+            mgr.addTeamMember(member);
+        }
+    }
+
+    static Employee read(DataInputStream in, IntFunction<Employee> lookup) throws IOException {
+        byte type = in.readByte();
+        int id = in.readInt();
+        String name = readString(in);
+        String email = readString(in);
+        String phone = readString(in);
+        LocalDate hireDate = readDate(in);
+        String department = readString(in);
+        String position = readString(in);
+        String address = readString(in);
+        String bankAccount = readString(in);
+
+        Employee emp;
+        switch (type) {
+            case FULL_TIME:
+            case MANAGER: {
+                double salary = in.readDouble();
+                double overtimeRate = in.readDouble();
+                int overtimeHours = in.readInt();
+                FullTimeEmployee ft;
+                if (type == MANAGER) {
+                    Manager mgr = new Manager(id, name, email, phone, hireDate, department, position,
+                            address, bankAccount, salary, overtimeRate, in.readDouble());
+                    int teamSize = in.readInt();
+                    for (int i = 0; i < teamSize; i++) {
+                        addTeamMember(mgr, in.readInt(), lookup);
+                    }
+                    ft = mgr;
+                } else {
+                    ft = new FullTimeEmployee(id, name, email, phone, hireDate, department, position,
+                            address, bankAccount, salary, overtimeRate);
+                }
+                ft.setOvertimeHours(overtimeHours);
+                emp = ft;
+                break;
+            }
+            case PART_TIME: {
+                PartTimeEmployee pt = new PartTimeEmployee(id, name, email, phone, hireDate, department,
+                        position, address, bankAccount, in.readDouble());
+                pt.setHoursWorked(in.readInt());
+                emp = pt;
+                break;
+            }
+            case CONTRACTOR:
+                emp = new Contractor(id, name, email, phone, hireDate, department, position,
+                        address, bankAccount, in.readDouble(), in.readInt());
+                break;
+            default:
+                throw new IOException("Unknown employee type tag: " + type);
+        }
+
+        int attendanceCount = in.readInt();
+        for (int i = 0; i < attendanceCount; i++) {
+            LocalDate date = readDate(in);
+            boolean present = in.readBoolean();
+            emp.markAttendance(date, present, in.readInt());
+        }
+
+        int leaveCount = in.readInt();
+        LocalDate[] starts = new LocalDate[leaveCount];
+        LocalDate[] ends = new LocalDate[leaveCount];
+        String[] reasons = new String[leaveCount];
+        boolean[] approved = new boolean[leaveCount];
+        for (int i = 0; i < leaveCount; i++) {
+            starts[i] = readDate(in);
+            ends[i] = readDate(in);
+            reasons[i] = readString(in);
+            approved[i] = in.readBoolean();
+        }
+        boolean numbered = in.available() > 0;
+        int nextLeaveNumber = numbered ? in.readInt() : leaveCount;
+        for (int i = 0; i < leaveCount; i++) {
+            int number = numbered ? in.readInt() : i;
+            emp.applyLeave(number, starts[i], ends[i], reasons[i]);
+            if (approved[i]) {
+                emp.approveLeave(number);
+            }
+        }
+        emp.setNextLeaveNumber(nextLeaveNumber);
+        return emp;
+    }
+
+    static byte[] encode(Employee emp) {
+        return encode(emp, Integer.MIN_VALUE);
+    }
+
+    // Leaves out attendance before fromYear, e.g. years already archived
+    static byte[] encode(Employee emp, int fromYear) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            write(new DataOutputStream(bytes), emp, fromYear);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Adds an encoded employee to a store plan without building it: its
+    // strings and how many attendance records, leaves and team members it
+    // has. Team members are counted as stored, including any that would
+    // no longer resolve when decoded.
+    static void plan(byte[] encoded, EmployeeStore.Plan plan) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+            byte type = in.readByte();
+            in.readInt(); // id
+            plan.addString(readString(in)); // name
+            plan.addString(readString(in)); // email
+            plan.addString(readString(in)); // phone
+            readDate(in); // hire date
+            for (int i = 0; i < 4; i++) {
+                plan.addString(readString(in)); // department, position, address, bank account
+            }
+            int team = 0;
+            switch (type) {
+                case FULL_TIME:
+                case MANAGER:
+                    in.skipBytes(8 + 8 + 4);
+                    if (type == MANAGER) {
+                        in.skipBytes(8);
+                        team = in.readInt();
+                        in.skipBytes(team * 4);
+                    }
+                    break;
+                case PART_TIME:
+                case CONTRACTOR:
+                    in.skipBytes(8 + 4);
+                    break;
+                default:
+                    throw new IOException("Unknown employee type tag: " + type);
+            }
+            int attendance = in.readInt();
+            in.skipBytes(attendance * (8 + 1 + 4));
+            plan.addEmployee(type, attendance, team);
+            int leaveCount = in.readInt();
+            for (int i = 0; i < leaveCount; i++) {
+                in.skipBytes(8 + 8);
+                plan.addLeave(readString(in));
+                in.readBoolean();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Employee decode(byte[] encoded, IntFunction<Employee> lookup) {
+        try {
+            return read(new DataInputStream(new ByteArrayInputStream(encoded)), lookup);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeDate(DataOutput out, LocalDate date) throws IOException {
+        out.writeLong(date == null ? Long.MIN_VALUE : date.toEpochDay());
+    }
+
+    static LocalDate readDate(DataInput in) throws IOException {
+        long epochDay = in.readLong();
+        return epochDay == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+}
+
+// Append-only log of typed employee mutations. Each entry is framed as
+// [length][crc32][sequence][type][payload]; a torn or corrupt tail left by
+// a crash is detected on replay and truncated away.
+//
+// The log is split into segment files (<name>.000001, <name>.000002, ...).
+// A snapshot rotates to a fresh segment first and deletes the older ones
+// once it is on disk, so entries logged while the snapshot is being taken
+// are never lost. Appends and commits may come from many threads; commits
+// are grouped, so one fsync covers every entry staged before it.
+class PayrollJournal implements Closeable {
+    static final byte ADD_EMPLOYEE = 1;
+    static final byte REMOVE_EMPLOYEE = 2;
+    static final byte MARK_ATTENDANCE = 3;
+    static final byte APPLY_LEAVE = 4;
+    static final byte APPROVE_LEAVE = 5;
+    static final byte TRANSFER_EMPLOYEE = 6;
+    static final byte ASSIGN_MANAGER = 7;
+    static final byte REMOTE_TEAM_MEMBER = 8;
+
+    static final int FRAME_HEADER = 8; // length + crc
+    static final int MAX_ENTRY = 64 << 20;
+
+    // Callbacks invoked for every entry newer than the snapshot during replay
+    interface Handler {
+        void employeeAdded(long sequence, Employee employee);
+        void employeeRemoved(long sequence, int id);
+        void attendanceMarked(long sequence, int id, LocalDate date, boolean present, int hours);
+        // number is -1 for entries written before leaves were numbered
+        void leaveApplied(long sequence, int id, int number, LocalDate start, LocalDate end, String reason);
+        void leaveApproved(long sequence, int id, int number);
+        void employeeTransferred(long sequence, int id, String department, String position);
+        void managerAssigned(long sequence, int id, int previousManagerId, int managerId);
+        void remoteTeamMemberChanged(long sequence, int managerId, int employeeId, boolean member);
+    }
+
+    private final Path basePath;
+    private final List<Path> retiredSegments = new ArrayList<>();
+    private Path currentSegment;
+    private int segmentNumber;
+    private FileChannel channel;
+    private long committedLength; // end of the last forced frame in the current segment
+    private boolean torn; // a failed write could not be cut off again
+    private long lastSequence;
+    private int entryCount;
+    // Entries in the current segment, which outlives deleteRetiredSegments()
+    private int segmentEntryCount;
+
+    // Entries are staged here until commit() makes them durable
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream entryBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream entryOut = new DataOutputStream(entryBuffer);
+    private final CRC32 crc = new CRC32();
+    private final Object commitLock = new Object();
+
+    public PayrollJournal(Path basePath) {
+        this.basePath = basePath;
+    }
+
+    public synchronized long getLastSequence() { return lastSequence; }
+
+    // Entries in all segments that a snapshot has not yet made obsolete
+    public synchronized int getEntryCount() { return entryCount; }
+
+    // Replays entries with a sequence above afterSequence from every segment,
+    // then opens the newest segment for appending. Anything past the last
+    // intact entry is cut off, together with any later segments.
+    public synchronized void open(long afterSequence, Handler handler, IntFunction<Employee> lookup) throws IOException {
+        lastSequence = afterSequence;
+        entryCount = 0;
+        segmentEntryCount = 0;
+        List<Path> segments = listSegments(basePath);
+
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            segmentEntryCount = 0;
+            long validLength = replaySegment(segment, afterSequence, handler, lookup);
+            long size = Files.size(segment);
+            if (validLength < size) {
+                System.out.println("Discarding incomplete journal tail (" + (size - validLength) + " bytes).");
+                try (FileChannel truncating = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    truncating.truncate(validLength);
+                    truncating.force(true);
+                }
+                // Later segments cannot be applied across the gap
+                for (Path later : segments.subList(i + 1, segments.size())) {
+                    System.out.println("Discarding journal segment written after the damaged one: " + later.getFileName());
+                    Files.delete(later);
+                }
+                segments = new ArrayList<>(segments.subList(0, i + 1));
+                break;
+            }
+        }
+
+        if (segments.isEmpty()) {
+            segmentNumber = 1;
+            currentSegment = segmentPath(segmentNumber);
+        } else {
+            currentSegment = segments.get(segments.size() - 1);
+            segmentNumber = segmentNumberOf(currentSegment);
+            retiredSegments.addAll(segments.subList(0, segments.size() - 1));
+        }
+        channel = FileChannel.open(currentSegment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        committedLength = channel.size();
+        torn = false;
+    }
+
+    private long replaySegment(Path segment, long afterSequence, Handler handler,
+                               IntFunction<Employee> lookup) throws IOException {
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(segment)))) {
+            while (true) {
+                byte[] body = readFrame(in);
+                if (body == null) {
+                    break;
+                }
+                DataInputStream entry = new DataInputStream(new ByteArrayInputStream(body));
+                long sequence = entry.readLong();
+                byte type = entry.readByte();
+                if (sequence > afterSequence) {
+                    apply(sequence, type, entry, handler, lookup);
+                    lastSequence = sequence;
+                }
+                validLength += FRAME_HEADER + body.length;
+                entryCount++;
+                segmentEntryCount++;
+            }
+        }
+        return validLength;
+    }
+
+    // The unnumbered file written by earlier versions sorts first
+    static List<Path> listSegments(Path basePath) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        Path directory = basePath.toAbsolutePath().getParent();
+        String prefix = basePath.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+")) {
+                    segments.add(file);
+                }
+            }
+        }
+        segments.sort(Comparator.comparingInt(PayrollJournal::segmentNumberOf));
+        if (Files.exists(basePath)) {
+            segments.add(0, basePath);
+        }
+        return segments;
+    }
+
+    private Path segmentPath(int number) {
+        return basePath.resolveSibling(basePath.getFileName() + String.format(".%06d", number));
+    }
+
+    static int segmentNumberOf(Path segment) {
+        String name = segment.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String suffix = name.substring(dot + 1);
+        return suffix.matches("\\d+") ? Integer.parseInt(suffix) : 0;
+    }
+
+    private byte[] readFrame(DataInputStream in) throws IOException {
+        int length;
+        int checksum;
+        try {
+            length = in.readInt();
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 9 || length > MAX_ENTRY) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        try {
+            in.readFully(body);
+        } catch (EOFException e) {
+            return null;
+        }
+        crc.reset();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue() == checksum ? body : null;
+    }
+
+    // Decodes one entry body past its sequence and type; shared with JournalTail
+    static void apply(long sequence, byte type, DataInputStream in, Handler handler,
+                      IntFunction<Employee> lookup) throws IOException {
+        switch (type) {
+            case ADD_EMPLOYEE:
+                handler.employeeAdded(sequence, EmployeeCodec.read(in, lookup));
+                break;
+            case REMOVE_EMPLOYEE:
+                handler.employeeRemoved(sequence, in.readInt());
+                break;
+            case MARK_ATTENDANCE:
+                handler.attendanceMarked(sequence, in.readInt(), EmployeeCodec.readDate(in), in.readBoolean(), in.readInt());
+                break;
+            case APPLY_LEAVE: {
+                int id = in.readInt();
+                LocalDate start = EmployeeCodec.readDate(in);
+                LocalDate end = EmployeeCodec.readDate(in);
+                String reason = EmployeeCodec.readString(in);
+                handler.leaveApplied(sequence, id, in.available() > 0 ? in.readInt() : -1, start, end, reason);
+                break;
+            }
+            case APPROVE_LEAVE:
+                handler.leaveApproved(sequence, in.readInt(), in.readInt());
+                break;
+            case TRANSFER_EMPLOYEE:
+                handler.employeeTransferred(sequence, in.readInt(), EmployeeCodec.readString(in),
+                        EmployeeCodec.readString(in));
+                break;
+            case ASSIGN_MANAGER:
+                handler.managerAssigned(sequence, in.readInt(), in.readInt(), in.readInt());
+                break;
+            case REMOTE_TEAM_MEMBER:
+                handler.remoteTeamMemberChanged(sequence, in.readInt(), in.readInt(), in.readBoolean());
+                break;
+            default:
+                throw new IOException("Unknown journal entry type: " + type);
+        }
+    }
+
+    // Each log method stages one entry and returns its sequence number
+
+    public synchronized long logEmployeeAdded(Employee emp) throws IOException {
+        begin(ADD_EMPLOYEE);
+        EmployeeCodec.write(entryOut, emp);
+        return end();
+    }
+
+    public synchronized long logEmployeeRemoved(int id) throws IOException {
+        begin(REMOVE_EMPLOYEE);
+        entryOut.writeInt(id);
+        return end();
+    }
+
+    public synchronized long logAttendance(int id, LocalDate date, boolean present, int hours) throws IOException {
+        begin(MARK_ATTENDANCE);
+        entryOut.writeInt(id);
+        EmployeeCodec.writeDate(entryOut, date);
+        entryOut.writeBoolean(present);
+        entryOut.writeInt(hours);
+        return end();
+    }
+
+    // The leave number goes last, after the fields older entries have
+    public synchronized long logLeaveApplied(int id, int number, LocalDate start, LocalDate end,
+                                             String reason) throws IOException {
+        begin(APPLY_LEAVE);
+        entryOut.writeInt(id);
+        EmployeeCodec.writeDate(entryOut, start);
+        EmployeeCodec.writeDate(entryOut, end);
+        EmployeeCodec.writeString(entryOut, reason);
+        entryOut.writeInt(number);
+        return end();
+    }
+
+    // Older entries carry the leave's position, which was its number as
+    // long as no leave of the employee had been rejected
+    public synchronized long logLeaveApproved(int id, int number) throws IOException {
+        begin(APPROVE_LEAVE);
+        entryOut.writeInt(id);
+        entryOut.writeInt(number);
+        return end();
+    }
+
+    public synchronized long logTransfer(int id, String department, String position) throws IOException {
+        begin(TRANSFER_EMPLOYEE);
+        entryOut.writeInt(id);
+        EmployeeCodec.writeString(entryOut, department);
+        EmployeeCodec.writeString(entryOut, position);
+        return end();
+    }
+
+    public synchronized long logManagerAssigned(int id, int previousManagerId, int managerId) throws IOException {
+        begin(ASSIGN_MANAGER);
+        entryOut.writeInt(id);
+        entryOut.writeInt(previousManagerId);
+        entryOut.writeInt(managerId);
+        return end();
+    }
+
+    public synchronized long logRemoteTeamMember(int managerId, int employeeId, boolean member) throws IOException {
+        begin(REMOTE_TEAM_MEMBER);
+        entryOut.writeInt(managerId);
+        entryOut.writeInt(employeeId);
+        entryOut.writeBoolean(member);
+        return end();
+    }
+
+    private void begin(byte type) throws IOException {
+        entryBuffer.reset();
+        entryOut.writeLong(lastSequence + 1);
+        entryOut.writeByte(type);
+    }
+
+    private long end() throws IOException {
+        byte[] body = entryBuffer.toByteArray();
+        crc.reset();
+        crc.update(body, 0, body.length);
+        DataOutputStream frame = new DataOutputStream(pending);
+        frame.writeInt(body.length);
+        frame.writeInt((int) crc.getValue());
+        frame.write(body);
+        entryCount++;
+        segmentEntryCount++;
+        return ++lastSequence;
+    }
+
+    // Writes all staged entries and forces them to disk. Entries staged by
+    // other threads while this one waits are carried by the same fsync. If
+    // the write fails the batch is staged again, ahead of anything added
+    // meanwhile, and the next commit retries it.
+    public void commit() throws IOException {
+        synchronized (commitLock) {
+            byte[] batch;
+            synchronized (this) {
+                if (pending.size() == 0) {
+                    return;
+                }
+                batch = pending.toByteArray();
+                pending.reset();
+            }
+            try {
+                writeBatch(batch, false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    byte[] later = pending.toByteArray();
+                    pending.reset();
+                    pending.write(batch, 0, batch.length);
+                    pending.write(later, 0, later.length);
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Appends batch after the last forced frame and forces it; the caller
+    // holds commitLock. A failed write is cut off again, since replay stops
+    // at a torn frame and would drop every entry written behind it. If that
+    // fails too, nothing more is written until the journal is reopened.
+    private void writeBatch(byte[] batch, boolean metaData) throws IOException {
+        if (torn) {
+            throw new IOException("Journal segment " + currentSegment
+                                  + " has a torn entry; reopen the journal to recover it");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, committedLength + buffer.position());
+            }
+            channel.force(metaData);
+        } catch (IOException e) {
+            try {
+                channel.truncate(committedLength);
+                channel.force(true);
+            } catch (IOException repair) {
+                torn = true;
+                e.addSuppressed(repair);
+            }
+            throw e;
+        }
+        committedLength += batch.length;
+    }
+
+    // Seals the current segment and starts a new one. Returns the last
+    // sequence in the sealed segments: a snapshot that includes every entry
+    // up to it makes those segments obsolete.
+    public long rotate() throws IOException {
+        synchronized (commitLock) {
+            synchronized (this) {
+                commitPendingLocked();
+                channel.close();
+                retiredSegments.add(currentSegment);
+                currentSegment = segmentPath(++segmentNumber);
+                channel = FileChannel.open(currentSegment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                committedLength = 0;
+                segmentEntryCount = 0;
+                return lastSequence;
+            }
+        }
+    }
+
+    // Called once a snapshot covering the sealed segments is safely on disk
+    public void deleteRetiredSegments() throws IOException {
+        synchronized (commitLock) {
+            synchronized (this) {
+                for (Path segment : retiredSegments) {
+                    Files.deleteIfExists(segment);
+                }
+                retiredSegments.clear();
+                entryCount = segmentEntryCount;
+            }
+        }
+    }
+
+    // Staged entries stay staged unless they reach the disk
+    private void commitPendingLocked() throws IOException {
+        writeBatch(pending.toByteArray(), true);
+        pending.reset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (commitLock) {
+            synchronized (this) {
+                if (channel != null) {
+                    try {
+                        commitPendingLocked();
+                    } finally {
+                        channel.close();
+                        channel = null;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleToLongFunction;
+
+// The pay-relevant fields of a workforce copied into primitive columns,
+// one group per pay model: salaried (full-time employees and managers),
+// hourly (part-time) and contract. Row i of a group belongs to
+// employees[row[i]] of the array it was projected from. Years of service
+// are worked out once, as of the given day, instead of on every bonus.
+class PayrollColumns {
+    final int size;
+    final LocalDate asOf;
+
+    final int[] salariedRow;
+    final double[] monthlySalary;
+    final double[] overtimeRate;
+    final int[] overtimeHours;
+    final int[] yearsOfService;
+    final boolean[] manager;
+    final double[] allowance;   // 0 unless manager
+    final int[] teamSize;       // 0 unless manager
+
+    final int[] hourlyRow;
+    final double[] hourlyRate;
+    final int[] hoursWorked;
+
+    final int[] contractRow;
+    final double[] contractAmount;
+    final int[] contractDuration;
+
+    private PayrollColumns(int size, LocalDate asOf, int salaried, int hourly, int contract) {
+        this.size = size;
+        this.asOf = asOf;
+        salariedRow = new int[salaried];
+        monthlySalary = new double[salaried];
+        overtimeRate = new double[salaried];
+        overtimeHours = new int[salaried];
+        yearsOfService = new int[salaried];
+        manager = new boolean[salaried];
+        allowance = new double[salaried];
+        teamSize = new int[salaried];
+        hourlyRow = new int[hourly];
+        hourlyRate = new double[hourly];
+        hoursWorked = new int[hourly];
+        contractRow = new int[contract];
+        contractAmount = new double[contract];
+        contractDuration = new int[contract];
+    }
+
+    // Each employee is read under its stripe when stripes are given, as
+    // PayrollEngine does. An employee's type never changes, so the groups
+    // are sized without locking.
+    static PayrollColumns project(Employee[] employees, LocalDate asOf, LockStripes stripes) {
+        int salaried = 0;
+        int hourly = 0;
+        int contract = 0;
+        for (Employee emp : employees) {
+            if (emp instanceof FullTimeEmployee) {
+                salaried++;
+            } else if (emp instanceof PartTimeEmployee) {
+                hourly++;
+            } else if (emp instanceof Contractor) {
+                contract++;
+            } else {
+                throw new IllegalArgumentException("Unknown employee type: " + emp.getClass().getName());
+            }
+        }
+        PayrollColumns columns = new PayrollColumns(employees.length, asOf, salaried, hourly, contract);
+        int asOfMonthDay = asOf.getMonthValue() * 32 + asOf.getDayOfMonth();
+        int s = 0;
+        int h = 0;
+        int c = 0;
+        for (int row = 0; row < employees.length; row++) {
+            Employee emp = employees[row];
+            ReentrantLock lock = stripes == null ? null : stripes.forId(emp.getId());
+            if (lock != null) {
+                lock.lock();
+            }
+            try {
+                if (emp instanceof FullTimeEmployee) {
+                    FullTimeEmployee ft = (FullTimeEmployee) emp;
+                    columns.salariedRow[s] = row;
+                    columns.monthlySalary[s] = ft.getMonthlySalary();
+                    columns.overtimeRate[s] = ft.getOvertimeRate();
+                    columns.overtimeHours[s] = ft.getOvertimeHours();
+                    // Whole years as Period.between counts them: one less
+                    // until the anniversary is reached
+                    LocalDate hired = ft.getHireDate();
+                    columns.yearsOfService[s] = asOf.getYear() - hired.getYear()
+                            - (asOfMonthDay < hired.getMonthValue() * 32 + hired.getDayOfMonth() ? 1 : 0);
+                    if (emp instanceof Manager) {
+                        columns.manager[s] = true;
+                        columns.allowance[s] = ((Manager) emp).getAllowance();
+                        columns.teamSize[s] = ((Manager) emp).getTeamSize();
+                    }
+                    s++;
+                } else if (emp instanceof PartTimeEmployee) {
+                    PartTimeEmployee pt = (PartTimeEmployee) emp;
+                    columns.hourlyRow[h] = row;
+                    columns.hourlyRate[h] = pt.getHourlyRate();
+                    columns.hoursWorked[h] = pt.getHoursWorked();
+                    h++;
+                } else {
+                    Contractor contractor = (Contractor) emp;
+                    columns.contractRow[c] = row;
+                    columns.contractAmount[c] = contractor.getContractAmount();
+                    columns.contractDuration[c] = contractor.getContractDuration();
+                    c++;
+                }
+            } finally {
+                if (lock != null) {
+                    lock.unlock();
+                }
+            }
+        }
+        return columns;
+    }
+}
+
+// Payroll over PayrollColumns in whole cents, under one version of the
+// rules. Each group is one loop without virtual calls or type checks;
+// brackets and tiers come from the rules' lookup tables. The figures are
+// worked out in double with exactly the operations of the Employee methods
+// (calculateSalary, calculateTax, calculateBonus, computePaySlip) in the
+// same order, and then rounded to cents as payslips and reports print them,
+// so every amount is the same as the one-employee-at-a-time path gives.
+// Totals are sums of cents and therefore exact in any order.
+class PayrollKernel {
+    // Amount that has no value in cents, e.g. a contract of 0 months;
+    // such rows are left out of the totals
+    static final long NO_AMOUNT = Long.MIN_VALUE;
+
+    // Figures by row of the projected employees, and their totals
+    static class Result {
+        final long[] gross;
+        final long[] tax;
+        final long[] bonus;
+        final long[] pf;
+        final long[] net;
+        private long totalGross;
+        private long totalTax;
+        private long totalBonus;
+        private long totalPf;
+        private long totalNet;
+        private int invalid;
+
+        Result(int size) {
+            gross = new long[size];
+            tax = new long[size];
+            bonus = new long[size];
+            pf = new long[size];
+            net = new long[size];
+        }
+
+        public int size() { return gross.length; }
+        public long getTotalGross() { return totalGross; }
+        public long getTotalTax() { return totalTax; }
+        public long getTotalBonus() { return totalBonus; }
+        public long getTotalPf() { return totalPf; }
+        public long getTotalNet() { return totalNet; }
+        // Rows left out of the totals because an amount was not finite
+        public int getInvalid() { return invalid; }
+    }
+
+    static Result run(PayrollColumns columns, PayrollRules rules) {
+        Result result = new Result(columns.size);
+        salaried(columns, rules, result);
+        hourly(columns, rules, result);
+        contract(columns, rules, result);
+        for (int row = 0; row < columns.size; row++) {
+            if (result.net[row] == NO_AMOUNT || result.gross[row] == NO_AMOUNT) {
+                result.invalid++;
+                continue;
+            }
+            result.totalGross += result.gross[row];
+            result.totalTax += result.tax[row];
+            result.totalBonus += result.bonus[row];
+            result.totalPf += result.pf[row];
+            result.totalNet += result.net[row];
+        }
+        return result;
+    }
+
+    private static void salaried(PayrollColumns c, PayrollRules rules, Result r) {
+        double perTeamMember = rules.getTeamMemberAllowance();
+        double managerFactor = rules.getManagerBonusFactor();
+        double pfRate = rules.getPfRate();
+        for (int i = 0; i < c.salariedRow.length; i++) {
+            double salary = c.monthlySalary[i];
+            double base = salary + (c.overtimeHours[i] * c.overtimeRate[i]);
+            boolean manager = c.manager[i];
+            double gross = manager ? base + c.allowance[i] + (c.teamSize[i] * perTeamMember) : base;
+            double tax = rules.fullTimeTax(salary);
+            double bonus = salary * rules.bonusRate(c.yearsOfService[i]);
+            bonus = manager ? bonus * managerFactor : bonus;
+            double pf = gross * pfRate;
+            double net = gross - tax + bonus - pf;
+            store(r, c.salariedRow[i], gross, tax, bonus, pf, net);
+        }
+    }
+
+    private static void hourly(PayrollColumns c, PayrollRules rules, Result r) {
+        double pfRate = rules.getPfRate();
+        for (int i = 0; i < c.hourlyRow.length; i++) {
+            double gross = c.hourlyRate[i] * c.hoursWorked[i];
+            double tax = rules.partTimeTax(gross);
+            double pf = gross * pfRate;
+            double net = gross - tax - pf;
+            store(r, c.hourlyRow[i], gross, tax, 0, pf, net);
+        }
+    }
+
+    private static void contract(PayrollColumns c, PayrollRules rules, Result r) {
+        double pfRate = rules.getPfRate();
+        for (int i = 0; i < c.contractRow.length; i++) {
+            double gross = c.contractAmount[i] / c.contractDuration[i];
+            double pf = gross * pfRate;
+            double net = gross - pf;
+            store(r, c.contractRow[i], gross, 0, 0, pf, net);
+        }
+    }
+
+    private static void store(Result r, int row, double gross, double tax, double bonus, double pf, double net) {
+        r.gross[row] = toCents(gross);
+        r.tax[row] = toCents(tax);
+        r.bonus[row] = toCents(bonus);
+        r.pf[row] = toCents(pf);
+        r.net[row] = toCents(net);
+    }
+
+    // The amount in cents as it is printed: the shortest decimal form of
+    // the double rounded half-up, like String.format("%.2f") and
+    // exactCents. The boundary between whole and whole + 1 cents is the
+    // half-cent decimal D. If value is the double closest to D, D is how it
+    // prints (below 1e11 no shorter decimal is that close) and rounds up;
+    // otherwise value prints on the same side of D as it lies. Either way
+    // comparing value with the double closest to D decides, and that
+    // double is an exact quotient. Only negative and huge amounts take
+    // the slow path.
+    static long toCents(double value) {
+        if (value >= 0 && value < 1e11) {
+            long whole = (long) (value * 100);
+            return value >= (2 * whole + 1) / 200.0 ? whole + 1 : whole;
+        }
+        return exactCents(value);
+    }
+
+    // Reference for toCents, as PayrollServer.money rounds
+    static long exactCents(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return NO_AMOUNT;
+        }
+        return new BigDecimal(Double.toString(value)).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+}
+
+// Checks the kernel against computePaySlip on a synthetic workforce and
+// times both. Every amount must equal the payslip's, rounded to cents by
+// exactCents. The scalar time is the per-employee path rounded with
+// toCents; the columnar time includes projecting the columns.
+// Run with: java -Xmx4g PayrollKernelBenchmark [employees]
+class PayrollKernelBenchmark {
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Employee[] employees = workforce(count);
+        LocalDate today = LocalDate.now();
+        PayrollRules rules = PayrollRulebook.forPeriod(1, 2025);
+
+        long[][] expected = scalar(employees, PayrollKernel::exactCents);
+        PayrollKernel.Result result = null;
+        long scalarNanos = Long.MAX_VALUE;
+        long columnarNanos = Long.MAX_VALUE;
+        long kernelNanos = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long[][] cents = scalar(employees, PayrollKernel::toCents);
+            sink += cents[4][count - 1];
+            scalarNanos = Math.min(scalarNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            PayrollColumns columns = PayrollColumns.project(employees, today, null);
+            long projected = System.nanoTime();
+            result = PayrollKernel.run(columns, rules);
+            long end = System.nanoTime();
+            columnarNanos = Math.min(columnarNanos, end - start);
+            kernelNanos = Math.min(kernelNanos, end - projected);
+        }
+
+        int mismatches = 0;
+        long[][] actual = {result.gross, result.tax, result.bonus, result.pf, result.net};
+        for (int row = 0; row < count; row++) {
+            for (int field = 0; field < actual.length; field++) {
+                if (actual[field][row] != expected[field][row] && mismatches++ < 10) {
+                    System.out.println("MISMATCH employee " + employees[row].getId() + " field " + field + ": " +
+                                       actual[field][row] + " != " + expected[field][row]);
+                }
+            }
+        }
+        System.out.printf("Employees: %d, mismatches: %d, net payout $%d.%02d%n",
+                count, mismatches, result.getTotalNet() / 100, result.getTotalNet() % 100);
+        System.out.printf("scalar   %8.1f ms%n", scalarNanos / 1e6);
+        System.out.printf("columnar %8.1f ms (kernel %.1f ms), %.1fx faster%n",
+                columnarNanos / 1e6, kernelNanos / 1e6, (double) scalarNanos / columnarNanos);
+    }
+
+    // Per employee through the Employee methods, as payslips are made
+    static long[][] scalar(Employee[] employees, DoubleToLongFunction rounding) {
+        long[][] cents = new long[5][employees.length];
+        for (int row = 0; row < employees.length; row++) {
+            PaySlip slip = employees[row].computePaySlip(1, 2025);
+            cents[0][row] = rounding.applyAsLong(slip.getGrossSalary());
+            cents[1][row] = rounding.applyAsLong(slip.getTax());
+            cents[2][row] = rounding.applyAsLong(slip.getBonus());
+            cents[3][row] = rounding.applyAsLong(slip.getPfDeduction());
+            cents[4][row] = rounding.applyAsLong(slip.getNetSalary());
+        }
+        return cents;
+    }
+
+    // Every pay model and bracket, with amounts in cents as well as whole
+    // dollars so half-cent results come up
+    static Employee[] workforce(int count) {
+        List<Employee> employees = new ArrayList<>(count);
+        LocalDate today = LocalDate.now();
+        Manager lead = null;
+        for (int id = 1; id <= count; id++) {
+            LocalDate hired = today.minusDays(id * 37L % 4000).plusDays(id % 3 == 0 ? 0 : 400);
+            double cents = (id * 7919L % 100) / 100.0;
+            switch (id % 5) {
+                case 0:
+                    PartTimeEmployee pt = new PartTimeEmployee(id, "Employee " + id, "e@company.com", "555",
+                            hired, "Marketing", "Assistant", "Address", "ACC", 12 + id % 40 + cents);
+                    pt.setHoursWorked(id % 180);
+                    employees.add(pt);
+                    break;
+                case 1:
+                    employees.add(new Contractor(id, "Employee " + id, "e@company.com", "555", hired,
+                            "Operations", "Consultant", "Address", "ACC", 5000 + id % 90000 + cents, 1 + id % 24));
+                    break;
+                case 2:
+                    lead = new Manager(id, "Employee " + id, "e@company.com", "555", hired, "IT", "Manager",
+                            "Address", "ACC", 6000 + id % 6000 + cents, 30 + cents, 500 + id % 1000);
+                    lead.setOvertimeHours(id % 7);
+                    employees.add(lead);
+                    break;
+                default:
+                    FullTimeEmployee ft = new FullTimeEmployee(id, "Employee " + id, "e@company.com", "555",
+                            hired, "IT", "Developer", "Address", "ACC", 2000 + id % 9000 + cents, 25 + cents);
+                    ft.setOvertimeHours(id % 11);
+                    employees.add(ft);
+                    if (lead != null && id % 10 < 8) {
+                        lead.addTeamMember(ft);
+                    }
+            }
+        }
+        return employees.toArray(new Employee[0]);
+    }
+}
@@ -0,0 +1,354 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+// End-to-end load test: generates a workforce with WorkforceGenerator, loads
+// it into a PayrollSystem in a temporary directory, then replays a business
+// day of clock-ins, terminal uploads, self-service payslip lookups, leave
+// requests, approvals and payroll reports from closed-loop worker threads,
+// and finishes with a month-end close (payslip archive plus snapshot).
+//
+// Reports load time, heap per employee, throughput and latency percentiles
+// per operation, a throughput/p99 line every five seconds so stalls show up
+// where they happen, and GC collection durations for every phase. Run it at
+// growing sizes to find where each of these falls off a cliff.
+//
+// Run with: java -Xmx4g PayrollLoadHarness [employees] [history years] [seconds] [threads] [mix]
+// where mix is e.g. clockIn=70,upload=4,payslip=15,leave=6,approve=4,report=1
+class PayrollLoadHarness {
+    private static final String DEFAULT_MIX = "clockIn=70,upload=4,payslip=15,leave=6,approve=4,report=1";
+    private static final int UPLOAD_SIZE = 50;
+    private static final int INTERVAL_SECONDS = 5;
+
+    private enum Operation { clockIn, upload, payslip, leave, approve, report }
+
+    private final PayrollSystem system;
+    private final int employeeCount;
+    private final LocalDate today;
+    private final int[] cumulativeWeights = new int[Operation.values().length];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LatencyHistogram interval = new LatencyHistogram();
+    private final AtomicLong punches = new AtomicLong();
+    private final ConcurrentLinkedQueue<Integer> pendingLeaves = new ConcurrentLinkedQueue<>();
+
+    private PayrollLoadHarness(PayrollSystem system, int employeeCount, LocalDate today, String mix) {
+        this.system = system;
+        this.employeeCount = employeeCount;
+        this.today = today;
+        int[] weights = new int[Operation.values().length];
+        for (String part : mix.split(",")) {
+            String[] pair = part.split("=");
+            weights[Operation.valueOf(pair[0].trim()).ordinal()] = Integer.parseInt(pair[1].trim());
+        }
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulativeWeights[i] = total;
+            latencies[i] = new LatencyHistogram();
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Operation mix has no weight: " + mix);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int employeeCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int years = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        String mix = args.length > 4 ? args[4] : DEFAULT_MIX;
+
+        PrintStream console = System.out;
+        GcRecorder gc = new GcRecorder();
+        Path directory = Files.createTempDirectory("payroll-load");
+        WorkforceGenerator generator = new WorkforceGenerator(1, LocalDate.of(2025, 6, 30), years);
+        console.printf("%,d employees, %d years of history, %d threads for %d s, mix %s%n",
+                employeeCount, years, threads, seconds, mix);
+        console.println("Max heap " + mb(Runtime.getRuntime().maxMemory()) + ", " +
+                Runtime.getRuntime().availableProcessors() + " processors, " + gc.names());
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            gc.phase();
+            long start = System.nanoTime();
+            Employee[] generated = generator.generate(employeeCount);
+            EmployeeStore.write(directory.resolve(PayrollSystem.DATA_FILE), Arrays.asList(generated), 0);
+            generated = null;
+            console.printf("Generate and write store: %.1f s, %s%n", (System.nanoTime() - start) / 1e9, gc.phase());
+
+            start = System.nanoTime();
+            PayrollSystem system = new PayrollSystem(directory);
+            long loaded = System.nanoTime() - start;
+            System.gc();
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            console.printf("Load: %.1f s, live heap %s (%,d bytes per employee), %s%n",
+                    loaded / 1e9, mb(heap), heap / Math.max(1, employeeCount), gc.phase());
+
+            PayrollLoadHarness harness = new PayrollLoadHarness(system, employeeCount,
+                    generator.getAsOf().plusDays(3), mix); // the Monday after the generated history
+            harness.queueBacklog();
+            harness.run(threads, seconds, console);
+            console.println(gc.phase());
+            harness.monthEnd(directory, console);
+            console.println(gc.phase());
+            console.println("GC durations over the whole run: " + gc.summary());
+            system.close();
+        } finally {
+            System.setOut(console);
+            deleteRecursively(directory);
+        }
+    }
+
+    // Employees the generator left with unapproved leaves
+    private void queueBacklog() {
+        for (int id = 1; id <= employeeCount; id++) {
+            if (firstPendingLeave(id) >= 0) {
+                pendingLeaves.add(id);
+            }
+        }
+    }
+
+    private void run(int threads, int seconds, PrintStream console) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = 1000 + t;
+            workers.add(pool.submit(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                while (System.nanoTime() < deadline) {
+                    Operation operation = pick(random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]));
+                    long started = System.nanoTime();
+                    perform(operation, random);
+                    long elapsed = System.nanoTime() - started;
+                    latencies[operation.ordinal()].record(elapsed);
+                    interval.record(elapsed);
+                }
+                return null;
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (int tick = INTERVAL_SECONDS; tick < seconds; tick += INTERVAL_SECONDS) {
+            Thread.sleep(Math.max(0, start + TimeUnit.SECONDS.toNanos(tick) - System.nanoTime()) / 1_000_000);
+            console.printf("  %3d s: %,9.0f ops/s, p99 %s, max %s%n", tick,
+                    interval.getCount() / (double) INTERVAL_SECONDS, ms(interval.percentile(99)), ms(interval.getMax()));
+            interval.reset();
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        LatencyHistogram all = new LatencyHistogram();
+        console.printf("%-9s %10s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "ops/s", "p50", "p90", "p99", "p99.9", "max");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies[operation.ordinal()];
+            if (histogram.getCount() > 0) {
+                print(console, operation.name(), histogram, elapsed);
+                all.add(histogram);
+            }
+        }
+        print(console, "all", all, elapsed);
+        console.printf("%,d punches recorded%n", punches.get());
+    }
+
+    private Operation pick(int roll) {
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (roll < cumulativeWeights[i]) {
+                return Operation.values()[i];
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private void perform(Operation operation, SplittableRandom random) {
+        int id = 1 + random.nextInt(employeeCount);
+        switch (operation) {
+            case clockIn:
+                system.markAttendance(id, workday(), true, 8);
+                punches.incrementAndGet();
+                break;
+            case upload: {
+                // A time clock terminal syncing its buffered punches
+                int[] ids = new int[UPLOAD_SIZE];
+                AttendanceRecord[] records = new AttendanceRecord[UPLOAD_SIZE];
+                LocalDate day = workday();
+                for (int i = 0; i < UPLOAD_SIZE; i++) {
+                    ids[i] = 1 + random.nextInt(employeeCount);
+                    records[i] = new AttendanceRecord(day, random.nextInt(20) != 0, 8);
+                }
+                system.markAttendance(ids, records, UPLOAD_SIZE);
+                punches.addAndGet(UPLOAD_SIZE);
+                break;
+            }
+            case payslip:
+                system.computePaySlip(id, today.getMonthValue(), today.getYear());
+                break;
+            case leave: {
+                LocalDate start = today.plusDays(7 + random.nextInt(60));
+                if (system.applyForLeave(id, start, start.plusDays(random.nextInt(5)), "Vacation")) {
+                    pendingLeaves.add(id);
+                }
+                break;
+            }
+            case approve: {
+                Integer requester = pendingLeaves.poll();
+                if (requester != null) {
+                    int number = firstPendingLeave(requester);
+                    if (number >= 0) {
+                        system.approveLeave(requester, number);
+                    }
+                }
+                break;
+            }
+            case report:
+                system.generatePayrollReport(today.getMonthValue(), today.getYear());
+                break;
+        }
+    }
+
+    // Clock-ins move to the next day once everyone could have punched in
+    private LocalDate workday() {
+        return today.plusDays(punches.get() / employeeCount);
+    }
+
+    private int firstPendingLeave(int id) {
+        Employee emp = system.findEmployee(id);
+        if (emp == null) {
+            return -1;
+        }
+        List<LeaveRecord> history;
+        ReentrantLock lock = system.lockFor(id);
+        lock.lock();
+        try {
+            history = emp.getLeaveHistory();
+        } finally {
+            lock.unlock();
+        }
+        for (LeaveRecord leave : history) {
+            if (!leave.isApproved()) {
+                return leave.getNumber();
+            }
+        }
+        return -1;
+    }
+
+    private void monthEnd(Path directory, PrintStream console) {
+        int month = today.getMonthValue();
+        int year = today.getYear();
+        long start = System.nanoTime();
+        system.generatePayrollReport(month, year);
+        long report = System.nanoTime();
+        system.generateAllPaySlips(directory.resolve("payslips"), month, year, PaySlipBatch.Output.ARCHIVE);
+        long payslips = System.nanoTime();
+        system.checkpoint();
+        long snapshot = System.nanoTime();
+        console.printf("Month-end close: payroll report %.0f ms, payslip archive %.0f ms, snapshot %.0f ms%n",
+                (report - start) / 1e6, (payslips - report) / 1e6, (snapshot - payslips) / 1e6);
+    }
+
+    private static void print(PrintStream console, String name, LatencyHistogram histogram, long elapsed) {
+        console.printf("%-9s %,10d %,10.0f %10s %10s %10s %10s %10s%n", name, histogram.getCount(),
+                histogram.getCount() / (elapsed / 1e9), ms(histogram.percentile(50)), ms(histogram.percentile(90)),
+                ms(histogram.percentile(99)), ms(histogram.percentile(99.9)), ms(histogram.getMax()));
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+
+    private static String mb(long bytes) {
+        return String.format("%,d MB", bytes >> 20);
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+                for (Path file : files) {
+                    deleteRecursively(file);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    // Collection counts and durations from the platform MXBeans. Each
+    // collection's duration comes from its notification; for the
+    // stop-the-world collectors (Serial, Parallel, G1) that is the pause.
+    private static class GcRecorder {
+        private final LatencyHistogram total = new LatencyHistogram();
+        private final LatencyHistogram phase = new LatencyHistogram();
+        private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+        GcRecorder() {
+            for (GarbageCollectorMXBean collector : collectors) {
+                if (collector instanceof NotificationEmitter) {
+                    ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                        if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                            GarbageCollectionNotificationInfo info =
+                                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                            long nanos = TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration());
+                            total.record(nanos);
+                            phase.record(nanos);
+                        }
+                    }, null, null);
+                }
+            }
+            resetPeaks();
+        }
+
+        String names() {
+            StringJoiner joiner = new StringJoiner(", ", "collectors: ", "");
+            for (GarbageCollectorMXBean collector : collectors) {
+                joiner.add(collector.getName());
+            }
+            return joiner.toString();
+        }
+
+        // Summary of the phase that just ended; starts the next one
+        String phase() {
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+            String summary = "peak heap " + mb(peak) + ", GC " + describe(phase);
+            phase.reset();
+            resetPeaks();
+            return summary;
+        }
+
+        String summary() {
+            return describe(total);
+        }
+
+        private static String describe(LatencyHistogram histogram) {
+            if (histogram.getCount() == 0) {
+                return "no collections";
+            }
+            return String.format("%d collections, %.0f ms total, p50 %s, p99 %s, max %s", histogram.getCount(),
+                    histogram.getMean() * histogram.getCount() / 1e6, ms(histogram.percentile(50)),
+                    ms(histogram.percentile(99)), ms(histogram.getMax()));
+        }
+
+        private static void resetPeaks() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                }
+            }
+        }
+    }
+}
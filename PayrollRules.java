@@ -0,0 +1,561 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// One version of the pay rules: tax brackets, bonus tiers, the manager's
+// bonus factor and allowance per team member, and the PF rate, in effect
+// from a given day. Brackets are kept as ascending upper bounds and found
+// by binary search (or a scan, for a handful); bonus rates are tabled by
+// whole years of service.
+// Never changed once built, so a payroll run can keep using one version
+// while a newer rulebook is installed.
+//
+// The figures are worked out with the same operations as before the
+// rates were configurable, so the built-in rules give the same amounts to
+// the last bit.
+class PayrollRules {
+    // The rates the payroll has always used, in the rules file format
+    // (see PayrollRulebook)
+    static final String[] BUILT_IN_SETTINGS = {
+        "fulltime.tax = 0.10 up to 50000, 0.15 up to 100000, 0.20",
+        "parttime.tax = 0.05 up to 3000, 0.10",
+        "bonus = 0.05, 0.10 from 1, 0.15 from 3, 0.20 from 5",
+        "manager.bonus = 1.5",
+        "manager.team = 50",
+        "pf = 0.12",
+    };
+    private static final Set<String> KEYS = settings(BUILT_IN_SETTINGS).keySet();
+    static final PayrollRules BUILT_IN = of(LocalDate.MIN, settings(BUILT_IN_SETTINGS));
+
+    // Longest service a bonus tier can start at; the table has one entry
+    // per year up to the last tier
+    private static final int MAX_TIER_YEARS = 100;
+    // Bracket tables up to this long are scanned rather than searched
+    private static final int SCAN_BOUNDS = 8;
+
+    private final LocalDate effectiveFrom;
+    private final Map<String, String> settings;
+    private final double[] fullTimeTaxBounds; // on the annual salary, inclusive
+    private final double[] fullTimeTaxRates;  // one more than bounds
+    private final double[] partTimeTaxBounds; // on the month's earnings, inclusive
+    private final double[] partTimeTaxRates;
+    private final double[] bonusByYear;       // the last rate applies beyond the table
+    private final double managerBonusFactor;
+    private final double teamMemberAllowance;
+    private final double pfRate;
+
+    private PayrollRules(LocalDate effectiveFrom, Map<String, String> settings,
+                         double[][] fullTimeTax, double[][] partTimeTax, double[] bonusByYear,
+                         double managerBonusFactor, double teamMemberAllowance, double pfRate) {
+        this.effectiveFrom = effectiveFrom;
+        this.settings = settings;
+        this.fullTimeTaxBounds = fullTimeTax[0];
+        this.fullTimeTaxRates = fullTimeTax[1];
+        this.partTimeTaxBounds = partTimeTax[0];
+        this.partTimeTaxRates = partTimeTax[1];
+        this.bonusByYear = bonusByYear;
+        this.managerBonusFactor = managerBonusFactor;
+        this.teamMemberAllowance = teamMemberAllowance;
+        this.pfRate = pfRate;
+    }
+
+    // Compiles one version from its settings, which must name every key
+    // of BUILT_IN_SETTINGS. Throws IllegalArgumentException naming the
+    // setting that is wrong.
+    static PayrollRules of(LocalDate effectiveFrom, Map<String, String> settings) {
+        for (String key : settings.keySet()) {
+            if (!isSetting(key)) {
+                throw new IllegalArgumentException("Unknown setting " + key);
+            }
+        }
+        return new PayrollRules(effectiveFrom, Collections.unmodifiableMap(new TreeMap<>(settings)),
+                brackets("fulltime.tax", required(settings, "fulltime.tax")),
+                brackets("parttime.tax", required(settings, "parttime.tax")),
+                tiers("bonus", required(settings, "bonus")),
+                number("manager.bonus", required(settings, "manager.bonus")),
+                number("manager.team", required(settings, "manager.team")),
+                rate("pf", required(settings, "pf")));
+    }
+
+    public LocalDate getEffectiveFrom() { return effectiveFrom; }
+    // The settings this version was compiled from, by key
+    public Map<String, String> getSettings() { return settings; }
+    public double getManagerBonusFactor() { return managerBonusFactor; }
+    public double getTeamMemberAllowance() { return teamMemberAllowance; }
+    public double getPfRate() { return pfRate; }
+
+    // Tax on a full-time monthly salary, by the bracket of the annual salary
+    public double fullTimeTax(double monthlySalary) {
+        return monthlySalary * fullTimeTaxRates[bracket(fullTimeTaxBounds, monthlySalary * 12)];
+    }
+
+    // Tax on a part-timer's earnings for the month
+    public double partTimeTax(double monthlyEarnings) {
+        return monthlyEarnings * partTimeTaxRates[bracket(partTimeTaxBounds, monthlyEarnings)];
+    }
+
+    // Bonus as a share of the monthly salary; less than a year (or a hire
+    // date still to come) gets the first tier
+    public double bonusRate(int yearsOfService) {
+        return bonusByYear[yearsOfService <= 0 ? 0 : Math.min(yearsOfService, bonusByYear.length - 1)];
+    }
+
+    // The first bracket whose bound the amount does not exceed, or the
+    // top one. NaN also lands in the top bracket, as it did with the
+    // comparisons this replaces. A few bounds are counted without
+    // branches, which beats searching when amounts fall in brackets at
+    // random; longer tables are searched.
+    private static int bracket(double[] bounds, double amount) {
+        if (bounds.length <= SCAN_BOUNDS) {
+            int above = 0;
+            for (double bound : bounds) {
+                above += amount <= bound ? 0 : 1;
+            }
+            return above;
+        }
+        int low = 0;
+        int high = bounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (amount <= bounds[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    static boolean isSetting(String key) {
+        return KEYS.contains(key);
+    }
+
+    // "key = value" lines into a map, in order
+    static Map<String, String> settings(String... lines) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String line : lines) {
+            int equals = line.indexOf('=');
+            settings.put(line.substring(0, equals).trim(), line.substring(equals + 1).trim());
+        }
+        return settings;
+    }
+
+    private static String required(Map<String, String> settings, String key) {
+        String value = settings.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing setting " + key);
+        }
+        return value;
+    }
+
+    // "0.10 up to 50000, 0.15 up to 100000, 0.20": bounds and rates, the
+    // last bracket without a bound
+    private static double[][] brackets(String key, String value) {
+        String[] parts = value.split(",");
+        double[] bounds = new double[parts.length - 1];
+        double[] rates = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String[] bracket = parts[i].trim().split("\\s+up to\\s+");
+            boolean last = i == parts.length - 1;
+            if (bracket.length != (last ? 1 : 2)) {
+                throw new IllegalArgumentException(key + ": every bracket but the last needs \"up to\", the last none");
+            }
+            rates[i] = rate(key, bracket[0]);
+            if (!last) {
+                bounds[i] = number(key, bracket[1]);
+                if (i > 0 && bounds[i] <= bounds[i - 1]) {
+                    throw new IllegalArgumentException(key + ": bracket bounds must increase");
+                }
+            }
+        }
+        return new double[][] {bounds, rates};
+    }
+
+    // "0.05, 0.10 from 1, 0.15 from 3": one rate per year of service, up
+    // to the start of the last tier
+    private static double[] tiers(String key, String value) {
+        String[] parts = value.split(",");
+        int[] from = new int[parts.length];
+        double[] rates = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String[] tier = parts[i].trim().split("\\s+from\\s+");
+            if (tier.length != (i == 0 ? 1 : 2)) {
+                throw new IllegalArgumentException(key + ": every tier but the first needs \"from\", the first none");
+            }
+            rates[i] = rate(key, tier[0]);
+            if (i > 0) {
+                try {
+                    from[i] = Integer.parseInt(tier[1].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(key + ": not a number of years: " + tier[1].trim());
+                }
+                if (from[i] <= from[i - 1] || from[i] > MAX_TIER_YEARS) {
+                    throw new IllegalArgumentException(key + ": tiers must start at increasing years up to " +
+                                                       MAX_TIER_YEARS);
+                }
+            }
+        }
+        double[] byYear = new double[from[from.length - 1] + 1];
+        for (int i = 0; i < from.length; i++) {
+            int end = i + 1 < from.length ? from[i + 1] : byYear.length;
+            Arrays.fill(byYear, from[i], end, rates[i]);
+        }
+        return byYear;
+    }
+
+    private static double rate(String key, String text) {
+        double rate = number(key, text);
+        if (rate > 1) {
+            throw new IllegalArgumentException(key + ": rates are fractions, e.g. 0.15 for 15%: " + text.trim());
+        }
+        return rate;
+    }
+
+    // Parsed as the literals the rates used to be, so 0.10 is the same
+    // double either way
+    private static double number(String key, String text) {
+        try {
+            double value = Double.parseDouble(text.trim());
+            if (value >= 0 && value < Double.POSITIVE_INFINITY) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(key + ": not a non-negative number: " + text.trim());
+    }
+}
+
+// Every version of the pay rules by the day it takes effect, from a rules
+// file such as:
+//
+//   # Higher rates from 2026
+//   [2026-01-01]
+//   fulltime.tax = 0.10 up to 50000, 0.18 up to 100000, 0.25
+//   pf = 0.125
+//
+// with one section per version, in date order. A version only lists what
+// changes from the one before it; before the first, and for anything the
+// first leaves out, the built-in rules apply (PayrollRules.BUILT_IN_SETTINGS
+// lists every key). Tax bounds are on the annual salary for full-timers
+// and on the month's earnings for part-timers; bonus tiers are by whole
+// years of service; manager.bonus multiplies a manager's bonus and
+// manager.team is the allowance per team member.
+//
+// The installed rulebook is shared by the process. Given
+// -Dpayroll.rulesFile=<file>, that file is installed at startup and again
+// whenever it changes (looked at every payroll.rulesPollMillis); a change
+// that does not parse is reported and the rules in use are kept. Payroll
+// runs pick one version when they start (current or forPeriod) and use it
+// to the end, so installing a rulebook never waits for a run and never
+// changes figures halfway through one.
+class PayrollRulebook {
+    static final PayrollRulebook BUILT_IN = new PayrollRulebook(new PayrollRules[] {PayrollRules.BUILT_IN});
+    private static final String RULES_FILE = System.getProperty("payroll.rulesFile");
+    private static final long POLL_MILLIS = Long.getLong("payroll.rulesPollMillis", 1000);
+
+    private final PayrollRules[] versions; // by effective day, the built-in rules first
+    private final long[] effectiveDays;
+
+    private PayrollRulebook(PayrollRules[] versions) {
+        this.versions = versions;
+        effectiveDays = new long[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            effectiveDays[i] = versions[i].getEffectiveFrom().toEpochDay();
+        }
+    }
+
+    // The installed rulebook and today's version of it, good until the
+    // end of the day, so current() costs a clock read
+    private static class Installed {
+        final PayrollRulebook rulebook;
+        final PayrollRules today;
+        final long fromMillis;
+        final long untilMillis;
+
+        Installed(PayrollRulebook rulebook, long nowMillis) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate day = Instant.ofEpochMilli(nowMillis).atZone(zone).toLocalDate();
+            this.rulebook = rulebook;
+            this.today = rulebook.on(day);
+            this.fromMillis = day.atStartOfDay(zone).toInstant().toEpochMilli();
+            this.untilMillis = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+    }
+
+    private static final AtomicReference<Installed> installed =
+            new AtomicReference<>(new Installed(BUILT_IN, System.currentTimeMillis()));
+    private static FileTime lastModified; // of the rules file when last read; watcher thread only
+
+    static {
+        if (RULES_FILE != null) {
+            Path file = Paths.get(RULES_FILE);
+            try {
+                lastModified = Files.getLastModifiedTime(file);
+                install(load(file));
+            } catch (IOException | IllegalArgumentException e) {
+                // Paying with the wrong rates is worse than not starting
+                throw new IllegalStateException("Cannot load payroll rules from " + file + ": " + e.getMessage(), e);
+            }
+            ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "rules-watch");
+                thread.setDaemon(true);
+                return thread;
+            });
+            watcher.scheduleWithFixedDelay(() -> reloadIfChanged(file), POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // The rules in effect today
+    static PayrollRules current() {
+        Installed current = installed.get();
+        long now = System.currentTimeMillis();
+        if (now >= current.fromMillis && now < current.untilMillis) {
+            return current.today;
+        }
+        Installed next = new Installed(current.rulebook, now);
+        installed.compareAndSet(current, next); // unless a new rulebook came in meanwhile
+        return next.today;
+    }
+
+    // The rules for a pay period: those in effect on its first day. A
+    // period that is not a real month (the console does not check) gets
+    // today's.
+    static PayrollRules forPeriod(int month, int year) {
+        try {
+            return installed.get().rulebook.on(LocalDate.of(year, month, 1));
+        } catch (DateTimeException e) {
+            return current();
+        }
+    }
+
+    static PayrollRulebook installed() {
+        return installed.get().rulebook;
+    }
+
+    // Replaces the rulebook for every run that starts from now on
+    static void install(PayrollRulebook rulebook) {
+        installed.set(new Installed(rulebook, System.currentTimeMillis()));
+    }
+
+    // The version in effect on the given day
+    public PayrollRules on(LocalDate day) {
+        int i = Arrays.binarySearch(effectiveDays, day.toEpochDay());
+        return versions[i >= 0 ? i : -i - 2];
+    }
+
+    public List<PayrollRules> getVersions() {
+        return Collections.unmodifiableList(Arrays.asList(versions));
+    }
+
+    // Every version in full, in the rules file format; the built-in rules
+    // as comments
+    public String toText() {
+        PayrollRules today = current();
+        StringBuilder text = new StringBuilder();
+        for (PayrollRules version : versions) {
+            boolean builtIn = version == PayrollRules.BUILT_IN;
+            text.append(builtIn ? "# Built in, before the first version" : "[" + version.getEffectiveFrom() + "]")
+                .append(version == today ? "  # in effect today\n" : "\n");
+            for (Map.Entry<String, String> setting : version.getSettings().entrySet()) {
+                text.append(builtIn ? "# " : "").append(setting.getKey()).append(" = ")
+                    .append(setting.getValue()).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    static PayrollRulebook load(Path file) throws IOException {
+        return parse(Files.readAllLines(file));
+    }
+
+    // Throws IllegalArgumentException with the line number of the first
+    // mistake
+    static PayrollRulebook parse(List<String> lines) {
+        List<PayrollRules> versions = new ArrayList<>();
+        versions.add(PayrollRules.BUILT_IN);
+        Map<String, String> settings = new LinkedHashMap<>(PayrollRules.BUILT_IN.getSettings());
+        LocalDate section = null;
+        int sectionLine = 0;
+        for (int n = 1; n <= lines.size(); n++) {
+            String line = lines.get(n - 1);
+            int comment = line.indexOf('#');
+            line = (comment < 0 ? line : line.substring(0, comment)).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("[") && line.endsWith("]")) {
+                if (section != null) {
+                    versions.add(compile(section, sectionLine, settings));
+                }
+                LocalDate from = parseDate(n, line.substring(1, line.length() - 1).trim());
+                if (section != null && !from.isAfter(section)) {
+                    throw new IllegalArgumentException("Line " + n + ": versions must be in date order, " +
+                                                       from + " comes after " + section);
+                }
+                section = from;
+                sectionLine = n;
+            } else if (section == null) {
+                throw new IllegalArgumentException("Line " + n + ": settings must follow a [yyyy-mm-dd] line");
+            } else if (line.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Line " + n + ": expected key = value");
+            } else {
+                Map<String, String> setting = PayrollRules.settings(line);
+                String key = setting.keySet().iterator().next();
+                if (!PayrollRules.isSetting(key)) {
+                    throw new IllegalArgumentException("Line " + n + ": unknown setting " + key);
+                }
+                settings.putAll(setting);
+            }
+        }
+        if (section != null) {
+            versions.add(compile(section, sectionLine, settings));
+        }
+        return new PayrollRulebook(versions.toArray(new PayrollRules[0]));
+    }
+
+    private static PayrollRules compile(LocalDate from, int line, Map<String, String> settings) {
+        try {
+            return PayrollRules.of(from, settings);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Line " + line + ", version of " + from + ": " + e.getMessage());
+        }
+    }
+
+    private static LocalDate parseDate(int line, String text) {
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Line " + line + ": not a date: " + text);
+        }
+    }
+
+    private static void reloadIfChanged(Path file) {
+        try {
+            FileTime modified = Files.getLastModifiedTime(file);
+            if (modified.equals(lastModified)) {
+                return;
+            }
+            lastModified = modified;
+            install(load(file));
+            System.out.println("Payroll rules reloaded from " + file + ".");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error reloading payroll rules from " + file + ": " + e.getMessage() +
+                               "; the rules in use are kept.");
+        }
+    }
+}
+
+// Times rule evaluation against the if chains it replaced, on the same
+// salaries, earnings and years of service, and checks that both give the
+// same amounts to the bit. "held" is a run that holds one version, as
+// payroll runs do; "current" looks the version up for every employee, as
+// the no-argument Employee methods do.
+// Run with: java PayrollRulesBenchmark [employees]
+class PayrollRulesBenchmark {
+    private static volatile double sink;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        double[] salaries = new double[count];
+        double[] earnings = new double[count];
+        int[] years = new int[count];
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            salaries[i] = 2000 + random.nextInt(10000) + random.nextInt(100) / 100.0;
+            earnings[i] = random.nextInt(6000) + random.nextInt(100) / 100.0;
+            years[i] = random.nextInt(14) - 1;
+        }
+        PayrollRules rules = PayrollRulebook.current();
+
+        int mismatches = 0;
+        for (int i = 0; i < count; i++) {
+            if (Double.doubleToLongBits(rules.fullTimeTax(salaries[i])) != Double.doubleToLongBits(fullTimeTax(salaries[i])) ||
+                Double.doubleToLongBits(rules.partTimeTax(earnings[i])) != Double.doubleToLongBits(partTimeTax(earnings[i])) ||
+                Double.doubleToLongBits(salaries[i] * rules.bonusRate(years[i])) !=
+                        Double.doubleToLongBits(bonus(salaries[i], years[i]))) {
+                mismatches++;
+            }
+        }
+
+        long chains = Long.MAX_VALUE;
+        long held = Long.MAX_VALUE;
+        long current = Long.MAX_VALUE;
+        for (int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += fullTimeTax(salaries[i]) + partTimeTax(earnings[i]) + bonus(salaries[i], years[i]);
+            }
+            sink += sum;
+            chains = Math.min(chains, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += rules.fullTimeTax(salaries[i]) + rules.partTimeTax(earnings[i]) +
+                       salaries[i] * rules.bonusRate(years[i]);
+            }
+            sink += sum;
+            held = Math.min(held, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            sum = 0;
+            for (int i = 0; i < count; i++) {
+                PayrollRules today = PayrollRulebook.current();
+                sum += today.fullTimeTax(salaries[i]) + today.partTimeTax(earnings[i]) +
+                       salaries[i] * today.bonusRate(years[i]);
+            }
+            sink += sum;
+            current = Math.min(current, System.nanoTime() - start);
+        }
+        System.out.printf("Employees: %d, mismatches: %d%n", count, mismatches);
+        System.out.printf("if chains %8.2f ms%n", chains / 1e6);
+        System.out.printf("held      %8.2f ms (%.2fx)%n", held / 1e6, (double) chains / held);
+        System.out.printf("current   %8.2f ms (%.2fx)%n", current / 1e6, (double) chains / current);
+    }
+
+    // The rates as they were hardcoded in FullTimeEmployee and
+    // PartTimeEmployee
+    private static double fullTimeTax(double monthlySalary) {
+        double annualSalary = monthlySalary * 12;
+        if (annualSalary <= 50000) {
+            return monthlySalary * 0.10;
+        } else if (annualSalary <= 100000) {
+            return monthlySalary * 0.15;
+        } else {
+            return monthlySalary * 0.20;
+        }
+    }
+
+    private static double partTimeTax(double monthlyEarnings) {
+        if (monthlyEarnings <= 3000) {
+            return monthlyEarnings * 0.05;
+        } else {
+            return monthlyEarnings * 0.10;
+        }
+    }
+
+    private static double bonus(double monthlySalary, int years) {
+        if (years < 1) {
+            return monthlySalary * 0.05;
+        }
+        if (years < 3) {
+            return monthlySalary * 0.10;
+        }
+        if (years < 5) {
+            return monthlySalary * 0.15;
+        }
+        return monthlySalary * 0.20;
+    }
+}
@@ -0,0 +1,801 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Headless HTTP front end to a PayrollSystem on the JDK's built-in server.
+// Each request runs on its own virtual thread when the runtime provides
+// them, otherwise on a fixed pool of platform threads.
+//
+//   GET  /employees/{id}                  employee summary
+//   POST /employees                       new employees, as the importer reads them
+//   POST /attendance                      {"id", "date", "present", "hours"}
+//   POST /leaves                          {"id", "start", "end", "reason"}
+//   POST /leaves/approve                  {"id", "index"} or {"leave"}
+//   GET  /leaves/pending[?limit=N]        pending applications, earliest first
+//   GET  /absences?date=D[&department=X]  employees on approved leave that day
+//   GET  /payslips/{id}?month=M&year=Y    rendered payslip text
+//   GET  /report[?format=lines]           company and department totals
+//   POST /jobs/payroll?month=M&year=Y     start or resume the month-end job
+//   GET  /jobs[?month=M&year=Y[&format=lines]]  progress and chunk timings of jobs
+//   GET  /org/{id}[?format=lines]         manager, reports and whole-org totals
+//   POST /org/assign                      {"employee", "manager"}
+//   POST /org/remote                      {"manager", "employee", "member"}
+//   GET  /metrics[?format=text]           the system's metrics, JSON by default
+//   GET  /rules                           pay rules in use, as a rules file
+//
+// Each route is timed into the system's metrics as http.<route>, and
+// replies with a 5xx status are counted in http.errors.
+//
+// In front of a replica (PayrollSystem.replicaOf) every GET works, and so
+// does the payroll job, which only writes payslips; the other POSTs are
+// refused with 405, to be sent to the primary instead.
+//
+// Request bodies are JSON objects, one per line, in the same format the
+// bulk importer reads. With format=lines, replies are flat objects one per
+// line too, for other processes (see ShardCoordinator) to read back.
+// /attendance takes any number of lines, so a time clock can send a burst
+// of punches that is applied with a single commit.
+class PayrollServer {
+    private static final int PLATFORM_THREADS = 256;
+    private static final int BACKLOG = 4096;
+
+    static {
+        // Headers and body go out as separate writes; with Nagle's algorithm
+        // on, every small response waits for the client's delayed ACK (~40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final PayrollSystem system;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final MetricsRegistry.Counter errors;
+
+    public PayrollServer(PayrollSystem system, InetSocketAddress address) throws IOException {
+        this.system = system;
+        this.server = HttpServer.create(address, BACKLOG);
+        this.executor = newRequestExecutor();
+        this.errors = system.getMetrics().counter("http.errors");
+        server.setExecutor(executor);
+        route("/employees/", "GET", "employee", this::employee);
+        change("/employees", "addEmployees", this::addEmployees);
+        change("/attendance", "attendance", this::attendance);
+        change("/leaves", "leave", this::leave);
+        route("/leaves/pending", "GET", "pendingLeaves", this::pendingLeaves);
+        route("/absences", "GET", "absences", this::absences);
+        route("/payslips/", "GET", "payslip", this::payslip);
+        route("/report", "GET", "report", this::report);
+        route("/jobs/payroll", "POST", "startPayrollJob", this::startPayrollJob);
+        route("/jobs", "GET", "jobs", this::jobs);
+        route("/org/", "GET", "org", this::org);
+        change("/org/assign", "assignManager", this::assignManager);
+        change("/org/remote", "remoteTeam", this::remoteTeam);
+        route("/metrics", "GET", "metrics", this::metrics);
+        route("/rules", "GET", "rules", this::rules);
+    }
+
+    private void route(String path, String method, String name, Route route) {
+        MetricsRegistry.Timer timer = system.getMetrics().timer("http." + name);
+        server.createContext(path, exchange -> handle(exchange, method, timer, route));
+    }
+
+    // A POST route that changes employees, which a replica cannot do
+    private void change(String path, String name, Route route) {
+        route(path, "POST", name, exchange -> system.isReplica()
+                ? Reply.error(405, "Read-only replica; send changes to the primary") : route.serve(exchange));
+    }
+
+    // Virtual threads are looked up reflectively so the code still builds
+    // and runs on runtimes that do not have them
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+    }
+
+    static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Stops accepting requests and waits briefly for the ones in flight
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // A response ready to be sent
+    private static class Reply {
+        final int status;
+        final String contentType;
+        final String body;
+
+        Reply(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static Reply json(int status, String body) {
+            return new Reply(status, "application/json", body);
+        }
+
+        static Reply error(int status, String message) {
+            return json(status, "{\"error\":" + quote(message) + "}");
+        }
+    }
+
+    private interface Route {
+        Reply serve(HttpExchange exchange) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, String method, MetricsRegistry.Timer timer, Route route)
+            throws IOException {
+        long start = timer.start();
+        Reply reply;
+        try {
+            if (!exchange.getRequestMethod().equals(method)) {
+                reply = Reply.error(405, "Use " + method);
+            } else {
+                reply = route.serve(exchange);
+            }
+        } catch (IllegalArgumentException e) {
+            reply = Reply.error(400, e.getMessage());
+        } catch (RuntimeException e) {
+            reply = Reply.error(500, e.toString());
+        }
+        byte[] body = reply.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", reply.contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(reply.status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        if (reply.status >= 500) {
+            errors.increment();
+        }
+        timer.stop(start);
+    }
+
+    private Reply employee(HttpExchange exchange) {
+        int id = pathId(exchange, "/employees/");
+        Employee emp = system.findEmployee(id);
+        if (emp == null) {
+            return Reply.error(404, "Employee " + id + " not found");
+        }
+        StringBuilder json = new StringBuilder(256);
+        ReentrantLock lock = system.lockFor(id);
+        lock.lock();
+        try {
+            int pending = 0;
+            for (LeaveRecord leave : emp.getLeaveHistory()) {
+                if (!leave.isApproved()) {
+                    pending++;
+                }
+            }
+            json.append("{\"id\":").append(emp.getId())
+                .append(",\"type\":").append(quote(emp.getClass().getSimpleName()))
+                .append(",\"name\":").append(quote(emp.getName()))
+                .append(",\"email\":").append(quote(emp.getEmail()))
+                .append(",\"department\":").append(quote(emp.getDepartment()))
+                .append(",\"position\":").append(quote(emp.getPosition()))
+                .append(",\"hireDate\":").append(quote(String.valueOf(emp.getHireDate())))
+                .append(",\"salary\":").append(money(emp.calculateSalary()))
+                .append(",\"attendanceDays\":").append(emp.getAttendanceDays())
+                .append(",\"absenceDays\":").append(emp.getAbsenceDays())
+                .append(",\"availableLeaves\":").append(emp.getAvailableLeaves())
+                .append(",\"pendingLeaves\":").append(pending)
+                .append('}');
+        } finally {
+            lock.unlock();
+        }
+        return Reply.json(200, json.toString());
+    }
+
+    // Every valid line is applied in one batch; invalid ones are reported
+    // by line number and do not stop the rest
+    private Reply attendance(HttpExchange exchange) throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        List<AttendanceRecord> records = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        StringBuilder rejected = new StringBuilder();
+        BulkImporter.JsonLinesReader row = bodyReader(exchange);
+        while (row.next()) {
+            try {
+                int id = BulkImporter.parseInt(row, "id");
+                LocalDate date = BulkImporter.parseDate(row, "date");
+                boolean present = BulkImporter.parseBoolean(row, "present");
+                String hoursText = row.get("hours");
+                int hours = hoursText == null || hoursText.isEmpty() ? (present ? 8 : 0)
+                        : BulkImporter.parseInt(row, "hours");
+                if (hours < 0 || hours > 24) {
+                    throw new IllegalArgumentException("hours must be between 0 and 24");
+                }
+                if (system.isAttendanceArchived(date)) {
+                    throw new IllegalArgumentException("Attendance for " + date.getYear() + " is archived");
+                }
+                ids.add(id);
+                records.add(new AttendanceRecord(date, present, present ? hours : 0));
+                lines.add(row.lineNumber());
+            } catch (IllegalArgumentException e) {
+                reject(rejected, row.lineNumber(), e.getMessage());
+            }
+        }
+
+        int count = ids.size();
+        int[] idArray = new int[count];
+        for (int i = 0; i < count; i++) {
+            idArray[i] = ids.get(i);
+        }
+        boolean[] applied = count == 0 ? new boolean[0]
+                : system.markAttendance(idArray, records.toArray(new AttendanceRecord[0]), count);
+        int accepted = 0;
+        for (int i = 0; i < count; i++) {
+            if (applied[i]) {
+                accepted++;
+            } else {
+                reject(rejected, lines.get(i), "Employee " + idArray[i] + " not found");
+            }
+        }
+        return Reply.json(rejected.length() == 0 ? 200 : accepted == 0 ? 400 : 207,
+                "{\"applied\":" + accepted + ",\"rejected\":[" + rejected + "]}");
+    }
+
+    // Valid lines are added in one batch, like an import
+    private Reply addEmployees(HttpExchange exchange) throws IOException {
+        List<Employee> hires = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        StringBuilder rejected = new StringBuilder();
+        BulkImporter.JsonLinesReader row = bodyReader(exchange);
+        while (row.next()) {
+            try {
+                hires.add(BulkImporter.parseEmployee(row));
+                lines.add(row.lineNumber());
+            } catch (IllegalArgumentException e) {
+                reject(rejected, row.lineNumber(), e.getMessage());
+            }
+        }
+        boolean[] added = hires.isEmpty() ? new boolean[0] : system.addEmployees(hires);
+        int accepted = 0;
+        for (int i = 0; i < added.length; i++) {
+            if (added[i]) {
+                accepted++;
+            } else {
+                reject(rejected, lines.get(i), "Employee ID " + hires.get(i).getId() + " already exists");
+            }
+        }
+        return Reply.json(rejected.length() == 0 ? 200 : accepted == 0 ? 400 : 207,
+                "{\"added\":" + accepted + ",\"rejected\":[" + rejected + "]}");
+    }
+
+    private Reply leave(HttpExchange exchange) throws IOException {
+        boolean approve = exchange.getRequestURI().getPath().equals("/leaves/approve");
+        if (!approve && !exchange.getRequestURI().getPath().equals("/leaves")) {
+            return Reply.error(404, "No such resource");
+        }
+        BulkImporter.JsonLinesReader row = bodyReader(exchange);
+        if (!row.next()) {
+            throw new IllegalArgumentException("Empty request body");
+        }
+        if (approve && row.get("leave") != null) {
+            long leaveId = BulkImporter.parseLong(row, "leave");
+            return system.approveLeave(leaveId) ? Reply.json(200, "{\"ok\":true}")
+                    : Reply.error(404, "Leave " + leaveId + " not found");
+        }
+        int id = BulkImporter.parseInt(row, "id");
+        if (approve) {
+            // "index" is the leave's number, as listed by /leaves/pending
+            int number = BulkImporter.parseInt(row, "index");
+            return system.approveLeave(id, number) ? Reply.json(200, "{\"ok\":true}")
+                    : Reply.error(404, "Employee " + id + " or their leave " + number + " not found");
+        }
+        LocalDate start = BulkImporter.parseDate(row, "start");
+        LocalDate end = BulkImporter.parseDate(row, "end");
+        if (end.isBefore(start)) {
+            throw new IllegalArgumentException("end is before start");
+        }
+        String reason = row.get("reason");
+        // Overlaps are accepted but reported, so the caller can warn
+        long[] overlapping = system.getOverlappingLeaves(id, start, end);
+        if (!system.applyForLeave(id, start, end, reason == null ? "" : reason)) {
+            return Reply.error(404, "Employee " + id + " not found");
+        }
+        return Reply.json(200, "{\"ok\":true,\"overlapping\":" + Arrays.toString(overlapping).replace(" ", "") + "}");
+    }
+
+    private Reply pendingLeaves(HttpExchange exchange) {
+        int limit = intParameter(query(exchange), "limit", 100);
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        StringJoiner json = new StringJoiner(",", "{\"pending\":[", "]}");
+        for (LeaveIndex.PendingLeave waiting : system.getPendingLeaves(limit)) {
+            LeaveRecord leave = waiting.getLeave();
+            json.add("{\"leave\":" + waiting.getId()
+                    + ",\"id\":" + waiting.getEmployeeId()
+                    + ",\"index\":" + waiting.getNumber()
+                    + ",\"start\":" + quote(String.valueOf(leave.getStartDate()))
+                    + ",\"end\":" + quote(String.valueOf(leave.getEndDate()))
+                    + ",\"reason\":" + quote(leave.getReason()) + "}");
+        }
+        return Reply.json(200, json.toString());
+    }
+
+    private Reply absences(HttpExchange exchange) {
+        Map<String, String> query = query(exchange);
+        String dateText = query.get("date");
+        LocalDate date;
+        try {
+            date = dateText == null ? LocalDate.now() : LocalDate.parse(dateText);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + dateText);
+        }
+        String department = query.get("department");
+        if (department != null) {
+            department = URLDecoder.decode(department, StandardCharsets.UTF_8);
+        }
+        int[] out = system.getEmployeesOnLeave(department, date);
+        StringBuilder json = new StringBuilder(64 + out.length * 8);
+        json.append("{\"date\":").append(quote(date.toString()))
+            .append(",\"department\":").append(quote(department))
+            .append(",\"out\":").append(Arrays.toString(out).replace(" ", ""));
+        if (department != null) {
+            json.append(",\"headcount\":").append(system.findEmployees(new EmployeeQuery().department(department)).count());
+        }
+        return Reply.json(200, json.append('}').toString());
+    }
+
+    private Reply payslip(HttpExchange exchange) {
+        int id = pathId(exchange, "/payslips/");
+        Map<String, String> query = query(exchange);
+        LocalDate today = LocalDate.now();
+        int month = intParameter(query, "month", today.getMonthValue());
+        int year = intParameter(query, "year", today.getYear());
+        if (month < 1 || month > 12) {
+            throw new IllegalArgumentException("month must be between 1 and 12");
+        }
+        PaySlip slip = system.computePaySlip(id, month, year);
+        if (slip == null) {
+            return Reply.error(404, "Employee " + id + " not found");
+        }
+        return new Reply(200, "text/plain", PaySlipTemplate.DEFAULT.render(slip, PaySlipTemplate.threadBuffer()).toString());
+    }
+
+    private Reply metrics(HttpExchange exchange) {
+        MetricsRegistry metrics = system.getMetrics();
+        if ("format=text".equals(exchange.getRequestURI().getQuery())) {
+            return new Reply(200, "text/plain", metrics.toText());
+        }
+        return Reply.json(200, metrics.toJson());
+    }
+
+    private Reply rules(HttpExchange exchange) {
+        return new Reply(200, "text/plain", PayrollRulebook.installed().toText());
+    }
+
+    private Reply report(HttpExchange exchange) {
+        PayrollCache cache = system.getPayrollCache();
+        int recomputed = cache.refresh();
+        PayrollCache.Totals totals = cache.getCompanyTotals();
+        StringBuilder json = new StringBuilder(512);
+        // Employees without a department are totalled under null
+        Map<String, PayrollCache.Totals> departments = new TreeMap<>(Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+        departments.putAll(cache.getDepartmentTotals());
+        if ("lines".equals(query(exchange).get("format"))) {
+            // The company first, then one line per department
+            json.append("{\"recomputed\":").append(recomputed).append(',');
+            appendTotals(json, totals);
+            json.append("}\n");
+            for (Map.Entry<String, PayrollCache.Totals> dept : departments.entrySet()) {
+                json.append("{\"department\":").append(quote(dept.getKey())).append(',');
+                appendTotals(json, dept.getValue());
+                json.append("}\n");
+            }
+            return new Reply(200, "application/x-ndjson", json.toString());
+        }
+        json.append("{\"recomputed\":").append(recomputed);
+        appendTotals(json.append(','), totals);
+        json.append(",\"netPayout\":").append(money(totals.getNetPayout()));
+        json.append(",\"departments\":{");
+        boolean first = true;
+        for (Map.Entry<String, PayrollCache.Totals> dept : departments.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append(quote(String.valueOf(dept.getKey()))).append(":{");
+            appendTotals(json, dept.getValue());
+            json.append('}');
+        }
+        return Reply.json(200, json.append("}}").toString());
+    }
+
+    // Replies at once with the job's status; poll /jobs to follow it
+    private Reply startPayrollJob(HttpExchange exchange) {
+        Map<String, String> query = query(exchange);
+        LocalDate today = LocalDate.now();
+        int month = intParameter(query, "month", today.getMonthValue());
+        int year = intParameter(query, "year", today.getYear());
+        if (month < 1 || month > 12) {
+            throw new IllegalArgumentException("month must be between 1 and 12");
+        }
+        PayrollJob job = system.startPayrollJob(month, year);
+        return Reply.json(202, appendJob(new StringBuilder(256), job.getStatus()).toString());
+    }
+
+    private Reply jobs(HttpExchange exchange) {
+        Map<String, String> query = query(exchange);
+        StringBuilder json = new StringBuilder(512);
+        if (query.containsKey("month") || query.containsKey("year")) {
+            LocalDate today = LocalDate.now();
+            PayrollJob job = system.getPayrollJob(intParameter(query, "month", today.getMonthValue()),
+                                                  intParameter(query, "year", today.getYear()));
+            if (job == null) {
+                return Reply.error(404, "No payroll job for that period");
+            }
+            PayrollJob.Status status = job.getStatus();
+            if ("lines".equals(query.get("format"))) {
+                // The job first, then one line per finished chunk
+                json.append("{\"state\":").append(quote(status.getState().name()))
+                    .append(",\"employees\":").append(status.getEmployees())
+                    .append(",\"generated\":").append(status.getGenerated())
+                    .append(",\"missing\":").append(status.getMissing())
+                    .append(",\"error\":").append(quote(status.getError()))
+                    .append("}\n");
+                for (PayrollJob.Chunk chunk : status.getChunks()) {
+                    json.append("{\"chunk\":").append(chunk.getIndex())
+                        .append(",\"generated\":").append(chunk.getGenerated())
+                        .append(",\"nanos\":").append(chunk.getElapsedNanos())
+                        .append("}\n");
+                }
+                return new Reply(200, "application/x-ndjson", json.toString());
+            }
+            return Reply.json(200, appendJob(json, status).toString());
+        }
+        json.append('[');
+        for (PayrollJob job : system.getPayrollJobs()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            appendJob(json, job.getStatus());
+        }
+        return Reply.json(200, json.append(']').toString());
+    }
+
+    private static StringBuilder appendJob(StringBuilder json, PayrollJob.Status status) {
+        json.append("{\"month\":").append(status.getMonth())
+            .append(",\"year\":").append(status.getYear())
+            .append(",\"state\":").append(quote(status.getState().name()))
+            .append(",\"employees\":").append(status.getEmployees())
+            .append(",\"chunks\":").append(status.getChunkCount())
+            .append(",\"chunksDone\":").append(status.getChunksDone())
+            .append(",\"resumedAt\":").append(status.getResumedAt())
+            .append(",\"generated\":").append(status.getGenerated())
+            .append(",\"missing\":").append(status.getMissing());
+        if (status.getError() != null) {
+            json.append(",\"error\":").append(quote(status.getError()));
+        }
+        json.append(",\"chunkTimes\":[");
+        for (PayrollJob.Chunk chunk : status.getChunks()) {
+            if (chunk.getIndex() > 0) {
+                json.append(',');
+            }
+            json.append("{\"chunk\":").append(chunk.getIndex())
+                .append(",\"generated\":").append(chunk.getGenerated())
+                .append(",\"net\":").append(money(chunk.getNet()))
+                .append(",\"ms\":").append(String.format(Locale.ROOT, "%.1f", chunk.getElapsedNanos() / 1e6))
+                .append('}');
+        }
+        return json.append("]}");
+    }
+
+    private Reply org(HttpExchange exchange) {
+        int id = pathId(exchange, "/org/");
+        PayrollCache.Totals totals = system.getOrgTotals(id);
+        if (totals == null) {
+            return Reply.error(404, "Employee " + id + " not found");
+        }
+        OrgChart chart = system.getOrgChart();
+        int[] remote = system.getRemoteReports(id);
+        StringBuilder json = new StringBuilder(256);
+        if ("lines".equals(query(exchange).get("format"))) {
+            // Totals first, then one line per id of the chain above, the
+            // direct reports and the remote reports of the whole local org
+            json.append("{\"id\":").append(id).append(",\"managerId\":").append(chart.getManagerId(id)).append(',');
+            appendTotals(json, totals);
+            json.append("}\n");
+            for (int above : chart.getReportingChain(id)) {
+                json.append("{\"chain\":").append(above).append("}\n");
+            }
+            for (int report : chart.getDirectReports(id)) {
+                json.append("{\"report\":").append(report).append("}\n");
+            }
+            for (int member : remote) {
+                json.append("{\"remote\":").append(member).append("}\n");
+            }
+            return new Reply(200, "application/x-ndjson", json.toString());
+        }
+        json.append("{\"id\":").append(id)
+            .append(",\"managerId\":").append(chart.getManagerId(id))
+            .append(",\"reports\":").append(Arrays.toString(chart.getDirectReports(id)).replace(" ", ""))
+            .append(",\"chain\":").append(chart.getReportingChain(id).toString().replace(" ", ""))
+            .append(",\"remoteReports\":").append(Arrays.toString(remote).replace(" ", ""))
+            .append(',');
+        appendTotals(json, totals);
+        return Reply.json(200, json.append('}').toString());
+    }
+
+    // A manager of OrgChart.NONE (0) removes the employee's manager
+    private Reply assignManager(HttpExchange exchange) throws IOException {
+        BulkImporter.JsonLinesReader row = bodyReader(exchange);
+        if (!row.next()) {
+            throw new IllegalArgumentException("Empty request body");
+        }
+        int id = BulkImporter.parseInt(row, "employee");
+        int managerId = BulkImporter.parseInt(row, "manager");
+        return system.assignManager(id, managerId) ? Reply.json(200, "{\"ok\":true}")
+                : Reply.error(409, "Cannot make " + managerId + " the manager of " + id);
+    }
+
+    // Without a manager, removes the employee from whichever local team
+    // has them as a remote member
+    private Reply remoteTeam(HttpExchange exchange) throws IOException {
+        BulkImporter.JsonLinesReader row = bodyReader(exchange);
+        if (!row.next()) {
+            throw new IllegalArgumentException("Empty request body");
+        }
+        int id = BulkImporter.parseInt(row, "employee");
+        boolean member = BulkImporter.parseBoolean(row, "member");
+        int managerId;
+        if (row.get("manager") != null) {
+            managerId = BulkImporter.parseInt(row, "manager");
+        } else if (member) {
+            throw new IllegalArgumentException("Missing manager");
+        } else {
+            managerId = system.getRemoteManager(id);
+            if (managerId == OrgChart.NONE) {
+                return Reply.json(200, "{\"ok\":true,\"manager\":0}");
+            }
+        }
+        return system.setRemoteTeamMember(managerId, id, member)
+                ? Reply.json(200, "{\"ok\":true,\"manager\":" + managerId + "}")
+                : Reply.error(409, "Employee " + managerId + " is not a manager here, or " + id + " is local");
+    }
+
+    private static void appendTotals(StringBuilder json, PayrollCache.Totals totals) {
+        json.append("\"headcount\":").append(totals.getHeadcount())
+            .append(",\"salary\":").append(money(totals.getSalary()))
+            .append(",\"tax\":").append(money(totals.getTax()))
+            .append(",\"bonus\":").append(money(totals.getBonus()));
+    }
+
+    private static BulkImporter.JsonLinesReader bodyReader(HttpExchange exchange) {
+        return new BulkImporter.JsonLinesReader(new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)));
+    }
+
+    private static void reject(StringBuilder rejected, int line, String message) {
+        if (rejected.length() > 0) {
+            rejected.append(',');
+        }
+        rejected.append("{\"line\":").append(line).append(",\"error\":").append(quote(message)).append('}');
+    }
+
+    private static int pathId(HttpExchange exchange, String prefix) {
+        String rest = exchange.getRequestURI().getPath().substring(prefix.length());
+        try {
+            return Integer.parseInt(rest);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid employee ID: " + rest);
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    parameters.put(pair.substring(0, eq), pair.substring(eq + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    // Locale-independent, unlike String.format
+    static String money(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "null";
+        }
+        return new BigDecimal(Double.toString(value)).setScale(2, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
+
+// Drives a running PayrollServer with many concurrent clients and reports
+// throughput and latency percentiles. Without a URL it starts a server with
+// generated employees in a temporary directory first. The mix is 70% clock-in
+// bursts, 15% lookups, 10% leave requests and 5% payslips.
+// Run with: java PayrollLoadDriver [requests] [concurrency] [punches per burst] [url]
+class PayrollLoadDriver {
+    private static final int EMPLOYEES = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int burst = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        String url = args.length > 3 ? args[3] : null;
+
+        PayrollServer server = null;
+        Path directory = null;
+        if (url == null) {
+            directory = Files.createTempDirectory("payroll-load");
+            PrintStream console = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            PayrollSystem system;
+            try {
+                system = new PayrollSystem(directory);
+                List<Employee> hires = new ArrayList<>(EMPLOYEES);
+                for (int id = 1; id <= EMPLOYEES; id++) {
+                    hires.add(new FullTimeEmployee(id, "Employee " + id, "e" + id + "@company.com", "555-0100",
+                            LocalDate.of(2010 + id % 15, 1 + id % 12, 1), "Dept " + id % 20, "Staff",
+                            "Address " + id, "ACC" + id, 2500 + id % 4000, 25));
+                }
+                system.addEmployees(hires);
+            } finally {
+                System.setOut(console);
+            }
+            server = new PayrollServer(system, new InetSocketAddress("127.0.0.1", 0));
+            server.start();
+            url = "http://127.0.0.1:" + server.getPort();
+            System.out.println("Started server on " + url + " with " + EMPLOYEES + " employees (" +
+                               (PayrollServer.hasVirtualThreads() ? "virtual threads" : "platform thread pool") + ")");
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors())))
+                .build();
+        long[] latencies = new long[requests];
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger punches = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(requests);
+        Random random = new Random(7);
+        String base = url;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            HttpRequest request;
+            int kind = random.nextInt(100);
+            int id = 1 + random.nextInt(EMPLOYEES);
+            if (kind < 70) {
+                StringBuilder body = new StringBuilder(burst * 64);
+                LocalDate date = LocalDate.of(2025, 1, 1).plusDays(random.nextInt(365));
+                for (int p = 0; p < burst; p++) {
+                    body.append("{\"id\":").append(1 + random.nextInt(EMPLOYEES))
+                        .append(",\"date\":\"").append(date).append("\",\"present\":true,\"hours\":8}\n");
+                }
+                punches.addAndGet(burst);
+                request = HttpRequest.newBuilder(URI.create(base + "/attendance"))
+                        .POST(HttpRequest.BodyPublishers.ofString(body.toString())).build();
+            } else if (kind < 85) {
+                request = HttpRequest.newBuilder(URI.create(base + "/employees/" + id)).GET().build();
+            } else if (kind < 95) {
+                LocalDate startDate = LocalDate.of(2025, 1, 1).plusDays(random.nextInt(300));
+                request = HttpRequest.newBuilder(URI.create(base + "/leaves"))
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"id\":" + id + ",\"start\":\"" + startDate +
+                                "\",\"end\":\"" + startDate.plusDays(2) + "\",\"reason\":\"Load test\"}")).build();
+            } else {
+                request = HttpRequest.newBuilder(URI.create(base + "/payslips/" + id + "?month=6&year=2025")).GET().build();
+            }
+
+            inFlight.acquire();
+            int slot = i;
+            long sent = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                latencies[slot] = System.nanoTime() - sent;
+                if (failure != null || response.statusCode() >= 300) {
+                    errors.incrementAndGet();
+                }
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.printf("%,d requests (%,d punches) at concurrency %d in %.1f s: %,.0f req/s, %,.0f punches/s, %d errors%n",
+                requests, punches.get(), concurrency, elapsed / 1e9, requests / (elapsed / 1e9),
+                punches.get() / (elapsed / 1e9), errors.get());
+        System.out.printf("Latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6);
+
+        if (server != null) {
+            server.stop();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+        System.exit(0);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Hammers one PayrollSystem with attendance, leave and approval requests from
+// many threads while snapshots and payroll reports run alongside, then checks
+// that nothing was lost or corrupted and that the store reopened from disk
+// matches memory. Runs in a temporary directory.
+// Run with: java PayrollStressTest [threads] [operations per thread] [employees]
+class PayrollStressTest {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int employeeCount = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        Path directory = Files.createTempDirectory("payroll-stress");
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        List<String> failures = new ArrayList<>();
+        long elapsed;
+        PayrollSystem system;
+        AtomicIntegerArray leavesApplied = new AtomicIntegerArray(employeeCount + 1);
+        Set<Long> approved = ConcurrentHashMap.newKeySet();
+        Set<Long> marked = ConcurrentHashMap.newKeySet();
+        try {
+            system = new PayrollSystem(directory);
+            for (int id = 1; id <= employeeCount; id++) {
+                system.addEmployee(newEmployee(id));
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+            CountDownLatch done = new CountDownLatch(threads);
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long seed = 42 + t;
+                workers.add(pool.submit(() -> {
+                    Random random = new Random(seed);
+                    try {
+                        for (int i = 0; i < operations; i++) {
+                            int id = 1 + random.nextInt(employeeCount);
+                            int choice = random.nextInt(100);
+                            if (choice < 60) {
+                                LocalDate date = LocalDate.of(2025, 1, 1).plusDays(random.nextInt(365));
+                                boolean present = random.nextBoolean();
+                                system.markAttendance(id, date, present, present ? 1 + random.nextInt(10) : 0);
+                                marked.add(((long) id << 32) | date.toEpochDay());
+                            } else if (choice < 85) {
+                                LocalDate start = LocalDate.of(2025, 1, 1).plusDays(random.nextInt(300));
+                                system.applyForLeave(id, start, start.plusDays(random.nextInt(5)), "Reason " + i);
+                                leavesApplied.incrementAndGet(id);
+                            } else if (choice < 98) {
+                                int applied = leavesApplied.get(id);
+                                if (applied > 0) {
+                                    int index = random.nextInt(applied);
+                                    system.approveLeave(id, index);
+                                    approved.add(((long) id << 32) | index);
+                                }
+                            } else {
+                                system.generatePayrollReport(1, 2025);
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                    return null;
+                }));
+            }
+            Future<?> snapshots = pool.submit(() -> {
+                while (!done.await(20, TimeUnit.MILLISECONDS)) {
+                    system.checkpoint();
+                }
+                return null;
+            });
+
+            long start = System.nanoTime();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            snapshots.get();
+            elapsed = System.nanoTime() - start;
+            pool.shutdown();
+
+            checkEmployees(system, employeeCount, leavesApplied, approved, marked, failures);
+            checkTotals(system, employeeCount, failures);
+
+            // Whatever the last snapshot caught, snapshot plus journal replay
+            // has to rebuild exactly the state in memory
+            PayrollSystem reopened = new PayrollSystem(directory);
+            for (int id = 1; id <= employeeCount; id++) {
+                if (!Arrays.equals(encode(system.findEmployee(id)), encode(reopened.findEmployee(id)))) {
+                    failures.add("Employee " + id + " differs after reopening the store");
+                }
+            }
+        } finally {
+            System.setOut(console);
+        }
+
+        long total = (long) threads * operations;
+        System.out.printf("%d threads, %,d operations on %d employees in %.1f ms (%,.0f ops/s)%n",
+                threads, total, employeeCount, elapsed / 1e6, total / (elapsed / 1e9));
+        if (failures.isEmpty()) {
+            System.out.println("All invariants hold.");
+            deleteRecursively(directory);
+        } else {
+            failures.stream().limit(20).forEach(System.out::println);
+            System.out.println(failures.size() + " failures; data left in " + directory);
+            System.exit(1);
+        }
+    }
+
+    private static void checkEmployees(PayrollSystem system, int employeeCount, AtomicIntegerArray leavesApplied,
+                                       Set<Long> approved, Set<Long> marked, List<String> failures) {
+        int[] markedDays = new int[employeeCount + 1];
+        for (long key : marked) {
+            markedDays[(int) (key >>> 32)]++;
+        }
+        for (int id = 1; id <= employeeCount; id++) {
+            Employee emp = system.findEmployee(id);
+            ReentrantLock lock = system.lockFor(id);
+            lock.lock();
+            try {
+                int records = emp.getAttendanceRecordCount();
+                if (emp.getAttendanceDays() + emp.getAbsenceDays() != records) {
+                    failures.add("Employee " + id + ": present + absent days != " + records + " records");
+                }
+                if (records != markedDays[id]) {
+                    failures.add("Employee " + id + ": " + records + " attendance records, expected " + markedDays[id]);
+                }
+                int hours = 0;
+                for (AttendanceRecord record : emp.getAttendanceRecords()) {
+                    hours += record.getHoursWorked();
+                }
+                int monthly = 0;
+                for (int month = 1; month <= 12; month++) {
+                    monthly += emp.getHoursWorkedInMonth(month, 2025);
+                }
+                if (hours != monthly) {
+                    failures.add("Employee " + id + ": monthly hours add up to " + monthly + ", records to " + hours);
+                }
+
+                List<LeaveRecord> leaves = emp.getLeaveHistory();
+                if (leaves.size() != leavesApplied.get(id)) {
+                    failures.add("Employee " + id + ": " + leaves.size() + " leaves, expected " + leavesApplied.get(id));
+                }
+                for (int i = 0; i < leaves.size(); i++) {
+                    boolean expected = approved.contains(((long) id << 32) | i);
+                    if (leaves.get(i).isApproved() != expected) {
+                        failures.add("Employee " + id + ": leave " + i + " approved=" + leaves.get(i).isApproved());
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // The incrementally maintained totals against a full recomputation
+    private static void checkTotals(PayrollSystem system, int employeeCount, List<String> failures) {
+        List<Employee> all = new ArrayList<>();
+        for (int id = 1; id <= employeeCount; id++) {
+            all.add(system.findEmployee(id));
+        }
+        PayrollRun run = new PayrollEngine().run(all);
+        system.generatePayrollReport(1, 2025);
+        PayrollCache.Totals totals = system.getPayrollCache().getCompanyTotals();
+        if (Math.abs(totals.getSalary() - run.getTotalSalary()) > 1e-6 * Math.abs(run.getTotalSalary())
+                || totals.getHeadcount() != employeeCount) {
+            failures.add("Cached totals " + totals.getSalary() + " (" + totals.getHeadcount() +
+                         " employees) differ from recomputed " + run.getTotalSalary());
+        }
+    }
+
+    private static byte[] encode(Employee emp) throws IOException {
+        if (emp == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EmployeeCodec.write(new DataOutputStream(bytes), emp);
+        return bytes.toByteArray();
+    }
+
+    private static Employee newEmployee(int id) {
+        LocalDate hired = LocalDate.of(2010 + id % 15, 1 + id % 12, 1);
+        switch (id % 3) {
+            case 0:
+                return new PartTimeEmployee(id, "Employee " + id, "e" + id + "@company.com", "555-0100", hired,
+                        "Support", "Agent", "Address " + id, "ACC" + id, 20 + id % 30);
+            case 1:
+                return new FullTimeEmployee(id, "Employee " + id, "e" + id + "@company.com", "555-0100", hired,
+                        "IT", "Developer", "Address " + id, "ACC" + id, 3000 + id % 5000, 25);
+            default:
+                return new Contractor(id, "Employee " + id, "e" + id + "@company.com", "555-0100", hired,
+                        "Operations", "Consultant", "Address " + id, "ACC" + id, 12000, 6);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
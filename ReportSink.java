@@ -0,0 +1,735 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Where a payroll report goes: begin, then one call per employee in report
+// order, one per department in name order, and the company totals last.
+// Amounts are as the payroll cache holds them; sinks that print them round
+// to cents as the console report does.
+interface ReportSink extends Closeable {
+    void begin(int month, int year) throws IOException;
+
+    void employee(int id, String name, String department, double salary, double tax, double bonus) throws IOException;
+
+    void department(String department, PayrollCache.Totals totals) throws IOException;
+
+    void company(PayrollCache.Totals totals) throws IOException;
+
+    // A sink for a file of the given name, written into target through a
+    // DoubleBufferedOutput: CSV if the name ends in .csv, columnar otherwise
+    static ReportSink forFile(String name, OutputStream target) {
+        DoubleBufferedOutput out = new DoubleBufferedOutput(target, DoubleBufferedOutput.DEFAULT_BUFFER_SIZE);
+        return name.toLowerCase().endsWith(".csv") ? new CsvReportSink(out) : new ColumnarReportSink(out);
+    }
+}
+
+// The console report: one line per employee, then departments and totals
+class TextReportSink implements ReportSink {
+    private final PrintWriter out;
+    private boolean separated;
+
+    // Close only flushes; the writer stays open for the caller
+    TextReportSink(PrintWriter out) {
+        this.out = out;
+    }
+
+    @Override
+    public void begin(int month, int year) {
+        out.println("\n=== PAYROLL REPORT FOR " + month + "/" + year + " ===");
+    }
+
+    @Override
+    public void employee(int id, String name, String department, double salary, double tax, double bonus) {
+        out.println(name + ": Salary=$" + String.format("%.2f", salary) +
+                   ", Tax=$" + String.format("%.2f", tax) +
+                   ", Bonus=$" + String.format("%.2f", bonus));
+    }
+
+    @Override
+    public void department(String department, PayrollCache.Totals totals) {
+        separate();
+        out.println(department + " (" + totals.getHeadcount() + "): Salary=$" +
+                   String.format("%.2f", totals.getSalary()) +
+                   ", Tax=$" + String.format("%.2f", totals.getTax()) +
+                   ", Bonus=$" + String.format("%.2f", totals.getBonus()));
+    }
+
+    @Override
+    public void company(PayrollCache.Totals totals) {
+        separate();
+        out.println("TOTAL: Salary=$" + String.format("%.2f", totals.getSalary()) +
+                   ", Tax=$" + String.format("%.2f", totals.getTax()) +
+                   ", Bonus=$" + String.format("%.2f", totals.getBonus()));
+        out.println("Net Payout: $" + String.format("%.2f", totals.getNetPayout()));
+    }
+
+    // Between the employees and the totals
+    private void separate() {
+        if (!separated) {
+            out.println("-----------------------------------");
+            separated = true;
+        }
+    }
+
+    @Override
+    public void close() {
+        out.flush();
+    }
+}
+
+// One CSV table for spreadsheets and finance imports (RFC 4180, UTF-8),
+// amounts rounded to cents as the console report rounds them:
+//
+//   period,record,id,name,department,headcount,salary,tax,bonus,net
+//   2025-01,employee,12,"Doe, Jane",IT,,5000.00,750.00,1000.00,5250.00
+//   2025-01,department,,,IT,25,...
+//   2025-01,total,,,,140,...
+//
+// Each row is written as soon as it is reported.
+class CsvReportSink implements ReportSink {
+    static final String HEADER = "period,record,id,name,department,headcount,salary,tax,bonus,net";
+
+    private final Writer out;
+    private final TextBuffer row = new TextBuffer();
+    private String period;
+
+    CsvReportSink(OutputStream out) {
+        this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void begin(int month, int year) throws IOException {
+        period = year + (month < 10 ? "-0" : "-") + month;
+        out.write(HEADER);
+        out.write("\r\n");
+    }
+
+    @Override
+    public void employee(int id, String name, String department, double salary, double tax, double bonus)
+            throws IOException {
+        row.clear();
+        row.append(period).append(",employee,").append(id).append(',');
+        appendField(name).append(',');
+        appendField(department).append(',');
+        write(salary, tax, bonus);
+    }
+
+    @Override
+    public void department(String department, PayrollCache.Totals totals) throws IOException {
+        row.clear();
+        row.append(period).append(",department,,,");
+        appendField(department).append(',').append(totals.getHeadcount());
+        write(totals.getSalary(), totals.getTax(), totals.getBonus());
+    }
+
+    @Override
+    public void company(PayrollCache.Totals totals) throws IOException {
+        row.clear();
+        row.append(period).append(",total,,,,").append(totals.getHeadcount());
+        write(totals.getSalary(), totals.getTax(), totals.getBonus());
+    }
+
+    // Amounts and net payout in cents, then the row goes out. Net is
+    // worked out from the rounded amounts, so every row adds up.
+    private void write(double salary, double tax, double bonus) throws IOException {
+        long salaryCents = PayrollKernel.toCents(salary);
+        long taxCents = PayrollKernel.toCents(tax);
+        long bonusCents = PayrollKernel.toCents(bonus);
+        boolean valid = salaryCents != PayrollKernel.NO_AMOUNT && taxCents != PayrollKernel.NO_AMOUNT &&
+                        bonusCents != PayrollKernel.NO_AMOUNT;
+        row.append(',');
+        appendCents(salaryCents).append(',');
+        appendCents(taxCents).append(',');
+        appendCents(bonusCents).append(',');
+        appendCents(valid ? salaryCents + bonusCents - taxCents : PayrollKernel.NO_AMOUNT).append("\r\n");
+        row.writeTo(out);
+    }
+
+    private TextBuffer appendCents(long cents) {
+        if (cents == PayrollKernel.NO_AMOUNT) {
+            return row.append("NaN");
+        }
+        if (cents < 0) {
+            row.append('-');
+            cents = -cents;
+        }
+        int rest = (int) (cents % 100);
+        return row.append(cents / 100).append('.').append((char) ('0' + rest / 10)).append((char) ('0' + rest % 10));
+    }
+
+    // Quoted only when it has to be
+    private TextBuffer appendField(String value) {
+        if (value == null) {
+            return row;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return row.append(value);
+        }
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                row.append('"');
+            }
+            row.append(c);
+        }
+        return row.append('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
+
+// Compact binary report for finance tooling. Employee rows are held in
+// groups of up to ROW_GROUP and written out column by column; each column
+// chunk is encoded to suit its values and deflated on its own:
+//
+//   id          zigzag varint of the difference from the row before
+//   name        varint UTF-8 length, then the bytes
+//   department  varint index into the group's dictionary
+//   salary, tax, bonus  zigzag varint of whole cents (NO_AMOUNT if not finite)
+//
+// The file is
+//
+//   "PAYC" version month year                      (bytes, varint, varint)
+//   { 'G' rows dictionary id name department salary tax bonus }   per group
+//   'D' count { name headcount salary tax bonus }  department totals
+//   'T' headcount salary tax bonus                 company totals
+//
+// where every chunk (the dictionary too, as names) is its raw length and
+// deflated length as varints followed by the deflated bytes. Totals are
+// kept as the doubles the cache summed, the rest in cents. Memory is one
+// group whatever the headcount. replay reads a file back into any sink,
+// e.g. a CsvReportSink.
+class ColumnarReportSink implements ReportSink {
+    static final int ROW_GROUP = 1 << 16;
+    private static final byte[] MAGIC = {'P', 'A', 'Y', 'C'};
+    private static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Chunk chunk = new Chunk();
+    private byte[] deflated = new byte[1 << 16];
+
+    // The group being collected
+    private final int[] ids = new int[ROW_GROUP];
+    private final String[] names = new String[ROW_GROUP];
+    private final int[] departments = new int[ROW_GROUP];
+    private final long[] salaries = new long[ROW_GROUP];
+    private final long[] taxes = new long[ROW_GROUP];
+    private final long[] bonuses = new long[ROW_GROUP];
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> dictionaryOrder = new ArrayList<>();
+    private int rows;
+
+    private final List<String> departmentNames = new ArrayList<>();
+    private final List<PayrollCache.Totals> departmentTotals = new ArrayList<>();
+
+    ColumnarReportSink(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    @Override
+    public void begin(int month, int year) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeVarLong(out, month);
+        writeVarLong(out, year);
+    }
+
+    @Override
+    public void employee(int id, String name, String department, double salary, double tax, double bonus)
+            throws IOException {
+        Integer index = dictionary.get(department);
+        if (index == null) {
+            index = dictionaryOrder.size();
+            dictionary.put(department, index);
+            dictionaryOrder.add(department);
+        }
+        ids[rows] = id;
+        names[rows] = name;
+        departments[rows] = index;
+        salaries[rows] = PayrollKernel.toCents(salary);
+        taxes[rows] = PayrollKernel.toCents(tax);
+        bonuses[rows] = PayrollKernel.toCents(bonus);
+        if (++rows == ROW_GROUP) {
+            writeGroup();
+        }
+    }
+
+    @Override
+    public void department(String department, PayrollCache.Totals totals) {
+        departmentNames.add(department);
+        departmentTotals.add(totals);
+    }
+
+    @Override
+    public void company(PayrollCache.Totals totals) throws IOException {
+        writeGroup();
+        out.write('D');
+        writeVarLong(out, departmentNames.size());
+        for (int i = 0; i < departmentNames.size(); i++) {
+            out.writeUTF(departmentNames.get(i) == null ? "" : departmentNames.get(i));
+            writeTotals(departmentTotals.get(i));
+        }
+        out.write('T');
+        writeTotals(totals);
+    }
+
+    private void writeTotals(PayrollCache.Totals totals) throws IOException {
+        writeVarLong(out, totals.getHeadcount());
+        out.writeDouble(totals.getSalary());
+        out.writeDouble(totals.getTax());
+        out.writeDouble(totals.getBonus());
+    }
+
+    private void writeGroup() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        out.write('G');
+        writeVarLong(out, rows);
+
+        chunk.reset();
+        for (String department : dictionaryOrder) {
+            chunk.writeString(department);
+        }
+        writeChunk();
+
+        chunk.reset();
+        long previous = 0;
+        for (int i = 0; i < rows; i++) {
+            chunk.writeZigzag(ids[i] - previous);
+            previous = ids[i];
+        }
+        writeChunk();
+
+        chunk.reset();
+        for (int i = 0; i < rows; i++) {
+            chunk.writeString(names[i]);
+            names[i] = null;
+        }
+        writeChunk();
+
+        chunk.reset();
+        for (int i = 0; i < rows; i++) {
+            chunk.writeVarLong(departments[i]);
+        }
+        writeChunk();
+
+        for (long[] cents : new long[][] {salaries, taxes, bonuses}) {
+            chunk.reset();
+            for (int i = 0; i < rows; i++) {
+                chunk.writeZigzag(cents[i]);
+            }
+            writeChunk();
+        }
+
+        rows = 0;
+        dictionary.clear();
+        dictionaryOrder.clear();
+    }
+
+    private void writeChunk() throws IOException {
+        deflater.reset();
+        deflater.setInput(chunk.bytes(), 0, chunk.size());
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            }
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        writeVarLong(out, chunk.size());
+        writeVarLong(out, length);
+        out.write(deflated, 0, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        out.close();
+    }
+
+    // Reads a file written by this sink into another sink, e.g. to turn
+    // it into CSV. The target is not closed.
+    static void replay(InputStream in, ReportSink target) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a columnar payroll report");
+        }
+        int version = data.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported columnar report version " + version);
+        }
+        target.begin((int) readVarLong(data), (int) readVarLong(data));
+        Inflater inflater = new Inflater();
+        try {
+            while (true) {
+                int record = data.read();
+                if (record == 'G') {
+                    replayGroup(data, inflater, target);
+                } else if (record == 'D') {
+                    long count = readVarLong(data);
+                    for (long i = 0; i < count; i++) {
+                        String name = data.readUTF();
+                        target.department(name, readTotals(data));
+                    }
+                } else if (record == 'T') {
+                    target.company(readTotals(data));
+                    return;
+                } else {
+                    throw new IOException(record < 0 ? "Columnar report ends before its totals"
+                                                     : "Damaged columnar report");
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void replayGroup(DataInputStream data, Inflater inflater, ReportSink target) throws IOException {
+        int rows = (int) readVarLong(data);
+        if (rows < 0 || rows > ROW_GROUP) {
+            throw new IOException("Damaged columnar report");
+        }
+        ByteArrayInputStream dictionaryChunk = readChunk(data, inflater);
+        List<String> dictionary = new ArrayList<>();
+        while (dictionaryChunk.available() > 0) {
+            dictionary.add(readString(dictionaryChunk));
+        }
+        ByteArrayInputStream idChunk = readChunk(data, inflater);
+        ByteArrayInputStream nameChunk = readChunk(data, inflater);
+        ByteArrayInputStream departmentChunk = readChunk(data, inflater);
+        ByteArrayInputStream salaryChunk = readChunk(data, inflater);
+        ByteArrayInputStream taxChunk = readChunk(data, inflater);
+        ByteArrayInputStream bonusChunk = readChunk(data, inflater);
+        long id = 0;
+        for (int i = 0; i < rows; i++) {
+            id += readZigzag(idChunk);
+            int department = (int) readVarLong(departmentChunk);
+            if (department >= dictionary.size()) {
+                throw new IOException("Damaged columnar report");
+            }
+            target.employee((int) id, readString(nameChunk), dictionary.get(department),
+                            amount(readZigzag(salaryChunk)), amount(readZigzag(taxChunk)),
+                            amount(readZigzag(bonusChunk)));
+        }
+    }
+
+    private static double amount(long cents) {
+        return cents == PayrollKernel.NO_AMOUNT ? Double.NaN : cents / 100.0;
+    }
+
+    private static PayrollCache.Totals readTotals(DataInputStream data) throws IOException {
+        PayrollCache.Totals totals = new PayrollCache.Totals();
+        int headcount = (int) readVarLong(data);
+        totals.add(data.readDouble(), data.readDouble(), data.readDouble(), headcount);
+        return totals;
+    }
+
+    private static ByteArrayInputStream readChunk(DataInputStream data, Inflater inflater) throws IOException {
+        int rawLength = (int) readVarLong(data);
+        int length = (int) readVarLong(data);
+        if (rawLength < 0 || length < 0 || length > 64 << 20 || rawLength > 64 << 20) {
+            throw new IOException("Damaged columnar report");
+        }
+        byte[] compressed = new byte[length];
+        data.readFully(compressed);
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int read = 0;
+            while (read < rawLength) {
+                int n = inflater.inflate(raw, read, rawLength - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Damaged columnar report");
+                }
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged columnar report", e);
+        }
+        return new ByteArrayInputStream(raw);
+    }
+
+    // Chunk contents before deflating
+    private static class Chunk {
+        private byte[] bytes = new byte[1 << 16];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeVarLong(long value) {
+            if (size + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeZigzag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        // Null is written as empty
+        void writeString(String value) {
+            byte[] utf8 = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            if (size + utf8.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + utf8.length));
+            }
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Columnar report ends in the middle of a value");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Damaged columnar report");
+    }
+
+    private static long readZigzag(InputStream in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        int length = (int) readVarLong(in);
+        byte[] utf8 = new byte[length];
+        if (in.read(utf8, 0, length) != length && length > 0) {
+            throw new IOException("Damaged columnar report");
+        }
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
+
+// Output stream that writes on a background thread, so a report can be
+// computed while the disk catches up. Bytes collect in one buffer while
+// the other is being written. A full buffer is handed to the writer
+// thread straight away; only if the writer still has the previous one
+// does the caller wait (counted in getStallNanos). Memory is two buffers
+// whatever the size of the output. An error on the writer thread is
+// thrown from the next write, flush or close.
+class DoubleBufferedOutput extends OutputStream {
+    static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final OutputStream target;
+    private final ExecutorService writer;
+    private byte[] filling;
+    private byte[] spare; // written by the writer thread while pending
+    private int count;
+    private Future<?> pending;
+    private long stallNanos;
+
+    DoubleBufferedOutput(OutputStream target, int bufferSize) {
+        this.target = target;
+        this.filling = new byte[bufferSize];
+        this.spare = new byte[bufferSize];
+        this.writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "report-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Time callers spent waiting for the disk so far
+    public long getStallNanos() {
+        return stallNanos;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == filling.length) {
+            handOff();
+        }
+        filling[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == filling.length) {
+                handOff();
+            }
+            int n = Math.min(len, filling.length - count);
+            System.arraycopy(b, off, filling, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Waits for everything written so far to reach the target
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            handOff();
+        }
+        awaitPending();
+        target.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            writer.shutdown();
+            target.close();
+        }
+    }
+
+    private void handOff() throws IOException {
+        awaitPending();
+        byte[] full = filling;
+        int length = count;
+        pending = writer.submit(() -> {
+            target.write(full, 0, length);
+            return null;
+        });
+        filling = spare;
+        spare = full;
+        count = 0;
+    }
+
+    private void awaitPending() throws IOException {
+        if (pending == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the report");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            pending = null;
+            stallNanos += System.nanoTime() - start;
+        }
+    }
+}
+
+// Exports a synthetic workforce's report as CSV written directly, CSV
+// through DoubleBufferedOutput, and columnar through it, and prints for
+// each the time until the last row was handed over, the total time to
+// close, the time spent waiting on the disk and the file size. Also checks
+// that the columnar file replays to the same CSV byte for byte.
+// Run with: java -Xmx2g ReportExportBenchmark [employees] [directory]
+class ReportExportBenchmark {
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path directory = Paths.get(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"));
+        List<Employee> employees = Arrays.asList(PayrollKernelBenchmark.workforce(count));
+        PayrollRun run = new PayrollEngine().run(employees);
+        Map<String, PayrollCache.Totals> departments = new TreeMap<>();
+        PayrollCache.Totals company = new PayrollCache.Totals();
+        for (int i = 0; i < run.size(); i++) {
+            departments.computeIfAbsent(run.getEmployee(i).getDepartment(), d -> new PayrollCache.Totals())
+                       .add(run.getSalary(i), run.getTax(i), run.getBonus(i), 1);
+            company.add(run.getSalary(i), run.getTax(i), run.getBonus(i), 1);
+        }
+
+        Path csv = directory.resolve("report-benchmark.csv");
+        Path asyncCsv = directory.resolve("report-benchmark-async.csv");
+        Path columnar = directory.resolve("report-benchmark.pcol");
+        System.out.println("Employees: " + count);
+        System.out.println("                 rows ms  close ms  stalled ms        bytes");
+        for (int round = 0; round < 3; round++) {
+            boolean last = round == 2;
+            OutputStream direct = new BufferedOutputStream(Files.newOutputStream(csv), 1 << 20);
+            time("csv direct", new CsvReportSink(direct), null, run, departments, company, csv, last);
+            DoubleBufferedOutput out = new DoubleBufferedOutput(Files.newOutputStream(asyncCsv),
+                                                                DoubleBufferedOutput.DEFAULT_BUFFER_SIZE);
+            time("csv async", new CsvReportSink(out), out, run, departments, company, asyncCsv, last);
+            out = new DoubleBufferedOutput(Files.newOutputStream(columnar), DoubleBufferedOutput.DEFAULT_BUFFER_SIZE);
+            time("columnar async", new ColumnarReportSink(out), out, run, departments, company, columnar, last);
+        }
+
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(columnar));
+             CsvReportSink sink = new CsvReportSink(replayed)) {
+            ColumnarReportSink.replay(in, sink);
+        }
+        boolean same = Arrays.equals(replayed.toByteArray(), Files.readAllBytes(csv)) &&
+                       Arrays.equals(Files.readAllBytes(asyncCsv), Files.readAllBytes(csv));
+        System.out.println(same ? "Columnar replay and async CSV match the direct CSV."
+                                : "MISMATCH between the CSV files and the columnar replay");
+        Files.delete(csv);
+        Files.delete(asyncCsv);
+        Files.delete(columnar);
+    }
+
+    private static void time(String label, ReportSink sink, DoubleBufferedOutput out, PayrollRun run,
+                             Map<String, PayrollCache.Totals> departments, PayrollCache.Totals company,
+                             Path file, boolean print) throws IOException {
+        long start = System.nanoTime();
+        sink.begin(1, 2025);
+        for (int i = 0; i < run.size(); i++) {
+            Employee emp = run.getEmployee(i);
+            sink.employee(emp.getId(), emp.getName(), emp.getDepartment(),
+                          run.getSalary(i), run.getTax(i), run.getBonus(i));
+        }
+        for (Map.Entry<String, PayrollCache.Totals> dept : departments.entrySet()) {
+            sink.department(dept.getKey(), dept.getValue());
+        }
+        sink.company(company);
+        long rows = System.nanoTime();
+        sink.close();
+        long end = System.nanoTime();
+        if (print) {
+            System.out.printf("%-15s %8.1f  %8.1f  %10.1f  %11d%n", label, (rows - start) / 1e6, (end - start) / 1e6,
+                    out == null ? Double.NaN : out.getStallNanos() / 1e6, Files.size(file));
+        }
+    }
+}
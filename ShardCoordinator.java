@@ -0,0 +1,567 @@
+import java.io.*;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Spreads the workforce over several shards, each a separate process with
+// its own PayrollSystem and store behind a PayrollServer, and routes calls
+// to the shard that owns the employee (see ShardMap). Payroll runs are
+// scattered to every shard at once and their totals merged, so month-end
+// time is that of the slowest shard rather than of the whole headcount.
+//
+// Managers may have team members on other shards. The manager's shard
+// keeps those members by id (Manager.addRemoteTeamMember), so the $50 per
+// member is part of the manager's pay wherever they live; org totals are
+// put together here by following remote members from shard to shard.
+// Moving someone between teams touches up to three shards and is not
+// atomic: if it fails halfway, the employee may be left without a manager,
+// and repeating the call puts things right.
+//
+// launchLocal starts every shard as a child process on loopback; the
+// coordinator can also be pointed at shards that are already running.
+class ShardCoordinator implements Closeable {
+    static final String SHARD_DIRECTORY = "shard-";
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+    private static final long POLL_MILLIS = 20;
+
+    // Merged outcome of a scattered payroll run
+    static class PayrollRun {
+        final PayrollCache.Totals company;
+        final Map<String, PayrollCache.Totals> departments;
+        final PayrollCache.Totals[] shardTotals;
+        final long[] shardNanos; // time until each shard's job completed
+        final int payslips;
+        final long elapsedNanos;
+
+        PayrollRun(PayrollCache.Totals company, Map<String, PayrollCache.Totals> departments,
+                   PayrollCache.Totals[] shardTotals, long[] shardNanos, int payslips, long elapsedNanos) {
+            this.company = company;
+            this.departments = departments;
+            this.shardTotals = shardTotals;
+            this.shardNanos = shardNanos;
+            this.payslips = payslips;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public PayrollCache.Totals getCompanyTotals() { return company; }
+        public Map<String, PayrollCache.Totals> getDepartmentTotals() { return departments; }
+        public PayrollCache.Totals getShardTotals(int shard) { return shardTotals[shard]; }
+        public long getShardNanos(int shard) { return shardNanos[shard]; }
+        public int getPayslips() { return payslips; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(payslips).append(" payslips on ").append(shardNanos.length).append(" shards in ")
+                .append(String.format("%.1f", elapsedNanos / 1e6)).append(" ms (shards:");
+            for (long nanos : shardNanos) {
+                text.append(' ').append(String.format("%.1f", nanos / 1e6));
+            }
+            return text.append(" ms)\nTOTAL (").append(company.getHeadcount()).append("): Salary=$")
+                .append(String.format("%.2f", company.getSalary()))
+                .append(", Tax=$").append(String.format("%.2f", company.getTax()))
+                .append(", Bonus=$").append(String.format("%.2f", company.getBonus()))
+                .append("\nNet Payout: $").append(String.format("%.2f", company.getNetPayout()))
+                .toString();
+        }
+    }
+
+    private final ShardMap map;
+    private final URI[] endpoints;
+    private final Process[] processes; // null entries for shards not started here
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    // Shards already running at the given base URIs, e.g. http://127.0.0.1:9001
+    public ShardCoordinator(ShardMap map, List<URI> endpoints) {
+        this(map, endpoints.toArray(new URI[0]), new Process[endpoints.size()]);
+    }
+
+    private ShardCoordinator(ShardMap map, URI[] endpoints, Process[] processes) {
+        if (endpoints.length != map.getShardCount()) {
+            throw new IllegalArgumentException(map + " needs " + map.getShardCount() + " shards, not " + endpoints.length);
+        }
+        this.map = map;
+        this.endpoints = endpoints;
+        this.processes = processes;
+    }
+
+    // Starts one worker process per shard on consecutive loopback ports,
+    // each working in and storing into <baseDirectory>/shard-<n>, and
+    // waits until all of them answer. jvmOptions go to every worker, and
+    // so does the payroll.rulesFile setting if there is one.
+    static ShardCoordinator launchLocal(ShardMap map, Path baseDirectory, int basePort, String... jvmOptions)
+            throws IOException {
+        int count = map.getShardCount();
+        URI[] endpoints = new URI[count];
+        Process[] processes = new Process[count];
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        for (int i = 0; i < count; i++) {
+            Path directory = shardDirectory(baseDirectory, i).toAbsolutePath();
+            Files.createDirectories(directory);
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(Arrays.asList(jvmOptions));
+            String rules = System.getProperty("payroll.rulesFile");
+            if (rules != null) {
+                // Every shard pays by the same rules
+                command.add("-Dpayroll.rulesFile=" + Paths.get(rules).toAbsolutePath());
+            }
+            command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                    "EnhancedEmployeePayrollSystem", "--worker", String.valueOf(basePort + i), directory.toString()));
+            processes[i] = new ProcessBuilder(command)
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(directory.resolve("worker.log").toFile()))
+                    .start();
+            endpoints[i] = URI.create("http://127.0.0.1:" + (basePort + i));
+        }
+        ShardCoordinator coordinator = new ShardCoordinator(map, endpoints, processes);
+        try {
+            coordinator.awaitShards();
+        } catch (IOException e) {
+            coordinator.close();
+            throw e;
+        }
+        return coordinator;
+    }
+
+    static Path shardDirectory(Path baseDirectory, int shard) {
+        return baseDirectory.resolve(SHARD_DIRECTORY + shard);
+    }
+
+    // Writes each shard's part of the workforce as its initial store, for
+    // loading a generated or migrated workforce before launchLocal.
+    // Managers given team members that belong to another shard keep them
+    // as remote members from then on.
+    static void writeStores(List<Employee> employees, ShardMap map, Path baseDirectory) throws IOException {
+        List<List<Employee>> parts = new ArrayList<>();
+        for (int i = 0; i < map.getShardCount(); i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Employee emp : employees) {
+            int shard = map.shardOf(emp.getId());
+            parts.get(shard).add(emp);
+            if (emp instanceof Manager) {
+                Manager manager = (Manager) emp;
+                for (Employee member : manager.getTeamMembers()) {
+                    if (map.shardOf(member.getId()) != shard) {
+                        manager.removeTeamMember(member.getId());
+                        manager.addRemoteTeamMember(member.getId());
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            Path directory = shardDirectory(baseDirectory, i);
+            Files.createDirectories(directory);
+            EmployeeStore.write(directory.resolve(PayrollSystem.DATA_FILE), parts.get(i), 0);
+        }
+    }
+
+    public ShardMap getShardMap() {
+        return map;
+    }
+
+    public int shardOf(int id) {
+        return map.shardOf(id);
+    }
+
+    // The employee's summary as its shard reports it, or null
+    public Map<String, String> findEmployee(int id) throws IOException {
+        HttpResponse<String> response = send(shardOf(id), "GET", "/employees/" + id, null);
+        return response.statusCode() == 404 ? null : parse(check(response)).get(0);
+    }
+
+    public boolean markAttendance(int id, LocalDate date, boolean present, int hours) throws IOException {
+        boolean[] applied = markAttendance(new int[] {id}, new AttendanceRecord[] {new AttendanceRecord(date, present, hours)}, 1);
+        return applied[0];
+    }
+
+    // Each shard gets its punches in one request, all shards at once;
+    // applied[i] is false when the shard rejected punch i
+    public boolean[] markAttendance(int[] ids, AttendanceRecord[] records, int count) throws IOException {
+        List<List<Integer>> byShard = partition(ids, count);
+        List<CompletableFuture<HttpResponse<String>>> replies = new ArrayList<>();
+        for (int shard = 0; shard < byShard.size(); shard++) {
+            StringBuilder body = new StringBuilder();
+            for (int i : byShard.get(shard)) {
+                AttendanceRecord record = records[i];
+                body.append("{\"id\":").append(ids[i])
+                    .append(",\"date\":\"").append(record.getDate())
+                    .append("\",\"present\":").append(record.isPresent())
+                    .append(",\"hours\":").append(record.getHoursWorked()).append("}\n");
+            }
+            replies.add(body.length() == 0 ? null : sendAsync(shard, "POST", "/attendance", body.toString()));
+        }
+        boolean[] applied = new boolean[count];
+        for (int shard = 0; shard < byShard.size(); shard++) {
+            if (replies.get(shard) == null) {
+                continue;
+            }
+            HttpResponse<String> response = join(replies.get(shard));
+            List<Integer> sent = byShard.get(shard);
+            for (int i : sent) {
+                applied[i] = true;
+            }
+            for (int line : rejectedLines(response)) {
+                applied[sent.get(line - 1)] = false;
+            }
+        }
+        return applied;
+    }
+
+    public boolean applyForLeave(int id, LocalDate start, LocalDate end, String reason) throws IOException {
+        String body = "{\"id\":" + id + ",\"start\":\"" + start + "\",\"end\":\"" + end +
+                      "\",\"reason\":" + PayrollServer.quote(reason) + "}";
+        HttpResponse<String> response = send(shardOf(id), "POST", "/leaves", body);
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        check(response);
+        return true;
+    }
+
+    // Adds employees given as JSON lines in the bulk importer's format,
+    // routing each line to its shard. Returns the number added; lines that
+    // cannot be routed or that a shard rejected are not counted.
+    public int addEmployees(List<String> jsonLines) throws IOException {
+        List<StringBuilder> bodies = new ArrayList<>();
+        for (int i = 0; i < map.getShardCount(); i++) {
+            bodies.add(new StringBuilder());
+        }
+        Map<String, String> values = new HashMap<>();
+        for (String line : jsonLines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            values.clear();
+            try {
+                new BulkImporter.FlatJsonParser(line).parseInto(values);
+                bodies.get(shardOf(Integer.parseInt(values.get("id")))).append(line).append('\n');
+            } catch (IllegalArgumentException e) {
+                // counted as not added, like any other rejected line
+            }
+        }
+        List<CompletableFuture<HttpResponse<String>>> replies = new ArrayList<>();
+        for (int shard = 0; shard < bodies.size(); shard++) {
+            replies.add(bodies.get(shard).length() == 0 ? null
+                    : sendAsync(shard, "POST", "/employees", bodies.get(shard).toString()));
+        }
+        int added = 0;
+        for (CompletableFuture<HttpResponse<String>> reply : replies) {
+            if (reply != null) {
+                HttpResponse<String> response = join(reply);
+                if (response.statusCode() >= 500) {
+                    check(response);
+                }
+                added += leadingInt(response.body(), "{\"added\":");
+            }
+        }
+        return added;
+    }
+
+    // Moves the employee to the manager's team, wherever either of them is
+    // kept, or out of any team for OrgChart.NONE. False if either is
+    // missing, managerId is not a Manager, or the move would make the
+    // employee report to themselves.
+    public boolean assignManager(int employeeId, int managerId) throws IOException {
+        int shard = shardOf(employeeId);
+        if (findEmployee(employeeId) == null) {
+            return false;
+        }
+        if (managerId != OrgChart.NONE) {
+            Map<String, String> manager = findEmployee(managerId);
+            if (manager == null || !"Manager".equals(manager.get("type")) || inOrgOf(employeeId, managerId)) {
+                return false;
+            }
+        }
+        boolean local = managerId != OrgChart.NONE && shardOf(managerId) == shard;
+
+        // Out of the current team first, which may be on any shard
+        List<CompletableFuture<HttpResponse<String>>> releases = new ArrayList<>();
+        for (int other = 0; other < map.getShardCount(); other++) {
+            if (other != shard) {
+                releases.add(sendAsync(other, "POST", "/org/remote", "{\"employee\":" + employeeId + ",\"member\":false}"));
+            }
+        }
+        for (CompletableFuture<HttpResponse<String>> release : releases) {
+            check(join(release));
+        }
+        if (!local) {
+            check(send(shard, "POST", "/org/assign", "{\"employee\":" + employeeId + ",\"manager\":0}"));
+        }
+
+        if (local) {
+            check(send(shard, "POST", "/org/assign", "{\"employee\":" + employeeId + ",\"manager\":" + managerId + "}"));
+        } else if (managerId != OrgChart.NONE) {
+            check(send(shardOf(managerId), "POST", "/org/remote",
+                    "{\"manager\":" + managerId + ",\"employee\":" + employeeId + ",\"member\":true}"));
+        }
+        return true;
+    }
+
+    // Totals of the employee and everyone below them on every shard, or
+    // null if there is no such employee
+    public PayrollCache.Totals getOrgTotals(int id) throws IOException {
+        PayrollCache.Totals totals = new PayrollCache.Totals();
+        return walkOrg(id, totals, null) ? totals : null;
+    }
+
+    // Scatters the month-end payroll job to every shard, waits for all of
+    // them, and merges their totals. A job that was interrupted carries on
+    // from its checkpoint on that shard.
+    public PayrollRun runPayroll(int month, int year) throws IOException {
+        long start = System.nanoTime();
+        String period = "?month=" + month + "&year=" + year;
+        List<CompletableFuture<HttpResponse<String>>> started = new ArrayList<>();
+        for (int shard = 0; shard < map.getShardCount(); shard++) {
+            started.add(sendAsync(shard, "POST", "/jobs/payroll" + period, ""));
+        }
+        for (CompletableFuture<HttpResponse<String>> reply : started) {
+            check(join(reply));
+        }
+
+        long[] shardNanos = new long[map.getShardCount()];
+        int payslips = 0;
+        int remaining = shardNanos.length;
+        while (remaining > 0) {
+            sleep(POLL_MILLIS);
+            for (int shard = 0; shard < shardNanos.length; shard++) {
+                if (shardNanos[shard] != 0) {
+                    continue;
+                }
+                Map<String, String> job = parse(check(send(shard, "GET", "/jobs" + period + "&format=lines", null))).get(0);
+                String state = job.get("state");
+                if (state.equals("COMPLETED")) {
+                    shardNanos[shard] = System.nanoTime() - start;
+                    payslips += Integer.parseInt(job.get("generated"));
+                    remaining--;
+                } else if (!state.equals("PENDING") && !state.equals("RUNNING")) {
+                    throw new IOException("Payroll job on shard " + shard + " " + state.toLowerCase() +
+                                          (job.get("error") != null ? ": " + job.get("error") : ""));
+                }
+            }
+        }
+
+        PayrollCache.Totals company = new PayrollCache.Totals();
+        Map<String, PayrollCache.Totals> departments = new TreeMap<>(Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+        PayrollCache.Totals[] shardTotals = new PayrollCache.Totals[shardNanos.length];
+        List<CompletableFuture<HttpResponse<String>>> reports = new ArrayList<>();
+        for (int shard = 0; shard < shardNanos.length; shard++) {
+            reports.add(sendAsync(shard, "GET", "/report?format=lines", null));
+        }
+        for (int shard = 0; shard < shardNanos.length; shard++) {
+            List<Map<String, String>> lines = parse(check(join(reports.get(shard))));
+            shardTotals[shard] = totalsOf(lines.get(0));
+            company.add(shardTotals[shard], 1);
+            for (Map<String, String> line : lines.subList(1, lines.size())) {
+                departments.computeIfAbsent(line.get("department"), d -> new PayrollCache.Totals()).add(totalsOf(line), 1);
+            }
+        }
+        return new PayrollRun(company, departments, shardTotals, shardNanos, payslips, System.nanoTime() - start);
+    }
+
+    // Stops the workers started here; each takes a snapshot on the way out
+    @Override
+    public void close() {
+        for (Process process : processes) {
+            if (process != null) {
+                process.destroy();
+            }
+        }
+        for (Process process : processes) {
+            if (process == null) {
+                continue;
+            }
+            try {
+                if (!process.waitFor(30, java.util.concurrent.TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    // Adds the org of root to totals and follows its remote members to
+    // their shards. roots collects every org root visited; false if root
+    // does not exist.
+    private boolean walkOrg(int root, PayrollCache.Totals totals, Set<Integer> roots) throws IOException {
+        Set<Integer> visited = roots != null ? roots : new HashSet<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(root);
+        visited.add(root);
+        boolean found = false;
+        while (!pending.isEmpty()) {
+            int next = pending.pop();
+            HttpResponse<String> response = send(shardOf(next), "GET", "/org/" + next + "?format=lines", null);
+            if (response.statusCode() == 404) {
+                continue; // a remote member that has since left
+            }
+            List<Map<String, String>> lines = parse(check(response));
+            if (totals != null) {
+                totals.add(totalsOf(lines.get(0)), 1);
+            }
+            found |= next == root;
+            for (Map<String, String> line : lines) {
+                String remote = line.get("remote");
+                if (remote != null && visited.add(Integer.parseInt(remote))) {
+                    pending.push(Integer.parseInt(remote));
+                }
+            }
+        }
+        return found;
+    }
+
+    // Whether candidate already works under employeeId, on any shard. The
+    // path down from employeeId reaches candidate's shard at some root
+    // (employeeId itself or a remote member) that is candidate or one of
+    // candidate's local managers.
+    private boolean inOrgOf(int employeeId, int candidate) throws IOException {
+        Set<Integer> roots = new HashSet<>();
+        walkOrg(employeeId, null, roots);
+        if (roots.contains(candidate)) {
+            return true;
+        }
+        HttpResponse<String> response = send(shardOf(candidate), "GET", "/org/" + candidate + "?format=lines", null);
+        for (Map<String, String> line : parse(check(response))) {
+            String above = line.get("chain");
+            if (above != null && roots.contains(Integer.parseInt(above))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<List<Integer>> partition(int[] ids, int count) {
+        List<List<Integer>> byShard = new ArrayList<>();
+        for (int i = 0; i < map.getShardCount(); i++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (int i = 0; i < count; i++) {
+            byShard.get(shardOf(ids[i])).add(i);
+        }
+        return byShard;
+    }
+
+    private void awaitShards() throws IOException {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        for (int shard = 0; shard < endpoints.length; shard++) {
+            while (true) {
+                try {
+                    check(send(shard, "GET", "/jobs", null));
+                    break;
+                } catch (ConnectException e) {
+                    if (processes[shard] != null && !processes[shard].isAlive()) {
+                        throw new IOException("Shard " + shard + " exited with status " + processes[shard].exitValue());
+                    }
+                    if (System.nanoTime() > deadline) {
+                        throw new IOException("Shard " + shard + " did not start within " + STARTUP_TIMEOUT.getSeconds() + " s");
+                    }
+                    sleep(100);
+                }
+            }
+        }
+    }
+
+    private HttpRequest request(int shard, String method, String path, String body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(endpoints[shard].resolve(path));
+        return (body == null ? builder.method(method, HttpRequest.BodyPublishers.noBody())
+                : builder.method(method, HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))).build();
+    }
+
+    private HttpResponse<String> send(int shard, String method, String path, String body) throws IOException {
+        try {
+            return client.send(request(shard, method, path, body), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for shard " + shard);
+        }
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendAsync(int shard, String method, String path, String body) {
+        return client.sendAsync(request(shard, method, path, body), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+
+    private static HttpResponse<String> join(CompletableFuture<HttpResponse<String>> reply) throws IOException {
+        try {
+            return reply.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    // The body of a successful reply; 207 (some lines rejected) counts
+    private static String check(HttpResponse<String> response) throws IOException {
+        if (response.statusCode() >= 300) {
+            throw new IOException(response.request().method() + " " + response.uri() + " failed with " +
+                                  response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+
+    // Line numbers listed in a batch reply's "rejected" array
+    private static List<Integer> rejectedLines(HttpResponse<String> response) throws IOException {
+        if (response.statusCode() >= 500) {
+            check(response);
+        }
+        List<Integer> lines = new ArrayList<>();
+        String body = response.body();
+        for (int at = body.indexOf("{\"line\":"); at >= 0; at = body.indexOf("{\"line\":", at + 1)) {
+            lines.add(leadingInt(body.substring(at), "{\"line\":"));
+        }
+        return lines;
+    }
+
+    // The number right after prefix at the start of text; batch replies
+    // carry arrays, which the flat parser does not read
+    private static int leadingInt(String text, String prefix) throws IOException {
+        if (!text.startsWith(prefix)) {
+            throw new IOException("Unexpected reply: " + text);
+        }
+        int to = prefix.length();
+        while (to < text.length() && Character.isDigit(text.charAt(to))) {
+            to++;
+        }
+        return Integer.parseInt(text.substring(prefix.length(), to));
+    }
+
+    private static List<Map<String, String>> parse(String lines) {
+        List<Map<String, String>> objects = new ArrayList<>();
+        for (String line : lines.split("\n")) {
+            if (!line.isBlank()) {
+                Map<String, String> values = new HashMap<>();
+                new BulkImporter.FlatJsonParser(line).parseInto(values);
+                objects.add(values);
+            }
+        }
+        return objects;
+    }
+
+    private static PayrollCache.Totals totalsOf(Map<String, String> line) {
+        PayrollCache.Totals totals = new PayrollCache.Totals();
+        totals.add(Double.parseDouble(line.get("salary")), Double.parseDouble(line.get("tax")),
+                   Double.parseDouble(line.get("bonus")), Integer.parseInt(line.get("headcount")));
+        return totals;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for shards");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.Arrays;
+
+// Which shard owns an employee id. By hash, ids of any pattern spread
+// evenly; by range, neighbouring ids stay together and a shard can be
+// split by adding a boundary. Written as "hash:4" or "range:1000,5000"
+// (three shards: ids below 1000, below 5000, and the rest).
+class ShardMap {
+    private final int shards;
+    private final int[] upperBounds; // exclusive, one per shard but the last; null for hash
+
+    private ShardMap(int shards, int[] upperBounds) {
+        this.shards = shards;
+        this.upperBounds = upperBounds;
+    }
+
+    static ShardMap byHash(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        return new ShardMap(shards, null);
+    }
+
+    static ShardMap byRange(int... upperBounds) {
+        for (int i = 1; i < upperBounds.length; i++) {
+            if (upperBounds[i] <= upperBounds[i - 1]) {
+                throw new IllegalArgumentException("Range bounds must increase: " + Arrays.toString(upperBounds));
+            }
+        }
+        return new ShardMap(upperBounds.length + 1, upperBounds.clone());
+    }
+
+    static ShardMap parse(String spec) {
+        int colon = spec.indexOf(':');
+        String kind = colon < 0 ? spec : spec.substring(0, colon);
+        String value = colon < 0 ? "" : spec.substring(colon + 1);
+        try {
+            switch (kind) {
+                case "hash":
+                    return byHash(Integer.parseInt(value));
+                case "range":
+                    return byRange(value.isEmpty() ? new int[0]
+                            : Arrays.stream(value.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray());
+                default:
+                    throw new IllegalArgumentException("Unknown shard map: " + spec);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid shard map: " + spec);
+        }
+    }
+
+    public int getShardCount() {
+        return shards;
+    }
+
+    public int shardOf(int id) {
+        if (upperBounds == null) {
+            return Math.floorMod(mix(id), shards);
+        }
+        int shard = Arrays.binarySearch(upperBounds, id);
+        return shard >= 0 ? shard + 1 : -shard - 1;
+    }
+
+    // Sequential ids would otherwise go round-robin, which is fine, but
+    // ids allocated in strides (e.g. per department) would not spread
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        if (upperBounds == null) {
+            return "hash:" + shards;
+        }
+        StringBuilder spec = new StringBuilder("range:");
+        for (int i = 0; i < upperBounds.length; i++) {
+            if (i > 0) {
+                spec.append(',');
+            }
+            spec.append(upperBounds[i]);
+        }
+        return spec.toString();
+    }
+}
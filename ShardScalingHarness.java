@@ -0,0 +1,89 @@
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+
+// Month-end scaling across shards: for each shard count, splits the same
+// generated workforce into that many stores, starts the shards as local
+// processes with ShardCoordinator.launchLocal, and times a scattered
+// payroll run. Prints run time, speedup and efficiency against the first
+// count, and checks that the merged totals agree between counts.
+//
+// Each count runs the payroll twice, for different months, and reports
+// the second run so every shard is past JIT warm-up. Speedup needs at
+// least as many free cores as shards.
+//
+// Run with: java ShardScalingHarness [employees] [shard counts] [hash|range] [worker heap]
+// e.g.      java ShardScalingHarness 200000 1,2,4 hash 1g
+class ShardScalingHarness {
+    private static final int BASE_PORT = 19100;
+
+    public static void main(String[] args) throws Exception {
+        int employees = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int[] counts = args.length > 1 ? Arrays.stream(args[1].split(",")).mapToInt(Integer::parseInt).toArray()
+                                        : new int[] {1, 2, 4};
+        String kind = args.length > 2 ? args[2] : "hash";
+        String heap = args.length > 3 ? args[3] : "1g";
+        LocalDate today = LocalDate.now();
+
+        System.out.println(employees + " employees, " + Runtime.getRuntime().availableProcessors() +
+                           " cores, " + kind + " sharding");
+        System.out.println("shards   run ms  speedup  efficiency  slowest shard ms  net payout");
+        double firstMillis = 0;
+        double expectedNet = Double.NaN;
+        for (int count : counts) {
+            ShardMap map = kind.equals("range") ? evenRanges(employees, count) : ShardMap.byHash(count);
+            Path directory = Files.createTempDirectory("shards");
+            // Generated afresh each time: writeStores turns cross-shard team
+            // members into remote ones for this particular split
+            ShardCoordinator.writeStores(
+                    Arrays.asList(new WorkforceGenerator(42, today, 0).generate(employees)), map, directory);
+            ShardCoordinator.PayrollRun run;
+            try (ShardCoordinator coordinator = ShardCoordinator.launchLocal(map, directory, BASE_PORT, "-Xmx" + heap)) {
+                coordinator.runPayroll(1, today.getYear());
+                run = coordinator.runPayroll(2, today.getYear());
+            } finally {
+                delete(directory);
+            }
+            double millis = run.getElapsedNanos() / 1e6;
+            long slowest = 0;
+            for (int shard = 0; shard < count; shard++) {
+                slowest = Math.max(slowest, run.getShardNanos(shard));
+            }
+            if (firstMillis == 0) {
+                firstMillis = millis;
+            }
+            double speedup = firstMillis / millis;
+            System.out.println(String.format("%6d %8.0f %8.2f %10.0f%% %17.0f  %.2f", count, millis, speedup,
+                    100 * speedup * counts[0] / count, slowest / 1e6, run.getCompanyTotals().getNetPayout()));
+
+            // Shards report cents, so only rounding may differ between counts
+            double net = run.getCompanyTotals().getNetPayout();
+            if (Double.isNaN(expectedNet)) {
+                expectedNet = net;
+            } else if (Math.abs(net - expectedNet) > 0.01 * count * 4) {
+                System.out.println("  MISMATCH: net payout " + net + ", expected " + expectedNet);
+            }
+            if (run.getPayslips() != employees || run.getCompanyTotals().getHeadcount() != employees) {
+                System.out.println("  MISMATCH: " + run.getPayslips() + " payslips, headcount " +
+                                   run.getCompanyTotals().getHeadcount() + ", expected " + employees);
+            }
+        }
+    }
+
+    private static void delete(Path directory) throws java.io.IOException {
+        try (java.util.stream.Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // Consecutive id blocks of equal size; generated ids run from 1 to n
+    private static ShardMap evenRanges(int employees, int count) {
+        int[] bounds = new int[count - 1];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = 1 + (int) ((long) employees * (i + 1) / count);
+        }
+        return ShardMap.byRange(bounds);
+    }
+}
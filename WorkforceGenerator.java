@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+
+// Deterministic synthetic workforce for sizing and load tests. The same
+// seed, size and history always produce the same employees, field for
+// field, however they are consumed.
+//
+// The company is an 8-ary tree: node 0 is the chief executive, node k
+// manages nodes 8k+1..8k+8, and every node with reports is a Manager.
+// Node k gets ID count - k, so reports always have lower IDs than their
+// manager and adding employees in ID order never refers forward. The
+// eight branches below the chief executive are the departments.
+//
+// Every employee gets weekday attendance from their hire date (at most
+// historyYears back) up to asOf, a few leaves per year, and a backlog of
+// unapproved leaves from the last six weeks. One year of history costs
+// roughly 1 KB of heap per employee.
+class WorkforceGenerator {
+    static final int SPAN_OF_CONTROL = 8;
+    private static final String[] DEPARTMENTS = {
+        "Engineering", "Sales", "Marketing", "Finance", "HR", "Operations", "Support", "IT"
+    };
+    private static final String[] FIRST_NAMES = {
+        "James", "Mary", "Robert", "Patricia", "John", "Jennifer", "Michael", "Linda",
+        "David", "Elizabeth", "William", "Barbara", "Richard", "Susan", "Joseph", "Jessica",
+        "Thomas", "Sarah", "Carlos", "Karen", "Wei", "Priya", "Ahmed", "Yuki",
+        "Olga", "Kwame", "Sofia", "Mateo", "Aisha", "Lars", "Ana", "Ravi"
+    };
+    private static final String[] LAST_NAMES = {
+        "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis",
+        "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas",
+        "Taylor", "Moore", "Jackson", "Martin", "Lee", "Chen", "Patel", "Kim",
+        "Nguyen", "Ivanova", "Mensah", "Sato", "Khan", "Larsen", "Silva", "Sharma"
+    };
+    private static final String[] REASONS = {
+        "Vacation", "Family event", "Medical appointment", "Personal", "Travel", "Moving house"
+    };
+    private static final int BACKLOG_DAYS = 42;
+
+    private final long seed;
+    private final LocalDate asOf;
+    private final int historyYears;
+
+    WorkforceGenerator(long seed, LocalDate asOf, int historyYears) {
+        this.seed = seed;
+        this.asOf = asOf;
+        this.historyYears = historyYears;
+    }
+
+    LocalDate getAsOf() { return asOf; }
+
+    // Employees 1..count in ID order
+    Employee[] generate(int count) {
+        Employee[] employees = new Employee[count];
+        for (int id = 1; id <= count; id++) {
+            employees[id - 1] = generate(id, count, employees);
+        }
+        return employees;
+    }
+
+    // Reports of a manager must already be in generated[]
+    private Employee generate(int id, int count, Employee[] generated) {
+        int node = count - id;
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + id);
+        String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        String name = first + " " + last;
+        String email = first.toLowerCase() + "." + last.toLowerCase() + id + "@company.com";
+        String phone = String.format("555-%04d", random.nextInt(10000));
+        String address = (1 + random.nextInt(9999)) + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + " Street";
+        String account = String.format("ACC%010d", random.nextLong(10_000_000_000L));
+        String department = departmentOf(node);
+        int depth = depthOf(node);
+
+        Employee emp;
+        int firstReport = node * SPAN_OF_CONTROL + 1;
+        if (firstReport < count) {
+            String position = depth == 0 ? "Chief Executive" : depth == 1 ? "Director" : depth == 2 ? "Manager" : "Team Lead";
+            LocalDate hired = asOf.minusDays(365 + random.nextInt(365 * 20));
+            double salary = Math.round((16000 - 2000 * Math.min(depth, 4)) * (0.8 + 0.4 * random.nextDouble()));
+            Manager manager = new Manager(id, name, email, phone, hired, department, position, address, account,
+                    salary, 40 + random.nextInt(40), 500 + 250 * random.nextInt(10));
+            int lastReport = Math.min(firstReport + SPAN_OF_CONTROL, count);
+            for (int report = firstReport; report < lastReport; report++) {
+                manager.addTeamMember(generated[count - report - 1]);
+            }
+            emp = manager;
+        } else {
+            int kind = random.nextInt(100);
+            if (kind < 65) {
+                LocalDate hired = asOf.minusDays(30 + random.nextInt(365 * 15));
+                FullTimeEmployee fullTime = new FullTimeEmployee(id, name, email, phone, hired, department,
+                        random.nextBoolean() ? "Senior Associate" : "Associate", address, account,
+                        Math.round(3000 + 9000 * random.nextDouble()), 20 + random.nextInt(30));
+                fullTime.setOvertimeHours(random.nextInt(100) < 70 ? 0 : random.nextInt(21));
+                emp = fullTime;
+            } else if (kind < 85) {
+                LocalDate hired = asOf.minusDays(30 + random.nextInt(365 * 5));
+                PartTimeEmployee partTime = new PartTimeEmployee(id, name, email, phone, hired, department,
+                        "Assistant", address, account, 15 + random.nextInt(31));
+                partTime.setHoursWorked(40 + random.nextInt(81));
+                emp = partTime;
+            } else {
+                int months = 3 + random.nextInt(22);
+                LocalDate hired = asOf.minusDays(random.nextInt(months * 30));
+                emp = new Contractor(id, name, email, phone, hired, department, "Consultant", address, account,
+                        Math.round(20000 + 100000 * random.nextDouble()), months);
+            }
+        }
+        addHistory(emp, random);
+        return emp;
+    }
+
+    private void addHistory(Employee emp, SplittableRandom random) {
+        LocalDate from = emp.getHireDate();
+        LocalDate earliest = asOf.minusYears(historyYears).plusDays(1);
+        if (from.isBefore(earliest)) {
+            from = earliest;
+        }
+
+        // Leaves first, so attendance can leave their days unmarked
+        List<LocalDate[]> leaves = new ArrayList<>();
+        LocalDate backlogStart = asOf.minusDays(BACKLOG_DAYS);
+        for (LocalDate year = from; !year.isAfter(asOf); year = year.plusYears(1)) {
+            int perYear = 2 + random.nextInt(4);
+            for (int i = 0; i < perYear; i++) {
+                LocalDate start = year.plusDays(random.nextInt(365));
+                if (start.isAfter(asOf)) {
+                    continue;
+                }
+                LocalDate end = start.plusDays(random.nextInt(5));
+                emp.applyLeave(start, end, REASONS[random.nextInt(REASONS.length)]);
+                boolean backlog = !start.isBefore(backlogStart) && random.nextInt(100) < 60;
+                if (!backlog && random.nextInt(100) < 90) {
+                    emp.approveLeave(emp.getNextLeaveNumber() - 1);
+                    leaves.add(new LocalDate[] {start, end});
+                }
+            }
+        }
+
+        int hours = emp instanceof PartTimeEmployee ? 4 : 8;
+        for (LocalDate day = from; !day.isAfter(asOf); day = day.plusDays(1)) {
+            DayOfWeek weekday = day.getDayOfWeek();
+            if (weekday == DayOfWeek.SATURDAY || weekday == DayOfWeek.SUNDAY || onLeave(leaves, day)) {
+                continue;
+            }
+            int roll = random.nextInt(100);
+            if (roll < 94) {
+                emp.markAttendance(day, true, hours + (random.nextInt(10) == 0 ? 1 + random.nextInt(2) : 0));
+            } else if (roll < 97) {
+                emp.markAttendance(day, false, 0);
+            }
+            // otherwise the punch never arrived
+        }
+    }
+
+    private static boolean onLeave(List<LocalDate[]> leaves, LocalDate day) {
+        for (LocalDate[] leave : leaves) {
+            if (!day.isBefore(leave[0]) && !day.isAfter(leave[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int depthOf(int node) {
+        int depth = 0;
+        while (node > 0) {
+            node = (node - 1) / SPAN_OF_CONTROL;
+            depth++;
+        }
+        return depth;
+    }
+
+    // Branch below the chief executive that the node belongs to
+    private static String departmentOf(int node) {
+        if (node == 0) {
+            return "Executive";
+        }
+        while (node > SPAN_OF_CONTROL) {
+            node = (node - 1) / SPAN_OF_CONTROL;
+        }
+        return DEPARTMENTS[node - 1];
+    }
+
+    // Writes a generated workforce straight into a snapshot that
+    // PayrollSystem(directory) loads, skipping the journal.
+    // Run with: java -Xmx4g WorkforceGenerator <employees> [history years] [seed] [directory]
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java WorkforceGenerator <employees> [history years] [seed] [directory]");
+            return;
+        }
+        int count = Integer.parseInt(args[0]);
+        int years = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        Path directory = Paths.get(args.length > 3 ? args[3] : "");
+        Path target = directory.resolve(PayrollSystem.DATA_FILE);
+        if (Files.exists(target)) {
+            System.out.println("Error: " + target.toAbsolutePath() + " already exists");
+            return;
+        }
+
+        long start = System.nanoTime();
+        Employee[] employees = new WorkforceGenerator(seed, LocalDate.of(2025, 6, 30), years).generate(count);
+        long generated = System.nanoTime();
+        try {
+            EmployeeStore.write(target, Arrays.asList(employees), 0);
+        } catch (IOException e) {
+            System.out.println("Error writing employee data: " + e.getMessage());
+            return;
+        }
+        long written = System.nanoTime();
+        System.out.printf("Generated %,d employees with %d years of history in %.1f s, wrote %s (%,d bytes) in %.1f s%n",
+                count, years, (generated - start) / 1e9, target, target.toFile().length(), (written - generated) / 1e9);
+    }
+}